@@ -0,0 +1,22 @@
+
+create or replace function configuration.get_partition_maintenance
+(
+)
+returns table
+(
+	is_enabled boolean,
+	months_ahead integer,
+	retention_months integer,
+	archive_directory varchar(1000)
+)
+as $$
+
+	select
+		p.is_enabled,
+		p.months_ahead,
+		p.retention_months,
+		p.archive_directory
+	from configuration.partition_maintenance p
+	where p.row_id = 'X';
+
+$$ language sql stable;
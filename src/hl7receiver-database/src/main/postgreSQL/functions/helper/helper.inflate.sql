@@ -0,0 +1,218 @@
+
+create or replace function helper.inflate
+(
+	_compressed bytea,
+	_dictionary bytea
+)
+returns bytea
+as $$
+declare
+	_length_bases integer[] = array[3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258];
+	_length_extra_bits integer[] = array[0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0];
+	_distance_bases integer[] = array[1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577];
+	_distance_extra_bits integer[] = array[0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13];
+	_code_length_order integer[] = array[16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15];
+
+	_output integer[] = '{}';
+	_output_length integer = 0;
+	_dictionary_length integer = 0;
+	_bit_position integer = 16;
+	_is_final_block boolean = false;
+	_block_type integer;
+	_adler_a integer = 1;
+	_adler_b integer = 0;
+
+	_literal_code_count integer;
+	_distance_code_count integer;
+	_code_length_code_count integer;
+	_code_lengths integer[];
+	_code_length_counts integer[];
+	_code_length_symbols integer[];
+	_literal_counts integer[];
+	_literal_symbols integer[];
+	_distance_counts integer[];
+	_distance_symbols integer[];
+
+	_decoded integer;
+	_symbol integer;
+	_repeat integer;
+	_repeat_length integer;
+	_length integer;
+	_distance integer;
+	_byte_position integer;
+	_i integer;
+begin
+
+	--------------------------------------------
+	-- zlib (RFC 1950) header, with the adler32 of the preset dictionary if one was used
+	--
+	if (length(_compressed) < 2 or (get_byte(_compressed, 0) & 15) != 8 or ((get_byte(_compressed, 0) * 256 + get_byte(_compressed, 1)) % 31) != 0)
+	then
+		raise exception 'Content is not zlib compressed';
+	end if;
+
+	if ((get_byte(_compressed, 1) & 32) != 0)
+	then
+		if (_dictionary is null)
+		then
+			raise exception 'Content was compressed with a dictionary but none was supplied';
+		end if;
+
+		_dictionary_length = length(_dictionary);
+
+		for _i in 0 .. _dictionary_length - 1
+		loop
+			_adler_a = (_adler_a + get_byte(_dictionary, _i)) % 65521;
+			_adler_b = (_adler_b + _adler_a) % 65521;
+		end loop;
+
+		if ((_adler_b::bigint << 16) + _adler_a != (get_byte(_compressed, 2)::bigint << 24) + (get_byte(_compressed, 3) << 16) + (get_byte(_compressed, 4) << 8) + get_byte(_compressed, 5))
+		then
+			raise exception 'Content was compressed with a different dictionary';
+		end if;
+
+		-- back references can reach into the dictionary, so it starts the output
+		_output = array(select get_byte(_dictionary, d.i) from generate_series(0, _dictionary_length - 1) d (i) order by d.i);
+		_output_length = _dictionary_length;
+		_bit_position = 48;
+	end if;
+
+	--------------------------------------------
+	-- deflate (RFC 1951) blocks
+	--
+	while (not _is_final_block)
+	loop
+		_is_final_block = (get_bit(_compressed, _bit_position) = 1);
+		_block_type = helper.inflate_bits(_compressed, _bit_position + 1, 2);
+		_bit_position = _bit_position + 3;
+
+		if (_block_type = 0)
+		then
+			-- stored, from the next byte boundary after its length and the length's complement
+			_byte_position = (_bit_position + 7) / 8;
+			_length = get_byte(_compressed, _byte_position) | (get_byte(_compressed, _byte_position + 1) << 8);
+
+			for _i in 0 .. _length - 1
+			loop
+				_output_length = _output_length + 1;
+				_output[_output_length] = get_byte(_compressed, _byte_position + 4 + _i);
+			end loop;
+
+			_bit_position = (_byte_position + 4 + _length) * 8;
+			continue;
+		end if;
+
+		if (_block_type = 1)
+		then
+			_literal_code_count = 288;
+			_distance_code_count = 30;
+			_code_lengths = array_fill(8, array[144]) || array_fill(9, array[112]) || array_fill(7, array[24]) || array_fill(8, array[8]) || array_fill(5, array[30]);
+
+		elsif (_block_type = 2)
+		then
+			-- the literal and distance code lengths are themselves huffman coded
+			_literal_code_count = helper.inflate_bits(_compressed, _bit_position, 5) + 257;
+			_distance_code_count = helper.inflate_bits(_compressed, _bit_position + 5, 5) + 1;
+			_code_length_code_count = helper.inflate_bits(_compressed, _bit_position + 10, 4) + 4;
+			_bit_position = _bit_position + 14;
+
+			_code_lengths = array_fill(0, array[19]);
+
+			for _i in 1 .. _code_length_code_count
+			loop
+				_code_lengths[_code_length_order[_i] + 1] = helper.inflate_bits(_compressed, _bit_position, 3);
+				_bit_position = _bit_position + 3;
+			end loop;
+
+			select t._counts, t._symbols into _code_length_counts, _code_length_symbols from helper.inflate_table(_code_lengths) t;
+
+			_code_lengths = '{}';
+
+			while (coalesce(cardinality(_code_lengths), 0) < _literal_code_count + _distance_code_count)
+			loop
+				_decoded = helper.inflate_symbol(_compressed, _bit_position, _code_length_counts, _code_length_symbols);
+				_symbol = _decoded >> 4;
+				_bit_position = _bit_position + (_decoded & 15);
+
+				if (_symbol < 16)
+				then
+					_code_lengths = _code_lengths || _symbol;
+					continue;
+				end if;
+
+				if (_symbol = 16)
+				then
+					_repeat_length = _code_lengths[cardinality(_code_lengths)];
+					_repeat = 3 + helper.inflate_bits(_compressed, _bit_position, 2);
+					_bit_position = _bit_position + 2;
+
+				elsif (_symbol = 17)
+				then
+					_repeat_length = 0;
+					_repeat = 3 + helper.inflate_bits(_compressed, _bit_position, 3);
+					_bit_position = _bit_position + 3;
+
+				else
+					_repeat_length = 0;
+					_repeat = 11 + helper.inflate_bits(_compressed, _bit_position, 7);
+					_bit_position = _bit_position + 7;
+				end if;
+
+				_code_lengths = _code_lengths || array_fill(_repeat_length, array[_repeat]);
+			end loop;
+
+		else
+			raise exception 'Compressed content is corrupt, invalid block type at bit %', _bit_position - 3;
+		end if;
+
+		select t._counts, t._symbols into _literal_counts, _literal_symbols from helper.inflate_table(_code_lengths[1:_literal_code_count]) t;
+		select t._counts, t._symbols into _distance_counts, _distance_symbols from helper.inflate_table(_code_lengths[_literal_code_count + 1:_literal_code_count + _distance_code_count]) t;
+
+		-- literals and length / distance back references up to the end of block symbol
+		loop
+			_decoded = helper.inflate_symbol(_compressed, _bit_position, _literal_counts, _literal_symbols);
+			_symbol = _decoded >> 4;
+			_bit_position = _bit_position + (_decoded & 15);
+
+			if (_symbol < 256)
+			then
+				_output_length = _output_length + 1;
+				_output[_output_length] = _symbol;
+				continue;
+			end if;
+
+			exit when (_symbol = 256);
+
+			_length = _length_bases[_symbol - 256] + helper.inflate_bits(_compressed, _bit_position, _length_extra_bits[_symbol - 256]);
+			_bit_position = _bit_position + _length_extra_bits[_symbol - 256];
+
+			_decoded = helper.inflate_symbol(_compressed, _bit_position, _distance_counts, _distance_symbols);
+			_symbol = _decoded >> 4;
+			_bit_position = _bit_position + (_decoded & 15);
+
+			_distance = _distance_bases[_symbol + 1] + helper.inflate_bits(_compressed, _bit_position, _distance_extra_bits[_symbol + 1]);
+			_bit_position = _bit_position + _distance_extra_bits[_symbol + 1];
+
+			if (_distance is null or _distance > _output_length)
+			then
+				raise exception 'Compressed content is corrupt, invalid distance at bit %', _bit_position;
+			end if;
+
+			-- byte by byte, as the copy can overlap what it writes
+			for _i in 1 .. _length
+			loop
+				_output_length = _output_length + 1;
+				_output[_output_length] = _output[_output_length - _distance];
+			end loop;
+		end loop;
+	end loop;
+
+	return coalesce(
+	(
+		select
+			decode(string_agg(lpad(to_hex(o.b), 2, '0'), '' order by o.n), 'hex')
+		from unnest(_output[_dictionary_length + 1:_output_length]) with ordinality o (b, n)
+	), '');
+
+end;
+$$ language plpgsql immutable;
@@ -0,0 +1,26 @@
+
+create or replace function helper.inflate_bits
+(
+	_compressed bytea,
+	_bit_position integer,
+	_bit_count integer
+)
+returns integer
+as $$
+declare
+	_value integer = 0;
+	_bit integer;
+begin
+
+	--------------------------------------------
+	-- deflate packs values from the least significant bit of each byte, which is also how get_bit numbers them
+	--
+	for _bit in 0 .. _bit_count - 1
+	loop
+		_value = _value | (get_bit(_compressed, _bit_position + _bit) << _bit);
+	end loop;
+
+	return _value;
+
+end;
+$$ language plpgsql immutable;
@@ -0,0 +1,39 @@
+
+create or replace function helper.inflate_symbol
+(
+	_compressed bytea,
+	_bit_position integer,
+	_counts integer[],
+	_symbols integer[]
+)
+returns integer
+as $$
+declare
+	_code integer = 0;
+	_first integer = 0;
+	_index integer = 0;
+	_code_length integer;
+begin
+
+	--------------------------------------------
+	-- decodes the huffman code at _bit_position a bit at a time, as in zlib's contrib/puff.
+	-- returns the symbol * 16 + the code length, so the caller knows how many bits were read
+	--
+	for _code_length in 1 .. 15
+	loop
+		_code = _code | get_bit(_compressed, _bit_position + _code_length - 1);
+
+		if (_code - _counts[_code_length] < _first)
+		then
+			return (_symbols[_index + _code - _first] << 4) | _code_length;
+		end if;
+
+		_index = _index + _counts[_code_length];
+		_first = (_first + _counts[_code_length]) << 1;
+		_code = _code << 1;
+	end loop;
+
+	raise exception 'Compressed content is corrupt, invalid huffman code at bit %', _bit_position;
+
+end;
+$$ language plpgsql immutable;
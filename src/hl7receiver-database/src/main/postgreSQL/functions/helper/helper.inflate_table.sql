@@ -0,0 +1,44 @@
+
+create or replace function helper.inflate_table
+(
+	_code_lengths integer[],
+	out _counts integer[],
+	out _symbols integer[]
+)
+as $$
+declare
+	_offsets integer[] = array_fill(0, array[16], array[0]);
+	_symbol integer;
+	_code_length integer;
+begin
+
+	--------------------------------------------
+	-- canonical huffman table from the code length of each symbol (_code_lengths[1] is symbol 0), as the number
+	-- of codes of each length and the symbols in code order, as in zlib's contrib/puff. both are zero based
+	--
+	_counts = array_fill(0, array[16], array[0]);
+	_symbols = array_fill(0, array[cardinality(_code_lengths)], array[0]);
+
+	for _symbol in 0 .. cardinality(_code_lengths) - 1
+	loop
+		_counts[_code_lengths[_symbol + 1]] = _counts[_code_lengths[_symbol + 1]] + 1;
+	end loop;
+
+	for _code_length in 1 .. 14
+	loop
+		_offsets[_code_length + 1] = _offsets[_code_length] + _counts[_code_length];
+	end loop;
+
+	for _symbol in 0 .. cardinality(_code_lengths) - 1
+	loop
+		_code_length = _code_lengths[_symbol + 1];
+
+		if (_code_length != 0)
+		then
+			_symbols[_offsets[_code_length]] = _symbol;
+			_offsets[_code_length] = _offsets[_code_length] + 1;
+		end if;
+	end loop;
+
+end;
+$$ language plpgsql immutable;
@@ -0,0 +1,33 @@
+
+create or replace function log.add_compression_dictionary
+(
+	_channel_id integer,
+	_dictionary bytea,
+	_sample_count integer
+)
+returns integer
+as $$
+declare
+	_compression_dictionary_id integer;
+begin
+
+	insert into log.compression_dictionary
+	(
+		channel_id,
+		dictionary,
+		sample_count,
+		created_date
+	)
+	values
+	(
+		_channel_id,
+		_dictionary,
+		_sample_count,
+		now()
+	)
+	returning compression_dictionary_id into _compression_dictionary_id;
+
+	return _compression_dictionary_id;
+				
+end;
+$$ language plpgsql;
@@ -4,7 +4,9 @@ create or replace function log.add_message_processing_content
 	_message_id integer,
 	_attempt_id integer,
 	_processing_content_type_id integer,
-	_content varchar
+	_content varchar,
+	_content_compressed bytea,
+	_compression_dictionary_id integer
 )
 returns void
 as $$
@@ -16,7 +18,9 @@ begin
 		processing_attempt_id,
 		content_saved_date,
 		processing_content_type_id,
-		content
+		content,
+		content_compressed,
+		compression_dictionary_id
 	)
 	values
 	(
@@ -24,7 +28,9 @@ begin
 		_attempt_id,
 		now(),
 		_processing_content_type_id,
-		_content
+		_content,
+		_content_compressed,
+		_compression_dictionary_id
 	);
 				
 end;
@@ -0,0 +1,53 @@
+
+create or replace function log.add_message_processing_contents
+(
+	_message_ids integer[],
+	_attempt_ids integer[],
+	_processing_content_type_ids integer[],
+	_contents text[],
+	_contents_compressed bytea,
+	_content_compressed_lengths integer[],
+	_compression_dictionary_ids integer[]
+)
+returns void
+as $$
+begin
+
+	--------------------------------------------
+	-- multi row insert of content saved by the receiver's write behind content writer, in the order it was produced.
+	-- the jdbc driver cannot bind bytea arrays, so compressed content is passed end to end in one bytea with the
+	-- length of each (null when the content is not compressed)
+	--
+	insert into log.message_processing_content
+	(
+		message_id,
+		processing_attempt_id,
+		content_saved_date,
+		processing_content_type_id,
+		content,
+		content_compressed,
+		compression_dictionary_id
+	)
+	select
+		c.message_id,
+		c.attempt_id,
+		now(),
+		c.processing_content_type_id,
+		c.content,
+		case
+			when c.content_compressed_length is not null
+			then substring(_contents_compressed from c.content_compressed_end - c.content_compressed_length + 1 for c.content_compressed_length)
+		end,
+		c.compression_dictionary_id
+	from
+	(
+		select
+			u.*,
+			cast(sum(u.content_compressed_length) over (order by u.content_order) as integer) as content_compressed_end
+		from unnest(_message_ids, _attempt_ids, _processing_content_type_ids, _contents, _content_compressed_lengths, _compression_dictionary_ids) 
+			with ordinality u (message_id, attempt_id, processing_content_type_id, content, content_compressed_length, compression_dictionary_id, content_order)
+	) c
+	order by c.content_order;
+
+end;
+$$ language plpgsql;
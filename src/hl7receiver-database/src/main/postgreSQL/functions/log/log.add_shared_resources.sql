@@ -0,0 +1,32 @@
+
+create or replace function log.add_shared_resources
+(
+	_resource_hashes char(64)[],
+	_resource_types varchar(100)[],
+	_contents text[]
+)
+returns void
+as $$
+begin
+
+	insert into log.shared_resource
+	(
+		resource_hash,
+		resource_type,
+		content,
+		first_saved_date,
+		last_referenced_date
+	)
+	select
+		r.resource_hash,
+		r.resource_type,
+		r.content,
+		now(),
+		now()
+	from unnest(_resource_hashes, _resource_types, _contents) r (resource_hash, resource_type, content)
+	on conflict on constraint log_sharedresource_resourcehash_pk
+	do update set
+		last_referenced_date = excluded.last_referenced_date;
+				
+end;
+$$ language plpgsql;
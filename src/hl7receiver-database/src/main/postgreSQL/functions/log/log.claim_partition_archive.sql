@@ -0,0 +1,30 @@
+
+create or replace function log.claim_partition_archive
+(
+	_partition_name varchar(100),
+	_instance_id integer
+)
+returns boolean
+as $$
+begin
+
+	--------------------------------------------
+	-- claims expire after a day so an archive abandoned by a stopped instance is picked up again
+	--
+	update log.partition_archive
+	set
+		archive_instance_id = _instance_id,
+		archive_started_date = now()
+	where partition_name = _partition_name
+	and archived_date is null
+	and
+	(
+		archive_instance_id is null
+		or archive_instance_id = _instance_id
+		or archive_started_date < now() - interval '1 day'
+	);
+
+	return found;
+
+end;
+$$ language plpgsql;
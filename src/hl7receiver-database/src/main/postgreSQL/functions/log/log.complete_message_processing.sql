@@ -0,0 +1,39 @@
+
+create or replace procedure log.complete_message_processing
+(
+	_message_id integer,
+	_log_date timestamp,
+	_attempt_id integer,
+	_message_status_id integer,
+	_error_message varchar,
+	_instance_id integer
+)
+as $$
+declare
+	_is_complete boolean;
+begin
+
+	select
+		s.is_complete into _is_complete
+	from log.message_status s
+	where s.message_status_id = _message_status_id;
+
+	if (_is_complete is null)
+	then
+		raise exception 'Unknown message_status_id %', _message_status_id;
+		return;
+	end if;
+
+	--------------------------------------------
+	-- set the final status
+	-- (the processing content is saved ahead of it by log.add_message_processing_contents)
+	--
+	if (_is_complete)
+	then
+		perform log.set_message_processing_success(_message_id, _log_date, _attempt_id, _instance_id);
+	else
+		perform log.set_message_processing_failure(_message_id, _log_date, _attempt_id, _message_status_id, _error_message, _instance_id);
+	end if;
+
+end;
+$$ language plpgsql;
@@ -0,0 +1,118 @@
+
+create or replace function log.detach_partitions
+(
+	_retention_months integer
+)
+returns table
+(
+	partition_name varchar(100),
+	parent_table_name varchar(100),
+	range_start timestamp,
+	range_end timestamp
+)
+as $$
+declare
+	_cutoff_date timestamp;
+	_partition record;
+begin
+
+	--------------------------------------------
+	-- one instance at a time
+	--
+	if not pg_try_advisory_xact_lock(hashtext('log.maintain_partitions'))
+	then
+		return;
+	end if;
+
+	_cutoff_date = date_trunc('month', now()) - (_retention_months * interval '1 month');
+
+	set local lock_timeout = '5s';
+
+	--------------------------------------------
+	-- detach partitions that end on or before the cutoff, including the history partitions once everything
+	-- in them is old enough. bounds come from the partition definition, the history partitions start at minvalue.
+	--
+	-- detach (without concurrently, which cannot run in a function) takes an ACCESS EXCLUSIVE lock on the parent
+	-- table, which blocks every read and write of log.message or log.message_processing_content until the
+	-- transaction ends. the detach itself only changes the catalog, but waiting for the lock would queue all other
+	-- access behind any long running query, so each detach gives up after lock_timeout and is retried on the next run
+	--
+	for _partition in
+		select
+			b.partition_name,
+			b.parent_table_name,
+			substring(b.bound from 'FROM \(''([^'']+)''\)')::timestamp as range_start,
+			substring(b.bound from 'TO \(''([^'']+)''\)')::timestamp as range_end
+		from
+		(
+			select
+				c.relname as partition_name,
+				p.relname as parent_table_name,
+				pg_get_expr(c.relpartbound, c.oid) as bound
+			from pg_inherits i
+			inner join pg_class c on i.inhrelid = c.oid
+			inner join pg_class p on i.inhparent = p.oid
+			inner join pg_namespace n on p.relnamespace = n.oid
+			where n.nspname = 'log'
+			and p.relname in ('message', 'message_processing_content')
+		) b
+	loop
+		if (_partition.range_end is null or _partition.range_end > _cutoff_date)
+		then
+			continue;
+		end if;
+
+		-- a message still queued must stay readable by the channel processor
+		if (_partition.parent_table_name = 'message' and exists
+		(
+			select 1
+			from log.message_queue q
+			where (_partition.range_start is null or q.log_date >= _partition.range_start)
+			and q.log_date < _partition.range_end
+		))
+		then
+			raise notice 'Not detaching partition % as it has messages still queued', _partition.partition_name;
+			continue;
+		end if;
+
+		begin
+			execute format('alter table log.%I detach partition log.%I', _partition.parent_table_name, _partition.partition_name);
+
+		exception when lock_not_available then
+			raise notice 'Not detaching partition % as log.% is in use, retrying on the next run', _partition.partition_name, _partition.parent_table_name;
+			continue;
+		end;
+
+		insert into log.partition_archive
+		(
+			partition_name,
+			parent_table_name,
+			range_start,
+			range_end,
+			detached_date
+		)
+		values
+		(
+			_partition.partition_name,
+			_partition.parent_table_name,
+			_partition.range_start,
+			_partition.range_end,
+			now()
+		);
+	end loop;
+
+	--------------------------------------------
+	-- return everything detached and not yet archived
+	--
+	return query
+	select
+		a.partition_name,
+		a.parent_table_name,
+		a.range_start,
+		a.range_end
+	from log.partition_archive a
+	where a.archived_date is null
+	order by a.range_end;
+
+end;
+$$ language plpgsql;
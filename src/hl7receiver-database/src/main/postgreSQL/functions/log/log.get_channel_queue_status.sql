@@ -0,0 +1,44 @@
+
+create or replace function log.get_channel_queue_status
+(
+	_channel_id integer
+)
+returns table
+(
+	queue_depth bigint,
+	oldest_message_date timestamp,
+	oldest_log_date timestamp,
+	lock_instance_id integer,
+	lock_hostname varchar,
+	lock_heartbeat_date timestamp
+)
+as $$
+begin
+
+	/*
+		one pass over the channel's range of log_messagequeue_channelid_messagedate_logdate_nextattemptdate_ix,
+		called periodically by the receiver to correct its own in memory counts
+	*/
+	return query
+	with queue as
+	(
+		select
+			count(*) as queue_depth,
+			min(mq.message_date) as oldest_message_date,
+			min(mq.log_date) as oldest_log_date
+		from log.message_queue mq
+		where mq.channel_id = _channel_id
+	)
+	select
+		q.queue_depth,
+		q.oldest_message_date,
+		q.oldest_log_date,
+		l.instance_id,
+		i.hostname,
+		l.heartbeat_date
+	from queue q
+	left outer join log.channel_processor_lock l on l.channel_id = _channel_id
+	left outer join log.instance i on l.instance_id = i.instance_id;
+
+end;
+$$ language plpgsql;
@@ -0,0 +1,24 @@
+
+create or replace function log.get_compression_dictionary
+(
+	_channel_id integer
+)
+returns table
+(
+	compression_dictionary_id integer,
+	dictionary bytea
+)
+as $$
+
+	--------------------------------------------
+	-- latest dictionary for the channel, earlier dictionaries are kept for reading older content
+	--
+	select
+		d.compression_dictionary_id,
+		d.dictionary
+	from log.compression_dictionary d
+	where d.channel_id = _channel_id
+	order by d.compression_dictionary_id desc
+	limit 1;
+
+$$ language sql stable;
@@ -0,0 +1,35 @@
+
+create or replace function log.get_message_processing_content
+(
+	_message_id integer
+)
+returns table
+(
+	message_processing_content_id integer,
+	message_id integer,
+	processing_attempt_id smallint,
+	content_saved_date timestamp,
+	processing_content_type_id smallint,
+	content text,
+	content_compressed bytea,
+	dictionary bytea
+)
+as $$
+
+	select
+		c.message_processing_content_id,
+		c.message_id,
+		c.processing_attempt_id,
+		c.content_saved_date,
+		c.processing_content_type_id,
+		c.content,
+		c.content_compressed,
+		d.dictionary
+	from log.message_processing_content c
+	left outer join log.compression_dictionary d on c.compression_dictionary_id = d.compression_dictionary_id
+	where c.message_id = _message_id
+	order by
+		c.processing_attempt_id,
+		c.message_processing_content_id;
+
+$$ language sql stable;
@@ -12,7 +12,8 @@ returns table
 	message_date timestamp,
 	inbound_message_type varchar,
 	inbound_payload varchar,
-	message_uuid uuid
+	message_uuid uuid,
+	log_date timestamp
 )
 as $$
 declare
@@ -37,13 +38,28 @@ begin
 	with candidates as
 	(
 		select
-			mq.message_id
+			mq.message_id,
+			mq.message_date,
+			mq.log_date,
+			mq.next_attempt_date
 		from log.message_queue mq
 		where mq.channel_id = _channel_id
 		order by
 			mq.message_date asc,
 			mq.log_date asc
 		limit _max_candidates
+	),
+	next_candidate as
+	(
+		select
+			c.message_id,
+			c.log_date
+		from candidates c
+		where (coalesce(c.next_attempt_date, now()) <= now())
+		order by
+			c.message_date asc,
+			c.log_date asc
+		limit 1
 	)
 	select
 		m.message_id,
@@ -52,14 +68,10 @@ begin
 		m.message_date,
 		m.inbound_message_type,
 		m.inbound_payload,
-		m.message_uuid
-	from candidates c
-	inner join log.message m on c.message_id = m.message_id
-	where (coalesce(m.next_attempt_date, now()) <= now())
-	order by 
-		m.message_date asc, 
-		m.log_date asc
-	limit 1;
+		m.message_uuid,
+		m.log_date
+	from next_candidate c
+	inner join log.message m on c.message_id = m.message_id and c.log_date = m.log_date;
 	
 end;
 $$ language plpgsql;
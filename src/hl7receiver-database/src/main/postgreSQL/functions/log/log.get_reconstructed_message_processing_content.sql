@@ -0,0 +1,37 @@
+
+create or replace function log.get_reconstructed_message_processing_content
+(
+	_message_processing_content_id integer
+)
+returns text
+as $$
+declare
+	_content text;
+	_content_compressed bytea;
+	_dictionary bytea;
+begin
+
+	select
+		c.content,
+		c.content_compressed,
+		d.dictionary
+	into
+		_content,
+		_content_compressed,
+		_dictionary
+	from log.message_processing_content c
+	left outer join log.compression_dictionary d on c.compression_dictionary_id = d.compression_dictionary_id
+	where c.message_processing_content_id = _message_processing_content_id;
+
+	--------------------------------------------
+	-- postgres has no inflate of its own, helper.inflate is slow but this is only for reading content by hand
+	--
+	if (_content_compressed is not null)
+	then
+		_content = convert_from(helper.inflate(_content_compressed, _dictionary), 'UTF8');
+	end if;
+
+	return log.reconstruct_processing_content(_content);
+
+end;
+$$ language plpgsql stable;
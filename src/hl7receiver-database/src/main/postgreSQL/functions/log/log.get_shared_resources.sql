@@ -0,0 +1,19 @@
+
+create or replace function log.get_shared_resources
+(
+	_resource_hashes char(64)[]
+)
+returns table
+(
+	resource_hash char(64),
+	content text
+)
+as $$
+
+	select
+		s.resource_hash,
+		s.content
+	from log.shared_resource s
+	where s.resource_hash = any(_resource_hashes);
+
+$$ language sql stable;
@@ -99,6 +99,23 @@ begin
 		_instance_id
 	);
 
+	insert into log.message_queue
+	(
+		message_id,
+		channel_id,
+		message_date,
+		log_date,
+		next_attempt_date
+	)
+	values
+	(
+		_message_id,
+		_channel_id,
+		_message_date,
+		_log_date,
+		null
+	);
+
 	INSERT INTO log.last_message (
 		message_id,
 		channel_id,
@@ -0,0 +1,68 @@
+
+create or replace function log.maintain_partitions
+(
+	_months_ahead integer
+)
+returns table
+(
+	partition_name varchar(100),
+	range_start timestamp,
+	range_end timestamp
+)
+as $$
+declare
+	_parent_table_name varchar(100);
+	_month_start timestamp;
+	_partition_name varchar(100);
+begin
+
+	--------------------------------------------
+	-- one instance at a time
+	--
+	if not pg_try_advisory_xact_lock(hashtext('log.maintain_partitions'))
+	then
+		return;
+	end if;
+
+	--------------------------------------------
+	-- create monthly partitions from the current month to _months_ahead months ahead
+	--
+	foreach _parent_table_name in array array['message', 'message_processing_content']
+	loop
+		for _month_start in
+			select generate_series(date_trunc('month', now()), date_trunc('month', now()) + (_months_ahead * interval '1 month'), interval '1 month')
+		loop
+			_partition_name = _parent_table_name || to_char(_month_start, '"_y"YYYY"m"MM');
+
+			if exists
+			(
+				select *
+				from pg_class c
+				inner join pg_namespace n on c.relnamespace = n.oid
+				where n.nspname = 'log'
+				and c.relname = _partition_name
+			)
+			then
+				continue;
+			end if;
+
+			begin
+				-- log.message rows are updated as they are processed, leave room for HOT updates
+				execute format('create table log.%I partition of log.%I for values from (%L) to (%L)%s',
+					_partition_name, _parent_table_name, _month_start, _month_start + interval '1 month',
+					case when _parent_table_name = 'message' then ' with (fillfactor = 90)' else '' end);
+
+			exception when invalid_object_definition then
+				-- range already covered by another partition (e.g. the history partition)
+				continue;
+			end;
+
+			partition_name = _partition_name;
+			range_start = _month_start;
+			range_end = _month_start + interval '1 month';
+			return next;
+		end loop;
+	end loop;
+
+end;
+$$ language plpgsql;
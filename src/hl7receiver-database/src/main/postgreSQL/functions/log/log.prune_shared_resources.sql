@@ -0,0 +1,41 @@
+
+create or replace function log.prune_shared_resources
+(
+	_retention_months integer
+)
+returns bigint
+as $$
+declare
+	_cutoff_date timestamp;
+	_rows_deleted bigint;
+begin
+
+	--------------------------------------------
+	-- content detached but not yet archived may still reference anything, archives hold reconstructed content
+	--
+	if exists
+	(
+		select *
+		from log.partition_archive a
+		where a.parent_table_name = 'message_processing_content'
+		and a.archived_date is null
+	)
+	then
+		return 0;
+	end if;
+
+	--------------------------------------------
+	-- content still attached was saved after the detach cutoff. a receiver only moves last_referenced_date on
+	-- when the resource drops out of its known hashes (after a day at most), so allow a week before the cutoff
+	--
+	_cutoff_date = date_trunc('month', now()) - (_retention_months * interval '1 month') - interval '7 days';
+
+	delete from log.shared_resource s
+	where s.last_referenced_date < _cutoff_date;
+
+	get diagnostics _rows_deleted = row_count;
+
+	return _rows_deleted;
+
+end;
+$$ language plpgsql;
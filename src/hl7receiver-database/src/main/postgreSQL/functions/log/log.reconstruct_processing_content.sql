@@ -0,0 +1,43 @@
+
+create or replace function log.reconstruct_processing_content
+(
+	_content text
+)
+returns text
+as $$
+declare
+	_resource_hash char(64);
+	_shared_content text;
+begin
+
+	if (_content is null)
+	then
+		return null;
+	end if;
+
+	--------------------------------------------
+	-- substitute each shared resource reference with the resource it was replaced from
+	--
+	for _resource_hash in
+		select distinct
+			m[1]
+		from regexp_matches(_content, '\{"\$sharedResource":"([0-9a-f]{64})"\}', 'g') m
+	loop
+		select
+			s.content into _shared_content
+		from log.shared_resource s
+		where s.resource_hash = _resource_hash;
+
+		if (_shared_content is null)
+		then
+			raise exception 'Could not find shared resource %', _resource_hash;
+			return null;
+		end if;
+
+		_content = replace(_content, '{"$sharedResource":"' || _resource_hash || '"}', _shared_content);
+	end loop;
+
+	return _content;
+
+end;
+$$ language plpgsql stable;
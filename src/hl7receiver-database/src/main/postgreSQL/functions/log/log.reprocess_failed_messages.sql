@@ -24,22 +24,24 @@ begin
 	end if;
 
 	return query
-	with updated_rows as
+	with updated_queue_rows as
 	(
-		update log.message 
-		set next_attempt_date = case when next_attempt_date > now() then now() else next_attempt_date end
-		where message_id in
-		(
-			select 
-				m.message_id 
-			from log.message m
-			inner join log.message_status s on m.message_status_id = s.message_status_id
-			where m.channel_id = _channel_id
-			and m.next_attempt_date is not null 
-			and (not s.is_complete)
-	
-		)
-		returning message_id
+		update log.message_queue mq
+		set next_attempt_date = case when mq.next_attempt_date > now() then now() else mq.next_attempt_date end
+		where mq.channel_id = _channel_id
+		and mq.next_attempt_date is not null
+		returning 
+			mq.message_id,
+			mq.log_date
+	),
+	updated_rows as
+	(
+		update log.message m
+		set next_attempt_date = case when m.next_attempt_date > now() then now() else m.next_attempt_date end
+		from updated_queue_rows q
+		where m.message_id = q.message_id
+		and m.log_date = q.log_date
+		returning m.message_id
 	)
 	select 
 		count(*) as message_count 
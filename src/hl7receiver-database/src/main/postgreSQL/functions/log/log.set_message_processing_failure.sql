@@ -2,6 +2,7 @@
 create or replace function log.set_message_processing_failure
 (
 	_message_id integer,
+	_log_date timestamp,
 	_attempt_id integer,
 	_message_status_id integer,
 	_error_message varchar,
@@ -20,6 +21,7 @@ begin
 		from log.message m
 		inner join log.message_status s on m.message_status_id = s.message_status_id
 		where m.message_id = _message_id
+		and m.log_date = _log_date
 		and m.processing_attempt_id = _attempt_id
 		and s.is_complete
 	)
@@ -37,7 +39,8 @@ begin
 		is_complete = false,
 		error_message = _error_message,
 		processing_attempt_id = _attempt_id
-	where message_id = _message_id;
+	where message_id = _message_id
+	and log_date = _log_date;
 		
 	insert into log.message_status_history
 	(
@@ -2,6 +2,7 @@
 create or replace function log.set_message_processing_started
 (
 	_message_id integer,
+	_log_date timestamp,
 	_instance_id integer
 )
 returns table
@@ -22,7 +23,8 @@ begin
 	select
 		(m.processing_attempt_id + 1) into _attempt_id
 	from log.message m
-	where m.message_id = _message_id;
+	where m.message_id = _message_id
+	and m.log_date = _log_date;
 
 	/*
 		calculate the next attempt date
@@ -50,7 +52,13 @@ begin
 		error_message = null,
 		processing_attempt_id = _attempt_id,
 		next_attempt_date = _next_attempt_date
-	where message_id = _message_id;
+	where message_id = _message_id
+	and log_date = _log_date;
+
+	update log.message_queue
+	set next_attempt_date = _next_attempt_date
+	where message_id = _message_id
+	and log_date = _log_date;
 		
 	insert into log.message_status_history
 	(
@@ -83,9 +91,11 @@ begin
 		where get_channel_option_by_message_id = 'TRUE'
 	)
 	then
+		-- content is always saved after the message is logged, which skips the older partitions
 		delete from log.message_processing_content mpc
 		where mpc.message_id = _message_id
-		and mpc.attempt_id < _attempt_id;	
+		and mpc.content_saved_date >= _log_date
+		and mpc.processing_attempt_id < _attempt_id;	
 	end if;	
 	
 	/*
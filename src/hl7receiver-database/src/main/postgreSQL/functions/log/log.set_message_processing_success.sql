@@ -2,6 +2,7 @@
 create or replace function log.set_message_processing_success
 (
 	_message_id integer,
+	_log_date timestamp,
 	_attempt_id integer,
 	_instance_id integer
 )
@@ -21,7 +22,12 @@ begin
 		error_message = null,
 		processing_attempt_id = _attempt_id,
 		next_attempt_date = null
-	where message_id = _message_id;
+	where message_id = _message_id
+	and log_date = _log_date;
+
+	delete from log.message_queue
+	where message_id = _message_id
+	and log_date = _log_date;
 	
 	insert into log.message_status_history
 	(
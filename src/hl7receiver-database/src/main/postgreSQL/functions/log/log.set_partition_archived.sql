@@ -0,0 +1,31 @@
+
+create or replace function log.set_partition_archived
+(
+	_partition_name varchar(100),
+	_instance_id integer,
+	_archive_file varchar(1000),
+	_archived_row_count bigint
+)
+returns void
+as $$
+begin
+
+	update log.partition_archive
+	set
+		archive_file = _archive_file,
+		archived_row_count = _archived_row_count,
+		archived_date = now()
+	where partition_name = _partition_name
+	and archive_instance_id = _instance_id
+	and archived_date is null;
+
+	if not found
+	then
+		raise exception 'Partition % is not claimed for archive by instance %', _partition_name, _instance_id;
+		return;
+	end if;
+
+	execute format('drop table log.%I', _partition_name);
+
+end;
+$$ language plpgsql;
@@ -0,0 +1,56 @@
+
+create or replace function mapping.get_code_mappings_for_preload
+(
+	_scope_name varchar(100)
+)
+returns table
+(
+	source_code_context_name varchar(100),
+	source_code varchar(100),
+	source_code_system_identifier varchar(500),
+	source_term varchar(500),
+	target_code_action_id char(1),
+	target_code varchar(100),
+	target_code_system_identifier varchar(500),
+	target_term varchar(500)
+)
+as $$
+
+	--------------------------------------------
+	-- scoped mappings, plus global mappings that are not overridden by the scope
+	-- (mirrors the lookup order in mapping.get_code_mapping)
+	--
+	-- plain sql and stable so the planner can inline it and a cursor can stream the rows
+	--
+	select
+		cc.code_context_name as source_code_context_name,
+		c.source_code,
+		case when sc.code_system_identifier = 'NO-CODE-SYSTEM' then cast('' as varchar(500)) else sc.code_system_identifier end as source_code_system_identifier,
+		c.source_term,
+		c.target_code_action_id,
+		c.target_code,
+		tc.code_system_identifier as target_code_system_identifier,
+		c.target_term
+	from mapping.code c
+	inner join mapping.scope s on c.scope_id = s.scope_id
+	inner join mapping.code_context cc on c.source_code_context_id = cc.code_context_id
+	inner join mapping.code_system sc on c.source_code_system_id = sc.code_system_id
+	left outer join mapping.code_system tc on c.target_code_system_id = tc.code_system_id
+	where s.scope_name = trim(coalesce(_scope_name, ''))
+	or
+	(
+		c.scope_id = 'G'
+		and not exists
+		(
+			select *
+			from mapping.code c2
+			inner join mapping.scope s2 on c2.scope_id = s2.scope_id
+			where s2.scope_name = trim(coalesce(_scope_name, ''))
+			and c2.source_code_context_id = c.source_code_context_id
+			and c2.source_code = c.source_code
+			and c2.source_code_system_id = c.source_code_system_id
+			and c2.source_term = c.source_term
+		)
+	);
+
+$$ language sql stable;
@@ -0,0 +1,16 @@
+
+create or replace function mapping.get_deterministic_resource_uuid
+(
+	_scope_name varchar(100),
+	_resource_type varchar(100),
+	_unique_identifier varchar(200)
+)
+returns uuid
+as $$
+
+	--------------------------------------------
+	-- namespace and name format must match ResourceUuidGenerator in the receiver
+	--
+	select uuid_generate_v5('8c4b6f0e-3a5d-4e2b-9f61-7d0c2a9e5b13'::uuid, trim(coalesce(_scope_name, '')) || '|' || _resource_type || '|' || _unique_identifier);
+
+$$ language sql immutable;
@@ -0,0 +1,44 @@
+
+create or replace function mapping.get_legacy_resource_uuid
+(
+	_scope_name varchar(100),
+	_resource_type varchar(100),
+	_unique_identifier varchar(200)
+)
+returns uuid
+as $$
+declare
+	_scope_id char(1);
+begin
+
+	--------------------------------------------
+	-- lookup scope
+	--
+	_scope_name = trim(coalesce(_scope_name, ''));
+	
+	select
+		scope_id into _scope_id
+	from mapping.scope 
+	where scope_name = _scope_name;
+	
+	if (_scope_id is null)
+	then
+		raise exception 'Could not find scope_name of %', _scope_name;
+		return null;
+	end if;
+
+	--------------------------------------------
+	-- null when the identifier has no legacy (random) uuid, i.e. the deterministic uuid applies
+	--
+	return
+	(
+		select 
+			l.resource_uuid
+		from mapping.resource_uuid_legacy l
+		where l.scope_id = _scope_id
+		and l.resource_type = _resource_type
+		and l.unique_identifier = _unique_identifier
+	);
+	
+end;
+$$ language plpgsql;
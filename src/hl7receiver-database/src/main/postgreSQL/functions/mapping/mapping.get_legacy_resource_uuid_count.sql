@@ -0,0 +1,19 @@
+
+create or replace function mapping.get_legacy_resource_uuid_count
+(
+	_scope_name varchar(100)
+)
+returns bigint
+as $$
+
+	/*
+		the number of legacy resource uuids copied for the scope, kept by mapping.migrate_legacy_resource_uuids
+		so the table does not need counting
+	*/
+	select
+		coalesce(sum(m.rows_copied), 0)::bigint
+	from mapping.resource_uuid_legacy_migration m
+	inner join mapping.scope s on m.scope_id = s.scope_id
+	where s.scope_name = trim(coalesce(_scope_name, ''));
+
+$$ language sql stable;
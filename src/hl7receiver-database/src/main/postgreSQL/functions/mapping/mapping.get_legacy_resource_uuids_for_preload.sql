@@ -0,0 +1,24 @@
+
+create or replace function mapping.get_legacy_resource_uuids_for_preload
+(
+	_scope_name varchar(100)
+)
+returns table
+(
+	scope_id char,
+	resource_type varchar(100),
+	unique_identifier varchar(200),
+	resource_uuid uuid
+)
+as $$
+
+	select
+		l.scope_id,
+		l.resource_type,
+		l.unique_identifier,
+		l.resource_uuid
+	from mapping.resource_uuid_legacy l
+	inner join mapping.scope s on l.scope_id = s.scope_id
+	where s.scope_name = trim(coalesce(_scope_name, ''));
+
+$$ language sql stable;
@@ -0,0 +1,35 @@
+
+create or replace function mapping.get_organisations_for_preload
+(
+)
+returns table
+(
+	ods_code varchar(10),
+	organisation_name varchar(100),
+	organisation_class char(1),
+	organisation_type char(2),
+	address_line1 varchar(100),
+	address_line2 varchar(100),
+	town varchar(100),
+	county varchar(100),
+	postcode varchar(10)
+)
+as $$
+
+	--------------------------------------------
+	-- only mapped organisations are returned, as in mapping.get_organisation
+	--
+	select
+		o.ods_code,
+		o.organisation_name,
+		o.organisation_class,
+		o.organisation_type,
+		o.address_line1,
+		o.address_line2,
+		o.town,
+		o.county,
+		o.postcode
+	from mapping.organisation o
+	where o.is_mapped;
+
+$$ language sql stable;
@@ -29,7 +29,8 @@ begin
 	end if;
 
 	--------------------------------------------
-	-- insert mapping if not exists
+	-- insert mapping if not exists, scopes registered with mapping.migrate_legacy_resource_uuids
+	-- get name based uuids, other scopes keep random uuids
 	--
 	insert into mapping.resource_uuid
 	(
@@ -43,7 +44,11 @@ begin
 		_scope_id,
 		_resource_type,
 		_unique_identifier,
-		uuid_generate_v4()
+		case
+			when exists (select * from mapping.resource_uuid_legacy_migration m where m.scope_id = _scope_id)
+			then mapping.get_deterministic_resource_uuid(_scope_name, _resource_type, _unique_identifier)
+			else uuid_generate_v4()
+		end
 	)
 	on conflict on constraint mapping_resourceuuid_scopeid_resourcetype_uniqueidentifier_pk
 	do nothing;
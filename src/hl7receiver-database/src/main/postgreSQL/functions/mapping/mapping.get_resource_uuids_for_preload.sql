@@ -0,0 +1,26 @@
+
+create or replace function mapping.get_resource_uuids_for_preload
+(
+	_scope_name varchar(100),
+	_resource_types varchar(100)[]
+)
+returns table
+(
+	scope_id char,
+	resource_type varchar(100),
+	unique_identifier varchar(200),
+	resource_uuid uuid
+)
+as $$
+
+	select
+		r.scope_id,
+		r.resource_type,
+		r.unique_identifier,
+		r.resource_uuid
+	from mapping.resource_uuid r
+	inner join mapping.scope s on r.scope_id = s.scope_id
+	where s.scope_name = trim(coalesce(_scope_name, ''))
+	and r.resource_type = any(_resource_types);
+
+$$ language sql stable;
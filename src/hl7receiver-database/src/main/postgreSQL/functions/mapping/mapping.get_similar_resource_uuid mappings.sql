@@ -35,6 +35,10 @@ begin
 	--------------------------------------------
 	-- get resource uuid mappings
 	--
+	-- the ~>=~ / ~<~ range is what lets ix_resource_uuid_scope_id_unique_identifier_pattern
+	-- be used with a parameterised prefix ('.' sorts immediately after '-'), the original
+	-- conditions are then rechecked against the rows in the range
+	--
 	return query
 	select 
 		r.scope_id,
@@ -43,6 +47,8 @@ begin
 		r.resource_uuid
 	from mapping.resource_uuid r
 	where r.scope_id = _scope_id
+	and r.unique_identifier ~>=~ _unique_identifier_prefix
+	and r.unique_identifier ~<~ (_unique_identifier_prefix || '.')
 	and
 	(
 		r.unique_identifier = _unique_identifier_prefix
@@ -0,0 +1,18 @@
+
+create or replace function mapping.is_legacy_resource_uuid_migration_complete
+(
+	_scope_name varchar(100)
+)
+returns boolean
+as $$
+
+	select exists
+	(
+		select *
+		from mapping.resource_uuid_legacy_migration m
+		inner join mapping.scope s on m.scope_id = s.scope_id
+		where s.scope_name = trim(coalesce(_scope_name, ''))
+		and m.completed_date is not null
+	);
+
+$$ language sql stable;
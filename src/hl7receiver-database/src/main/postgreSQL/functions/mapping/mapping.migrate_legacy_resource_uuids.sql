@@ -0,0 +1,177 @@
+
+create or replace function mapping.migrate_legacy_resource_uuids
+(
+	_scope_name varchar(100),
+	_batch_size integer
+)
+returns table
+(
+	batch_rows_scanned integer,
+	batch_rows_copied integer,
+	is_complete boolean
+)
+as $$
+declare
+	_scope_id char(1);
+	_last_resource_type varchar(100);
+	_last_unique_identifier varchar(200);
+	_batch_last_resource_type varchar(100);
+	_batch_last_unique_identifier varchar(200);
+	_rows_scanned integer;
+	_rows_copied integer;
+	_rows_registered integer;
+begin
+
+	/*
+		copies one batch of random (pre V2.15) resource uuids in the scope into mapping.resource_uuid_legacy,
+		resuming from the last key processed, call repeatedly until is_complete is true, e.g.
+
+		select * from mapping.migrate_legacy_resource_uuids('HOMERTON', 100000);
+
+		the first call only registers the scope, which opts it in to deterministic resource uuids:
+		from then on mapping.get_resource_uuid mints name based uuids in the scope, so every random
+		uuid is already in mapping.resource_uuid when the walk below starts
+	*/
+
+	--------------------------------------------
+	-- lookup scope
+	--
+	_scope_name = trim(coalesce(_scope_name, ''));
+	
+	select
+		s.scope_id into _scope_id
+	from mapping.scope s
+	where s.scope_name = _scope_name;
+	
+	if (_scope_id is null)
+	then
+		raise exception 'Could not find scope_name of %', _scope_name;
+		return;
+	end if;
+
+	--------------------------------------------
+	-- get checkpoint, registering the scope on the first call
+	--
+	insert into mapping.resource_uuid_legacy_migration
+	(
+		scope_id,
+		last_resource_type,
+		last_unique_identifier,
+		rows_scanned,
+		rows_copied,
+		started_date,
+		completed_date
+	)
+	values
+	(
+		_scope_id,
+		null,
+		null,
+		0,
+		0,
+		now(),
+		null
+	)
+	on conflict on constraint mapping_resourceuuidlegacymigration_scopeid_pk
+	do nothing;
+
+	get diagnostics _rows_registered = row_count;
+
+	if (_rows_registered > 0)
+	then
+		return query
+		select
+			0,
+			0,
+			false;
+
+		return;
+	end if;
+
+	select
+		m.last_resource_type,
+		m.last_unique_identifier
+	into
+		_last_resource_type,
+		_last_unique_identifier
+	from mapping.resource_uuid_legacy_migration m
+	where m.scope_id = _scope_id
+	for update;
+
+	--------------------------------------------
+	-- copy batch, walking the primary key
+	--
+	with batch as
+	(
+		select
+			r.resource_type,
+			r.unique_identifier,
+			r.resource_uuid
+		from mapping.resource_uuid r
+		where r.scope_id = _scope_id
+		and (_last_resource_type is null or (r.resource_type, r.unique_identifier) > (_last_resource_type, _last_unique_identifier))
+		order by r.resource_type, r.unique_identifier
+		limit _batch_size
+	),
+	copied as
+	(
+		insert into mapping.resource_uuid_legacy
+		(
+			scope_id,
+			resource_type,
+			unique_identifier,
+			resource_uuid
+		)
+		select
+			_scope_id,
+			b.resource_type,
+			b.unique_identifier,
+			b.resource_uuid
+		from batch b
+		where b.resource_uuid != mapping.get_deterministic_resource_uuid(_scope_name, b.resource_type, b.unique_identifier)
+		on conflict on constraint mapping_resourceuuidlegacy_scopeid_resourcetype_uniqueidentifier_pk
+		do nothing
+		returning 1
+	),
+	last_row as
+	(
+		select
+			b.resource_type,
+			b.unique_identifier
+		from batch b
+		order by b.resource_type desc, b.unique_identifier desc
+		limit 1
+	)
+	select
+		(select count(*) from batch),
+		(select count(*) from copied),
+		l.resource_type,
+		l.unique_identifier
+	into
+		_rows_scanned,
+		_rows_copied,
+		_batch_last_resource_type,
+		_batch_last_unique_identifier
+	from (select 1) t
+	left outer join last_row l on true;
+
+	--------------------------------------------
+	-- save checkpoint
+	--
+	update mapping.resource_uuid_legacy_migration
+	set
+		last_resource_type = coalesce(_batch_last_resource_type, last_resource_type),
+		last_unique_identifier = coalesce(_batch_last_unique_identifier, last_unique_identifier),
+		rows_scanned = mapping.resource_uuid_legacy_migration.rows_scanned + _rows_scanned,
+		rows_copied = mapping.resource_uuid_legacy_migration.rows_copied + _rows_copied,
+		completed_date = case when _rows_scanned < _batch_size then now() else null end
+	where scope_id = _scope_id;
+
+	return query
+	select
+		_rows_scanned,
+		_rows_copied,
+		(_rows_scanned < _batch_size);
+	
+end;
+$$ language plpgsql;
@@ -0,0 +1,51 @@
+
+create or replace function mapping.set_resource_uuids
+(
+	_scope_name varchar(100),
+	_resource_types varchar(100)[],
+	_unique_identifiers varchar(200)[],
+	_resource_uuids uuid[]
+)
+returns void
+as $$
+declare
+	_scope_id char(1);
+begin
+
+	--------------------------------------------
+	-- lookup scope
+	--
+	_scope_name = trim(coalesce(_scope_name, ''));
+	
+	select
+		scope_id into _scope_id
+	from mapping.scope 
+	where scope_name = _scope_name;
+	
+	if (_scope_id is null)
+	then
+		raise exception 'Could not find scope_name of %', _scope_name;
+		return;
+	end if;
+
+	--------------------------------------------
+	-- record mappings derived in the receiver, these are still needed by get_similar_resource_uuid_mappings
+	--
+	insert into mapping.resource_uuid
+	(
+		scope_id,
+		resource_type,
+		unique_identifier,
+		resource_uuid
+	)
+	select
+		_scope_id,
+		t.resource_type,
+		t.unique_identifier,
+		t.resource_uuid
+	from unnest(_resource_types, _unique_identifiers, _resource_uuids) as t (resource_type, unique_identifier, resource_uuid)
+	on conflict on constraint mapping_resourceuuid_scopeid_resourcetype_uniqueidentifier_pk
+	do nothing;
+	
+end;
+$$ language plpgsql;
@@ -0,0 +1,17 @@
+/*
+	Schema V2.14: Prefix searchable index for mapping.get_similar_resource_uuid_mappings
+
+	The existing (unique_identifier, scope_id) index uses the database collation, so it cannot serve
+	a LIKE 'prefix-%' search. The pattern_ops index below supports the ~>=~ / ~<~ range the function
+	now uses, and leads on scope_id because every search is within a single scope.
+
+	mapping.resource_uuid is written by every channel, so both indexes are built and dropped concurrently
+	rather than holding a lock that blocks writes for the length of the build. Concurrent index statements
+	cannot run inside a transaction block, so this patch must be applied one statement at a time with
+	autocommit on. If the build fails it leaves an INVALID index behind, the "if not exists" would then
+	skip it, so drop the invalid index and apply the patch again.
+*/
+
+create index concurrently if not exists ix_resource_uuid_scope_id_unique_identifier_pattern on mapping.resource_uuid (scope_id, unique_identifier text_pattern_ops);
+
+drop index concurrently if exists mapping.ix_resource_uuid_unique_identifier_scope_id;
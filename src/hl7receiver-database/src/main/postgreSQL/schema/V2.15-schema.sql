@@ -0,0 +1,47 @@
+/* 
+	Schema V2.15: Deterministic (name based, v5) resource UUIDs
+
+	A scope opts in by calling mapping.migrate_legacy_resource_uuids, from then on mapping.get_resource_uuid
+	mints name based UUIDs in that scope, so every new mapping can be derived in process by the receiver.
+	Scopes that have not opted in keep random (v4) UUIDs. Mappings minted before the scope opted in are
+	copied into mapping.resource_uuid_legacy by the migration, which the receiver reads through when the
+	DeterministicResourceUuids channel option is set.
+*/
+
+create table mapping.resource_uuid_legacy
+(
+	scope_id char(1) not null,
+	resource_type varchar(100) not null,
+	unique_identifier varchar(200) not null,
+	resource_uuid uuid not null,
+
+	constraint mapping_resourceuuidlegacy_scopeid_resourcetype_uniqueidentifier_pk primary key (scope_id, resource_type, unique_identifier),
+	constraint mapping_resourceuuidlegacy_scopeid_fk foreign key (scope_id) references mapping.scope (scope_id)
+);
+
+create table mapping.resource_uuid_legacy_migration
+(
+	scope_id char(1) not null,
+	last_resource_type varchar(100) null,
+	last_unique_identifier varchar(200) null,
+	rows_scanned bigint not null,
+	rows_copied bigint not null,
+	started_date timestamp not null,
+	completed_date timestamp null,
+
+	constraint mapping_resourceuuidlegacymigration_scopeid_pk primary key (scope_id),
+	constraint mapping_resourceuuidlegacymigration_scopeid_fk foreign key (scope_id) references mapping.scope (scope_id)
+);
+
+insert into configuration.channel_option_type
+(
+	channel_option_type,
+	default_value,
+	description
+)
+values
+(
+	'DeterministicResourceUuids', 
+	'FALSE', 
+	'Set to TRUE to derive resource UUIDs in process (requires mapping.migrate_legacy_resource_uuids to have completed for the channel scope and the global scope)'
+);
@@ -0,0 +1,156 @@
+/*
+	Schema V2.16: Range partition log.message (by log_date) and log.message_processing_content (by content_saved_date)
+
+	The existing tables become the first partition of each new partitioned table, covering everything up to the
+	start of next month. Monthly partitions after that are created by log.maintain_partitions(..), which the
+	receiver calls periodically. Old partitions, including the history partitions once everything in them is
+	older than the retention period, are detached and archived by the receiver.
+
+	Partitioned primary and unique keys must include the partition key:
+	- the primary key becomes (message_id, log_date), message_id still comes from a single sequence
+	- message_uuid is only unique with log_date. Global uniqueness would need every partition checked on insert,
+	  and message_uuid is always minted by uuid_generate_v4() in log.log_message, so nothing else writes it
+	- the foreign keys that reference log.message (message_id) are dropped. log.message_processing_content is
+	  partitioned on its own date and log.message_status_history has no log_date, so neither can reference the
+	  new key, and a foreign key from log.message_queue would stop a partition holding a long unprocessed
+	  message from being detached. Rows in those tables are only written by the log functions, which take
+	  message_id from log.message
+
+	The history tables are attached after a validated CHECK constraint that implies the partition bound, so
+	attaching does not scan them under an ACCESS EXCLUSIVE lock. The constraints are dropped once attached.
+*/
+
+------------------------------------------------------
+-- drop references to log.message
+--
+alter table log.message_status_history drop constraint log_messagestatushistory_messageid_fk;
+alter table log.message_queue drop constraint log_messagequeue_messageid_channelid_fk;
+alter table log.message_processing_content drop constraint log_messageprocessingcontent_messageid_fk;
+
+drop trigger if exists populate_message_queue_tr on log.message;
+
+------------------------------------------------------
+-- log.message
+--
+alter table log.message rename to message_history;
+
+create table log.message
+(
+	like log.message_history including defaults including constraints
+)
+partition by range (log_date);
+
+alter sequence log.message_message_id_seq owned by log.message.message_id;
+
+alter table log.message add constraint log_message_messageid_logdate_pk primary key (message_id, log_date);
+alter table log.message add constraint log_message_messageuuid_logdate_uq unique (message_uuid, log_date);
+alter table log.message add constraint log_message_channelid_connectionid_fk foreign key (channel_id, connection_id) references log.connection (channel_id, connection_id);
+alter table log.message add constraint log_message_inboundmessagetype_fk foreign key (channel_id, inbound_message_type) references configuration.channel_message_type (channel_id, message_type);
+alter table log.message add constraint log_message_outboundmessagetype_fk foreign key (channel_id, outbound_message_type) references configuration.channel_message_type (channel_id, message_type);
+alter table log.message add constraint log_messagestatus_messagestatusid_iscomplete_fk foreign key (message_status_id, is_complete) references log.message_status (message_status_id, is_complete);
+
+create index log_message_errormessage_p_ix on log.message (error_message) where error_message is not null;
+create index log_message_nextattemptdate_p_ix on log.message (next_attempt_date) where next_attempt_date is not null;
+create index log_message_pid1_p_ix on log.message (pid1);
+create index log_message_pid2_p_ix on log.message (pid2);
+create index log_message_messagecontrolid_p_ix on log.message (message_control_id);
+
+------------------------------------------------------
+-- log.message_processing_content
+--
+alter table log.message_processing_content rename to message_processing_content_history;
+
+create table log.message_processing_content
+(
+	like log.message_processing_content_history including defaults including constraints
+)
+partition by range (content_saved_date);
+
+alter sequence log.message_processing_content_message_processing_content_id_seq owned by log.message_processing_content.message_processing_content_id;
+
+alter table log.message_processing_content add constraint log_messageprocessingcontent_id_contentsaveddate_pk primary key (message_processing_content_id, content_saved_date);
+alter table log.message_processing_content add constraint log_messageprocessingcontent_processingcontenttypeid_p_fk foreign key (processing_content_type_id) references log.processing_content_type (processing_content_type_id);
+
+create index log_messageprocessingcontent_messageid_ix on log.message_processing_content (message_id);
+
+------------------------------------------------------
+-- attach history partitions
+--
+do $$
+declare
+	_upper_bound timestamp = date_trunc('month', now()) + interval '1 month';
+begin
+
+	-- validating takes a SHARE UPDATE EXCLUSIVE lock, which does not block reads or writes
+	execute format('alter table log.message_history add constraint log_messagehistory_logdate_ck check (log_date is not null and log_date < %L) not valid', _upper_bound);
+	execute format('alter table log.message_processing_content_history add constraint log_messageprocessingcontenthistory_contentsaveddate_ck check (content_saved_date is not null and content_saved_date < %L) not valid', _upper_bound);
+
+	alter table log.message_history validate constraint log_messagehistory_logdate_ck;
+	alter table log.message_processing_content_history validate constraint log_messageprocessingcontenthistory_contentsaveddate_ck;
+
+	execute format('alter table log.message attach partition log.message_history for values from (minvalue) to (%L)', _upper_bound);
+	execute format('alter table log.message_processing_content attach partition log.message_processing_content_history for values from (minvalue) to (%L)', _upper_bound);
+
+	alter table log.message_history drop constraint log_messagehistory_logdate_ck;
+	alter table log.message_processing_content_history drop constraint log_messageprocessingcontenthistory_contentsaveddate_ck;
+
+end;
+$$;
+
+------------------------------------------------------
+-- callers now pass log_date so log.message partitions are pruned
+--
+drop function if exists log.get_next_unprocessed_message(integer, integer);
+drop function if exists log.set_message_processing_started(integer, integer);
+drop function if exists log.set_message_processing_success(integer, integer, integer);
+drop function if exists log.set_message_processing_failure(integer, integer, integer, varchar, integer);
+
+------------------------------------------------------
+-- archive tracking
+--
+create table log.partition_archive
+(
+	partition_name varchar(100) not null,
+	parent_table_name varchar(100) not null,
+	range_start timestamp null,
+	range_end timestamp not null,
+	detached_date timestamp not null,
+	archive_instance_id integer null,
+	archive_started_date timestamp null,
+	archive_file varchar(1000) null,
+	archived_row_count bigint null,
+	archived_date timestamp null,
+
+	constraint log_partitionarchive_partitionname_pk primary key (partition_name)
+);
+
+create table configuration.partition_maintenance
+(
+	row_id char(1) not null,
+	is_enabled boolean not null,
+	months_ahead integer not null,
+	retention_months integer not null,
+	archive_directory varchar(1000) not null,
+
+	constraint configuration_partitionmaintenance_rowid_pk primary key (row_id),
+	constraint configuration_partitionmaintenance_rowid_ck check (row_id = 'X'),
+	constraint configuration_partitionmaintenance_monthsahead_ck check (months_ahead >= 1),
+	constraint configuration_partitionmaintenance_retentionmonths_ck check (retention_months >= 1)
+);
+
+insert into configuration.partition_maintenance
+(
+	row_id,
+	is_enabled,
+	months_ahead,
+	retention_months,
+	archive_directory
+)
+values
+(
+	'X',
+	true,
+	3,
+	24,
+	''
+);
@@ -0,0 +1,51 @@
+/* 
+	Schema V2.17: Compressed message processing content
+
+	When the CompressProcessingContent channel option is set the receiver stores processing content zlib
+	compressed in content_compressed instead of content, using a preset dictionary trained per channel from
+	the first messages it processes. Exactly one of content and content_compressed is set on each row.
+	Content saved before the channel's dictionary is trained is stored uncompressed. Postgres has no built in
+	inflate, so log.get_reconstructed_message_processing_content decompresses with helper.inflate, which is
+	written in plpgsql and slow; the receiver's admin endpoint (/content?messageId=n) reads content faster.
+	Partition archives hold the content decompressed.
+*/
+
+create table log.compression_dictionary
+(
+	compression_dictionary_id serial not null,
+	channel_id integer not null,
+	dictionary bytea not null,
+	sample_count integer not null,
+	created_date timestamp not null,
+
+	constraint log_compressiondictionary_compressiondictionaryid_pk primary key (compression_dictionary_id),
+	constraint log_compressiondictionary_channelid_fk foreign key (channel_id) references configuration.channel (channel_id)
+);
+
+create index log_compressiondictionary_channelid_ix on log.compression_dictionary (channel_id);
+
+alter table log.message_processing_content alter column content drop not null;
+alter table log.message_processing_content add column content_compressed bytea null;
+alter table log.message_processing_content add column compression_dictionary_id integer null;
+
+-- already compressed, stop postgres trying again when the value is toasted
+alter table log.message_processing_content alter column content_compressed set storage external;
+
+alter table log.message_processing_content add constraint log_messageprocessingcontent_compressiondictionaryid_fk foreign key (compression_dictionary_id) references log.compression_dictionary (compression_dictionary_id);
+alter table log.message_processing_content add constraint log_messageprocessingcontent_content_contentcompressed_ck check ((content is null) != (content_compressed is null));
+alter table log.message_processing_content add constraint log_messageprocessingcontent_contentcompressed_compressiondictionaryid_ck check (compression_dictionary_id is null or content_compressed is not null);
+
+drop function if exists log.add_message_processing_content(integer, integer, integer, varchar);
+
+insert into configuration.channel_option_type
+(
+	channel_option_type,
+	default_value,
+	description
+)
+values
+(
+	'CompressProcessingContent', 
+	'FALSE', 
+	'Set to TRUE to store log.message_processing_content compressed (readable through the receiver only)'
+);
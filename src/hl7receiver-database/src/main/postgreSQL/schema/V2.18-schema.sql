@@ -0,0 +1,39 @@
+/* 
+	Schema V2.18: Content addressed store for resources repeated across saved FHIR bundles
+
+	When the DeduplicateProcessingContentResources channel option is set, Organization, Location and Practitioner
+	resources in saved FHIR bundles are written once to log.shared_resource, keyed by the sha-256 of their json,
+	and replaced in the bundle by {"$sharedResource":"<hash>"}. log.reconstruct_processing_content(..) rebuilds
+	the original bundle.
+
+	last_referenced_date is moved on whenever a receiver that has not seen the resource for a while saves it
+	again, so resources only referenced by content that has been archived (archives hold reconstructed content)
+	are removed by log.prune_shared_resources(..) during partition maintenance.
+*/
+
+create table log.shared_resource
+(
+	resource_hash char(64) not null,
+	resource_type varchar(100) not null,
+	content text not null,
+	first_saved_date timestamp not null,
+	last_referenced_date timestamp not null,
+
+	constraint log_sharedresource_resourcehash_pk primary key (resource_hash),
+	constraint log_sharedresource_resourcehash_ck check (resource_hash ~ '^[0-9a-f]{64}$')
+);
+
+create index ix_shared_resource_last_referenced_date on log.shared_resource (last_referenced_date);
+
+insert into configuration.channel_option_type
+(
+	channel_option_type,
+	default_value,
+	description
+)
+values
+(
+	'DeduplicateProcessingContentResources', 
+	'FALSE', 
+	'Set to TRUE to store Organization, Location and Practitioner resources in saved FHIR bundles once in log.shared_resource'
+);
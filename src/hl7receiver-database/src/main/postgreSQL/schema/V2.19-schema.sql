@@ -0,0 +1,60 @@
+/* 
+	Schema V2.19: Explicitly maintained message queue
+
+	log.message_queue was maintained by the populate_message_queue row trigger on log.message, which looked up
+	the message status and upserted or deleted the queue row on every status change. The queue is now written
+	directly by log.log_message (enqueue), log.set_message_processing_started (next attempt date) and
+	log.set_message_processing_success (dequeue), and carries next_attempt_date so the next message can be found
+	from the queue index alone.
+*/
+
+drop trigger if exists populate_message_queue_tr on log.message;
+drop function if exists log.populate_message_queue();
+
+alter table log.message_queue add column next_attempt_date timestamp null;
+
+------------------------------------------------------
+-- resync the queue with log.message
+--
+delete from log.message_queue q
+using log.message m 
+where q.message_id = m.message_id
+and q.log_date = m.log_date
+and m.is_complete;
+
+insert into log.message_queue
+(
+	message_id,
+	channel_id,
+	message_date,
+	log_date
+)
+select
+	m.message_id,
+	m.channel_id,
+	m.message_date,
+	m.log_date
+from log.message m
+where not m.is_complete
+and not exists
+(
+	select *
+	from log.message_queue q
+	where q.message_id = m.message_id
+);
+
+update log.message_queue q
+set next_attempt_date = m.next_attempt_date
+from log.message m
+where q.message_id = m.message_id
+and q.log_date = m.log_date;
+
+------------------------------------------------------
+-- covering index for log.get_next_unprocessed_message
+--
+drop index log.log_messagequeue_messagedate_logdate_ix;
+
+create index log_messagequeue_channelid_messagedate_logdate_nextattemptdate_ix on log.message_queue (channel_id, message_date, log_date, next_attempt_date);
+
+-- small, high churn table
+alter table log.message_queue set (autovacuum_vacuum_scale_factor = 0.01, autovacuum_analyze_scale_factor = 0.01);
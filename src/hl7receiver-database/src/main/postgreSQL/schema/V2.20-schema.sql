@@ -0,0 +1,45 @@
+/* 
+	Schema V2.20: Index log.message for the queries the receiver makes
+
+	Every processing status update sets message_status_id, error_message and next_attempt_date, and as
+	error_message and next_attempt_date were indexed, each update was a non HOT update that added an entry to
+	every index on log.message (including pid1, pid2 and message_control_id). Since V2.19 the next message and
+	failed message reprocessing are found from log.message_queue, so
+
+	- the error_message and next_attempt_date indexes are dropped
+	- incomplete messages are indexed by a partial index, only changed when a message completes
+	- log_date and message_date get BRIN indexes for time range scans (rows are inserted in log_date order)
+	- message partitions get a fillfactor of 90 to leave room on each page for HOT updates
+*/
+
+drop index log.log_message_errormessage_p_ix;
+drop index log.log_message_nextattemptdate_p_ix;
+
+create index log_message_channelid_messagedate_logdate_incomplete_p_ix on log.message (channel_id, message_date, log_date) where not is_complete;
+
+create index log_message_logdate_brin_p_ix on log.message using brin (log_date);
+create index log_message_messagedate_brin_p_ix on log.message using brin (message_date);
+
+------------------------------------------------------
+-- fillfactor is a partition setting, new partitions are created with it by log.maintain_partitions
+--
+do $$
+declare
+	_partition_name varchar(100);
+begin
+
+	for _partition_name in
+		select 
+			c.relname
+		from pg_inherits i
+		inner join pg_class c on i.inhrelid = c.oid
+		inner join pg_class p on i.inhparent = p.oid
+		inner join pg_namespace n on p.relnamespace = n.oid
+		where n.nspname = 'log'
+		and p.relname = 'message'
+	loop
+		execute format('alter table log.%I set (fillfactor = 90)', _partition_name);
+	end loop;
+
+end;
+$$;
@@ -0,0 +1,36 @@
+/* 
+	Schema V2.21: Channel options for backpressure from the processing backlog to the MLLP receiver
+
+	When a channel's log.message_queue depth reaches BackpressureHighWatermark the receiver either delays each
+	ACK by BackpressureAckDelayMillis (BackpressureAction DelayAck) or answers with an AR negative acknowledgement
+	without logging the message (BackpressureAction RejectAck), until the depth falls to BackpressureLowWatermark.
+	Either way the sending system holds on to its messages instead of log.message growing without bound.
+*/
+
+insert into configuration.channel_option_type
+(
+	channel_option_type,
+	default_value,
+	description
+)
+values
+(
+	'BackpressureHighWatermark', 
+	'0', 
+	'Queue depth at which the receiver starts to apply BackpressureAction, 0 to never apply it'
+),
+(
+	'BackpressureLowWatermark', 
+	'0', 
+	'Queue depth at which the receiver stops applying BackpressureAction, 0 for 80% of BackpressureHighWatermark'
+),
+(
+	'BackpressureAction', 
+	'DelayAck', 
+	'DelayAck to slow acknowledgements by BackpressureAckDelayMillis, RejectAck to send AR negative acknowledgements'
+),
+(
+	'BackpressureAckDelayMillis', 
+	'1000', 
+	'Delay added before each acknowledgement while BackpressureAction DelayAck is applied'
+);
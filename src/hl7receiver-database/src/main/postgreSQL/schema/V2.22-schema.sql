@@ -0,0 +1,13 @@
+/* 
+	Schema V2.22: log.complete_message_processing becomes a procedure that only sets the final status
+
+	Processing content is written ahead of the status by log.add_message_processing_contents, so the content
+	arrays the function took were always empty. As a procedure it is called with CALL, which returns no rows,
+	so the receiver can send a batch of statuses with one JDBC executeBatch.
+
+	Both earlier function signatures are dropped, as a procedure cannot replace a function of the same name
+	and arguments.
+*/
+
+drop function if exists log.complete_message_processing(integer, integer, integer, varchar, integer, integer[], text[], text[], integer[]);
+drop function if exists log.complete_message_processing(integer, timestamp, integer, integer, varchar, integer, integer[], text[], text[], integer[]);
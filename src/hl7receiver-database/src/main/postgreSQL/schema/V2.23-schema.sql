@@ -0,0 +1,9 @@
+/* 
+	Schema V2.23: Compressed processing content is passed to log.add_message_processing_contents as bytea
+
+	The jdbc driver cannot bind bytea arrays, so compressed content was passed base64 encoded as text, a third
+	larger and decoded again in the database. It is now passed end to end in one bytea with the length of each.
+	log.get_reconstructed_message_processing_content now decompresses content with the new helper.inflate.
+*/
+
+drop function if exists log.add_message_processing_contents(integer[], integer[], integer[], text[], text[], integer[]);
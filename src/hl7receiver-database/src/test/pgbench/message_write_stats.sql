@@ -0,0 +1,17 @@
+/*
+	write amplification counters for log.message (all partitions) and the server's wal position
+*/
+select
+	pg_current_wal_lsn() as wal_lsn,
+	coalesce(sum(s.n_tup_ins), 0) as tuples_inserted,
+	coalesce(sum(s.n_tup_upd), 0) as tuples_updated,
+	coalesce(sum(s.n_tup_hot_upd), 0) as tuples_hot_updated,
+	coalesce(sum(pg_indexes_size(s.relid)), 0) as index_bytes
+from pg_stat_user_tables s
+where s.relid in
+(
+	select 
+		i.inhrelid
+	from pg_inherits i
+	where i.inhparent = 'log.message'::regclass
+);
@@ -0,0 +1,8 @@
+/*
+	message queue benchmark - drain, the status calls the channel processor makes for each message it processes
+
+	single client only, as with the channel processor lock
+*/
+select message_id, log_date from log.get_next_unprocessed_message(9999, 9999) \gset
+select attempt_id from log.set_message_processing_started(:message_id, :'log_date', 9999) \gset
+select log.set_message_processing_success(:message_id, :'log_date', :attempt_id, 9999);
@@ -0,0 +1,19 @@
+/*
+	message queue benchmark - ingest, one log.log_message per transaction
+*/
+\set message_number random(1, 1000000000)
+
+select log.log_message
+(
+	9999,
+	999999,
+	'BENCH' || :message_number,
+	null,
+	now()::timestamp,
+	'PID1-' || :message_number,
+	'PID2-' || :message_number,
+	'ADT^A01',
+	'MSH|^~\&|BENCH|BENCH|BENCH|BENCH|20170101000000||ADT^A01|BENCH' || :message_number || '|P|2.3',
+	'ACK^A01',
+	'MSH|^~\&|BENCH|BENCH|BENCH|BENCH|20170101000000||ACK^A01|ACK' || :message_number || '|P|2.3'
+);
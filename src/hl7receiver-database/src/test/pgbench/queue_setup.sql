@@ -0,0 +1,53 @@
+/*
+	message queue benchmark - setup
+
+	creates a benchmark instance, channel and connection (ids 9999) and gives the instance the channel processor lock
+	run against a scratch copy of the hl7receiver database only
+*/
+
+insert into log.instance (instance_id, hostname, added_date, last_get_config_date)
+values (9999, 'queue-benchmark', now(), now())
+on conflict do nothing;
+
+insert into configuration.channel
+(
+	channel_id,
+	channel_name,
+	port_number,
+	is_active,
+	use_tls,
+	sending_application,
+	sending_facility,
+	receiving_application,
+	receiving_facility,
+	eds_service_identifier,
+	notes
+)
+values
+(
+	9999,
+	'QueueBenchmark',
+	59999,
+	false,
+	false,
+	'BENCH',
+	'BENCH',
+	'BENCH',
+	'BENCH',
+	'QUEUE-BENCHMARK',
+	'Message queue benchmark channel'
+)
+on conflict do nothing;
+
+insert into configuration.channel_message_type (channel_id, message_type, is_allowed)
+values
+	(9999, 'ADT^A01', true),
+	(9999, 'ACK^A01', true)
+on conflict do nothing;
+
+insert into log.connection (connection_id, instance_id, channel_id, local_port, remote_host, remote_port, connect_date)
+values (999999, 9999, 9999, 59999, 'localhost', 1, now())
+on conflict do nothing;
+
+delete from log.channel_processor_lock where channel_id = 9999;
+select log.get_channel_processor_lock(9999, 9999, 0);
@@ -0,0 +1,30 @@
+#!/bin/sh
+#
+# message queue benchmark, compares ingest and drain throughput
+#
+# run once against a scratch database at schema V2.18 (trigger maintained queue) and once after V2.19
+# (explicitly maintained queue), e.g.
+#
+#   ./run_queue_benchmark.sh hl7receiver_bench 8 5000
+#
+# arguments: database, ingest clients, messages per ingest client
+# standard libpq environment variables (PGHOST, PGUSER, ...) select the server
+
+set -e
+
+DATABASE=${1:?database name required}
+CLIENTS=${2:-8}
+MESSAGES_PER_CLIENT=${3:-5000}
+TOTAL_MESSAGES=$((CLIENTS * MESSAGES_PER_CLIENT))
+SCRIPT_DIR=$(cd "$(dirname "$0")" && pwd)
+
+psql -q -v ON_ERROR_STOP=1 -d "$DATABASE" -f "$SCRIPT_DIR/queue_setup.sql" > /dev/null
+psql -q -d "$DATABASE" -c "vacuum analyze log.message_queue" > /dev/null
+
+echo "ingest: $CLIENTS clients x $MESSAGES_PER_CLIENT messages"
+pgbench -n -r -c "$CLIENTS" -j "$CLIENTS" -t "$MESSAGES_PER_CLIENT" -f "$SCRIPT_DIR/queue_ingest.sql" "$DATABASE"
+
+echo "drain: 1 client x $TOTAL_MESSAGES messages"
+pgbench -n -r -c 1 -j 1 -t "$TOTAL_MESSAGES" -f "$SCRIPT_DIR/queue_drain.sql" "$DATABASE"
+
+psql -q -d "$DATABASE" -c "select count(*) as messages_left_in_queue from log.message_queue where channel_id = 9999"
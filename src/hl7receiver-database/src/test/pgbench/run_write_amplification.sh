@@ -0,0 +1,49 @@
+#!/bin/sh
+#
+# log.message write amplification per processed message, run once against a scratch database at schema V2.19
+# (previous index set) and once after V2.20, e.g.
+#
+#   ./run_write_amplification.sh hl7receiver_bench 5000
+#
+# arguments: database, messages
+# reports wal bytes per message for ingest and for processing (started + success), the proportion of
+# log.message updates that were HOT (no index entries added), and index growth per message
+
+set -e
+
+DATABASE=${1:?database name required}
+MESSAGES=${2:-5000}
+SCRIPT_DIR=$(cd "$(dirname "$0")" && pwd)
+
+stats() {
+    sleep 1    # statistics collector lag
+    psql -q -t -A -F ' ' -d "$DATABASE" -f "$SCRIPT_DIR/message_write_stats.sql"
+}
+
+psql -q -v ON_ERROR_STOP=1 -d "$DATABASE" -f "$SCRIPT_DIR/queue_setup.sql" > /dev/null
+
+set -- $(stats)
+WAL_0=$1 UPD_0=$3 HOT_0=$4 IDX_0=$5
+
+pgbench -n -c 1 -j 1 -t "$MESSAGES" -f "$SCRIPT_DIR/queue_ingest.sql" "$DATABASE" > /dev/null
+
+set -- $(stats)
+WAL_1=$1 IDX_1=$5
+
+pgbench -n -c 1 -j 1 -t "$MESSAGES" -f "$SCRIPT_DIR/queue_drain.sql" "$DATABASE" > /dev/null
+
+set -- $(stats)
+WAL_2=$1 UPD_2=$3 HOT_2=$4 IDX_2=$5
+
+psql -q -d "$DATABASE" -v messages="$MESSAGES" \
+    -v wal_0="$WAL_0" -v wal_1="$WAL_1" -v wal_2="$WAL_2" \
+    -v upd="$((UPD_2 - UPD_0))" -v hot="$((HOT_2 - HOT_0))" \
+    -v idx_ingest="$((IDX_1 - IDX_0))" -v idx_process="$((IDX_2 - IDX_1))" <<'SQL'
+select
+	round(pg_wal_lsn_diff(:'wal_1', :'wal_0') / :messages) as ingest_wal_bytes_per_message,
+	round(pg_wal_lsn_diff(:'wal_2', :'wal_1') / :messages) as processing_wal_bytes_per_message,
+	:upd as message_updates,
+	round(100.0 * :hot / greatest(:upd, 1), 1) as hot_update_percent,
+	round(:idx_ingest::numeric / :messages) as ingest_index_bytes_per_message,
+	round(:idx_process::numeric / :messages) as processing_index_bytes_per_message;
+SQL
@@ -0,0 +1,116 @@
+package org.endeavourhealth.hl7receiver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+    forward only cursor over a query result, rows are fetched from the server in batches of fetchSize
+
+    the postgres driver only honours the fetch size inside a transaction, otherwise the whole result set is
+    read into memory before the first row is returned, so the connection is held in a read only transaction
+    until the cursor is closed
+*/
+public class DbCursor<T> implements Iterator<T>, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(DbCursor.class);
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final RowReader<T> reader;
+    private boolean hasNextRow;
+    private boolean closed = false;
+
+    DbCursor(Connection connection, String sql, int fetchSize, StatementBinder binder, RowReader<T> reader) throws SQLException {
+        this.connection = connection;
+        this.reader = reader;
+
+        try {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+
+            this.statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            this.statement.setFetchSize(fetchSize);
+            binder.bind(this.statement);
+
+            this.resultSet = this.statement.executeQuery();
+            this.hasNextRow = this.resultSet.next();
+
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNextRow;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNextRow)
+            throw new NoSuchElementException();
+
+        try {
+            T row = reader.read(resultSet);
+            hasNextRow = resultSet.next();
+
+            if (!hasNextRow)
+                close();
+
+            return row;
+
+        } catch (SQLException e) {
+            close();
+            throw new IllegalStateException("Error reading from cursor", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+
+        closed = true;
+        hasNextRow = false;
+
+        try {
+            if (resultSet != null)
+                resultSet.close();
+
+            if (statement != null)
+                statement.close();
+
+            connection.rollback();
+            connection.setReadOnly(false);
+            connection.setAutoCommit(true);
+
+        } catch (SQLException e) {
+            LOG.warn("Error closing cursor", e);
+
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Error returning cursor connection", e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface RowReader<T> {
+        T read(ResultSet resultSet) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface StatementBinder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+}
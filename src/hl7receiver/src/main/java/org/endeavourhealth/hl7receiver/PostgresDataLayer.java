@@ -1,5 +1,7 @@
 package org.endeavourhealth.hl7receiver;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.lang3.StringUtils;
 import org.endeavourhealth.common.fhir.schema.OrganisationClass;
 import org.endeavourhealth.common.fhir.schema.OrganisationType;
@@ -8,17 +10,38 @@ import org.endeavourhealth.common.postgres.PgStoredProc;
 import org.endeavourhealth.common.postgres.PgStoredProcException;
 import org.endeavourhealth.common.postgres.logdigest.IDBDigestLogger;
 import org.endeavourhealth.core.database.rdbms.ConnectionManager;
+import org.endeavourhealth.hl7receiver.compression.ContentCodec;
+import org.endeavourhealth.hl7receiver.compression.ResourceDeduplicator;
 import org.endeavourhealth.hl7receiver.model.db.*;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
 import java.util.stream.Collectors;
 
 public class PostgresDataLayer implements IDBDigestLogger {
 
+    private static final int STREAMING_FETCH_SIZE = 5000;
+    private static final String PROCESSING_CONTENT_PARTITION_PREFIX = "message_processing_content_";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int ARCHIVE_SHARED_RESOURCES_MAX_ENTRIES = 10000;
+    private static final Pattern DETACHED_PARTITION_NAME_PATTERN = Pattern.compile("^(message|message_processing_content)_(y[0-9]{4}m[0-9]{2}|history)$");
+
     public PostgresDataLayer() {}
     
     private Connection getConnection() throws Exception {
@@ -275,63 +298,206 @@ public class PostgresDataLayer implements IDBDigestLogger {
                                 .setMessageDate(resultSet.getTimestamp("message_date").toLocalDateTime())
                                 .setInboundMessageType(resultSet.getString("inbound_message_type"))
                                 .setInboundPayload(resultSet.getString("inbound_payload"))
-                                .setMessageUuid(UUID.fromString(resultSet.getString("message_uuid"))));
+                                .setMessageUuid(UUID.fromString(resultSet.getString("message_uuid")))
+                                .setLogDate(resultSet.getTimestamp("log_date").toLocalDateTime()));
     }
 
-    public int setMessageProcessingStarted(int messageId, int processingInstanceId) throws Exception {
+    public int setMessageProcessingStarted(int messageId, LocalDateTime logDate, int processingInstanceId) throws Exception {
 
         PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
                 .setName("log.set_message_processing_started")
                 .addParameter("_message_id", messageId)
+                .addParameter("_log_date", logDate)
                 .addParameter("_instance_id", processingInstanceId);
 
         return pgStoredProc.executeSingleRow((resultSet) -> resultSet.getInt("attempt_id"));
     }
 
-    public void setMessageProcessingFailure(int messageId, int attemptId, DbMessageStatus messageStatusId, String errorMessage, int instanceId) throws Exception {
+    public long reprocessFailedMessages(int channelId, int instanceId) throws Exception {
 
         PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
-                .setName("log.set_message_processing_failure")
-                .addParameter("_message_id", messageId)
-                .addParameter("_attempt_id", attemptId)
-                .addParameter("_message_status_id", messageStatusId.getValue())
-                .addParameter("_error_message", errorMessage)
+                .setName("log.reprocess_failed_messages")
+                .addParameter("_channel_id", channelId)
                 .addParameter("_instance_id", instanceId);
 
-        pgStoredProc.execute();
+        return pgStoredProc.executeSingleRow((resultSet) -> resultSet.getLong("message_count"));
     }
 
-    public void setMessageProcessingSuccess(int messageId, int attemptId, int instanceId) throws Exception {
+    public DbChannelQueueStatus getChannelQueueStatus(int channelId) throws Exception {
 
         PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
-                .setName("log.set_message_processing_success")
-                .addParameter("_message_id", messageId)
-                .addParameter("_attempt_id", attemptId)
-                .addParameter("_instance_id", instanceId);
+                .setName("log.get_channel_queue_status")
+                .addParameter("_channel_id", channelId);
 
-        pgStoredProc.execute();
+        return pgStoredProc.executeSingleRow((resultSet) ->
+                new DbChannelQueueStatus()
+                        .setQueueDepth(resultSet.getLong("queue_depth"))
+                        .setOldestMessageDate(getLocalDateTime(resultSet, "oldest_message_date"))
+                        .setOldestLogDate(getLocalDateTime(resultSet, "oldest_log_date"))
+                        .setLockInstanceId(PgResultSet.getInteger(resultSet, "lock_instance_id"))
+                        .setLockHostname(resultSet.getString("lock_hostname"))
+                        .setLockHeartbeatDate(getLocalDateTime(resultSet, "lock_heartbeat_date")));
     }
 
-    public long reprocessFailedMessages(int channelId, int instanceId) throws Exception {
+    private static LocalDateTime getLocalDateTime(ResultSet resultSet, String columnName) throws SQLException {
+        Timestamp timestamp = resultSet.getTimestamp(columnName);
+        return (timestamp == null ? null : timestamp.toLocalDateTime());
+    }
 
-        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
-                .setName("log.reprocess_failed_messages")
-                .addParameter("_channel_id", channelId)
-                .addParameter("_instance_id", instanceId);
+    /*
+        saves processing content then sets final statuses in one transaction, content is written first so a status is
+        never visible without the content saved before it
+    */
+    public void writeMessageProcessing(List<DbProcessingContent> processingContents, List<DbMessageCompletion> completions) throws Exception {
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                if (!processingContents.isEmpty()) {
+                    try (PreparedStatement statement = connection.prepareStatement("select log.add_message_processing_contents(?, ?, ?, ?, ?, ?, ?)")) {
+                        statement.setArray(1, connection.createArrayOf("int4", processingContents.stream().map(t -> t.getMessageId()).toArray()));
+                        statement.setArray(2, connection.createArrayOf("int4", processingContents.stream().map(t -> t.getProcessingAttemptId()).toArray()));
+                        statement.setArray(3, connection.createArrayOf("int4", processingContents.stream().map(t -> t.getProcessingContentType().getValue()).toArray()));
+                        statement.setArray(4, connection.createArrayOf("text", processingContents.stream().map(t -> t.getContent()).toArray()));
+                        statement.setBytes(5, concatenateContentCompressed(processingContents));
+                        statement.setArray(6, connection.createArrayOf("int4", processingContents.stream().map(t -> (t.getContentCompressed() == null) ? null : t.getContentCompressed().length).toArray()));
+                        statement.setArray(7, connection.createArrayOf("int4", processingContents.stream().map(t -> t.getCompressionDictionaryId()).toArray()));
+                        statement.execute();
+                    }
+                }
+
+                // a procedure, as a batched statement must not return rows
+                if (!completions.isEmpty()) {
+                    try (PreparedStatement statement = connection.prepareStatement("call log.complete_message_processing(?, ?, ?, ?, ?, ?)")) {
+                        for (DbMessageCompletion completion : completions) {
+                            statement.setInt(1, completion.getMessageId());
+                            statement.setTimestamp(2, Timestamp.valueOf(completion.getLogDate()));
+                            statement.setInt(3, completion.getProcessingAttemptId());
+                            statement.setInt(4, completion.getMessageStatus().getValue());
+                            statement.setString(5, completion.getErrorMessage());
+                            statement.setInt(6, completion.getInstanceId());
+                            statement.addBatch();
+                        }
+
+                        statement.executeBatch();
+                    }
+                }
+
+                connection.commit();
+
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
 
-        return pgStoredProc.executeSingleRow((resultSet) -> resultSet.getLong("message_count"));
+    /*
+        the jdbc driver cannot bind bytea arrays, so compressed content is passed end to end with the length of each
+    */
+    private static byte[] concatenateContentCompressed(List<DbProcessingContent> processingContents) {
+        ByteArrayOutputStream contentsCompressed = new ByteArrayOutputStream();
+
+        for (DbProcessingContent processingContent : processingContents)
+            if (processingContent.getContentCompressed() != null)
+                contentsCompressed.write(processingContent.getContentCompressed(), 0, processingContent.getContentCompressed().length);
+
+        return contentsCompressed.toByteArray();
+    }
+
+    public List<DbMessageProcessingContent> getMessageProcessingContent(int messageId) throws Exception {
+        List<DbMessageProcessingContent> contents = new ArrayList<>();
+
+        streamQuery("select * from log.get_message_processing_content(?)",
+                (statement) -> statement.setInt(1, messageId),
+                (resultSet) ->
+                        new DbMessageProcessingContent()
+                                .setMessageProcessingContentId(resultSet.getInt("message_processing_content_id"))
+                                .setMessageId(resultSet.getInt("message_id"))
+                                .setProcessingAttemptId(resultSet.getInt("processing_attempt_id"))
+                                .setContentSavedDate(resultSet.getTimestamp("content_saved_date").toLocalDateTime())
+                                .setProcessingContentTypeId(resultSet.getInt("processing_content_type_id"))
+                                .setContent(readProcessingContent(resultSet)),
+                contents::add);
+
+        Set<String> sharedResourceHashes = new HashSet<>();
+
+        for (DbMessageProcessingContent content : contents)
+            sharedResourceHashes.addAll(ResourceDeduplicator.getSharedResourceHashes(content.getContent()));
+
+        if (!sharedResourceHashes.isEmpty()) {
+            Map<String, String> sharedResources = getSharedResources(sharedResourceHashes);
+
+            for (DbMessageProcessingContent content : contents)
+                content.setContent(ResourceDeduplicator.reconstruct(content.getContent(), sharedResources));
+        }
+
+        return contents;
+    }
+
+    public void addSharedResources(List<DbSharedResource> sharedResources) throws Exception {
+
+        executeStatement("select log.add_shared_resources(?, ?, ?)",
+                (statement) -> {
+                    Connection connection = statement.getConnection();
+                    statement.setArray(1, connection.createArrayOf("bpchar", sharedResources.stream().map(t -> t.getResourceHash()).toArray()));
+                    statement.setArray(2, connection.createArrayOf("varchar", sharedResources.stream().map(t -> t.getResourceType()).toArray()));
+                    statement.setArray(3, connection.createArrayOf("text", sharedResources.stream().map(t -> t.getContent()).toArray()));
+                });
+    }
+
+    public Map<String, String> getSharedResources(Set<String> resourceHashes) throws Exception {
+        Map<String, String> sharedResources = new HashMap<>();
+
+        streamQuery("select * from log.get_shared_resources(?)",
+                (statement) -> statement.setArray(1, statement.getConnection().createArrayOf("bpchar", resourceHashes.toArray())),
+                (resultSet) -> new String[] { resultSet.getString("resource_hash"), resultSet.getString("content") },
+                (t) -> sharedResources.put(t[0], t[1]));
+
+        return sharedResources;
+    }
+
+    private static String readProcessingContent(ResultSet resultSet) throws SQLException {
+        byte[] contentCompressed = resultSet.getBytes("content_compressed");
+
+        if (contentCompressed == null)
+            return resultSet.getString("content");
+
+        try {
+            return ContentCodec.decompress(contentCompressed, resultSet.getBytes("dictionary"));
+        } catch (DataFormatException e) {
+            throw new SQLException("Could not decompress message_processing_content_id " + resultSet.getInt("message_processing_content_id"), e);
+        }
     }
 
-    public void addMessageProcessingContent(int messageId, int attemptId, DbProcessingContentType processingContentTypeId, String content) throws Exception {
+    public DbCompressionDictionary getCompressionDictionary(int channelId) throws Exception {
 
         PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
-                .setName("log.add_message_processing_content")
-                .addParameter("_message_id", messageId)
-                .addParameter("_attempt_id", attemptId)
-                .addParameter("_processing_content_type_id", processingContentTypeId.getValue())
-                .addParameter("_content", content);
+                .setName("log.get_compression_dictionary")
+                .addParameter("_channel_id", channelId);
 
-        pgStoredProc.execute();
+        return pgStoredProc.executeSingleOrEmptyRow((resultSet) ->
+                new DbCompressionDictionary()
+                        .setCompressionDictionaryId(resultSet.getInt("compression_dictionary_id"))
+                        .setDictionary(resultSet.getBytes("dictionary")));
+    }
+
+    public int addCompressionDictionary(int channelId, byte[] dictionary, int sampleCount) throws Exception {
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement("select log.add_compression_dictionary(?, ?, ?)")) {
+
+            statement.setInt(1, channelId);
+            statement.setBytes(2, dictionary);
+            statement.setInt(3, sampleCount);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
     }
 
     public UUID getResourceUuid(String scopeName, String resourceType, String uniqueIdentifier) throws Exception {
@@ -345,19 +511,51 @@ public class PostgresDataLayer implements IDBDigestLogger {
         return pgStoredProc.executeSingleRow((resultSet) -> UUID.fromString(resultSet.getString("get_resource_uuid")));
     }
 
-    public List<DbResourceUuidMapping> getSimilarResourceUuidMappings(String scopeName, String uniqueIdentifierPrefix) throws Exception {
+    public UUID getLegacyResourceUuid(String scopeName, String resourceType, String uniqueIdentifier) throws Exception {
 
         PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
-                .setName("mapping.get_similar_resource_uuid_mappings")
+                .setName("mapping.get_legacy_resource_uuid")
                 .addParameter("_scope_name", scopeName)
-                .addParameter("_unique_identifier_prefix", uniqueIdentifierPrefix);
+                .addParameter("_resource_type", resourceType)
+                .addParameter("_unique_identifier", uniqueIdentifier);
 
-        return pgStoredProc.executeQuery((resultSet) ->
-                new DbResourceUuidMapping()
-                        .setScopeId(resultSet.getString("scope_id"))
-                        .setResourceType(resultSet.getString("resource_type"))
-                        .setUniqueIdentifier(resultSet.getString("unique_identifier"))
-                        .setResourceUuid(UUID.fromString(resultSet.getString("resource_uuid"))));
+        String resourceUuid = pgStoredProc.executeSingleRow((resultSet) -> resultSet.getString("get_legacy_resource_uuid"));
+
+        return (resourceUuid == null) ? null : UUID.fromString(resourceUuid);
+    }
+
+    public long getLegacyResourceUuidCount(String scopeName) throws Exception {
+
+        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
+                .setName("mapping.get_legacy_resource_uuid_count")
+                .addParameter("_scope_name", scopeName);
+
+        return pgStoredProc.executeSingleRow((resultSet) -> resultSet.getLong("get_legacy_resource_uuid_count"));
+    }
+
+    public boolean isLegacyResourceUuidMigrationComplete(String scopeName) throws Exception {
+
+        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
+                .setName("mapping.is_legacy_resource_uuid_migration_complete")
+                .addParameter("_scope_name", scopeName);
+
+        return pgStoredProc.executeSingleRow((resultSet) -> resultSet.getBoolean("is_legacy_resource_uuid_migration_complete"));
+    }
+
+    public void setResourceUuids(String scopeName, List<DbResourceUuidMapping> resourceUuidMappings) throws Exception {
+        if (resourceUuidMappings.isEmpty())
+            return;
+
+        String[] resourceTypes = resourceUuidMappings.stream().map(t -> t.getResourceType()).toArray(String[]::new);
+        String[] uniqueIdentifiers = resourceUuidMappings.stream().map(t -> t.getUniqueIdentifier()).toArray(String[]::new);
+        UUID[] resourceUuids = resourceUuidMappings.stream().map(t -> t.getResourceUuid()).toArray(UUID[]::new);
+
+        executeStatement("select mapping.set_resource_uuids(?, ?, ?, ?)", (statement) -> {
+            statement.setString(1, scopeName);
+            statement.setArray(2, statement.getConnection().createArrayOf("varchar", resourceTypes));
+            statement.setArray(3, statement.getConnection().createArrayOf("varchar", uniqueIdentifiers));
+            statement.setArray(4, statement.getConnection().createArrayOf("uuid", resourceUuids));
+        });
     }
 
     public DbCode getCode(String scopeName, String sourceCodeContextName, String sourceCode, String sourceCodeSystemIdentifier, String sourceTerm) throws Exception {
@@ -384,17 +582,20 @@ public class PostgresDataLayer implements IDBDigestLogger {
                 .setName("mapping.get_organisation")
                 .addParameter("_ods_code", odsCode);
 
-        return pgStoredProc.executeSingleOrEmptyRow((resultSet) ->
-                new DbOrganisation()
-                        .setOdsCode(resultSet.getString("ods_code"))
-                        .setOrganisationName(resultSet.getString("organisation_name"))
-                        .setOrganisationClass(OrganisationClass.fromOrganisationClass(resultSet.getString("organisation_class")))
-                        .setOrganisationType(OrganisationType.fromCode(resultSet.getString("organisation_type")))
-                        .setAddressLine1(resultSet.getString("address_line1"))
-                        .setAddressLine2(resultSet.getString("address_line2"))
-                        .setTown(resultSet.getString("town"))
-                        .setCounty(resultSet.getString("county"))
-                        .setPostcode(resultSet.getString("postcode")));
+        return pgStoredProc.executeSingleOrEmptyRow((resultSet) -> readDbOrganisation(resultSet));
+    }
+
+    private static DbOrganisation readDbOrganisation(ResultSet resultSet) throws SQLException {
+        return new DbOrganisation()
+                .setOdsCode(resultSet.getString("ods_code"))
+                .setOrganisationName(resultSet.getString("organisation_name"))
+                .setOrganisationClass(OrganisationClass.fromOrganisationClass(resultSet.getString("organisation_class")))
+                .setOrganisationType(OrganisationType.fromCode(resultSet.getString("organisation_type")))
+                .setAddressLine1(resultSet.getString("address_line1"))
+                .setAddressLine2(resultSet.getString("address_line2"))
+                .setTown(resultSet.getString("town"))
+                .setCounty(resultSet.getString("county"))
+                .setPostcode(resultSet.getString("postcode"));
     }
 
     public void setOrganisation(String odsCode, String organisationName, OrganisationClass organisationClass, OrganisationType organisationType, String addressLine1, String addressLine2, String town, String county, String postcode) throws Exception {
@@ -414,4 +615,219 @@ public class PostgresDataLayer implements IDBDigestLogger {
 
         pgStoredProc.execute();
     }
+
+    public long streamCodeMappingsForPreload(String scopeName, RowConsumer<DbCodeMapping> consumer) throws Exception {
+
+        return streamQuery("select * from mapping.get_code_mappings_for_preload(?)",
+                (statement) -> statement.setString(1, scopeName),
+                (resultSet) ->
+                        new DbCodeMapping()
+                                .setSourceContext(resultSet.getString("source_code_context_name"))
+                                .setSourceCode(resultSet.getString("source_code"))
+                                .setSourceSystem(resultSet.getString("source_code_system_identifier"))
+                                .setSourceTerm(resultSet.getString("source_term"))
+                                .setTargetCode(new DbCode()
+                                        .setTargetAction(resultSet.getString("target_code_action_id"))
+                                        .setCode(resultSet.getString("target_code"))
+                                        .setSystem(resultSet.getString("target_code_system_identifier"))
+                                        .setTerm(resultSet.getString("target_term"))),
+                consumer);
+    }
+
+    public long streamOrganisationsForPreload(RowConsumer<DbOrganisation> consumer) throws Exception {
+
+        return streamQuery("select * from mapping.get_organisations_for_preload()",
+                (statement) -> {},
+                PostgresDataLayer::readDbOrganisation,
+                consumer);
+    }
+
+    public long streamResourceUuidsForPreload(String scopeName, List<String> resourceTypes, RowConsumer<DbResourceUuidMapping> consumer) throws Exception {
+
+        return streamQuery("select * from mapping.get_resource_uuids_for_preload(?, ?)",
+                (statement) -> {
+                    statement.setString(1, scopeName);
+                    statement.setArray(2, statement.getConnection().createArrayOf("varchar", resourceTypes.toArray()));
+                },
+                PostgresDataLayer::readDbResourceUuidMapping,
+                consumer);
+    }
+
+    public long streamLegacyResourceUuidsForPreload(String scopeName, RowConsumer<DbResourceUuidMapping> consumer) throws Exception {
+
+        return streamQuery("select * from mapping.get_legacy_resource_uuids_for_preload(?)",
+                (statement) -> statement.setString(1, scopeName),
+                PostgresDataLayer::readDbResourceUuidMapping,
+                consumer);
+    }
+
+    public List<DbResourceUuidMapping> getSimilarResourceUuidMappings(String scopeName, String uniqueIdentifierPrefix) throws Exception {
+
+        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
+                .setName("mapping.get_similar_resource_uuid_mappings")
+                .addParameter("_scope_name", scopeName)
+                .addParameter("_unique_identifier_prefix", uniqueIdentifierPrefix);
+
+        return pgStoredProc.executeQuery(PostgresDataLayer::readDbResourceUuidMapping);
+    }
+
+    public DbPartitionMaintenance getPartitionMaintenance() throws Exception {
+
+        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
+                .setName("configuration.get_partition_maintenance");
+
+        return pgStoredProc.executeSingleRow((resultSet) ->
+                new DbPartitionMaintenance()
+                        .setEnabled(resultSet.getBoolean("is_enabled"))
+                        .setMonthsAhead(resultSet.getInt("months_ahead"))
+                        .setRetentionMonths(resultSet.getInt("retention_months"))
+                        .setArchiveDirectory(resultSet.getString("archive_directory")));
+    }
+
+    public List<DbPartition> maintainPartitions(int monthsAhead) throws Exception {
+
+        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
+                .setName("log.maintain_partitions")
+                .addParameter("_months_ahead", monthsAhead);
+
+        return pgStoredProc.executeQuery((resultSet) ->
+                new DbPartition()
+                        .setPartitionName(resultSet.getString("partition_name"))
+                        .setRangeStart(resultSet.getTimestamp("range_start").toLocalDateTime())
+                        .setRangeEnd(resultSet.getTimestamp("range_end").toLocalDateTime()));
+    }
+
+    public List<DbPartition> detachPartitions(int retentionMonths) throws Exception {
+
+        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
+                .setName("log.detach_partitions")
+                .addParameter("_retention_months", retentionMonths);
+
+        return pgStoredProc.executeQuery((resultSet) ->
+                new DbPartition()
+                        .setPartitionName(resultSet.getString("partition_name"))
+                        .setParentTableName(resultSet.getString("parent_table_name"))
+                        .setRangeStart(getLocalDateTime(resultSet, "range_start"))
+                        .setRangeEnd(resultSet.getTimestamp("range_end").toLocalDateTime()));
+    }
+
+    public boolean claimPartitionArchive(String partitionName, int instanceId) throws Exception {
+
+        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
+                .setName("log.claim_partition_archive")
+                .addParameter("_partition_name", partitionName)
+                .addParameter("_instance_id", instanceId);
+
+        return pgStoredProc.executeSingleRow((resultSet) -> resultSet.getBoolean("claim_partition_archive"));
+    }
+
+    public long streamDetachedPartitionRows(String partitionName, RowConsumer<String> consumer) throws Exception {
+
+        // detached partitions are the monthly ones named by log.maintain_partitions(..) or the history partitions, reject anything else rather than quote it into the sql
+        if (!DETACHED_PARTITION_NAME_PATTERN.matcher(StringUtils.defaultString(partitionName)).matches())
+            throw new IllegalArgumentException("Invalid partition name " + partitionName);
+
+        if (!partitionName.startsWith(PROCESSING_CONTENT_PARTITION_PREFIX))
+            return streamQuery("select row_to_json(t)::text as row_json from log." + partitionName + " t",
+                    (statement) -> {},
+                    (resultSet) -> resultSet.getString("row_json"),
+                    consumer);
+
+        // archive content readable, neither the dictionary nor the shared resources outlive the archive
+        Map<String, String> sharedResources = new HashMap<>();
+
+        return streamQuery("select row_to_json(t)::text as row_json, t.message_processing_content_id, t.content, t.content_compressed, d.dictionary"
+                        + " from log." + partitionName + " t"
+                        + " left outer join log.compression_dictionary d on t.compression_dictionary_id = d.compression_dictionary_id",
+                (statement) -> {},
+                (resultSet) -> readArchivedProcessingContentRow(resultSet, sharedResources),
+                consumer);
+    }
+
+    private String readArchivedProcessingContentRow(ResultSet resultSet, Map<String, String> sharedResources) throws SQLException {
+        String rowJson = resultSet.getString("row_json");
+        String content = readProcessingContent(resultSet);
+        Set<String> sharedResourceHashes = ResourceDeduplicator.getSharedResourceHashes(content);
+
+        if (resultSet.getBytes("content_compressed") == null && sharedResourceHashes.isEmpty())
+            return rowJson;
+
+        try {
+            if (sharedResources.size() > ARCHIVE_SHARED_RESOURCES_MAX_ENTRIES)
+                sharedResources.clear();
+
+            sharedResourceHashes.removeAll(sharedResources.keySet());
+
+            if (!sharedResourceHashes.isEmpty())
+                sharedResources.putAll(getSharedResources(sharedResourceHashes));
+
+            ObjectNode row = (ObjectNode) OBJECT_MAPPER.readTree(rowJson);
+            row.put("content", ResourceDeduplicator.reconstruct(content, sharedResources));
+            row.putNull("content_compressed");
+            return OBJECT_MAPPER.writeValueAsString(row);
+
+        } catch (Exception e) {
+            throw new SQLException("Could not archive message_processing_content_id " + resultSet.getInt("message_processing_content_id"), e);
+        }
+    }
+
+    public long pruneSharedResources(int retentionMonths) throws Exception {
+
+        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
+                .setName("log.prune_shared_resources")
+                .addParameter("_retention_months", retentionMonths);
+
+        return pgStoredProc.executeSingleRow((resultSet) -> resultSet.getLong("prune_shared_resources"));
+    }
+
+    public void setPartitionArchived(String partitionName, int instanceId, String archiveFile, long archivedRowCount) throws Exception {
+
+        PgStoredProc pgStoredProc = new PgStoredProc(getConnection())
+                .setName("log.set_partition_archived")
+                .addParameter("_partition_name", partitionName)
+                .addParameter("_instance_id", instanceId)
+                .addParameter("_archive_file", archiveFile)
+                .addParameter("_archived_row_count", archivedRowCount);
+
+        pgStoredProc.execute();
+    }
+
+    private static DbResourceUuidMapping readDbResourceUuidMapping(ResultSet resultSet) throws SQLException {
+        return new DbResourceUuidMapping()
+                .setScopeId(resultSet.getString("scope_id"))
+                .setResourceType(resultSet.getString("resource_type"))
+                .setUniqueIdentifier(resultSet.getString("unique_identifier"))
+                .setResourceUuid(UUID.fromString(resultSet.getString("resource_uuid")));
+    }
+
+    private void executeStatement(String sql, DbCursor.StatementBinder binder) throws Exception {
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            binder.bind(statement);
+            statement.execute();
+        }
+    }
+
+    private <T> DbCursor<T> openCursor(String sql, DbCursor.StatementBinder binder, DbCursor.RowReader<T> reader) throws Exception {
+        return new DbCursor<>(getConnection(), sql, STREAMING_FETCH_SIZE, binder, reader);
+    }
+
+    private <T> long streamQuery(String sql, DbCursor.StatementBinder binder, DbCursor.RowReader<T> reader, RowConsumer<T> consumer) throws Exception {
+        long rowCount = 0;
+
+        try (DbCursor<T> cursor = openCursor(sql, binder, reader)) {
+            while (cursor.hasNext()) {
+                consumer.accept(cursor.next());
+                rowCount++;
+            }
+        }
+
+        return rowCount;
+    }
+
+    @FunctionalInterface
+    public interface RowConsumer<T> {
+        void accept(T row) throws Exception;
+    }
 }
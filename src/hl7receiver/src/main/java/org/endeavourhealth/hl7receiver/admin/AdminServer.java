@@ -0,0 +1,174 @@
+package org.endeavourhealth.hl7receiver.admin;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.lang3.StringUtils;
+import org.endeavourhealth.hl7receiver.Configuration;
+import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/*
+    embedded HTTP endpoint for operators and monitoring
+
+    /status                JSON
+    /metrics               Prometheus text format
+    /content?messageId=n   JSON, a message's processing content decompressed and with shared resources put back
+
+    off unless -Dhl7receiver.admin.port is set, and bound to localhost unless -Dhl7receiver.admin.bindAddress says otherwise
+*/
+public class AdminServer {
+    private static final Logger LOG = LoggerFactory.getLogger(AdminServer.class);
+
+    private static final String PORT_PROPERTY = "hl7receiver.admin.port";
+    private static final String BIND_ADDRESS_PROPERTY = "hl7receiver.admin.bindAddress";
+    private static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final String MESSAGE_ID_PARAMETER = "messageId=";
+    private static final int HANDLER_THREADS = 2;
+    private static final int STOP_DELAY_SECONDS = 1;
+
+    private final String instanceName;
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public AdminServer(Configuration configuration) {
+        this.instanceName = configuration.getMachineName();
+    }
+
+    public void start() throws IOException {
+        int port = Integer.getInteger(PORT_PROPERTY, 0);
+
+        if (port <= 0) {
+            LOG.info("Admin endpoint not started, set " + PORT_PROPERTY + " to enable it");
+            return;
+        }
+
+        String bindAddress = System.getProperty(BIND_ADDRESS_PROPERTY, DEFAULT_BIND_ADDRESS);
+
+        executor = Executors.newFixedThreadPool(HANDLER_THREADS, r -> {
+            Thread thread = new Thread(r, "AdminServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext("/status", new StatusHandler(JSON_CONTENT_TYPE, objectMapper::writeValueAsString));
+        server.createContext("/metrics", new StatusHandler(PrometheusWriter.CONTENT_TYPE, PrometheusWriter::write));
+        server.createContext("/content", new ContentHandler());
+        server.setExecutor(executor);
+        server.start();
+
+        LOG.info("Admin endpoint listening on http://" + bindAddress + ":" + port + "/status, /metrics and /content");
+    }
+
+    public void stop() {
+        if (server == null)
+            return;
+
+        LOG.info("Stopping admin endpoint");
+        server.stop(STOP_DELAY_SECONDS);
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    private interface StatusFormatter {
+        String format(AdminStatus status) throws Exception;
+    }
+
+    private class StatusHandler implements HttpHandler {
+        private final String contentType;
+        private final StatusFormatter formatter;
+
+        StatusHandler(String contentType, StatusFormatter formatter) {
+            this.contentType = contentType;
+            this.formatter = formatter;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+
+                writeResponse(exchange, contentType, formatter.format(AdminStatus.collect(instanceName)));
+
+            } catch (Exception e) {
+                LOG.error("Error writing admin endpoint response for " + exchange.getRequestURI(), e);
+                exchange.sendResponseHeaders(500, -1);
+
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private class ContentHandler implements HttpHandler {
+        private final PostgresDataLayer dataLayer = new PostgresDataLayer();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+
+                Integer messageId = getMessageId(exchange.getRequestURI().getQuery());
+
+                if (messageId == null) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+
+                List<MessageContent> contents = dataLayer.getMessageProcessingContent(messageId)
+                        .stream()
+                        .map(MessageContent::from)
+                        .collect(Collectors.toList());
+
+                writeResponse(exchange, JSON_CONTENT_TYPE, objectMapper.writeValueAsString(contents));
+
+            } catch (Exception e) {
+                LOG.error("Error writing admin endpoint response for " + exchange.getRequestURI(), e);
+                exchange.sendResponseHeaders(500, -1);
+
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private static Integer getMessageId(String query) {
+        for (String parameter : StringUtils.split(StringUtils.defaultString(query), '&'))
+            if (parameter.startsWith(MESSAGE_ID_PARAMETER) && StringUtils.isNumeric(parameter.substring(MESSAGE_ID_PARAMETER.length())))
+                return Integer.valueOf(parameter.substring(MESSAGE_ID_PARAMETER.length()));
+
+        return null;
+    }
+
+    private static void writeResponse(HttpExchange exchange, String contentType, String response) throws IOException {
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.endeavourhealth.hl7receiver.admin;
+
+import org.endeavourhealth.hl7receiver.mapping.MappingCacheRegistry;
+import org.endeavourhealth.hl7receiver.mapping.MappingCacheStatistics;
+import org.endeavourhealth.hl7receiver.metrics.ChannelActivityRegistry;
+import org.endeavourhealth.hl7receiver.metrics.ChannelActivityStatistics;
+import org.endeavourhealth.hl7receiver.metrics.Metrics;
+import org.endeavourhealth.hl7receiver.metrics.MetricsRegistry;
+import org.endeavourhealth.hl7receiver.metrics.StageLatencyStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    everything reported by the admin endpoint, read from the in memory registries so it is cheap to build on
+    every request. connection pools are read from HikariCP's MBeans, so are only listed when the pool was
+    created with registerMbeans
+*/
+public class AdminStatus {
+    private static final Logger LOG = LoggerFactory.getLogger(AdminStatus.class);
+
+    private static final String HIKARI_POOL_OBJECT_NAME_PATTERN = "com.zaxxer.hikari:type=Pool (*)";
+
+    private String instanceName;
+    private String statusDate;
+    private List<ChannelActivityStatistics> channels;
+    private List<MappingCacheStatistics> mappingCaches;
+    private List<DbPoolStatistics> dbPools;
+    private Map<String, List<StageLatencyStatistics>> stageLatencies;
+
+    public static AdminStatus collect(String instanceName) {
+        MetricsRegistry metricsRegistry = Metrics.getRegistry();
+        Map<String, List<StageLatencyStatistics>> stageLatencies = new LinkedHashMap<>();
+
+        for (String channelName : metricsRegistry.getChannelNames())
+            stageLatencies.put(channelName, metricsRegistry.getStatistics(channelName));
+
+        return new AdminStatus()
+                .setInstanceName(instanceName)
+                .setStatusDate(LocalDateTime.now().toString())
+                .setChannels(ChannelActivityRegistry.getInstance().getStatistics())
+                .setMappingCaches(MappingCacheRegistry.getInstance().getStatistics())
+                .setDbPools(getDbPoolStatistics())
+                .setStageLatencies(stageLatencies);
+    }
+
+    private static List<DbPoolStatistics> getDbPoolStatistics() {
+        List<DbPoolStatistics> dbPools = new ArrayList<>();
+
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+            for (ObjectName objectName : mBeanServer.queryNames(new ObjectName(HIKARI_POOL_OBJECT_NAME_PATTERN), null)) {
+                String type = objectName.getKeyProperty("type");
+
+                dbPools.add(new DbPoolStatistics()
+                        .setPoolName(type.substring("Pool (".length(), type.length() - 1))
+                        .setActiveConnections((Integer) mBeanServer.getAttribute(objectName, "ActiveConnections"))
+                        .setIdleConnections((Integer) mBeanServer.getAttribute(objectName, "IdleConnections"))
+                        .setTotalConnections((Integer) mBeanServer.getAttribute(objectName, "TotalConnections"))
+                        .setThreadsAwaitingConnection((Integer) mBeanServer.getAttribute(objectName, "ThreadsAwaitingConnection")));
+            }
+
+        } catch (Exception e) {
+            LOG.warn("Could not read connection pool MBeans", e);
+        }
+
+        return dbPools;
+    }
+
+    public String getInstanceName() {
+        return instanceName;
+    }
+
+    public AdminStatus setInstanceName(String instanceName) {
+        this.instanceName = instanceName;
+        return this;
+    }
+
+    public String getStatusDate() {
+        return statusDate;
+    }
+
+    public AdminStatus setStatusDate(String statusDate) {
+        this.statusDate = statusDate;
+        return this;
+    }
+
+    public List<ChannelActivityStatistics> getChannels() {
+        return channels;
+    }
+
+    public AdminStatus setChannels(List<ChannelActivityStatistics> channels) {
+        this.channels = channels;
+        return this;
+    }
+
+    public List<MappingCacheStatistics> getMappingCaches() {
+        return mappingCaches;
+    }
+
+    public AdminStatus setMappingCaches(List<MappingCacheStatistics> mappingCaches) {
+        this.mappingCaches = mappingCaches;
+        return this;
+    }
+
+    public List<DbPoolStatistics> getDbPools() {
+        return dbPools;
+    }
+
+    public AdminStatus setDbPools(List<DbPoolStatistics> dbPools) {
+        this.dbPools = dbPools;
+        return this;
+    }
+
+    public Map<String, List<StageLatencyStatistics>> getStageLatencies() {
+        return stageLatencies;
+    }
+
+    public AdminStatus setStageLatencies(Map<String, List<StageLatencyStatistics>> stageLatencies) {
+        this.stageLatencies = stageLatencies;
+        return this;
+    }
+}
@@ -0,0 +1,54 @@
+package org.endeavourhealth.hl7receiver.admin;
+
+public class DbPoolStatistics {
+    private String poolName;
+    private int activeConnections;
+    private int idleConnections;
+    private int totalConnections;
+    private int threadsAwaitingConnection;
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public DbPoolStatistics setPoolName(String poolName) {
+        this.poolName = poolName;
+        return this;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public DbPoolStatistics setActiveConnections(int activeConnections) {
+        this.activeConnections = activeConnections;
+        return this;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public DbPoolStatistics setIdleConnections(int idleConnections) {
+        this.idleConnections = idleConnections;
+        return this;
+    }
+
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    public DbPoolStatistics setTotalConnections(int totalConnections) {
+        this.totalConnections = totalConnections;
+        return this;
+    }
+
+    public int getThreadsAwaitingConnection() {
+        return threadsAwaitingConnection;
+    }
+
+    public DbPoolStatistics setThreadsAwaitingConnection(int threadsAwaitingConnection) {
+        this.threadsAwaitingConnection = threadsAwaitingConnection;
+        return this;
+    }
+}
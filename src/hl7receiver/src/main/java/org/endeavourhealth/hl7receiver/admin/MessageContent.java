@@ -0,0 +1,65 @@
+package org.endeavourhealth.hl7receiver.admin;
+
+import org.endeavourhealth.hl7receiver.model.db.DbMessageProcessingContent;
+
+public class MessageContent {
+    private int messageProcessingContentId;
+    private int processingAttemptId;
+    private String contentSavedDate;
+    private int processingContentTypeId;
+    private String content;
+
+    public static MessageContent from(DbMessageProcessingContent processingContent) {
+        return new MessageContent()
+                .setMessageProcessingContentId(processingContent.getMessageProcessingContentId())
+                .setProcessingAttemptId(processingContent.getProcessingAttemptId())
+                .setContentSavedDate(processingContent.getContentSavedDate().toString())
+                .setProcessingContentTypeId(processingContent.getProcessingContentTypeId())
+                .setContent(processingContent.getContent());
+    }
+
+    public int getMessageProcessingContentId() {
+        return messageProcessingContentId;
+    }
+
+    public MessageContent setMessageProcessingContentId(int messageProcessingContentId) {
+        this.messageProcessingContentId = messageProcessingContentId;
+        return this;
+    }
+
+    public int getProcessingAttemptId() {
+        return processingAttemptId;
+    }
+
+    public MessageContent setProcessingAttemptId(int processingAttemptId) {
+        this.processingAttemptId = processingAttemptId;
+        return this;
+    }
+
+    public String getContentSavedDate() {
+        return contentSavedDate;
+    }
+
+    public MessageContent setContentSavedDate(String contentSavedDate) {
+        this.contentSavedDate = contentSavedDate;
+        return this;
+    }
+
+    public int getProcessingContentTypeId() {
+        return processingContentTypeId;
+    }
+
+    public MessageContent setProcessingContentTypeId(int processingContentTypeId) {
+        this.processingContentTypeId = processingContentTypeId;
+        return this;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public MessageContent setContent(String content) {
+        this.content = content;
+        return this;
+    }
+}
@@ -0,0 +1,142 @@
+package org.endeavourhealth.hl7receiver.admin;
+
+import org.endeavourhealth.hl7receiver.mapping.MappingCacheStatistics;
+import org.endeavourhealth.hl7receiver.metrics.ChannelActivityStatistics;
+import org.endeavourhealth.hl7receiver.metrics.StageLatencyStatistics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/*
+    writes an AdminStatus in the Prometheus text exposition format, one metric family at a time as the format
+    requires all samples of a family to follow its TYPE line
+*/
+class PrometheusWriter {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "hl7receiver_";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final StringBuilder sb = new StringBuilder();
+
+    static String write(AdminStatus status) {
+        PrometheusWriter writer = new PrometheusWriter();
+        writer.writeChannels(status.getChannels());
+        writer.writeMappingCaches(status.getMappingCaches());
+        writer.writeDbPools(status.getDbPools());
+        writer.writeStageLatencies(status.getStageLatencies());
+        return writer.sb.toString();
+    }
+
+    private void writeChannels(List<ChannelActivityStatistics> channels) {
+        writeFamily("channel_messages_received_total", "counter", "Messages logged by this instance", channels, t -> labels("channel", t.getChannelName()), t -> t.getMessagesReceived());
+        writeFamily("channel_messages_rejected_total", "counter", "Messages negatively acknowledged by this instance", channels, t -> labels("channel", t.getChannelName()), t -> t.getMessagesRejected());
+        writeFamily("channel_messages_processed_total", "counter", "Messages processed successfully by this instance", channels, t -> labels("channel", t.getChannelName()), t -> t.getMessagesProcessed());
+        writeFamily("channel_messages_failed_total", "counter", "Message processing attempts failed on this instance", channels, t -> labels("channel", t.getChannelName()), t -> t.getMessagesFailed());
+        writeFamily("channel_received_per_second", "gauge", "Messages logged per second over the last sample interval", channels, t -> labels("channel", t.getChannelName()), t -> t.getReceivedPerSecond());
+        writeFamily("channel_processed_per_second", "gauge", "Messages processed per second over the last sample interval", channels, t -> labels("channel", t.getChannelName()), t -> t.getProcessedPerSecond());
+        writeFamily("channel_queue_depth", "gauge", "Estimated messages waiting in log.message_queue", channels, t -> labels("channel", t.getChannelName()), t -> valueOrNaN(t.getQueueDepth()));
+        writeFamily("channel_oldest_message_age_seconds", "gauge", "Age of the oldest queued message at the last queue read", channels, t -> labels("channel", t.getChannelName()), t -> valueOrNaN(t.getOldestMessageAgeSeconds()));
+        writeFamily("channel_lock_held", "gauge", "1 if this instance holds the channel processor lock", channels, t -> labels("channel", t.getChannelName()), t -> t.isLockHeldByThisInstance() ? 1 : 0);
+        writeFamily("channel_backpressure_applied", "gauge", "1 if the queue depth is over the channel's high watermark", channels, t -> labels("channel", t.getChannelName()), t -> t.isBackpressureApplied() ? 1 : 0);
+        writeFamily("channel_backpressure_delayed_acks_total", "counter", "Acknowledgements delayed by backpressure", channels, t -> labels("channel", t.getChannelName()), t -> t.getBackpressureDelayedAcks());
+        writeFamily("channel_backpressure_rejected_acks_total", "counter", "AR negative acknowledgements sent by backpressure", channels, t -> labels("channel", t.getChannelName()), t -> t.getBackpressureRejectedAcks());
+        writeFamily("channel_lock_heartbeat_age_seconds", "gauge", "Age of the channel processor lock heartbeat, by holder", channels, t -> labels("channel", t.getChannelName(), "holder", t.getLockHolder()), t -> valueOrNaN(t.getLockHeartbeatAgeSeconds()));
+    }
+
+    private void writeMappingCaches(List<MappingCacheStatistics> caches) {
+        writeFamily("mapping_cache_size", "gauge", "Entries in the mapping cache", caches, t -> labels("cache", t.getName()), t -> t.getSize());
+        writeFamily("mapping_cache_max_entries", "gauge", "Maximum entries in the mapping cache", caches, t -> labels("cache", t.getName()), t -> t.getMaxEntries());
+        writeFamily("mapping_cache_hits_total", "counter", "Mapping cache hits", caches, t -> labels("cache", t.getName()), t -> t.getHits());
+        writeFamily("mapping_cache_misses_total", "counter", "Mapping cache misses", caches, t -> labels("cache", t.getName()), t -> t.getMisses());
+        writeFamily("mapping_cache_hit_ratio", "gauge", "Mapping cache hits over requests", caches, t -> labels("cache", t.getName()), t -> t.getHitRatio());
+        writeFamily("mapping_cache_evictions_total", "counter", "Mapping cache evictions", caches, t -> labels("cache", t.getName()), t -> t.getEvictions());
+        writeFamily("mapping_cache_expiries_total", "counter", "Mapping cache expiries", caches, t -> labels("cache", t.getName()), t -> t.getExpiries());
+    }
+
+    private void writeDbPools(List<DbPoolStatistics> pools) {
+        writeFamily("db_pool_active_connections", "gauge", "Connections in use", pools, t -> labels("pool", t.getPoolName()), t -> t.getActiveConnections());
+        writeFamily("db_pool_idle_connections", "gauge", "Idle connections", pools, t -> labels("pool", t.getPoolName()), t -> t.getIdleConnections());
+        writeFamily("db_pool_total_connections", "gauge", "Open connections", pools, t -> labels("pool", t.getPoolName()), t -> t.getTotalConnections());
+        writeFamily("db_pool_threads_awaiting_connection", "gauge", "Threads waiting for a connection", pools, t -> labels("pool", t.getPoolName()), t -> t.getThreadsAwaitingConnection());
+    }
+
+    private void writeStageLatencies(Map<String, List<StageLatencyStatistics>> stageLatencies) {
+        String name = PREFIX + "stage_latency_seconds";
+        writeHeader(name, "summary", "Stage latency since start up or the last reset");
+
+        for (Map.Entry<String, List<StageLatencyStatistics>> channel : stageLatencies.entrySet()) {
+            for (StageLatencyStatistics stage : channel.getValue()) {
+                double[] values = { stage.getP50(), stage.getP90(), stage.getP99(), stage.getP999() };
+
+                for (int i = 0; i < QUANTILES.length; i++)
+                    writeSample(name, labels("channel", channel.getKey(), "stage", stage.getStageName(), "quantile", Double.toString(QUANTILES[i])), values[i] / 1000.0);
+
+                writeSample(name + "_count", labels("channel", channel.getKey(), "stage", stage.getStageName()), stage.getCount());
+                writeSample(name + "_sum", labels("channel", channel.getKey(), "stage", stage.getStageName()), stage.getMean() * stage.getCount() / 1000.0);
+            }
+        }
+
+        String maxName = PREFIX + "stage_latency_max_seconds";
+        writeHeader(maxName, "gauge", "Longest stage time since start up or the last reset");
+
+        for (Map.Entry<String, List<StageLatencyStatistics>> channel : stageLatencies.entrySet())
+            for (StageLatencyStatistics stage : channel.getValue())
+                writeSample(maxName, labels("channel", channel.getKey(), "stage", stage.getStageName()), stage.getMax() / 1000.0);
+    }
+
+    private <T> void writeFamily(String name, String type, String help, List<T> items, Function<T, String> labels, ToDoubleFunction<T> value) {
+        writeHeader(PREFIX + name, type, help);
+
+        for (T item : items)
+            writeSample(PREFIX + name, labels.apply(item), value.applyAsDouble(item));
+    }
+
+    private void writeHeader(String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void writeSample(String name, String labels, double value) {
+        sb.append(name).append(labels).append(' ').append(formatValue(value)).append('\n');
+    }
+
+    private static String labels(String... namesAndValues) {
+        StringBuilder labels = new StringBuilder("{");
+
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (namesAndValues[i + 1] == null)
+                continue;
+
+            if (labels.length() > 1)
+                labels.append(',');
+
+            labels.append(namesAndValues[i]).append("=\"").append(escapeLabelValue(namesAndValues[i + 1])).append('"');
+        }
+
+        return labels.append('}').toString();
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value
+                .replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+
+    private static double valueOrNaN(Long value) {
+        return (value == null) ? Double.NaN : value;
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value))
+            return "NaN";
+
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+
+        return Double.toString(value);
+    }
+}
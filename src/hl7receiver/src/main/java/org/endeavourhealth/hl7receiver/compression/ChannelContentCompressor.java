@@ -0,0 +1,96 @@
+package org.endeavourhealth.hl7receiver.compression;
+
+import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.endeavourhealth.hl7receiver.model.db.DbCompressionDictionary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    compresses processing content for one channel
+
+    until the channel has a dictionary, content is stored uncompressed and the first TRAINING_SAMPLE_COUNT
+    contents are kept to train it; the trained dictionary is saved so content can be decompressed by any instance
+*/
+public class ChannelContentCompressor {
+    private static final Logger LOG = LoggerFactory.getLogger(ChannelContentCompressor.class);
+
+    private static final int TRAINING_SAMPLE_COUNT = 200;
+
+    private final int channelId;
+    private final PostgresDataLayer dataLayer;
+    private DbCompressionDictionary dictionary;
+    private List<String> samples = new ArrayList<>();
+
+    public ChannelContentCompressor(int channelId, PostgresDataLayer dataLayer) throws Exception {
+        this.channelId = channelId;
+        this.dataLayer = dataLayer;
+        this.dictionary = dataLayer.getCompressionDictionary(channelId);
+
+        if (this.dictionary != null)
+            this.samples = null;
+    }
+
+    /*
+        returns null when compressing does not save anything, the content should then be stored as is
+    */
+    public synchronized CompressedContent compress(String content) {
+        if (content == null)
+            return null;
+
+        // without a dictionary little is saved, and uncompressed content can still be read from sql
+        if (dictionary == null) {
+            // samples is null once training has run, including when nothing recurred to train on
+            if (samples != null)
+                addTrainingSample(content);
+
+            return null;
+        }
+
+        byte[] input = content.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = ContentCodec.compress(input, dictionary.getDictionary());
+
+        if (compressed.length >= input.length)
+            return null;
+
+        return new CompressedContent(compressed, dictionary.getCompressionDictionaryId());
+    }
+
+    private void addTrainingSample(String content) {
+        samples.add(content);
+
+        if (samples.size() < TRAINING_SAMPLE_COUNT)
+            return;
+
+        try {
+            long msStart = System.currentTimeMillis();
+
+            byte[] trainedDictionary = DictionaryTrainer.train(samples);
+
+            if (trainedDictionary.length > 0) {
+                int compressionDictionaryId = dataLayer.addCompressionDictionary(channelId, trainedDictionary, samples.size());
+
+                dictionary = new DbCompressionDictionary()
+                        .setCompressionDictionaryId(compressionDictionaryId)
+                        .setDictionary(trainedDictionary);
+            }
+
+            Object[] logArgs = new Object[] {
+                    trainedDictionary.length,
+                    channelId,
+                    samples.size(),
+                    System.currentTimeMillis() - msStart };
+
+            LOG.info("Trained {} byte compression dictionary for channel {} from {} samples in {}ms", logArgs);
+
+            samples = null;
+
+        } catch (Exception e) {
+            LOG.error("Error training compression dictionary for channel " + channelId + ", retrying after further samples", e);
+            samples.clear();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.endeavourhealth.hl7receiver.compression;
+
+public class CompressedContent {
+    private final byte[] content;
+    private final Integer compressionDictionaryId;
+
+    CompressedContent(byte[] content, Integer compressionDictionaryId) {
+        this.content = content;
+        this.compressionDictionaryId = compressionDictionaryId;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public Integer getCompressionDictionaryId() {
+        return compressionDictionaryId;
+    }
+}
@@ -0,0 +1,105 @@
+package org.endeavourhealth.hl7receiver.compression;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+    zlib (deflate) with an optional preset dictionary
+
+    the zlib header records the adler32 of the preset dictionary, so decompressing with the wrong dictionary fails
+    rather than returning the wrong content
+*/
+public final class ContentCodec {
+
+    // deflate can only refer back 32KB, anything before that in a dictionary is never used
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ContentCodec() {
+    }
+
+    public static byte[] compress(String content, byte[] dictionary) {
+        Validate.notNull(content);
+
+        return compress(content.getBytes(StandardCharsets.UTF_8), dictionary);
+    }
+
+    public static byte[] compress(byte[] input, byte[] dictionary) {
+        Validate.notNull(input);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+        try {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary);
+
+            deflater.setInput(input);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+
+            return output.toByteArray();
+
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static String decompress(byte[] compressed, byte[] dictionary) throws DataFormatException {
+        Validate.notNull(compressed);
+
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(compressed);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null)
+                            throw new DataFormatException("Content was compressed with a dictionary but none was supplied");
+
+                        setDictionary(inflater, dictionary);
+
+                    } else if (inflater.needsInput() && !inflater.finished()) {
+                        throw new DataFormatException("Compressed content is truncated");
+                    }
+                }
+
+                output.write(buffer, 0, length);
+            }
+
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void setDictionary(Inflater inflater, byte[] dictionary) throws DataFormatException {
+        try {
+            inflater.setDictionary(dictionary);
+
+        } catch (IllegalArgumentException e) {
+            // the dictionary's adler32 does not match the one in the zlib header
+            throw new DataFormatException("Content was compressed with a different dictionary");
+        }
+    }
+}
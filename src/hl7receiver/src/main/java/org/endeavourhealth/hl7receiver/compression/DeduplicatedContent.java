@@ -0,0 +1,23 @@
+package org.endeavourhealth.hl7receiver.compression;
+
+import org.endeavourhealth.hl7receiver.model.db.DbSharedResource;
+
+import java.util.List;
+
+public class DeduplicatedContent {
+    private final String content;
+    private final List<DbSharedResource> newResources;
+
+    DeduplicatedContent(String content, List<DbSharedResource> newResources) {
+        this.content = content;
+        this.newResources = newResources;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public List<DbSharedResource> getNewResources() {
+        return newResources;
+    }
+}
@@ -0,0 +1,98 @@
+package org.endeavourhealth.hl7receiver.compression;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    builds a deflate preset dictionary from sample content
+
+    samples are cut into fragments at the start of each json object (or hl7 segment), and fragments that recur across
+    at least MIN_DOCUMENT_FREQUENCY of the samples (the organisation, location and meta blocks every bundle repeats)
+    are packed into the dictionary, most valuable last as deflate matches nearer distances more cheaply
+*/
+public final class DictionaryTrainer {
+
+    private static final int MIN_FRAGMENT_LENGTH = 16;
+    private static final int MAX_FRAGMENT_LENGTH = 2048;
+    private static final double MIN_DOCUMENT_FREQUENCY = 0.2;
+
+    private DictionaryTrainer() {
+    }
+
+    public static byte[] train(List<String> samples) {
+        Validate.notEmpty(samples);
+
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+
+        for (String sample : samples)
+            for (String fragment : getDistinctFragments(sample))
+                documentFrequencies.merge(fragment, 1, Integer::sum);
+
+        int minDocumentFrequency = Math.max(2, (int) Math.ceil(samples.size() * MIN_DOCUMENT_FREQUENCY));
+
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+
+        for (Map.Entry<String, Integer> entry : documentFrequencies.entrySet())
+            if (entry.getValue() >= minDocumentFrequency)
+                candidates.add(entry);
+
+        // highest saving first, i.e. frequency x length
+        candidates.sort(Comparator.comparingLong((Map.Entry<String, Integer> t) -> (long) t.getValue() * t.getKey().length()).reversed());
+
+        List<byte[]> selected = new ArrayList<>();
+        int size = 0;
+
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            byte[] bytes = candidate.getKey().getBytes(StandardCharsets.UTF_8);
+
+            if (size + bytes.length > ContentCodec.MAX_DICTIONARY_SIZE)
+                continue;
+
+            selected.add(bytes);
+            size += bytes.length;
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+
+        for (int i = selected.size() - 1; i >= 0; i--)
+            dictionary.write(selected.get(i), 0, selected.get(i).length);
+
+        return dictionary.toByteArray();
+    }
+
+    private static Set<String> getDistinctFragments(String sample) {
+        Set<String> fragments = new HashSet<>();
+
+        if (sample == null)
+            return fragments;
+
+        int start = 0;
+
+        for (int i = 1; i <= sample.length(); i++) {
+            if (i < sample.length() && !isFragmentBoundary(sample.charAt(i)))
+                continue;
+
+            int length = i - start;
+
+            if (length >= MIN_FRAGMENT_LENGTH && length <= MAX_FRAGMENT_LENGTH)
+                fragments.add(sample.substring(start, i));
+
+            start = i;
+        }
+
+        return fragments;
+    }
+
+    private static boolean isFragmentBoundary(char c) {
+        return (c == '{' || c == '\r' || c == '\n');
+    }
+}
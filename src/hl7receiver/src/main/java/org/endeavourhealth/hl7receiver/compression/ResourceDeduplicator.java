@@ -0,0 +1,229 @@
+package org.endeavourhealth.hl7receiver.compression;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.endeavourhealth.hl7receiver.mapping.MappingCache;
+import org.endeavourhealth.hl7receiver.model.db.DbSharedResource;
+import org.hl7.fhir.instance.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    content addressed storage of resources that repeat across saved FHIR bundles
+
+    each Organization, Location and Practitioner resource in a bundle is written once to log.shared_resource, keyed
+    by the sha-256 of its json text, and replaced in the bundle by {"$sharedResource":"<hash>"}; the resource text is
+    cut out of the bundle as is, so reconstruct(..) gives back the original bundle exactly
+
+    used on the content writer thread, which saves the new resources in the same batch ahead of the content that
+    references them. known hashes time out so a resource still in use has its last_referenced_date moved on
+*/
+public class ResourceDeduplicator {
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceDeduplicator.class);
+
+    private static final int KNOWN_HASHES_MAX_ENTRIES = 50000;
+    private static final long KNOWN_HASH_TIMEOUT_NANOS = TimeUnit.DAYS.toNanos(1);
+
+    private static final Set<String> SHARED_RESOURCE_TYPES = new HashSet<>(Arrays.asList(
+            ResourceType.Organization.toString(),
+            ResourceType.Location.toString(),
+            ResourceType.Practitioner.toString()));
+
+    private static final Pattern SHARED_RESOURCE_REFERENCE_PATTERN = Pattern.compile("\\{\"\\$sharedResource\":\"([0-9a-f]{64})\"\\}");
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final MappingCache<String, Boolean> knownHashes;
+
+    public ResourceDeduplicator(String name) {
+        this.knownHashes = new MappingCache<>(name, KNOWN_HASHES_MAX_ENTRIES);
+    }
+
+    /*
+        returns the bundle with shared resources replaced by references, and the resources not seen before, which
+        must be saved before the bundle and then passed to addKnownResources(..)
+    */
+    public DeduplicatedContent deduplicate(String bundle) throws NoSuchAlgorithmException {
+        List<ResourceSpan> spans;
+
+        try {
+            spans = findSharedResources(bundle);
+        } catch (Exception e) {
+            LOG.warn("Could not parse content as a FHIR bundle, saving without deduplication", e);
+            return new DeduplicatedContent(bundle, Collections.emptyList());
+        }
+
+        if (spans.isEmpty())
+            return new DeduplicatedContent(bundle, Collections.emptyList());
+
+        StringBuilder deduplicated = new StringBuilder(bundle.length());
+        List<DbSharedResource> newResources = new ArrayList<>();
+        Set<String> newHashes = new HashSet<>();
+        int position = 0;
+
+        for (ResourceSpan span : spans) {
+            String content = bundle.substring(span.start, span.end);
+            String hash = sha256(content);
+
+            if (knownHashes.get(hash) == null && newHashes.add(hash))
+                newResources.add(new DbSharedResource()
+                        .setResourceHash(hash)
+                        .setResourceType(span.resourceType)
+                        .setContent(content));
+
+            deduplicated
+                    .append(bundle, position, span.start)
+                    .append("{\"$sharedResource\":\"")
+                    .append(hash)
+                    .append("\"}");
+
+            position = span.end;
+        }
+
+        deduplicated.append(bundle, position, bundle.length());
+
+        return new DeduplicatedContent(deduplicated.toString(), newResources);
+    }
+
+    public void addKnownResources(List<DbSharedResource> savedResources) {
+        for (DbSharedResource savedResource : savedResources)
+            knownHashes.put(savedResource.getResourceHash(), Boolean.TRUE, KNOWN_HASH_TIMEOUT_NANOS);
+    }
+
+    public MappingCache<String, Boolean> getKnownHashes() {
+        return knownHashes;
+    }
+
+    public static Set<String> getSharedResourceHashes(String content) {
+        Set<String> hashes = new LinkedHashSet<>();
+
+        if (content == null)
+            return hashes;
+
+        Matcher matcher = SHARED_RESOURCE_REFERENCE_PATTERN.matcher(content);
+
+        while (matcher.find())
+            hashes.add(matcher.group(1));
+
+        return hashes;
+    }
+
+    public static String reconstruct(String content, Map<String, String> sharedResources) {
+        if (content == null)
+            return null;
+
+        Matcher matcher = SHARED_RESOURCE_REFERENCE_PATTERN.matcher(content);
+        StringBuilder reconstructed = new StringBuilder(content.length() * 2);
+        int position = 0;
+
+        while (matcher.find()) {
+            String sharedResource = sharedResources.get(matcher.group(1));
+
+            if (sharedResource == null)
+                throw new IllegalStateException("Could not find shared resource " + matcher.group(1));
+
+            reconstructed
+                    .append(content, position, matcher.start())
+                    .append(sharedResource);
+
+            position = matcher.end();
+        }
+
+        if (position == 0)
+            return content;
+
+        return reconstructed.append(content, position, content.length()).toString();
+    }
+
+    /*
+        finds the character range of each shared type resource under entry[*].resource
+    */
+    private static List<ResourceSpan> findSharedResources(String bundle) throws Exception {
+        List<ResourceSpan> spans = new ArrayList<>();
+
+        try (JsonParser parser = JSON_FACTORY.createParser(bundle)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                return spans;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+
+                if (parser.nextToken() != JsonToken.START_ARRAY || !"entry".equals(fieldName)) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String entryFieldName = parser.getCurrentName();
+
+                        if (parser.nextToken() != JsonToken.START_OBJECT || !"resource".equals(entryFieldName)) {
+                            parser.skipChildren();
+                            continue;
+                        }
+
+                        ResourceSpan span = readResource(parser);
+
+                        if (SHARED_RESOURCE_TYPES.contains(span.resourceType))
+                            spans.add(span);
+                    }
+                }
+            }
+        }
+
+        return spans;
+    }
+
+    private static ResourceSpan readResource(JsonParser parser) throws Exception {
+        ResourceSpan span = new ResourceSpan();
+        span.start = (int) parser.getTokenLocation().getCharOffset();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if ("resourceType".equals(fieldName) && value == JsonToken.VALUE_STRING)
+                span.resourceType = parser.getText();
+            else
+                parser.skipChildren();
+        }
+
+        span.end = (int) parser.getCurrentLocation().getCharOffset();
+        return span;
+    }
+
+    private static String sha256(String content) throws NoSuchAlgorithmException {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+
+        char[] hex = new char[hash.length * 2];
+
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0f];
+        }
+
+        return new String(hex);
+    }
+
+    private static class ResourceSpan {
+        private int start;
+        private int end;
+        private String resourceType;
+    }
+}
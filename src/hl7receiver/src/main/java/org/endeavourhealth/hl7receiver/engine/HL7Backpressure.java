@@ -0,0 +1,180 @@
+package org.endeavourhealth.hl7receiver.engine;
+
+import org.apache.commons.lang3.StringUtils;
+import org.endeavourhealth.common.utility.SlackHelper;
+import org.endeavourhealth.hl7receiver.Configuration;
+import org.endeavourhealth.hl7receiver.metrics.ChannelActivity;
+import org.endeavourhealth.hl7receiver.model.db.DbChannel;
+import org.endeavourhealth.hl7receiver.model.db.DbChannelOptionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    holds back a channel's sending system while the processing backlog is too deep
+
+    backpressure is applied when the queue depth reaches the high watermark and lifted when it falls back to the
+    low watermark. the depth is ChannelActivity's estimate so checking it per message costs nothing; on an
+    instance that receives but does not process, the estimate only comes down when log.message_queue is next read.
+
+    slack notifications are sent on their own thread, as check() runs on the thread receiving the message
+*/
+class HL7Backpressure {
+    private static final Logger LOG = LoggerFactory.getLogger(HL7Backpressure.class);
+
+    private static final double DEFAULT_LOW_WATERMARK_RATIO = 0.8;
+    private static final int DEFAULT_ACK_DELAY_MILLIS = 1000;
+
+    private static final ExecutorService slackExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "HL7BackpressureSlack");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    enum Action {
+        NONE,
+        DELAY_ACK,
+        REJECT_ACK
+    }
+
+    private final DbChannel dbChannel;
+    private final String instanceName;
+    private final ChannelActivity channelActivity;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final Action action;
+    private final int ackDelayMillis;
+    private final AtomicBoolean applied = new AtomicBoolean(false);
+
+    public HL7Backpressure(Configuration configuration, DbChannel dbChannel, ChannelActivity channelActivity) {
+        this(dbChannel,
+                configuration.getMachineName(),
+                channelActivity,
+                getLongOption(configuration, dbChannel, DbChannelOptionType.BACKPRESSURE_HIGH_WATERMARK, 0),
+                getLongOption(configuration, dbChannel, DbChannelOptionType.BACKPRESSURE_LOW_WATERMARK, 0),
+                getAction(configuration, dbChannel),
+                (int) getLongOption(configuration, dbChannel, DbChannelOptionType.BACKPRESSURE_ACK_DELAY_MILLIS, DEFAULT_ACK_DELAY_MILLIS));
+    }
+
+    HL7Backpressure(DbChannel dbChannel, String instanceName, ChannelActivity channelActivity, long highWatermark, long configuredLowWatermark, Action action, int ackDelayMillis) {
+        this.dbChannel = dbChannel;
+        this.instanceName = instanceName;
+        this.channelActivity = channelActivity;
+        this.highWatermark = highWatermark;
+
+        this.lowWatermark = ((configuredLowWatermark <= 0) || (configuredLowWatermark >= highWatermark))
+                ? (long) (highWatermark * DEFAULT_LOW_WATERMARK_RATIO)
+                : configuredLowWatermark;
+
+        this.action = action;
+        this.ackDelayMillis = ackDelayMillis;
+
+        if (isEnabled())
+            LOG.info("Backpressure on channel {} applies {} above a queue depth of {} until it falls to {}", dbChannel.getChannelName(), action.name(), highWatermark, lowWatermark);
+    }
+
+    public boolean isEnabled() {
+        return (highWatermark > 0);
+    }
+
+    public int getAckDelayMillis() {
+        return ackDelayMillis;
+    }
+
+    public long getHighWatermark() {
+        return highWatermark;
+    }
+
+    /*
+        for the NIO listener, which delays the connection rather than sleeping on a shared worker
+    */
+    public int checkAckDelayMillis() {
+        if (check() != Action.DELAY_ACK)
+            return 0;
+
+        channelActivity.messageDelayedByBackpressure();
+        return ackDelayMillis;
+    }
+
+    public Action check() {
+        if (!isEnabled())
+            return Action.NONE;
+
+        long queueDepth = channelActivity.getEstimatedQueueDepth();
+
+        if (queueDepth < 0)
+            return Action.NONE;
+
+        if (queueDepth >= highWatermark) {
+            if (applied.compareAndSet(false, true))
+                onApplied(queueDepth);
+
+        } else if (queueDepth <= lowWatermark) {
+            if (applied.compareAndSet(true, false))
+                onLifted(queueDepth);
+        }
+
+        return applied.get() ? action : Action.NONE;
+    }
+
+    private void onApplied(long queueDepth) {
+        channelActivity.setBackpressureApplied(true);
+
+        String message = "Backpressure applied on channel " + dbChannel.getChannelName() + " on instance " + instanceName
+                + ", queue depth " + queueDepth + " reached high watermark " + highWatermark + ", " + describeAction();
+
+        LOG.warn(message);
+        sendSlackMessage(message);
+    }
+
+    private void onLifted(long queueDepth) {
+        channelActivity.setBackpressureApplied(false);
+
+        String message = "Backpressure lifted on channel " + dbChannel.getChannelName() + " on instance " + instanceName
+                + ", queue depth " + queueDepth + " fell to low watermark " + lowWatermark;
+
+        LOG.info(message);
+        sendSlackMessage(message);
+    }
+
+    private static void sendSlackMessage(String message) {
+        slackExecutor.execute(() -> {
+            try {
+                SlackHelper.sendSlackMessage(SlackHelper.Channel.Hl7Receiver, message);
+
+            } catch (Exception e) {
+                LOG.error("Could not send backpressure notification to Slack", e);
+            }
+        });
+    }
+
+    private String describeAction() {
+        if (action == Action.REJECT_ACK)
+            return "sending AR negative acknowledgements";
+
+        return "delaying acknowledgements by " + ackDelayMillis + " ms";
+    }
+
+    private static Action getAction(Configuration configuration, DbChannel dbChannel) {
+        String actionValue = configuration.getChannelOptionValue(dbChannel.getChannelId(), DbChannelOptionType.BACKPRESSURE_ACTION);
+        return "RejectAck".equalsIgnoreCase(StringUtils.trim(actionValue)) ? Action.REJECT_ACK : Action.DELAY_ACK;
+    }
+
+    private static long getLongOption(Configuration configuration, DbChannel dbChannel, DbChannelOptionType optionType, long defaultValue) {
+        String optionValue = configuration.getChannelOptionValue(dbChannel.getChannelId(), optionType);
+
+        if (StringUtils.isBlank(optionValue))
+            return defaultValue;
+
+        try {
+            return Long.parseLong(optionValue.trim());
+
+        } catch (NumberFormatException e) {
+            LOG.error("Channel option {} on channel {} is not a number, using {}", optionType.getValue(), dbChannel.getChannelName(), defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -3,6 +3,9 @@ package org.endeavourhealth.hl7receiver.engine;
 import ca.uhn.hl7v2.DefaultHapiContext;
 import ca.uhn.hl7v2.HapiContext;
 import ca.uhn.hl7v2.app.HL7Service;
+import ca.uhn.hl7v2.protocol.ApplicationRouter;
+import ca.uhn.hl7v2.protocol.impl.AppRoutingDataImpl;
+import ca.uhn.hl7v2.protocol.impl.ApplicationRouterImpl;
 import ca.uhn.hl7v2.validation.impl.NoValidation;
 import org.apache.commons.lang3.Validate;
 import org.endeavourhealth.hl7receiver.Configuration;
@@ -11,6 +14,7 @@ import org.endeavourhealth.hl7receiver.model.db.DbChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.SQLException;
 
 class HL7Channel {
@@ -18,6 +22,8 @@ class HL7Channel {
 
     private HapiContext context;
     private HL7Service service;
+    private HL7MllpServer mllpServer;
+    private ApplicationRouter router;
     private DbChannel dbChannel;
     private Configuration configuration;
     private PostgresDataLayer dataLayer;
@@ -29,39 +35,61 @@ class HL7Channel {
     private HL7Channel() {
     }
 
-    public HL7Channel(DbChannel dbChannel, Configuration configuration) throws SQLException {
+    /*
+        mllpServer is null to listen with HAPI's server
+    */
+    public HL7Channel(DbChannel dbChannel, Configuration configuration, HL7ContentWriter contentWriter, HL7MllpServer mllpServer) throws SQLException {
         Validate.notNull(dbChannel);
         Validate.notBlank(dbChannel.getChannelName());
         Validate.isTrue(dbChannel.getPortNumber() > 0);
 
         this.dbChannel = dbChannel;
         this.configuration = configuration;
+        this.mllpServer = mllpServer;
 
         this.dataLayer = new PostgresDataLayer();
 
         context = new DefaultHapiContext();
         context.setValidationContext(new NoValidation());
         connectionManager = new HL7ConnectionManager(configuration, dbChannel);
-        messageReceiver = new HL7MessageReceiver(configuration, dbChannel, connectionManager);
+        messageReceiver = new HL7MessageReceiver(configuration, dbChannel, connectionManager, (mllpServer == null));
         exceptionHandler = new HL7ExceptionHandler(configuration, dbChannel, connectionManager);
-        service = context.newServer(dbChannel.getPortNumber(), false);
-        channelProcessor = new HL7ChannelProcessor(configuration, dbChannel);
+        channelProcessor = new HL7ChannelProcessor(configuration, dbChannel, contentWriter);
+
+        if (mllpServer != null) {
+            ApplicationRouterImpl applicationRouter = new ApplicationRouterImpl(context);
+            applicationRouter.bindApplication(new AppRoutingDataImpl("*", "*", "*", "*"), messageReceiver);
+            applicationRouter.setExceptionHandler(exceptionHandler);
+            router = applicationRouter;
+            return;
+        }
 
+        service = context.newServer(dbChannel.getPortNumber(), false);
         service.registerApplication("*", "*", messageReceiver);
         service.registerConnectionListener(connectionManager);
         service.setExceptionHandler(exceptionHandler);
     }
 
-    public void start() throws InterruptedException {
+    public void start() throws InterruptedException, IOException {
         LOG.info("Starting channel {} on port {}", dbChannel.getChannelName(), dbChannel.getPortNumber());
         channelProcessor.start();
-        service.startAndWait();
+
+        if (mllpServer != null)
+            mllpServer.bind(dbChannel.getPortNumber(), dbChannel.getChannelName(), router, connectionManager, messageReceiver.getBackpressure());
+        else
+            service.startAndWait();
     }
 
     public void stop() {
         LOG.info("Stopping channel {} on port {}", dbChannel.getChannelName(), dbChannel.getPortNumber());
         channelProcessor.stop();
+
+        if (mllpServer != null)
+            mllpServer.unbind(dbChannel.getPortNumber());
+
         connectionManager.closeConnections();
-        service.stopAndWait();
+
+        if (service != null)
+            service.stopAndWait();
     }
 }
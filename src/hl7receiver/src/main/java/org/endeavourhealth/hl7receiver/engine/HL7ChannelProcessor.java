@@ -4,7 +4,15 @@ import org.apache.commons.lang3.StringUtils;
 import org.endeavourhealth.common.utility.SlackHelper;
 import org.endeavourhealth.hl7receiver.Configuration;
 import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.endeavourhealth.hl7receiver.compression.ChannelContentCompressor;
+import org.endeavourhealth.hl7receiver.compression.ResourceDeduplicator;
 import org.endeavourhealth.hl7receiver.mapping.Mapper;
+import org.endeavourhealth.hl7receiver.metrics.ChannelActivity;
+import org.endeavourhealth.hl7receiver.metrics.ChannelActivityRegistry;
+import org.endeavourhealth.hl7receiver.metrics.Metrics;
+import org.endeavourhealth.hl7receiver.metrics.MetricsRegistry;
+import org.endeavourhealth.hl7receiver.metrics.StageName;
+import org.endeavourhealth.hl7receiver.metrics.StageTimer;
 import org.endeavourhealth.hl7receiver.model.db.*;
 import org.endeavourhealth.hl7receiver.model.exceptions.HL7MessageProcessorException;
 import org.slf4j.Logger;
@@ -12,6 +20,8 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
 
 public class HL7ChannelProcessor implements Runnable {
 
@@ -26,14 +36,62 @@ public class HL7ChannelProcessor implements Runnable {
     private DbChannel dbChannel;
     private PostgresDataLayer dataLayer;
     private Mapper mapper;
+    private ChannelContentCompressor contentCompressor;
+    private ResourceDeduplicator resourceDeduplicator;
+    private HL7ContentWriter contentWriter;
+    private ChannelActivity channelActivity;
+    private StageTimer dequeueTimer;
+    private StageTimer processTimer;
+    private Map<DbProcessingContentType, StageTimer> contentSaveTimers = new EnumMap<>(DbProcessingContentType.class);
     private volatile boolean stopRequested = false;
     private boolean firstLockAttempt = true;
 
-    public HL7ChannelProcessor(Configuration configuration, DbChannel dbChannel) throws SQLException {
+    public HL7ChannelProcessor(Configuration configuration, DbChannel dbChannel, HL7ContentWriter contentWriter) throws SQLException {
         this.configuration = configuration;
         this.dbChannel = dbChannel;
+        this.contentWriter = contentWriter;
         this.dataLayer = new PostgresDataLayer();
-        this.mapper = new Mapper(dbChannel.getSendingFacility(), dataLayer);
+        this.mapper = new Mapper(dbChannel.getSendingFacility(), dataLayer, getUseDeterministicResourceUuids(), dbChannel.getChannelName())
+                .setResourceUuidSaver(contentWriter::saveResourceUuids);
+        this.contentCompressor = createContentCompressor();
+        this.resourceDeduplicator = createResourceDeduplicator();
+        this.channelActivity = ChannelActivityRegistry.getInstance().getChannelActivity(dbChannel.getChannelId(), dbChannel.getChannelName());
+
+        MetricsRegistry metricsRegistry = Metrics.getRegistry();
+        this.dequeueTimer = metricsRegistry.getTimer(dbChannel.getChannelName(), StageName.PROCESS_DEQUEUE);
+        this.processTimer = metricsRegistry.getTimer(dbChannel.getChannelName(), StageName.PROCESS_TOTAL);
+
+        for (DbProcessingContentType contentType : DbProcessingContentType.values())
+            this.contentSaveTimers.put(contentType, metricsRegistry.getTimer(dbChannel.getChannelName(), StageName.contentSave(contentType)));
+    }
+
+    private ResourceDeduplicator createResourceDeduplicator() {
+        String optionValue = configuration.getChannelOptionValue(dbChannel.getChannelId(), DbChannelOptionType.DEDUPLICATE_PROCESSING_CONTENT_RESOURCES);
+
+        if (!DbChannelOptionType.isChannelOptionValueTrue(optionValue))
+            return null;
+
+        return new ResourceDeduplicator(dbChannel.getChannelName() + "-shared-resource");
+    }
+
+    private ChannelContentCompressor createContentCompressor() {
+        String optionValue = configuration.getChannelOptionValue(dbChannel.getChannelId(), DbChannelOptionType.COMPRESS_PROCESSING_CONTENT);
+
+        if (!DbChannelOptionType.isChannelOptionValueTrue(optionValue))
+            return null;
+
+        try {
+            return new ChannelContentCompressor(dbChannel.getChannelId(), dataLayer);
+
+        } catch (Exception e) {
+            LOG.error("Error loading compression dictionary for channel " + dbChannel.getChannelName() + ", processing content will be stored uncompressed", e);
+            return null;
+        }
+    }
+
+    private boolean getUseDeterministicResourceUuids() {
+        String optionValue = configuration.getChannelOptionValue(dbChannel.getChannelId(), DbChannelOptionType.DETERMINISTIC_RESOURCE_UUIDS);
+        return DbChannelOptionType.isChannelOptionValueTrue(optionValue);
     }
 
     public void start() {
@@ -71,7 +129,9 @@ public class HL7ChannelProcessor implements Runnable {
             while (!stopRequested) {
                 LOG.trace("In main processor loop");
 
+                boolean hadLock = gotLock;
                 gotLock = getLock(gotLock);
+                channelActivity.setLockHeld(gotLock);
                 lastLockTriedTime = LocalDateTime.now();
                 LOG.trace("gotLock = " + gotLock);
 
@@ -80,6 +140,10 @@ public class HL7ChannelProcessor implements Runnable {
                 }
                 isFirstRun = false;
 
+                if (gotLock && !hadLock) {
+                    warmMapperCaches();
+                }
+
                 while (!stopRequested
                         && (lastLockTriedTime.plusSeconds(LOCK_RECLAIM_INTERVAL_SECONDS).isAfter(LocalDateTime.now()))) {
 
@@ -93,6 +157,7 @@ public class HL7ChannelProcessor implements Runnable {
                                 return;
                             }
 
+                            long dequeueStart = System.nanoTime();
                             DbMessage message = getNextMessage();
                             if (message == null) {
                                 //LOG.trace("No next message");
@@ -100,7 +165,10 @@ public class HL7ChannelProcessor implements Runnable {
                                 continue;
                             }
 
+                            dequeueTimer.recordSince(dequeueStart);
+
                             long msStart = System.currentTimeMillis();
+                            long processStart = System.nanoTime();
                             LOG.trace("Going to process message " + message.getMessageId());
                             if (!processMessage(message)) {
                                 LOG.trace("Failed to process message " + message.getMessageId());
@@ -111,6 +179,8 @@ public class HL7ChannelProcessor implements Runnable {
 
                                 Thread.sleep(THREAD_SLEEP_TIME_MILLIS);
                             } else {
+                                processTimer.recordSince(processStart);
+
                                 long msEnd = System.currentTimeMillis();
                                 long msTaken = msEnd - msStart;
                                 LOG.trace("Successfully processed message " + message.getMessageId() + " in " + msTaken + " ms");
@@ -138,7 +208,7 @@ public class HL7ChannelProcessor implements Runnable {
     }
 
     private boolean processMessage(DbMessage message) {
-        Integer attemptId = setMessageProcessingStarted(message.getMessageId(), configuration.getInstanceId());
+        Integer attemptId = setMessageProcessingStarted(message.getMessageId(), message.getLogDate(), configuration.getInstanceId());
 
         if (attemptId == null)
             return false;
@@ -146,14 +216,17 @@ public class HL7ChannelProcessor implements Runnable {
         try {
             HL7MessageProcessor messageProcessor = new HL7MessageProcessor(configuration,
                     dbChannel,
-                    (contentType, content) -> dataLayer.addMessageProcessingContent(message.getMessageId(), attemptId, contentType, content),
+                    (contentType, content) -> saveContent(message.getMessageId(), attemptId, contentType, content),
                     this.mapper);
 
-            if (messageProcessor.processMessage(message))
-                return setMessageProcessingSuccess(message.getMessageId(), attemptId);
+            if (messageProcessor.processMessage(message) && setMessageProcessingSuccess(message.getMessageId(), message.getLogDate(), attemptId)) {
+                channelActivity.messageProcessed();
+                return true;
+            }
 
         } catch (HL7MessageProcessorException e) {
-            setMessageProcessingFailure(message.getMessageId(), attemptId, e.getMessageStatus(), e);
+            setMessageProcessingFailure(message.getMessageId(), message.getLogDate(), attemptId, e.getMessageStatus(), e);
+            channelActivity.messageFailed();
 
             if (attemptId.intValue() == 1)
                 sendSlackNotification(message, e);
@@ -162,9 +235,24 @@ public class HL7ChannelProcessor implements Runnable {
         return false;
     }
 
-    private Integer setMessageProcessingStarted(int messageId, int instanceId) {
+    private void saveContent(int messageId, int attemptId, DbProcessingContentType contentType, String content) {
+        long start = System.nanoTime();
+
+        DbProcessingContent processingContent = new DbProcessingContent()
+                .setMessageId(messageId)
+                .setProcessingAttemptId(attemptId)
+                .setProcessingContentType(contentType)
+                .setContent(content);
+
+        // deduplicated and compressed on the content writer's thread
+        contentWriter.saveContent(processingContent, (contentType == DbProcessingContentType.FHIR) ? resourceDeduplicator : null, contentCompressor);
+
+        contentSaveTimers.get(contentType).recordSince(start);
+    }
+
+    private Integer setMessageProcessingStarted(int messageId, LocalDateTime logDate, int instanceId) {
         try {
-            return dataLayer.setMessageProcessingStarted(messageId, instanceId);
+            return dataLayer.setMessageProcessingStarted(messageId, logDate, instanceId);
 
         } catch (Exception e) {
             Object[] logArgs = new Object[] {
@@ -178,9 +266,14 @@ public class HL7ChannelProcessor implements Runnable {
         }
     }
 
-    private boolean setMessageProcessingSuccess(int messageId, int attemptId) {
+    private boolean setMessageProcessingSuccess(int messageId, LocalDateTime logDate, int attemptId) {
         try {
-            dataLayer.setMessageProcessingSuccess(messageId, attemptId, configuration.getInstanceId());
+            contentWriter.complete(new DbMessageCompletion()
+                    .setMessageId(messageId)
+                    .setLogDate(logDate)
+                    .setProcessingAttemptId(attemptId)
+                    .setMessageStatus(DbMessageStatus.MESSAGE_PROCESSING_COMPLETE)
+                    .setInstanceId(configuration.getInstanceId()));
             return true;
 
         } catch (Exception e) {
@@ -195,7 +288,7 @@ public class HL7ChannelProcessor implements Runnable {
         }
     }
 
-    private void setMessageProcessingFailure(int messageId, int attemptId, DbMessageStatus dbMessageStatus, Exception exception) {
+    private void setMessageProcessingFailure(int messageId, LocalDateTime logDate, int attemptId, DbMessageStatus dbMessageStatus, Exception exception) {
         try {
             String exceptionMessage = HL7ExceptionHandler.constructFormattedException(exception);
 
@@ -211,7 +304,13 @@ public class HL7ChannelProcessor implements Runnable {
 
             LOG.error("Error {} occurred while processing message {} in channel processor {} on instance {}", logArgs);
 
-            dataLayer.setMessageProcessingFailure(messageId, attemptId, dbMessageStatus, exceptionMessage, configuration.getInstanceId());
+            contentWriter.complete(new DbMessageCompletion()
+                    .setMessageId(messageId)
+                    .setLogDate(logDate)
+                    .setProcessingAttemptId(attemptId)
+                    .setMessageStatus(dbMessageStatus)
+                    .setErrorMessage(exceptionMessage)
+                    .setInstanceId(configuration.getInstanceId()));
 
         } catch (Exception e) {
             Object[] logArgs = new Object[] {
@@ -314,6 +413,20 @@ public class HL7ChannelProcessor implements Runnable {
         }
     }
 
+    private void warmMapperCaches() {
+        try {
+            mapper.warmCaches();
+
+        } catch (Exception e) {
+            Object[] logArgs = new Object[] {
+                    dbChannel.getChannelName(),
+                    configuration.getMachineName(),
+                    e };
+
+            LOG.error("Exception preloading mapping caches on channel {} on instance {}, continuing with empty caches", logArgs);
+        }
+    }
+
     private boolean getLock(boolean currentlyHaveLock) {
         try {
             boolean gotLock = dataLayer.getChannelProcessorLock(dbChannel.getChannelId(), configuration.getInstanceId(), LOCK_BREAK_OTHERS_SECONDS);
@@ -343,6 +456,7 @@ public class HL7ChannelProcessor implements Runnable {
                 LOG.info("Releasing lock on channel {} for instance {}", dbChannel.getChannelName(), configuration.getMachineName());
 
             dataLayer.releaseChannelProcessorLock(dbChannel.getChannelId(), configuration.getInstanceId());
+            channelActivity.setLockHeld(false);
 
         } catch (Exception e) {
             Object logArgs = new Object[] {
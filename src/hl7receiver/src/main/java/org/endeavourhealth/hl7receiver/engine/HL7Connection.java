@@ -4,15 +4,23 @@ import ca.uhn.hl7v2.app.Connection;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+/*
+    a sending system's connection, identified by its remote host and port. closeAction closes the underlying
+    HAPI or NIO connection and is not part of the identity
+*/
 public class HL7Connection {
-    private Connection connection;
+    private Runnable closeAction;
     private String host;
     private int port;
 
     public HL7Connection(Connection connection) {
-        this.connection = connection;
-        this.host = connection.getRemoteAddress().getHostAddress();
-        this.port = connection.getRemotePort();
+        this(connection.getRemoteAddress().getHostAddress(), connection.getRemotePort(), connection::close);
+    }
+
+    public HL7Connection(String host, int port, Runnable closeAction) {
+        this.host = host;
+        this.port = port;
+        this.closeAction = closeAction;
     }
 
     public HL7Connection(String host, int port) {
@@ -20,8 +28,9 @@ public class HL7Connection {
         this.port = port;
     }
 
-    public Connection getConnection() {
-        return this.connection;
+    public void close() {
+        if (closeAction != null)
+            closeAction.run();
     }
 
     public String getHost() {
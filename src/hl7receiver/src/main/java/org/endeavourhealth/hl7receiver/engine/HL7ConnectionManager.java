@@ -21,7 +21,7 @@ class HL7ConnectionManager implements ConnectionListener {
     private PostgresDataLayer dataLayer;
     private ConcurrentHashMap<HL7Connection, Integer> connectionIds = new ConcurrentHashMap<>();
 
-    private HL7ConnectionManager() {
+    HL7ConnectionManager() {
     }
 
     public HL7ConnectionManager(Configuration configuration, DbChannel dbChannel) throws SQLException {
@@ -32,7 +32,7 @@ class HL7ConnectionManager implements ConnectionListener {
 
     public void closeConnections() {
         for (HL7Connection connection : connectionIds.keySet())
-            connection.getConnection().close();
+            connection.close();
     }
 
     public Integer getConnectionId(String ipAddress, int port) {
@@ -47,7 +47,10 @@ class HL7ConnectionManager implements ConnectionListener {
         return (Integer)map.get(MetadataKeys.IN_SENDING_PORT);
     }
 
-    public synchronized Integer getConnectionId(Map<String, Object> map) {
+    /*
+        called for every message, connectionIds is a ConcurrentHashMap so no lock is taken
+    */
+    public Integer getConnectionId(Map<String, Object> map) {
         if (map == null)
             return null;
 
@@ -57,16 +60,24 @@ class HL7ConnectionManager implements ConnectionListener {
         return getConnectionId(remoteHost, remotePort);
     }
 
-    public synchronized void connectionReceived(Connection connection) {
-        String remoteHost = connection.getRemoteAddress().getHostAddress();
-        Integer remotePort = connection.getRemotePort();
+    public void connectionReceived(Connection connection) {
+        connectionOpened(new HL7Connection(connection));
+    }
 
-        LOG.info("Connection opened on channel " + dbChannel.getChannelName() + " from remote host " + remoteHost + " using remote port " + remotePort.toString());
+    public void connectionDiscarded(Connection connection) {
+        connectionClosed(new HL7Connection(connection));
+    }
+
+    /*
+        returns null, having closed the connection, if it could not be logged
+    */
+    public Integer connectionOpened(HL7Connection connection) {
+        LOG.info("Connection opened on channel " + dbChannel.getChannelName() + " from remote host " + connection.getHost() + " using remote port " + Integer.toString(connection.getPort()));
 
         Integer connectionId = null;
 
         try {
-            connectionId = dataLayer.openConnection(configuration.getDbConfiguration().getInstanceId(), dbChannel.getChannelId(), dbChannel.getPortNumber(), remoteHost, remotePort);
+            connectionId = dataLayer.openConnection(configuration.getDbConfiguration().getInstanceId(), dbChannel.getChannelId(), dbChannel.getPortNumber(), connection.getHost(), connection.getPort());
 
         } catch (Exception e) {
             LOG.error("Could not write new connection to database for channel {}. Closing inbound connection", new Object[] { dbChannel.getChannelName(), e });
@@ -74,17 +85,19 @@ class HL7ConnectionManager implements ConnectionListener {
         }
 
         if (connectionId != null)
-            this.connectionIds.put(new HL7Connection(connection), connectionId);
+            this.connectionIds.put(connection, connectionId);
+
+        return connectionId;
     }
 
-    public synchronized void connectionDiscarded(Connection connection) {
+    public void connectionClosed(HL7Connection connection) {
 
-        String remoteHost = connection.getRemoteAddress().getHostAddress();
-        Integer remotePort = connection.getRemotePort();
+        LOG.info("Connection closed on channel {} from remote host {} using remote port {}", new Object[] { dbChannel.getChannelName(), connection.getHost(), Integer.toString(connection.getPort())});
 
-        LOG.info("Connection closed on channel {} from remote host {} using remote port {}", new Object[] { dbChannel.getChannelName(), remoteHost, remotePort.toString()});
+        Integer connectionId = this.connectionIds.remove(connection);
 
-        Integer connectionId = this.connectionIds.remove(new HL7Connection(connection));
+        if (connectionId == null)
+            return;
 
         try {
             dataLayer.closeConnection(connectionId);
@@ -0,0 +1,301 @@
+package org.endeavourhealth.hl7receiver.engine;
+
+import org.endeavourhealth.hl7receiver.model.db.DbMessageCompletion;
+import org.endeavourhealth.hl7receiver.model.db.DbMessageStatus;
+import org.endeavourhealth.hl7receiver.model.db.DbProcessingContent;
+import org.endeavourhealth.hl7receiver.model.db.DbProcessingContentType;
+import org.endeavourhealth.hl7receiver.model.db.DbResourceUuidMapping;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/*
+    append only overflow file for HL7ContentWriter, records are read back in the order they were written
+
+    each record is its length, the crc32 of its bytes, then the bytes. on opening, a record left torn at the end of
+    the file by a crash is truncated so new records are not appended after it. a record that cannot be read is
+    copied to <file>.quarantine and skipped
+
+    not thread safe, HL7ContentWriter serialises access
+*/
+class HL7ContentSpillFile implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(HL7ContentSpillFile.class);
+
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private static final byte RECORD_TYPE_CONTENT = 1;
+    private static final byte RECORD_TYPE_COMPLETION = 2;
+    private static final byte RECORD_TYPE_RESOURCE_UUIDS = 3;
+
+    private final File file;
+    private final File quarantineFile;
+    private final RandomAccessFile randomAccessFile;
+    private long readPosition = 0;
+    private long writePosition = 0;
+
+    HL7ContentSpillFile(File file) throws IOException {
+        this.file = file;
+        this.quarantineFile = new File(file.getPath() + ".quarantine");
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.writePosition = findEndOfRecords();
+
+        if (writePosition < randomAccessFile.length()) {
+            Object[] logArgs = new Object[] {
+                    randomAccessFile.length() - writePosition,
+                    file.getAbsolutePath(),
+                    writePosition };
+
+            LOG.warn("Truncating {} bytes of torn record from spill file {} at {}", logArgs);
+            quarantine(writePosition, randomAccessFile.length());
+            randomAccessFile.setLength(writePosition);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isExhausted() {
+        return readPosition >= writePosition;
+    }
+
+    public void append(HL7ContentWriter.PendingWrite pendingWrite) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        if (pendingWrite.getResourceUuidScopeName() != null) {
+            output.writeByte(RECORD_TYPE_RESOURCE_UUIDS);
+            output.writeUTF(pendingWrite.getResourceUuidScopeName());
+            output.writeInt(pendingWrite.getResourceUuidMappings().size());
+
+            for (DbResourceUuidMapping mapping : pendingWrite.getResourceUuidMappings()) {
+                output.writeUTF(mapping.getResourceType());
+                output.writeUTF(mapping.getUniqueIdentifier());
+                output.writeLong(mapping.getResourceUuid().getMostSignificantBits());
+                output.writeLong(mapping.getResourceUuid().getLeastSignificantBits());
+            }
+
+        } else if (pendingWrite.getProcessingContent() != null) {
+            DbProcessingContent content = pendingWrite.getProcessingContent();
+
+            output.writeByte(RECORD_TYPE_CONTENT);
+            output.writeInt(content.getMessageId());
+            output.writeInt(content.getProcessingAttemptId());
+            output.writeInt(content.getProcessingContentType().getValue());
+            writeBytes(output, (content.getContent() == null) ? null : content.getContent().getBytes(StandardCharsets.UTF_8));
+            writeBytes(output, content.getContentCompressed());
+            output.writeInt((content.getCompressionDictionaryId() == null) ? -1 : content.getCompressionDictionaryId());
+
+        } else {
+            DbMessageCompletion completion = pendingWrite.getCompletion();
+
+            output.writeByte(RECORD_TYPE_COMPLETION);
+            output.writeLong(pendingWrite.getCompletionId());
+            output.writeInt(completion.getMessageId());
+            output.writeUTF(completion.getLogDate().toString());
+            output.writeInt(completion.getProcessingAttemptId());
+            output.writeInt(completion.getMessageStatus().getValue());
+            writeBytes(output, (completion.getErrorMessage() == null) ? null : completion.getErrorMessage().getBytes(StandardCharsets.UTF_8));
+            output.writeInt(completion.getInstanceId());
+        }
+
+        output.flush();
+
+        byte[] record = bytes.toByteArray();
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(RECORD_HEADER_BYTES + record.length);
+        DataOutputStream recordOutput = new DataOutputStream(recordBytes);
+        recordOutput.writeInt(record.length);
+        recordOutput.writeInt(checksum(record));
+        recordOutput.write(record);
+
+        randomAccessFile.seek(writePosition);
+        randomAccessFile.write(recordBytes.toByteArray());
+        writePosition = randomAccessFile.getFilePointer();
+    }
+
+    public List<HL7ContentWriter.PendingWrite> read(int maxRecords) throws IOException {
+        List<HL7ContentWriter.PendingWrite> pendingWrites = new ArrayList<>();
+
+        while (pendingWrites.size() < maxRecords && !isExhausted()) {
+            long recordPosition = readPosition;
+            randomAccessFile.seek(recordPosition);
+
+            int length = randomAccessFile.readInt();
+            int checksum = randomAccessFile.readInt();
+
+            if (length < 0 || recordPosition + RECORD_HEADER_BYTES + length > writePosition) {
+                LOG.error("Spill file {} has an unreadable record length at {}, quarantining the rest of the file", file.getAbsolutePath(), recordPosition);
+                quarantine(recordPosition, writePosition);
+                readPosition = writePosition;
+                break;
+            }
+
+            byte[] record = new byte[length];
+            randomAccessFile.readFully(record);
+            readPosition = randomAccessFile.getFilePointer();
+
+            try {
+                if (checksum(record) != checksum)
+                    throw new IOException("Checksum does not match");
+
+                pendingWrites.add(readRecord(new DataInputStream(new ByteArrayInputStream(record))));
+
+            } catch (Exception e) {
+                LOG.error("Could not read spill file " + file.getAbsolutePath() + " record at " + recordPosition + ", quarantining it", e);
+                quarantine(recordPosition, readPosition);
+            }
+        }
+
+        return pendingWrites;
+    }
+
+    public void reset() throws IOException {
+        randomAccessFile.setLength(0);
+        readPosition = 0;
+        writePosition = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    /*
+        the end of the last whole record, anything after it was being written when the process stopped. a bad
+        checksum before the last record is left for read(..) to quarantine
+    */
+    private long findEndOfRecords() throws IOException {
+        long length = randomAccessFile.length();
+        long position = 0;
+
+        while (position + RECORD_HEADER_BYTES <= length) {
+            randomAccessFile.seek(position);
+
+            int recordLength = randomAccessFile.readInt();
+            int checksum = randomAccessFile.readInt();
+
+            long recordEnd = position + RECORD_HEADER_BYTES + recordLength;
+
+            if (recordLength < 0 || recordEnd > length)
+                break;
+
+            byte[] record = new byte[recordLength];
+            randomAccessFile.readFully(record);
+
+            if (recordEnd == length && checksum(record) != checksum)
+                break;
+
+            position = recordEnd;
+        }
+
+        return position;
+    }
+
+    private void quarantine(long start, long end) {
+        try {
+            byte[] bytes = new byte[(int) (end - start)];
+            randomAccessFile.seek(start);
+            randomAccessFile.readFully(bytes);
+
+            Files.write(quarantineFile.toPath(), bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        } catch (Exception e) {
+            LOG.error("Could not copy spill file record to " + quarantineFile.getAbsolutePath() + ", it is lost", e);
+        }
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return (int) crc.getValue();
+    }
+
+    private static HL7ContentWriter.PendingWrite readRecord(DataInput input) throws IOException {
+        byte recordType = input.readByte();
+
+        if (recordType == RECORD_TYPE_CONTENT) {
+            DbProcessingContent content = new DbProcessingContent()
+                    .setMessageId(input.readInt())
+                    .setProcessingAttemptId(input.readInt())
+                    .setProcessingContentType(DbProcessingContentType.fromValue(input.readInt()));
+
+            byte[] contentBytes = readBytes(input);
+            content.setContent((contentBytes == null) ? null : new String(contentBytes, StandardCharsets.UTF_8));
+            content.setContentCompressed(readBytes(input));
+
+            int compressionDictionaryId = input.readInt();
+            content.setCompressionDictionaryId((compressionDictionaryId == -1) ? null : compressionDictionaryId);
+
+            return HL7ContentWriter.PendingWrite.forContent(content);
+        }
+
+        if (recordType == RECORD_TYPE_COMPLETION) {
+            long completionId = input.readLong();
+
+            DbMessageCompletion completion = new DbMessageCompletion()
+                    .setMessageId(input.readInt())
+                    .setLogDate(LocalDateTime.parse(input.readUTF()))
+                    .setProcessingAttemptId(input.readInt())
+                    .setMessageStatus(DbMessageStatus.fromValue(input.readInt()));
+
+            byte[] errorMessage = readBytes(input);
+            completion.setErrorMessage((errorMessage == null) ? null : new String(errorMessage, StandardCharsets.UTF_8));
+            completion.setInstanceId(input.readInt());
+
+            return HL7ContentWriter.PendingWrite.forCompletion(completionId, completion);
+        }
+
+        if (recordType == RECORD_TYPE_RESOURCE_UUIDS) {
+            String scopeName = input.readUTF();
+            int count = input.readInt();
+            List<DbResourceUuidMapping> mappings = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++)
+                mappings.add(new DbResourceUuidMapping()
+                        .setResourceType(input.readUTF())
+                        .setUniqueIdentifier(input.readUTF())
+                        .setResourceUuid(new UUID(input.readLong(), input.readLong())));
+
+            return HL7ContentWriter.PendingWrite.forResourceUuids(scopeName, mappings);
+        }
+
+        throw new IOException("Unknown spill file record type " + recordType);
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput input) throws IOException {
+        int length = input.readInt();
+
+        if (length == -1)
+            return null;
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,559 @@
+package org.endeavourhealth.hl7receiver.engine;
+
+import org.endeavourhealth.hl7receiver.Configuration;
+import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.endeavourhealth.hl7receiver.compression.ChannelContentCompressor;
+import org.endeavourhealth.hl7receiver.compression.CompressedContent;
+import org.endeavourhealth.hl7receiver.compression.DeduplicatedContent;
+import org.endeavourhealth.hl7receiver.compression.ResourceDeduplicator;
+import org.endeavourhealth.hl7receiver.model.db.DbMessageCompletion;
+import org.endeavourhealth.hl7receiver.model.db.DbProcessingContent;
+import org.endeavourhealth.hl7receiver.model.db.DbResourceUuidMapping;
+import org.endeavourhealth.hl7receiver.model.db.DbSharedResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    write behind for processing content, shared by all channel processors in the instance
+
+    content is queued and written in the background in multi row batches, so saving it does not hold up the
+    transform / envelope / send steps. final statuses go through the same queue and the caller waits for them,
+    and as the queue is strictly first in first out a status is never written before the content saved ahead of it.
+
+    shared resource deduplication and compression are done here too, not on the channel processor thread. the new
+    shared resources of a batch are saved in one statement ahead of its content; if they cannot be saved the content
+    that would reference them is saved whole instead, so neither holds up or fails the message.
+
+    new resource UUID mappings from the mapper go through the queue too, so they are written in one statement per
+    scope per batch rather than one per message, and are in the database before the status of the message that made them.
+    mappings that cannot be written are kept and retried with each following batch, and until they are saved the
+    statuses of those batches are failed rather than written, so their messages are processed again.
+
+    when the in memory queue is full everything is appended to a local spill file until the writer has caught up
+    with it; a spill file left by a previous run is written at start up, except its statuses, which were never
+    confirmed to their channel processor (those messages are processed again). spilled content is saved as it was
+    queued, without deduplication or compression
+*/
+public class HL7ContentWriter implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(HL7ContentWriter.class);
+
+    private static final String SPILL_DIRECTORY_PROPERTY = "hl7receiver.contentSpillDirectory";
+    private static final int QUEUE_CAPACITY = 2000;
+    private static final int BATCH_SIZE = 100;
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final int BATCH_WRITE_ATTEMPTS = 3;
+    private static final int BATCH_RETRY_DELAY_MILLIS = 5000;
+    private static final int THREAD_STOP_WAIT_TIMEOUT_MILLIS = 30000;
+    private static final int COMPLETION_WAIT_TIMEOUT_MILLIS = 120000;
+
+    private final PostgresDataLayer dataLayer;
+    private final File spillFilePath;
+    private final BlockingQueue<PendingWrite> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> pendingCompletions = new ConcurrentHashMap<>();
+
+    // only used on the writer thread
+    private final Map<String, List<DbResourceUuidMapping>> unsavedResourceUuids = new LinkedHashMap<>();
+
+    // ids are unique across runs so statuses left in the spill file by a previous run are never matched
+    private final AtomicLong nextCompletionId = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    private final Object spillLock = new Object();
+    private HL7ContentSpillFile spillFile;
+    private boolean spilling = false;
+
+    private volatile Thread thread;
+    private volatile boolean stopRequested = false;
+
+    public HL7ContentWriter(Configuration configuration) {
+        this.dataLayer = new PostgresDataLayer();
+
+        String spillDirectory = System.getProperty(SPILL_DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir"));
+        this.spillFilePath = new File(spillDirectory, "hl7receiver-content-spill-" + configuration.getInstanceId() + ".dat");
+    }
+
+    public void start() throws IOException {
+        LOG.info("Starting content writer, spill file " + spillFilePath.getAbsolutePath());
+
+        synchronized (spillLock) {
+            spillFile = new HL7ContentSpillFile(spillFilePath);
+
+            if (!spillFile.isExhausted()) {
+                LOG.warn("Writing processing content left in spill file by a previous run");
+                spilling = true;
+            }
+        }
+
+        thread = new Thread(this);
+        thread.setName("HL7ContentWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        LOG.info("Stopping content writer");
+        stopRequested = true;
+
+        try {
+            thread.join(THREAD_STOP_WAIT_TIMEOUT_MILLIS);
+        } catch (Exception e) {
+            LOG.error("Error stopping content writer", e);
+        }
+    }
+
+    /*
+        queues content to be written, errors are logged rather than thrown as the content is diagnostic only.
+        the deduplicator and compressor are optional and only used on this writer's thread
+    */
+    public void saveContent(DbProcessingContent processingContent, ResourceDeduplicator resourceDeduplicator, ChannelContentCompressor contentCompressor) {
+        try {
+            submit(PendingWrite.forContent(processingContent)
+                    .setContentPreparation(resourceDeduplicator, contentCompressor));
+
+        } catch (Exception e) {
+            Object[] logArgs = new Object[] {
+                    processingContent.getProcessingContentType().name(),
+                    processingContent.getMessageId(),
+                    processingContent.getProcessingAttemptId(),
+                    e };
+
+            LOG.error("Could not queue {} content for message id {} attempt {}, content not saved", logArgs);
+        }
+    }
+
+    /*
+        queues new resource UUID mappings, errors are logged rather than thrown as the UUIDs are deterministic and
+        the rows are only needed for similar mapping searches
+    */
+    public void saveResourceUuids(String scopeName, List<DbResourceUuidMapping> resourceUuidMappings) {
+        try {
+            submit(PendingWrite.forResourceUuids(scopeName, new ArrayList<>(resourceUuidMappings)));
+
+        } catch (Exception e) {
+            Object[] logArgs = new Object[] {
+                    resourceUuidMappings.size(),
+                    scopeName,
+                    e };
+
+            LOG.error("Could not queue {} resource UUID mappings for scope {}, mappings not saved", logArgs);
+        }
+    }
+
+    /*
+        queues the final status and waits for it (and all content queued before it) to be written. a status still
+        queued when the wait times out is withdrawn, so it is never written after the caller has reported the
+        message as failed; one the writer has already taken is waited for, as the writer always settles it
+    */
+    public void complete(DbMessageCompletion completion) throws Exception {
+        if (thread == null || !thread.isAlive())
+            throw new IllegalStateException("Content writer is not running");
+
+        long completionId = nextCompletionId.getAndIncrement();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pendingCompletions.put(completionId, future);
+
+        try {
+            submit(PendingWrite.forCompletion(completionId, completion));
+
+            try {
+                future.get(COMPLETION_WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+            } catch (TimeoutException e) {
+                if (pendingCompletions.remove(completionId, future))
+                    throw e;
+
+                future.get();
+            }
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+
+            throw e;
+
+        } finally {
+            pendingCompletions.remove(completionId);
+        }
+    }
+
+    private void submit(PendingWrite pendingWrite) throws IOException {
+        synchronized (spillLock) {
+            if (!spilling && queue.offer(pendingWrite))
+                return;
+
+            if (!spilling) {
+                LOG.warn("Content writer queue full, spilling to " + spillFilePath.getAbsolutePath());
+                spilling = true;
+            }
+
+            spillFile.append(pendingWrite);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopRequested || !queue.isEmpty()) {
+                try {
+                    List<PendingWrite> batch = getNextBatch();
+
+                    if (!batch.isEmpty())
+                        write(batch);
+
+                } catch (InterruptedException e) {
+                    throw e;
+
+                } catch (Exception e) {
+                    // e.g. the spill file could not be read, stopping would stall every channel
+                    LOG.error("Error in content writer, retrying", e);
+                    Thread.sleep(BATCH_RETRY_DELAY_MILLIS);
+                }
+            }
+
+        } catch (Throwable t) {
+            LOG.error("Exception in content writer", t);
+        }
+
+        for (CompletableFuture<Void> future : pendingCompletions.values())
+            future.completeExceptionally(new IllegalStateException("Content writer stopped"));
+
+        for (Map.Entry<String, List<DbResourceUuidMapping>> entry : unsavedResourceUuids.entrySet())
+            LOG.error("Content writer stopped, {} resource UUID mappings for scope {} not saved", entry.getValue().size(), entry.getKey());
+
+        synchronized (spillLock) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing spill file", e);
+            }
+        }
+    }
+
+    private List<PendingWrite> getNextBatch() throws Exception {
+        List<PendingWrite> batch = new ArrayList<>();
+
+        PendingWrite first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (first != null) {
+            batch.add(first);
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            return batch;
+        }
+
+        synchronized (spillLock) {
+
+            // everything in the in memory queue was queued before anything in the spill file
+            if (!spilling || !queue.isEmpty())
+                return batch;
+
+            batch.addAll(spillFile.read(BATCH_SIZE));
+
+            if (spillFile.isExhausted()) {
+                spillFile.reset();
+                spilling = false;
+                LOG.info("Content writer caught up with spill file");
+            }
+        }
+
+        return batch;
+    }
+
+    private void write(List<PendingWrite> batch) throws InterruptedException {
+        List<PendingWrite> contentWrites = new ArrayList<>();
+        List<DbMessageCompletion> completions = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (PendingWrite pendingWrite : batch) {
+            if (pendingWrite.getResourceUuidScopeName() != null) {
+                unsavedResourceUuids
+                        .computeIfAbsent(pendingWrite.getResourceUuidScopeName(), t -> new ArrayList<>())
+                        .addAll(pendingWrite.getResourceUuidMappings());
+                continue;
+            }
+
+            if (pendingWrite.getProcessingContent() != null) {
+                contentWrites.add(pendingWrite);
+                continue;
+            }
+
+            // taking the future stops the caller withdrawing the status once its write has started
+            CompletableFuture<Void> future = pendingCompletions.remove(pendingWrite.getCompletionId());
+
+            if (future == null) {
+                Object[] logArgs = new Object[] {
+                        pendingWrite.getCompletion().getMessageId(),
+                        pendingWrite.getCompletion().getProcessingAttemptId() };
+
+                LOG.warn("Not writing status for message id {} attempt {} as it is no longer awaited (timed out, or left by a previous run)", logArgs);
+                continue;
+            }
+
+            completions.add(pendingWrite.getCompletion());
+            futures.add(future);
+        }
+
+        try {
+            write(contentWrites, completions, futures);
+
+        } finally {
+            // no effect on those already settled
+            for (CompletableFuture<Void> future : futures)
+                future.completeExceptionally(new IllegalStateException("Content writer could not write status"));
+        }
+    }
+
+    private void write(List<PendingWrite> contentWrites,
+                       List<DbMessageCompletion> completions,
+                       List<CompletableFuture<Void>> futures) throws InterruptedException {
+
+        for (Iterator<Map.Entry<String, List<DbResourceUuidMapping>>> iterator = unsavedResourceUuids.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, List<DbResourceUuidMapping>> entry = iterator.next();
+
+            if (writeResourceUuids(entry.getKey(), entry.getValue()))
+                iterator.remove();
+        }
+
+        // a status must not be written ahead of the mappings its message made
+        if (!unsavedResourceUuids.isEmpty() && !completions.isEmpty()) {
+            LOG.warn("Not writing {} statuses as resource UUID mappings are not yet saved", completions.size());
+
+            for (CompletableFuture<Void> future : futures)
+                future.completeExceptionally(new IllegalStateException("Resource UUID mappings not saved"));
+
+            completions = Collections.emptyList();
+            futures = Collections.emptyList();
+        }
+
+        List<DbProcessingContent> processingContents = prepareContents(contentWrites);
+
+        for (int attempt = 1; attempt <= BATCH_WRITE_ATTEMPTS; attempt++) {
+            try {
+                dataLayer.writeMessageProcessing(processingContents, completions);
+
+                for (CompletableFuture<Void> future : futures)
+                    future.complete(null);
+
+                return;
+
+            } catch (Exception e) {
+                LOG.warn("Error writing batch of " + processingContents.size() + " contents and " + completions.size() + " statuses, attempt " + attempt, e);
+
+                if (attempt < BATCH_WRITE_ATTEMPTS)
+                    Thread.sleep(BATCH_RETRY_DELAY_MILLIS);
+            }
+        }
+
+        // isolate the failing rows, content first to keep the ordering
+        for (DbProcessingContent processingContent : processingContents) {
+            try {
+                dataLayer.writeMessageProcessing(Collections.singletonList(processingContent), Collections.emptyList());
+
+            } catch (Exception e) {
+                Object[] logArgs = new Object[] {
+                        processingContent.getProcessingContentType().name(),
+                        processingContent.getMessageId(),
+                        processingContent.getProcessingAttemptId(),
+                        e };
+
+                LOG.error("Error writing {} content for message id {} attempt {}, content not saved", logArgs);
+            }
+        }
+
+        for (int i = 0; i < completions.size(); i++) {
+            try {
+                dataLayer.writeMessageProcessing(Collections.emptyList(), Collections.singletonList(completions.get(i)));
+                futures.get(i).complete(null);
+
+            } catch (Exception e) {
+                futures.get(i).completeExceptionally(e);
+            }
+        }
+    }
+
+    /*
+        deduplicates and compresses content as set when it was queued, any failure leaves the content as it was
+    */
+    private List<DbProcessingContent> prepareContents(List<PendingWrite> contentWrites) throws InterruptedException {
+        List<DbProcessingContent> processingContents = new ArrayList<>(contentWrites.size());
+        List<DeduplicatedContent> deduplicatedContents = new ArrayList<>(contentWrites.size());
+        Map<String, DbSharedResource> newResources = new LinkedHashMap<>();
+
+        for (PendingWrite contentWrite : contentWrites) {
+            DeduplicatedContent deduplicatedContent = deduplicate(contentWrite);
+            deduplicatedContents.add(deduplicatedContent);
+
+            if (deduplicatedContent != null)
+                for (DbSharedResource newResource : deduplicatedContent.getNewResources())
+                    newResources.putIfAbsent(newResource.getResourceHash(), newResource);
+        }
+
+        boolean newResourcesSaved = newResources.isEmpty() || writeSharedResources(new ArrayList<>(newResources.values()));
+
+        for (int i = 0; i < contentWrites.size(); i++) {
+            PendingWrite contentWrite = contentWrites.get(i);
+            DbProcessingContent processingContent = contentWrite.getProcessingContent();
+            DeduplicatedContent deduplicatedContent = deduplicatedContents.get(i);
+
+            if (deduplicatedContent != null && (newResourcesSaved || deduplicatedContent.getNewResources().isEmpty())) {
+                processingContent.setContent(deduplicatedContent.getContent());
+                contentWrite.getResourceDeduplicator().addKnownResources(deduplicatedContent.getNewResources());
+            }
+
+            processingContents.add(compress(contentWrite.getContentCompressor(), processingContent));
+        }
+
+        return processingContents;
+    }
+
+    private static DeduplicatedContent deduplicate(PendingWrite contentWrite) {
+        DbProcessingContent processingContent = contentWrite.getProcessingContent();
+
+        if (contentWrite.getResourceDeduplicator() == null || processingContent.getContent() == null)
+            return null;
+
+        try {
+            return contentWrite.getResourceDeduplicator().deduplicate(processingContent.getContent());
+
+        } catch (Exception e) {
+            LOG.warn("Error deduplicating content for message id " + processingContent.getMessageId() + ", saving it whole", e);
+            return null;
+        }
+    }
+
+    private static DbProcessingContent compress(ChannelContentCompressor contentCompressor, DbProcessingContent processingContent) {
+        if (contentCompressor == null)
+            return processingContent;
+
+        try {
+            CompressedContent compressedContent = contentCompressor.compress(processingContent.getContent());
+
+            if (compressedContent == null)
+                return processingContent;
+
+            return processingContent
+                    .setContent(null)
+                    .setContentCompressed(compressedContent.getContent())
+                    .setCompressionDictionaryId(compressedContent.getCompressionDictionaryId());
+
+        } catch (Exception e) {
+            LOG.warn("Error compressing content for message id " + processingContent.getMessageId() + ", saving it uncompressed", e);
+            return processingContent;
+        }
+    }
+
+    private boolean writeSharedResources(List<DbSharedResource> sharedResources) throws InterruptedException {
+        for (int attempt = 1; attempt <= BATCH_WRITE_ATTEMPTS; attempt++) {
+            try {
+                dataLayer.addSharedResources(sharedResources);
+                return true;
+
+            } catch (Exception e) {
+                LOG.warn("Error writing " + sharedResources.size() + " shared resources, attempt " + attempt, e);
+
+                if (attempt < BATCH_WRITE_ATTEMPTS)
+                    Thread.sleep(BATCH_RETRY_DELAY_MILLIS);
+            }
+        }
+
+        LOG.error("Could not write {} shared resources, saving the content that references them whole", sharedResources.size());
+        return false;
+    }
+
+    private boolean writeResourceUuids(String scopeName, List<DbResourceUuidMapping> resourceUuidMappings) throws InterruptedException {
+        for (int attempt = 1; attempt <= BATCH_WRITE_ATTEMPTS; attempt++) {
+            try {
+                dataLayer.setResourceUuids(scopeName, resourceUuidMappings);
+                return true;
+
+            } catch (Exception e) {
+                LOG.warn("Error writing " + resourceUuidMappings.size() + " resource UUID mappings for scope " + scopeName + ", attempt " + attempt, e);
+
+                if (attempt < BATCH_WRITE_ATTEMPTS)
+                    Thread.sleep(BATCH_RETRY_DELAY_MILLIS);
+            }
+        }
+
+        LOG.error("Could not write {} resource UUID mappings for scope {}, retrying with the next batch", resourceUuidMappings.size(), scopeName);
+        return false;
+    }
+
+    static class PendingWrite {
+        private DbProcessingContent processingContent;
+        private long completionId;
+        private DbMessageCompletion completion;
+        private String resourceUuidScopeName;
+        private List<DbResourceUuidMapping> resourceUuidMappings;
+        private ResourceDeduplicator resourceDeduplicator;
+        private ChannelContentCompressor contentCompressor;
+
+        static PendingWrite forContent(DbProcessingContent processingContent) {
+            PendingWrite pendingWrite = new PendingWrite();
+            pendingWrite.processingContent = processingContent;
+            return pendingWrite;
+        }
+
+        static PendingWrite forCompletion(long completionId, DbMessageCompletion completion) {
+            PendingWrite pendingWrite = new PendingWrite();
+            pendingWrite.completionId = completionId;
+            pendingWrite.completion = completion;
+            return pendingWrite;
+        }
+
+        static PendingWrite forResourceUuids(String scopeName, List<DbResourceUuidMapping> resourceUuidMappings) {
+            PendingWrite pendingWrite = new PendingWrite();
+            pendingWrite.resourceUuidScopeName = scopeName;
+            pendingWrite.resourceUuidMappings = resourceUuidMappings;
+            return pendingWrite;
+        }
+
+        PendingWrite setContentPreparation(ResourceDeduplicator resourceDeduplicator, ChannelContentCompressor contentCompressor) {
+            this.resourceDeduplicator = resourceDeduplicator;
+            this.contentCompressor = contentCompressor;
+            return this;
+        }
+
+        DbProcessingContent getProcessingContent() {
+            return processingContent;
+        }
+
+        long getCompletionId() {
+            return completionId;
+        }
+
+        DbMessageCompletion getCompletion() {
+            return completion;
+        }
+
+        String getResourceUuidScopeName() {
+            return resourceUuidScopeName;
+        }
+
+        List<DbResourceUuidMapping> getResourceUuidMappings() {
+            return resourceUuidMappings;
+        }
+
+        ResourceDeduplicator getResourceDeduplicator() {
+            return resourceDeduplicator;
+        }
+
+        ChannelContentCompressor getContentCompressor() {
+            return contentCompressor;
+        }
+    }
+}
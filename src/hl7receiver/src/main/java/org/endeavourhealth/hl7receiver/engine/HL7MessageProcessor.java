@@ -9,6 +9,8 @@ import org.endeavourhealth.common.security.keycloak.client.KeycloakClient;
 import org.endeavourhealth.common.utility.MetricsHelper;
 import org.endeavourhealth.hl7receiver.Configuration;
 import org.endeavourhealth.hl7receiver.mapping.Mapper;
+import org.endeavourhealth.hl7receiver.metrics.Metrics;
+import org.endeavourhealth.hl7receiver.metrics.StageName;
 import org.endeavourhealth.hl7receiver.model.db.*;
 import org.endeavourhealth.hl7receiver.model.exceptions.HL7MessageProcessorException;
 import org.endeavourhealth.hl7transform.Hl7v2Transform;
@@ -45,7 +47,13 @@ public class HL7MessageProcessor {
             String transformedMessage = null;
 
             try {
+                long start = System.nanoTime();
                 transformedMessage = transformMessage(dbMessage);
+                start = recordStageTime(StageName.TRANSFORM_TOTAL, start);
+
+                mapper.saveNewResourceUuids();
+                recordStageTime(StageName.MAPPER_SAVE_RESOURCE_UUIDS, start);
+
                 contentSaver.save(DbProcessingContentType.FHIR, transformedMessage);
             } catch (Exception e) {
                 throw new HL7MessageProcessorException(DbMessageStatus.TRANSFORM_FAILURE, e);
@@ -57,7 +65,10 @@ public class HL7MessageProcessor {
             String requestMessage = null;
 
             try {
+                long start = System.nanoTime();
                 requestMessage = buildEnvelope(dbMessage, transformedMessage);
+                recordStageTime(StageName.ENVELOPE_BUILD, start);
+
                 contentSaver.save(DbProcessingContentType.ONWARD_REQUEST_MESSAGE, requestMessage);
             } catch (Exception e) {
                 throw new HL7MessageProcessorException(DbMessageStatus.ENVELOPE_GENERATION_FAILURE, e);
@@ -76,7 +87,10 @@ public class HL7MessageProcessor {
                     if (stopRequested)
                         return false;
 
+                    long start = System.nanoTime();
                     responseMessage = sendMessage(requestMessage);
+                    recordStageTime(StageName.EDS_POST, start);
+
                     contentSaver.save(DbProcessingContentType.ONWARD_RESPONSE_MESSAGE, responseMessage);
 
                     MetricsHelper.recordEvent(dbChannel.getChannelName() + ".post-to-messaging-api-ok");
@@ -106,6 +120,10 @@ public class HL7MessageProcessor {
         }
     }
 
+    private long recordStageTime(String stageName, long start) {
+        return Metrics.getRegistry().getTimer(dbChannel.getChannelName(), stageName).recordSince(start);
+    }
+
     private boolean skipMessageSending() {
         DbChannelOption channelOption = configuration.getChannelOption(dbChannel.getChannelId(), DbChannelOptionType.SKIP_ONWARD_MESSAGE_SENDING_IN_PROCESSOR);
 
@@ -12,6 +12,12 @@ import org.endeavourhealth.common.utility.StreamExtension;
 import org.endeavourhealth.hl7receiver.Configuration;
 import org.endeavourhealth.hl7receiver.PostgresDataLayer;
 import org.endeavourhealth.hl7receiver.engine.messagetypeoptionprocessor.MessageTypeOptionProcessor;
+import org.endeavourhealth.hl7receiver.metrics.ChannelActivity;
+import org.endeavourhealth.hl7receiver.metrics.ChannelActivityRegistry;
+import org.endeavourhealth.hl7receiver.metrics.Metrics;
+import org.endeavourhealth.hl7receiver.metrics.MetricsRegistry;
+import org.endeavourhealth.hl7receiver.metrics.StageName;
+import org.endeavourhealth.hl7receiver.metrics.StageTimer;
 import org.endeavourhealth.hl7receiver.model.db.DbChannel;
 import org.endeavourhealth.hl7receiver.model.db.DbChannelMessageType;
 import org.endeavourhealth.hl7receiver.model.db.DbChannelMessageTypeOption;
@@ -20,6 +26,7 @@ import org.endeavourhealth.hl7receiver.model.exceptions.TransientMessageProcessi
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Map;
 import java.util.UUID;
@@ -34,27 +41,63 @@ class HL7MessageReceiver implements ReceivingApplication {
     private DbChannel dbChannel;
     private HL7ConnectionManager connectionManager;
     private PostgresDataLayer dataLayer;
+    private ChannelActivity channelActivity;
+    private HL7Backpressure backpressure;
+    private boolean delayAckOnReceive;
+    private StageTimer encodeTimer;
+    private StageTimer keyFieldsTimer;
+    private StageTimer ackTimer;
+    private StageTimer dbLogTimer;
+    private StageTimer totalTimer;
+    private StageTimer rejectedTimer;
 
     private HL7MessageReceiver() {
     }
 
-    public HL7MessageReceiver(Configuration configuration, DbChannel dbChannel, HL7ConnectionManager connectionManager) throws SQLException {
+    /*
+        delayAckOnReceive is false when listening with HL7MllpServer, whose connections apply DelayAck
+        themselves instead of this sleeping on a worker shared with other connections
+    */
+    public HL7MessageReceiver(Configuration configuration, DbChannel dbChannel, HL7ConnectionManager connectionManager, boolean delayAckOnReceive) throws SQLException {
         this.configuration = configuration;
         this.dbChannel = dbChannel;
         this.connectionManager = connectionManager;
         this.dataLayer = new PostgresDataLayer();
+        this.channelActivity = ChannelActivityRegistry.getInstance().getChannelActivity(dbChannel.getChannelId(), dbChannel.getChannelName());
+        this.backpressure = new HL7Backpressure(configuration, dbChannel, channelActivity);
+        this.delayAckOnReceive = delayAckOnReceive;
+
+        MetricsRegistry metricsRegistry = Metrics.getRegistry();
+        this.encodeTimer = metricsRegistry.getTimer(dbChannel.getChannelName(), StageName.RECEIVE_ENCODE);
+        this.keyFieldsTimer = metricsRegistry.getTimer(dbChannel.getChannelName(), StageName.RECEIVE_KEY_FIELDS);
+        this.ackTimer = metricsRegistry.getTimer(dbChannel.getChannelName(), StageName.RECEIVE_ACK);
+        this.dbLogTimer = metricsRegistry.getTimer(dbChannel.getChannelName(), StageName.RECEIVE_DB_LOG);
+        this.totalTimer = metricsRegistry.getTimer(dbChannel.getChannelName(), StageName.RECEIVE_TOTAL);
+        this.rejectedTimer = metricsRegistry.getTimer(dbChannel.getChannelName(), StageName.RECEIVE_REJECTED);
     }
 
     public Message processMessage(Message message, Map<String, Object> map) throws ReceivingApplicationException, HL7Exception {
+        HL7Backpressure.Action backpressureAction = backpressure.check();
+
+        if (backpressureAction == HL7Backpressure.Action.REJECT_ACK)
+            return rejectForBackpressure(message);
+
+        if (backpressureAction == HL7Backpressure.Action.DELAY_ACK && delayAckOnReceive)
+            delayForBackpressure();
+
         String messageText = null;
         Integer connectionId = null;
         HL7KeyFields hl7KeyFields = null;
         Message response = null;
         HL7KeyFields hl7KeyFieldsResponse = null;
+        long start = System.nanoTime();
+        long stageStart = start;
 
         try {
             messageText = getMessageText(message);
 
+            stageStart = encodeTimer.recordSince(stageStart);
+
             connectionId = connectionManager.getConnectionId(map);
 
             hl7KeyFields = HL7KeyFields.parse(messageText, dbChannel);
@@ -78,10 +121,14 @@ class HL7MessageReceiver implements ReceivingApplication {
 
             processMessageTypeOptions(hl7KeyFields, messageTypeConfiguration);
 
+            stageStart = keyFieldsTimer.recordSince(stageStart);
+
             response = message.generateACK();
             String responseText = getMessageText(response);
             hl7KeyFieldsResponse = HL7KeyFields.parse(responseText, dbChannel);
 
+            stageStart = ackTimer.recordSince(stageStart);
+
             try {
                 dataLayer.logMessage(
                         dbChannel.getChannelId(),
@@ -96,6 +143,9 @@ class HL7MessageReceiver implements ReceivingApplication {
                         hl7KeyFieldsResponse.getMessageType(),
                         hl7KeyFieldsResponse.getEncodedMessage());
 
+                dbLogTimer.recordSince(stageStart);
+                channelActivity.messageReceived();
+
                 //graphite
                 MetricsHelper.recordEvent(dbChannel.getChannelName() + ".message-received");
 
@@ -103,6 +153,8 @@ class HL7MessageReceiver implements ReceivingApplication {
                 throw new TransientMessageProcessingException("Error occurred writing to message log", e);
             }
 
+            totalTimer.recordSince(start);
+
             return response;
 
         } catch (Exception e1) {
@@ -173,6 +225,9 @@ class HL7MessageReceiver implements ReceivingApplication {
                     }
                 }
 
+                rejectedTimer.recordSince(start);
+                channelActivity.messageRejected();
+
                 return negativeResponse;
 
             } catch (Exception e4) {
@@ -183,6 +238,35 @@ class HL7MessageReceiver implements ReceivingApplication {
         return null;
     }
 
+    /*
+        the message is neither logged nor dead lettered, the sending system keeps it and sends it again
+    */
+    private Message rejectForBackpressure(Message message) throws HL7Exception {
+        channelActivity.messageRejectedByBackpressure();
+
+        try {
+            return message.generateACK(ACK_ERROR_RETRY, new HL7Exception("Processing backlog is over " + backpressure.getHighWatermark() + " messages, resend later"));
+
+        } catch (IOException e) {
+            throw new HL7Exception(e);
+        }
+    }
+
+    HL7Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    private void delayForBackpressure() {
+        channelActivity.messageDelayedByBackpressure();
+
+        try {
+            Thread.sleep(backpressure.getAckDelayMillis());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private boolean isMessageControlIdPresent(HL7KeyFields hl7KeyFields) {
         return StringUtils.isNotEmpty(hl7KeyFields.getMessageControlId());
     }
@@ -0,0 +1,337 @@
+package org.endeavourhealth.hl7receiver.engine;
+
+import ca.uhn.hl7v2.protocol.ApplicationRouter;
+import ca.uhn.hl7v2.protocol.MetadataKeys;
+import ca.uhn.hl7v2.protocol.Transportable;
+import ca.uhn.hl7v2.protocol.impl.TransportableImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    a connection accepted by HL7MllpServer
+
+    the selector thread reads and unframes messages, everything else (logging the connection, running messages
+    through the router, logging the disconnection) is queued as tasks that run on the server's workers one at a
+    time per connection. reading is paused while too many messages are waiting, which leaves the sender blocked
+    on TCP as it would be with HAPI's server.
+
+    when backpressure asks for acknowledgements to be delayed, reading is paused and the message and the tasks
+    behind it are put back on the server's timer, so the worker is free for other connections during the delay
+*/
+class HL7MllpConnection {
+    private static final Logger LOG = LoggerFactory.getLogger(HL7MllpConnection.class);
+
+    private static final byte START_OF_BLOCK = 0x0b;
+    private static final byte END_OF_BLOCK = 0x1c;
+    private static final byte CARRIAGE_RETURN = 0x0d;
+    private static final int MAX_FRAME_BYTES = 32 * 1024 * 1024;
+    private static final int PAUSE_READ_QUEUED_FRAMES = 32;
+    private static final int RESUME_READ_QUEUED_FRAMES = 8;
+
+    private final HL7MllpServer server;
+    private final SocketChannel socketChannel;
+    private final String channelName;
+    private final ApplicationRouter router;
+    private final HL7ConnectionManager connectionManager;
+    private final HL7Backpressure backpressure;
+    private final HL7Connection connection;
+    private final Map<String, Object> metadata = new HashMap<>();
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean taskRunning = new AtomicBoolean(false);
+    private final AtomicInteger queuedFrames = new AtomicInteger(0);
+    private final AtomicBoolean readPaused = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final ConcurrentLinkedQueue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Object writeLock = new Object();
+    private volatile SelectionKey key;
+
+    // a message held back by backpressure, worker thread only
+    private Runnable deferredTask = null;
+    private int deferredTaskDelayMillis = 0;
+    private volatile boolean opened = false;
+
+    // frame decoder state, selector thread only
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    private boolean inFrame = false;
+    private boolean sawEndOfBlock = false;
+
+    public HL7MllpConnection(HL7MllpServer server, SocketChannel socketChannel, String channelName, ApplicationRouter router, HL7ConnectionManager connectionManager, HL7Backpressure backpressure) throws IOException {
+        this.server = server;
+        this.socketChannel = socketChannel;
+        this.channelName = channelName;
+        this.router = router;
+        this.connectionManager = connectionManager;
+        this.backpressure = backpressure;
+
+        InetSocketAddress remoteAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
+        String host = remoteAddress.getAddress().getHostAddress();
+        int port = remoteAddress.getPort();
+
+        this.connection = new HL7Connection(host, port, this::close);
+        this.metadata.put(MetadataKeys.IN_SENDING_IP, host);
+        this.metadata.put(MetadataKeys.IN_SENDING_PORT, port);
+    }
+
+    public void open() {
+        submit(() -> {
+            if (connectionManager.connectionOpened(connection) == null)
+                return;
+
+            opened = true;
+
+            server.runOnSelector(() -> {
+                if (!closed.get())
+                    key = server.register(socketChannel, SelectionKey.OP_READ, this);
+            });
+        });
+    }
+
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing connection on channel " + channelName, e);
+        }
+
+        submit(() -> {
+            if (opened)
+                connectionManager.connectionClosed(connection);
+        });
+    }
+
+    /*
+        selector thread
+    */
+    void onSelected(SelectionKey key, ByteBuffer readBuffer) throws IOException {
+        if (key.isWritable())
+            flushWrites(key);
+
+        if (key.isValid() && key.isReadable())
+            read(key, readBuffer);
+    }
+
+    private void read(SelectionKey key, ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+
+        if (socketChannel.read(readBuffer) < 0) {
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+
+            if (!inFrame) {
+                if (b == START_OF_BLOCK) {
+                    inFrame = true;
+                    frame.reset();
+                }
+
+                continue;
+            }
+
+            if (sawEndOfBlock) {
+                sawEndOfBlock = false;
+
+                if (b == CARRIAGE_RETURN) {
+                    inFrame = false;
+                    frameReceived(key, new String(frame.toByteArray(), server.getMessageCharset()));
+                    continue;
+                }
+
+                frame.write(END_OF_BLOCK);
+            }
+
+            if (b == END_OF_BLOCK)
+                sawEndOfBlock = true;
+            else
+                frame.write(b);
+
+            if (frame.size() > MAX_FRAME_BYTES) {
+                LOG.error("Message on channel {} from {} exceeds {} bytes, closing connection", new Object[] { channelName, socketChannel.getRemoteAddress(), MAX_FRAME_BYTES });
+                close();
+                return;
+            }
+        }
+    }
+
+    private void frameReceived(SelectionKey key, String message) {
+        int queued = queuedFrames.incrementAndGet();
+        submit(() -> receiveMessage(message));
+
+        if (queued >= PAUSE_READ_QUEUED_FRAMES) {
+            readPaused.set(true);
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+            // the workers may have caught up before reading was paused
+            resumeReadIfCaughtUp();
+        }
+    }
+
+    /*
+        worker thread
+    */
+    private void receiveMessage(String message) {
+        int delayMillis = (closed.get() ? 0 : backpressure.checkAckDelayMillis());
+
+        if (delayMillis <= 0) {
+            processMessage(message);
+            return;
+        }
+
+        deferredTask = () -> processMessage(message);
+        deferredTaskDelayMillis = delayMillis;
+
+        // processMessage resumes reading once the delayed message has been handled
+        readPaused.set(true);
+        server.runOnSelector(() -> setInterest(SelectionKey.OP_READ, false));
+    }
+
+    private void processMessage(String message) {
+        try {
+            if (closed.get())
+                return;
+
+            Transportable response = router.processMessage(new TransportableImpl(message, metadata));
+
+            if (response != null)
+                write(response.getMessage());
+
+        } catch (Exception e) {
+            LOG.error("Error processing message on channel " + channelName + ", closing connection", e);
+            close();
+
+        } finally {
+            queuedFrames.decrementAndGet();
+            resumeReadIfCaughtUp();
+        }
+    }
+
+    private void resumeReadIfCaughtUp() {
+        if (queuedFrames.get() > RESUME_READ_QUEUED_FRAMES)
+            return;
+
+        if (readPaused.compareAndSet(true, false))
+            server.runOnSelector(() -> setInterest(SelectionKey.OP_READ, true));
+    }
+
+    private void write(String message) throws IOException {
+        byte[] messageBytes = message.getBytes(server.getMessageCharset());
+
+        ByteBuffer buffer = ByteBuffer.allocate(messageBytes.length + 3);
+        buffer.put(START_OF_BLOCK).put(messageBytes).put(END_OF_BLOCK).put(CARRIAGE_RETURN);
+        buffer.flip();
+
+        synchronized (writeLock) {
+            if (pendingWrites.isEmpty())
+                socketChannel.write(buffer);
+
+            if (buffer.hasRemaining()) {
+                pendingWrites.add(buffer);
+                server.runOnSelector(() -> setInterest(SelectionKey.OP_WRITE, true));
+            }
+        }
+    }
+
+    private void flushWrites(SelectionKey key) throws IOException {
+        synchronized (writeLock) {
+            ByteBuffer buffer;
+
+            while ((buffer = pendingWrites.peek()) != null) {
+                socketChannel.write(buffer);
+
+                if (buffer.hasRemaining())
+                    return;
+
+                pendingWrites.poll();
+            }
+
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void setInterest(int op, boolean interested) {
+        SelectionKey key = this.key;
+
+        if ((key == null) || (!key.isValid()))
+            return;
+
+        key.interestOps(interested ? (key.interestOps() | op) : (key.interestOps() & ~op));
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!taskRunning.compareAndSet(false, true))
+            return;
+
+        try {
+            server.execute(this::runTasks);
+
+        } catch (RejectedExecutionException e) {
+            taskRunning.set(false);
+            LOG.warn("NIO MLLP listener has stopped, dropping work for connection on channel {}", channelName);
+        }
+    }
+
+    private void runTasks() {
+        boolean deferred = false;
+
+        try {
+            Runnable task;
+
+            while ((task = pollTask()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    LOG.error("Error on connection on channel " + channelName, e);
+                }
+
+                // stays marked as running so the tasks behind the delayed message wait for it
+                if (deferredTask != null && server.schedule(this::runTasks, deferredTaskDelayMillis)) {
+                    deferred = true;
+                    return;
+                }
+            }
+
+        } finally {
+            if (!deferred)
+                taskRunning.set(false);
+        }
+
+        // a task added after the last poll could not schedule while this was running
+        if (!tasks.isEmpty())
+            schedule();
+    }
+
+    private Runnable pollTask() {
+        if (deferredTask == null)
+            return tasks.poll();
+
+        Runnable task = deferredTask;
+        deferredTask = null;
+        return task;
+    }
+}
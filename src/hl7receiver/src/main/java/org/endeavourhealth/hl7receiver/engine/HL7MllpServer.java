@@ -0,0 +1,296 @@
+package org.endeavourhealth.hl7receiver.engine;
+
+import ca.uhn.hl7v2.llp.MllpConstants;
+import ca.uhn.hl7v2.protocol.ApplicationRouter;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+    MLLP listener for all channels in the instance, used instead of HAPI's per channel server when
+    -Dhl7receiver.mllp.listener=nio
+
+    HAPI's server runs a thread per connection. here one selector thread accepts, reads and finishes writes for
+    every channel's connections, and complete frames are handed to a fixed pool of workers (-Dhl7receiver.mllp.workerThreads)
+    that run them through the channel's HAPI ApplicationRouter, so acknowledgements and error handling are the
+    same as HAPI's. each connection's messages are processed one at a time in the order received.
+
+    a DelayAck backpressure delay holds back the connection's next message on a timer rather than a sleeping worker
+
+    the character set follows HAPI's MLLP reader, ca.uhn.hl7v2.llp.charset or US-ASCII
+*/
+class HL7MllpServer implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(HL7MllpServer.class);
+
+    private static final String LISTENER_PROPERTY = "hl7receiver.mllp.listener";
+    private static final String WORKER_THREADS_PROPERTY = "hl7receiver.mllp.workerThreads";
+    private static final int DEFAULT_WORKER_THREADS = 16;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int THREAD_STOP_WAIT_TIMEOUT_MILLIS = 10000;
+
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer;
+    private final Charset charset;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<Integer, ServerSocketChannel> serverChannels = new ConcurrentHashMap<>();
+    private Thread thread;
+    private volatile boolean stopRequested = false;
+
+    public static boolean isEnabled() {
+        return "nio".equalsIgnoreCase(StringUtils.trim(System.getProperty(LISTENER_PROPERTY)));
+    }
+
+    public HL7MllpServer() throws IOException {
+        this.selector = Selector.open();
+        this.charset = getCharset();
+
+        int workerThreads = Integer.getInteger(WORKER_THREADS_PROPERTY, DEFAULT_WORKER_THREADS);
+
+        this.workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+            private int threadNumber = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HL7MllpWorker-" + (++threadNumber));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "HL7MllpTimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Charset getCharset() {
+        String charsetName = System.getProperty(MllpConstants.CHARSET_KEY, "US-ASCII");
+
+        if ("default".equalsIgnoreCase(charsetName))
+            return Charset.defaultCharset();
+
+        return Charset.forName(charsetName);
+    }
+
+    public void start() {
+        LOG.info("Starting NIO MLLP listener with {} worker threads", Integer.getInteger(WORKER_THREADS_PROPERTY, DEFAULT_WORKER_THREADS));
+
+        thread = new Thread(this);
+        thread.setName("HL7MllpServer");
+        thread.start();
+    }
+
+    public void stop() {
+        stopRequested = true;
+        selector.wakeup();
+
+        try {
+            LOG.info("Stopping NIO MLLP listener");
+            thread.join(THREAD_STOP_WAIT_TIMEOUT_MILLIS);
+        } catch (Exception e) {
+            LOG.error("Error stopping NIO MLLP listener", e);
+        }
+
+        // hand delayed work to the workers now so it drains with everything else
+        for (Runnable delayed : timer.shutdownNow())
+            delayed.run();
+
+        // let connections closed on the way down record their disconnection
+        workers.shutdown();
+
+        try {
+            if (!workers.awaitTermination(THREAD_STOP_WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                workers.shutdownNow();
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+        }
+    }
+
+    public void bind(int port, String channelName, ApplicationRouter router, HL7ConnectionManager connectionManager, HL7Backpressure backpressure) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(new InetSocketAddress(port));
+
+        serverChannels.put(port, serverChannel);
+
+        Listener listener = new Listener(channelName, router, connectionManager, backpressure);
+        runOnSelector(() -> register(serverChannel, SelectionKey.OP_ACCEPT, listener));
+
+        LOG.info("Channel {} listening on port {}", channelName, port);
+    }
+
+    public void unbind(int port) {
+        ServerSocketChannel serverChannel = serverChannels.remove(port);
+
+        if (serverChannel == null)
+            return;
+
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing listener on port " + port, e);
+        }
+
+        selector.wakeup();
+    }
+
+    void execute(Runnable task) {
+        workers.execute(task);
+    }
+
+    /*
+        runs the task on a worker after the delay, returns false if the listener is stopping
+    */
+    boolean schedule(Runnable task, long delayMillis) {
+        try {
+            timer.schedule(() -> {
+                try {
+                    execute(task);
+                } catch (RejectedExecutionException e) {
+                    LOG.warn("NIO MLLP listener has stopped, dropping delayed work");
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+
+            return true;
+
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    SelectionKey register(SelectableChannel channel, int interestOps, Object attachment) {
+        try {
+            return channel.register(selector, interestOps, attachment);
+
+        } catch (IOException e) {
+            LOG.error("Could not register with selector", e);
+            return null;
+        }
+    }
+
+    Charset getMessageCharset() {
+        return charset;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopRequested) {
+                selector.select();
+
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null)
+                    task.run();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (!key.isValid())
+                            continue;
+
+                        if (key.isAcceptable())
+                            accept(key);
+
+                        else if (key.attachment() instanceof HL7MllpConnection)
+                            ((HL7MllpConnection) key.attachment()).onSelected(key, readBuffer);
+
+                    } catch (Exception e) {
+                        LOG.error("Error handling selected key", e);
+
+                        if (key.attachment() instanceof HL7MllpConnection)
+                            ((HL7MllpConnection) key.attachment()).close();
+                    }
+                }
+            }
+
+        } catch (Throwable t) {
+            LOG.error("Exception in NIO MLLP listener loop", t);
+        }
+
+        closeAll();
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        SocketChannel socketChannel = ((ServerSocketChannel) key.channel()).accept();
+
+        if (socketChannel == null)
+            return;
+
+        socketChannel.configureBlocking(false);
+        socketChannel.socket().setTcpNoDelay(true);
+        socketChannel.socket().setKeepAlive(true);
+
+        Listener listener = (Listener) key.attachment();
+        HL7MllpConnection connection = new HL7MllpConnection(this, socketChannel, listener.channelName, listener.router, listener.connectionManager, listener.backpressure);
+        connection.open();
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof HL7MllpConnection)
+                ((HL7MllpConnection) key.attachment()).close();
+            else
+                closeQuietly(key);
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing selector", e);
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            LOG.warn("Error closing channel", e);
+        }
+    }
+
+    private static class Listener {
+        private final String channelName;
+        private final ApplicationRouter router;
+        private final HL7ConnectionManager connectionManager;
+        private final HL7Backpressure backpressure;
+
+        Listener(String channelName, ApplicationRouter router, HL7ConnectionManager connectionManager, HL7Backpressure backpressure) {
+            this.channelName = channelName;
+            this.router = router;
+            this.connectionManager = connectionManager;
+            this.backpressure = backpressure;
+        }
+    }
+}
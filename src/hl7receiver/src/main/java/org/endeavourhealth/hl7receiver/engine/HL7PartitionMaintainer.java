@@ -0,0 +1,137 @@
+package org.endeavourhealth.hl7receiver.engine;
+
+import org.apache.commons.lang3.StringUtils;
+import org.endeavourhealth.hl7receiver.Configuration;
+import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.endeavourhealth.hl7receiver.model.db.DbPartition;
+import org.endeavourhealth.hl7receiver.model.db.DbPartitionMaintenance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    keeps the monthly partitions of log.message and log.message_processing_content ahead of the current date,
+    and detaches partitions older than the retention period, writing them to gzipped json lines files
+    (one row_to_json(..) per line, reload with json_populate_record) before they are dropped. processing content is
+    archived decompressed and with its shared resources put back, after which unreferenced shared resources are pruned
+*/
+class HL7PartitionMaintainer {
+    private static final Logger LOG = LoggerFactory.getLogger(HL7PartitionMaintainer.class);
+
+    private static final int INITIAL_DELAY_SECONDS = 30;
+    private static final int MAINTENANCE_INTERVAL_SECONDS = 60 * 60 * 24;
+
+    private Configuration configuration;
+    private PostgresDataLayer dataLayer;
+    private ScheduledExecutorService executor;
+
+    public HL7PartitionMaintainer(Configuration configuration) {
+        this.configuration = configuration;
+        this.dataLayer = new PostgresDataLayer();
+    }
+
+    public void start() {
+        LOG.info("Starting partition maintenance");
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "HL7PartitionMaintainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        executor.scheduleWithFixedDelay(this::runMaintenance, INITIAL_DELAY_SECONDS, MAINTENANCE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        LOG.info("Stopping partition maintenance");
+
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    private void runMaintenance() {
+        try {
+            DbPartitionMaintenance partitionMaintenance = dataLayer.getPartitionMaintenance();
+
+            if (!partitionMaintenance.isEnabled())
+                return;
+
+            for (DbPartition partition : dataLayer.maintainPartitions(partitionMaintenance.getMonthsAhead()))
+                LOG.info("Created partition " + partition.getPartitionName() + " for " + partition.getRangeStart() + " to " + partition.getRangeEnd());
+
+            List<DbPartition> detachedPartitions = dataLayer.detachPartitions(partitionMaintenance.getRetentionMonths());
+
+            if (!detachedPartitions.isEmpty() && StringUtils.isBlank(partitionMaintenance.getArchiveDirectory())) {
+                LOG.warn(detachedPartitions.size() + " detached partition(s) awaiting archive but no archive directory is configured");
+                return;
+            }
+
+            for (DbPartition partition : detachedPartitions) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+
+                archivePartition(partition, new File(partitionMaintenance.getArchiveDirectory()));
+            }
+
+            // archived content has its shared resources put back, so those only it referenced can go
+            long prunedSharedResources = dataLayer.pruneSharedResources(partitionMaintenance.getRetentionMonths());
+
+            if (prunedSharedResources > 0)
+                LOG.info("Pruned " + prunedSharedResources + " shared resource(s) no longer referenced by attached content");
+
+        } catch (Exception e) {
+            LOG.error("Exception during partition maintenance", e);
+        }
+    }
+
+    private void archivePartition(DbPartition partition, File archiveDirectory) throws Exception {
+        int instanceId = configuration.getInstanceId();
+
+        if (!dataLayer.claimPartitionArchive(partition.getPartitionName(), instanceId))
+            return;
+
+        if (!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs())
+            throw new IllegalStateException("Could not create archive directory " + archiveDirectory.getAbsolutePath());
+
+        File archiveFile = new File(archiveDirectory, partition.getPartitionName() + ".json.gz");
+        File tempFile = new File(archiveDirectory, partition.getPartitionName() + ".json.gz.tmp");
+
+        long msStart = System.currentTimeMillis();
+        long rowCount;
+
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tempFile), 1 << 16), StandardCharsets.UTF_8))) {
+            rowCount = dataLayer.streamDetachedPartitionRows(partition.getPartitionName(), (t) -> {
+                writer.write(t);
+                writer.newLine();
+            });
+        } catch (Exception e) {
+            Files.deleteIfExists(tempFile.toPath());
+            throw e;
+        }
+
+        Files.move(tempFile.toPath(), archiveFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // drops the detached table
+        dataLayer.setPartitionArchived(partition.getPartitionName(), instanceId, archiveFile.getAbsolutePath(), rowCount);
+
+        Object[] logArgs = new Object[] {
+                partition.getPartitionName(),
+                rowCount,
+                archiveFile.getAbsolutePath(),
+                System.currentTimeMillis() - msStart };
+
+        LOG.info("Archived partition {} ({} rows) to {} in {}ms", logArgs);
+    }
+}
@@ -1,10 +1,13 @@
 package org.endeavourhealth.hl7receiver.engine;
 
 import org.endeavourhealth.hl7receiver.Configuration;
+import org.endeavourhealth.hl7receiver.admin.AdminServer;
+import org.endeavourhealth.hl7receiver.mapping.MappingCacheRegistry;
 import org.endeavourhealth.hl7receiver.model.db.DbChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -15,10 +18,20 @@ public class HL7Service {
     private static final Logger LOG = LoggerFactory.getLogger(HL7Service.class);
     private Configuration configuration;
     private List<HL7Channel> channels;
+    private HL7PartitionMaintainer partitionMaintainer;
+    private HL7ContentWriter contentWriter;
+    private AdminServer adminServer;
+    private HL7MllpServer mllpServer;
 
-    public HL7Service(Configuration configuration) throws SQLException {
+    public HL7Service(Configuration configuration) throws SQLException, IOException {
         this.configuration = configuration;
         this.channels = new ArrayList<>();
+        this.partitionMaintainer = new HL7PartitionMaintainer(configuration);
+        this.contentWriter = new HL7ContentWriter(configuration);
+        this.adminServer = new AdminServer(configuration);
+
+        if (HL7MllpServer.isEnabled())
+            this.mllpServer = new HL7MllpServer();
 
         createChannels();
     }
@@ -32,19 +45,36 @@ public class HL7Service {
                 .collect(Collectors.toList());
 
         for (DbChannel dbChannel : activeDbChannels)
-            channels.add(new HL7Channel(dbChannel, configuration));
+            channels.add(new HL7Channel(dbChannel, configuration, contentWriter, mllpServer));
     }
 
-    public void start() throws InterruptedException {
+    public void start() throws InterruptedException, IOException {
+        contentWriter.start();
+
         if (channels.size() == 0)
             LOG.info("No active channels to start");
 
+        if (mllpServer != null)
+            mllpServer.start();
+
         for (HL7Channel channel : channels)
             channel.start();
+
+        partitionMaintainer.start();
+        adminServer.start();
     }
 
     public void stop() {
+        adminServer.stop();
+        partitionMaintainer.stop();
+
         for (HL7Channel channel : channels)
             channel.stop();
+
+        if (mllpServer != null)
+            mllpServer.stop();
+
+        contentWriter.stop();
+        MappingCacheRegistry.shutdown();
     }
 }
@@ -0,0 +1,76 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import org.apache.commons.lang3.StringUtils;
+import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.hl7.fhir.instance.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+class CacheWarmer {
+    private static final Logger LOG = LoggerFactory.getLogger(CacheWarmer.class);
+
+    private static final List<String> GLOBAL_RESOURCE_TYPES_TO_PRELOAD = Arrays.asList(
+            ResourceType.Location.toString(),
+            ResourceType.Organization.toString());
+
+    private String sendingFacility;
+    private PostgresDataLayer dataLayer;
+    private CodeCache codeCache;
+    private ResourceUuidCache globalResourceUuidCache;
+    private OrganisationCache organisationCache;
+
+    public CacheWarmer(String sendingFacility, PostgresDataLayer dataLayer, CodeCache codeCache, ResourceUuidCache globalResourceUuidCache, OrganisationCache organisationCache) {
+        this.sendingFacility = sendingFacility;
+        this.dataLayer = dataLayer;
+        this.codeCache = codeCache;
+        this.globalResourceUuidCache = globalResourceUuidCache;
+        this.organisationCache = organisationCache;
+    }
+
+    public void warm() throws Exception {
+        long msStart = System.currentTimeMillis();
+
+        long codeCount = dataLayer.streamCodeMappingsForPreload(sendingFacility, (t) -> {
+            if (StringUtils.isEmpty(t.getSourceCode() + t.getSourceTerm()))
+                return;
+
+            codeCache.putMappedCode(t.getSourceContext(), t.getSourceCode(), t.getSourceSystem(), t.getSourceTerm(),
+                    Mapper.toMappedCode(t.getTargetCode()));
+        });
+
+        long msCodes = System.currentTimeMillis();
+
+        long organisationCount = 0;
+        long resourceUuidCount = 0;
+
+        // the global tier is shared with the other channels, so only the first channel to start loads it
+        MappingCacheRegistry cacheRegistry = MappingCacheRegistry.getInstance();
+
+        if (cacheRegistry.claimGlobalTierWarming()) {
+            try {
+                organisationCount = dataLayer.streamOrganisationsForPreload((t) ->
+                        organisationCache.putMappedOrganisation(t.getOdsCode(), Mapper.toMappedOrganisation(t)));
+
+                resourceUuidCount = dataLayer.streamResourceUuidsForPreload(Mapper.SCOPE_GLOBAL, GLOBAL_RESOURCE_TYPES_TO_PRELOAD, (t) ->
+                        globalResourceUuidCache.putResourceUuid(Mapper.SCOPE_GLOBAL, ResourceType.fromCode(t.getResourceType()), t.getUniqueIdentifier(), t.getResourceUuid()));
+
+            } catch (Exception e) {
+                cacheRegistry.releaseGlobalTierWarming();
+                throw e;
+            }
+        }
+
+        long msEnd = System.currentTimeMillis();
+
+        Object[] logArgs = new Object[] {
+                sendingFacility,
+                msEnd - msStart,
+                codeCount, msCodes - msStart,
+                organisationCount, resourceUuidCount, msEnd - msCodes };
+
+        LOG.info("Preloaded mapping caches for {} in {}ms: {} codes ({}ms), {} organisations and {} global resource UUIDs ({}ms)", logArgs);
+    }
+}
@@ -1,28 +1,48 @@
 package org.endeavourhealth.hl7receiver.mapping;
 
 import org.apache.commons.lang3.Validate;
-import org.apache.commons.lang3.time.DateUtils;
 import org.endeavourhealth.hl7transform.mapper.code.MappedCode;
 import org.endeavourhealth.hl7transform.mapper.code.MappedCodeAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
-import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
+/*
+    refreshLoader and refreshExecutor are optional, without them entries are only reloaded after they expire.
+    the executor belongs to the caller, which shuts it down
+*/
 public class CodeCache {
+    private static final Logger LOG = LoggerFactory.getLogger(CodeCache.class);
 
-    static int CACHE_TIMEOUT_SECONDS = 60 * 5;
+    static int CACHE_MAX_ENTRIES = 20000;
+    static int MAPPED_TIMEOUT_SECONDS = 60 * 5;
+    static int NOT_MAPPED_TIMEOUT_SECONDS = 60;
+    static int REFRESH_AHEAD_SECONDS = 60;
+    static int REFRESH_AHEAD_MIN_HITS = 10;
 
-    private ConcurrentHashMap<CodeCacheKey, MappedCode> hashMap = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<CodeCacheKey, Date> hashMapExpiryDates = new ConcurrentHashMap<>();
-    private List<MappedCodeAction> codeActionsToCache = new ArrayList<>();
+    private final MappingCache<CodeCacheKey, MappedCode> cache;
+    private final CodeLoader refreshLoader;
+    private final Executor refreshExecutor;
 
-    public CodeCache(MappedCodeAction... codeActionsToCache) {
-        Validate.notNull(codeActionsToCache);
+    public CodeCache(String name) {
+        this(name, null, null);
+    }
+
+    public CodeCache(String name, CodeLoader refreshLoader, Executor refreshExecutor) {
+        this(name, refreshLoader, refreshExecutor, CACHE_MAX_ENTRIES);
+    }
+
+    public CodeCache(String name, CodeLoader refreshLoader, Executor refreshExecutor, int maxEntries) {
+        this(name, refreshLoader, refreshExecutor, maxEntries, System::nanoTime);
+    }
 
-        this.codeActionsToCache = new ArrayList<>(Arrays.asList(codeActionsToCache));
+    CodeCache(String name, CodeLoader refreshLoader, Executor refreshExecutor, int maxEntries, LongSupplier ticker) {
+        this.cache = new MappingCache<>(name, maxEntries, ticker);
+        this.refreshLoader = refreshLoader;
+        this.refreshExecutor = (refreshLoader == null) ? null : refreshExecutor;
     }
 
     public MappedCode getMappedCode(String context, String code, String codeSystem, String term) {
@@ -31,23 +51,15 @@ public class CodeCache {
 
         CodeCacheKey codeCacheKey = new CodeCacheKey(context, code, codeSystem, term);
 
-        MappedCode ret = hashMap.get(codeCacheKey);
-        if (ret == null) {
+        MappingCache.Entry<MappedCode> entry = cache.getEntry(codeCacheKey);
+        if (entry == null)
             return null;
-        }
 
-        Date cacheTime = hashMapExpiryDates.get(codeCacheKey);
-        if (isExpired(cacheTime)) {
-            return null;
-        }
-
-        return ret;
-    }
+        if (entry.getHits() >= REFRESH_AHEAD_MIN_HITS
+                && entry.isDueForRefresh(cache.nanoTime(), TimeUnit.SECONDS.toNanos(REFRESH_AHEAD_SECONDS)))
+            scheduleRefresh(codeCacheKey, entry);
 
-    private static boolean isExpired(Date cacheTime) {
-        long msNow = new Date().getTime();
-        long msExpiry = DateUtils.addSeconds(cacheTime, CACHE_TIMEOUT_SECONDS).getTime();
-        return msNow > msExpiry;
+        return entry.getValue();
     }
 
     public void putMappedCode(String context, String code, String codeSystem, String term, MappedCode mappedCode) {
@@ -56,13 +68,50 @@ public class CodeCache {
         Validate.notNull(mappedCode);
 
         CodeCacheKey codeCacheKey = new CodeCacheKey(context, code, codeSystem, term);
+        cache.put(codeCacheKey, mappedCode, getTimeoutNanos(mappedCode.getAction()));
+    }
+
+    public MappingCache<CodeCacheKey, MappedCode> getCache() {
+        return cache;
+    }
+
+    public int size() {
+        return cache.size();
+    }
 
-        if (!this.codeActionsToCache.contains(mappedCode.getAction())) {
-            hashMap.remove(codeCacheKey);
+    private void scheduleRefresh(CodeCacheKey codeCacheKey, MappingCache.Entry<MappedCode> entry) {
+        if (refreshExecutor == null)
             return;
+
+        if (!entry.claimRefresh())
+            return;
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    MappedCode mappedCode = refreshLoader.load(
+                            codeCacheKey.getContext(),
+                            codeCacheKey.getCode(),
+                            codeCacheKey.getCodeSystem(),
+                            codeCacheKey.getTerm());
+
+                    if (mappedCode != null)
+                        cache.put(codeCacheKey, mappedCode, getTimeoutNanos(mappedCode.getAction()));
+
+                } catch (Exception e) {
+                    // leave the existing entry to expire normally, the next miss will go to the database
+                    LOG.warn("Could not refresh cached code " + codeCacheKey.toString(), e);
+                }
+            });
+        } catch (Exception e) {
+            LOG.warn("Could not schedule refresh of cached code " + codeCacheKey.toString(), e);
         }
+    }
+
+    private static long getTimeoutNanos(MappedCodeAction mappedCodeAction) {
+        if (mappedCodeAction == MappedCodeAction.MAPPED_INCLUDE)
+            return TimeUnit.SECONDS.toNanos(MAPPED_TIMEOUT_SECONDS);
 
-        hashMap.put(codeCacheKey, mappedCode);
-        hashMapExpiryDates.put(codeCacheKey, new Date());
+        return TimeUnit.SECONDS.toNanos(NOT_MAPPED_TIMEOUT_SECONDS);
     }
 }
@@ -1,21 +1,28 @@
 package org.endeavourhealth.hl7receiver.mapping;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 public class CodeCacheKey extends Object {
-    private String context;
-    private String code;
-    private String codeSystem;
-    private String term;
+    private final String context;
+    private final String code;
+    private final String codeSystem;
+    private final String term;
+    private final int hashCode;
 
     public CodeCacheKey(String context, String code, String codeSystem, String term) {
         this.context = StringUtils.trimToEmpty(context);
         this.code = StringUtils.trimToEmpty(code);
         this.codeSystem = StringUtils.trimToEmpty(codeSystem);
         this.term = StringUtils.trimToEmpty(term);
+
+        // keys are immutable and looked up for every coded field in every message, so hash once
+        int hash = 17;
+        hash = hash * 37 + this.context.hashCode();
+        hash = hash * 37 + this.code.hashCode();
+        hash = hash * 37 + this.codeSystem.hashCode();
+        hash = hash * 37 + this.term.hashCode();
+        this.hashCode = hash;
     }
 
     public String getContext() {
@@ -45,22 +52,16 @@ public class CodeCacheKey extends Object {
 
         CodeCacheKey that = (CodeCacheKey) o;
 
-        return new EqualsBuilder()
-                .append(context, that.context)
-                .append(code, that.code)
-                .append(codeSystem, that.codeSystem)
-                .append(term, that.term)
-                .isEquals();
+        return hashCode == that.hashCode
+                && code.equals(that.code)
+                && term.equals(that.term)
+                && codeSystem.equals(that.codeSystem)
+                && context.equals(that.context);
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder(17, 37)
-                .append(context)
-                .append(code)
-                .append(codeSystem)
-                .append(term)
-                .toHashCode();
+        return hashCode;
     }
 
     @Override
@@ -0,0 +1,8 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import org.endeavourhealth.hl7transform.mapper.code.MappedCode;
+
+@FunctionalInterface
+public interface CodeLoader {
+    MappedCode load(String context, String code, String codeSystem, String term) throws Exception;
+}
@@ -0,0 +1,59 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+    bloom filter of the resource type / identifier pairs in mapping.resource_uuid_legacy for one scope
+
+    deterministic resource UUIDs are only used once a scope's legacy migration is complete, after which the legacy
+    set never changes, so the filter is loaded once and a negative answer means the database lookup can be skipped.
+    about 1 in 100 identifiers without a legacy UUID still go to the database
+*/
+public class LegacyResourceUuidFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(LegacyResourceUuidFilter.class);
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final int MINIMUM_EXPECTED_INSERTIONS = 1000;
+
+    private final BloomFilter<CharSequence> bloomFilter;
+
+    public static LegacyResourceUuidFilter load(String scopeName, PostgresDataLayer dataLayer) throws Exception {
+        long msStart = System.currentTimeMillis();
+
+        long expectedInsertions = Math.max(dataLayer.getLegacyResourceUuidCount(scopeName), MINIMUM_EXPECTED_INSERTIONS);
+        LegacyResourceUuidFilter filter = new LegacyResourceUuidFilter(expectedInsertions);
+
+        long count = dataLayer.streamLegacyResourceUuidsForPreload(scopeName, (t) -> filter.put(t.getResourceType(), t.getUniqueIdentifier()));
+
+        Object[] logArgs = new Object[] {
+                count,
+                scopeName,
+                System.currentTimeMillis() - msStart };
+
+        LOG.info("Loaded {} legacy resource UUID keys for scope {} in {}ms", logArgs);
+
+        return filter;
+    }
+
+    LegacyResourceUuidFilter(long expectedInsertions) {
+        this.bloomFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, FALSE_POSITIVE_PROBABILITY);
+    }
+
+    void put(String resourceType, String uniqueIdentifier) {
+        bloomFilter.put(getKey(resourceType, uniqueIdentifier));
+    }
+
+    public boolean mightContain(String resourceType, String uniqueIdentifier) {
+        return bloomFilter.mightContain(getKey(resourceType, uniqueIdentifier));
+    }
+
+    private static String getKey(String resourceType, String uniqueIdentifier) {
+        return resourceType + "|" + uniqueIdentifier;
+    }
+}
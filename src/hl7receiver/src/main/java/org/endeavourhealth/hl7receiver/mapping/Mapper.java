@@ -3,6 +3,10 @@ package org.endeavourhealth.hl7receiver.mapping;
 import org.endeavourhealth.common.ods.OdsOrganisation;
 import org.endeavourhealth.common.ods.OdsWebService;
 import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.endeavourhealth.hl7receiver.metrics.Metrics;
+import org.endeavourhealth.hl7receiver.metrics.MetricsRegistry;
+import org.endeavourhealth.hl7receiver.metrics.StageName;
+import org.endeavourhealth.hl7receiver.metrics.StageTimer;
 import org.endeavourhealth.hl7receiver.model.db.DbCode;
 import org.endeavourhealth.hl7receiver.model.db.DbOrganisation;
 import org.endeavourhealth.hl7receiver.model.db.DbResourceUuidMapping;
@@ -15,8 +19,13 @@ import org.hl7.fhir.instance.model.ResourceType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class Mapper extends org.endeavourhealth.hl7transform.mapper.Mapper {
@@ -25,32 +34,93 @@ public class Mapper extends org.endeavourhealth.hl7transform.mapper.Mapper {
     private String sendingFacility;
     private PostgresDataLayer dataLayer;
     private CodeCache codeCache;
-    private ResourceUuidCache resourceUuidCache;
+    private ResourceUuidCache scopedResourceUuidCache;
+    private ResourceUuidCache globalResourceUuidCache;
     private OrganisationCache organisationCache;
+    private boolean deterministicResourceUuids;
+    private LegacyResourceUuidFilter scopedLegacyResourceUuidFilter;
+    private LegacyResourceUuidFilter globalLegacyResourceUuidFilter;
+    private LinkedHashMap<String, List<DbResourceUuidMapping>> newResourceUuids = new LinkedHashMap<>();
+    private ResourceUuidSaver resourceUuidSaver;
+    private String metricsChannelName;
+    private StageTimer codeTimer;
+    private StageTimer scopedResourceUuidTimer;
+    private StageTimer globalResourceUuidTimer;
+    private StageTimer similarResourceUuidsTimer;
+    private StageTimer organisationTimer;
+    private ConcurrentHashMap<String, StageTimer> transformStageTimers = new ConcurrentHashMap<>();
 
     public Mapper(String sendingFacility, PostgresDataLayer dataLayer) {
+        this(sendingFacility, dataLayer, false);
+    }
+
+    public Mapper(String sendingFacility, PostgresDataLayer dataLayer, boolean deterministicResourceUuids) {
+        this(sendingFacility, dataLayer, deterministicResourceUuids, sendingFacility);
+    }
+
+    /*
+        metricsChannelName is the channel the mapper and transform stage times are recorded against
+    */
+    public Mapper(String sendingFacility, PostgresDataLayer dataLayer, boolean deterministicResourceUuids, String metricsChannelName) {
         this.sendingFacility = sendingFacility;
         this.dataLayer = dataLayer;
-        this.codeCache = new CodeCache(MappedCodeAction.MAPPED_INCLUDE);
-        this.resourceUuidCache = new ResourceUuidCache(ResourceType.Organization, ResourceType.Location, ResourceType.Practitioner);
-        this.organisationCache = new OrganisationCache();
+        this.resourceUuidSaver = dataLayer::setResourceUuids;
+
+        MappingCacheRegistry cacheRegistry = MappingCacheRegistry.getInstance();
+        this.deterministicResourceUuids = deterministicResourceUuids && initialiseDeterministicResourceUuids(cacheRegistry);
+
+        this.codeCache = cacheRegistry.getCodeCache(sendingFacility);
+        this.globalResourceUuidCache = cacheRegistry.getGlobalResourceUuidCache();
+        this.organisationCache = cacheRegistry.getOrganisationCache();
+
+        if (this.deterministicResourceUuids)
+            this.scopedResourceUuidCache = cacheRegistry.getDeterministicResourceUuidCache(sendingFacility);
+        else
+            this.scopedResourceUuidCache = cacheRegistry.getScopedResourceUuidCache(sendingFacility);
+
+        MetricsRegistry metricsRegistry = Metrics.getRegistry();
+        this.metricsChannelName = metricsChannelName;
+        this.codeTimer = metricsRegistry.getTimer(metricsChannelName, StageName.MAPPER_CODE);
+        this.scopedResourceUuidTimer = metricsRegistry.getTimer(metricsChannelName, StageName.MAPPER_SCOPED_RESOURCE_UUID);
+        this.globalResourceUuidTimer = metricsRegistry.getTimer(metricsChannelName, StageName.MAPPER_GLOBAL_RESOURCE_UUID);
+        this.similarResourceUuidsTimer = metricsRegistry.getTimer(metricsChannelName, StageName.MAPPER_SIMILAR_RESOURCE_UUIDS);
+        this.organisationTimer = metricsRegistry.getTimer(metricsChannelName, StageName.MAPPER_ORGANISATION);
+    }
+
+    private boolean initialiseDeterministicResourceUuids(MappingCacheRegistry cacheRegistry) {
+        try {
+            if (this.dataLayer.isLegacyResourceUuidMigrationComplete(this.sendingFacility)
+                    && this.dataLayer.isLegacyResourceUuidMigrationComplete(Mapper.SCOPE_GLOBAL)) {
+
+                this.scopedLegacyResourceUuidFilter = cacheRegistry.getLegacyResourceUuidFilter(this.sendingFacility);
+                this.globalLegacyResourceUuidFilter = cacheRegistry.getLegacyResourceUuidFilter(Mapper.SCOPE_GLOBAL);
+
+                LOG.info("Using deterministic resource UUIDs for " + this.sendingFacility);
+                return true;
+            }
+
+            LOG.warn("Deterministic resource UUIDs requested for " + this.sendingFacility + " but legacy resource UUID migration is not complete, using database resource UUIDs");
+
+        } catch (Exception e) {
+            LOG.error("Could not load legacy resource UUIDs for " + this.sendingFacility + ", using database resource UUIDs", e);
+        }
+
+        return false;
+    }
+
+    public void warmCaches() throws Exception {
+        new CacheWarmer(this.sendingFacility, this.dataLayer, this.codeCache, this.globalResourceUuidCache, this.organisationCache).warm();
     }
 
     @Override
     public MappedCode mapCode(String context, String code, String codeSystem, String term) throws MapperException {
+        long start = System.nanoTime();
+
         try {
             MappedCode mappedCode = this.codeCache.getMappedCode(context, code, codeSystem, term);
 
             if (mappedCode == null) {
-
-                DbCode dbCode = this.dataLayer.getCode(this.sendingFacility, context, code, codeSystem, term);
-
-                mappedCode = new MappedCode()
-                        .setTargetAction(MappedCodeAction.fromIdentifier(dbCode.getTargetAction()))
-                        .setCode(dbCode.getCode())
-                        .setSystem(dbCode.getSystem())
-                        .setTerm(dbCode.getTerm());
-
+                mappedCode = loadMappedCode(context, code, codeSystem, term);
                 this.codeCache.putMappedCode(context, code, codeSystem, term, mappedCode);
             }
 
@@ -58,26 +128,50 @@ public class Mapper extends org.endeavourhealth.hl7transform.mapper.Mapper {
 
         } catch (Exception e) {
             throw new MapperException("Exception while mapping code, see cause", e);
+        } finally {
+            codeTimer.recordSince(start);
         }
     }
 
+    private MappedCode loadMappedCode(String context, String code, String codeSystem, String term) throws Exception {
+        return toMappedCode(this.dataLayer.getCode(this.sendingFacility, context, code, codeSystem, term));
+    }
+
     @Override
     public UUID mapScopedResourceUuid(ResourceType resourceType, String identifier) throws MapperException {
-        return this.mapResourceUuid(this.sendingFacility, resourceType, identifier);
+        long start = System.nanoTime();
+
+        try {
+            return this.mapResourceUuid(this.sendingFacility, resourceType, identifier);
+        } finally {
+            scopedResourceUuidTimer.recordSince(start);
+        }
     }
 
     @Override
     public UUID mapGlobalResourceUuid(ResourceType resourceType, String identifier) throws MapperException {
-        return this.mapResourceUuid(Mapper.SCOPE_GLOBAL, resourceType, identifier);
+        long start = System.nanoTime();
+
+        try {
+            return this.mapResourceUuid(Mapper.SCOPE_GLOBAL, resourceType, identifier);
+        } finally {
+            globalResourceUuidTimer.recordSince(start);
+        }
     }
 
     private UUID mapResourceUuid(String scopeName, ResourceType resourceType, String identifier) throws MapperException {
         try {
-            UUID resourceUuid = resourceUuidCache.getResourceUuid(resourceType, identifier);
+            ResourceUuidCache resourceUuidCache = Mapper.SCOPE_GLOBAL.equals(scopeName) ? this.globalResourceUuidCache : this.scopedResourceUuidCache;
+
+            UUID resourceUuid = resourceUuidCache.getResourceUuid(scopeName, resourceType, identifier);
 
             if (resourceUuid == null) {
-                resourceUuid = this.dataLayer.getResourceUuid(scopeName, resourceType.toString(), identifier);
-                resourceUuidCache.putResourceUuid(resourceType, identifier, resourceUuid);
+                if (this.deterministicResourceUuids)
+                    resourceUuid = getDeterministicResourceUuid(scopeName, resourceType, identifier);
+                else
+                    resourceUuid = this.dataLayer.getResourceUuid(scopeName, resourceType.toString(), identifier);
+
+                resourceUuidCache.putResourceUuid(scopeName, resourceType, identifier, resourceUuid);
             }
 
             return resourceUuid;
@@ -87,14 +181,64 @@ public class Mapper extends org.endeavourhealth.hl7transform.mapper.Mapper {
         }
     }
 
+    private UUID getDeterministicResourceUuid(String scopeName, ResourceType resourceType, String identifier) throws Exception {
+
+        // identifiers first seen before deterministic UUIDs were introduced keep their original random UUID
+        LegacyResourceUuidFilter legacyResourceUuidFilter = Mapper.SCOPE_GLOBAL.equals(scopeName) ? this.globalLegacyResourceUuidFilter : this.scopedLegacyResourceUuidFilter;
+
+        if (legacyResourceUuidFilter.mightContain(resourceType.toString(), identifier)) {
+            UUID legacyResourceUuid = this.dataLayer.getLegacyResourceUuid(scopeName, resourceType.toString(), identifier);
+
+            if (legacyResourceUuid != null)
+                return legacyResourceUuid;
+        }
+
+        UUID resourceUuid = ResourceUuidGenerator.createResourceUuid(scopeName, resourceType.toString(), identifier);
+
+        // mapping.resource_uuid still needs the row for get_similar_resource_uuid_mappings, these are saved in one batch per message
+        this.newResourceUuids
+                .computeIfAbsent(scopeName, t -> new ArrayList<>())
+                .add(new DbResourceUuidMapping()
+                        .setResourceType(resourceType.toString())
+                        .setUniqueIdentifier(identifier)
+                        .setResourceUuid(resourceUuid));
+
+        return resourceUuid;
+    }
+
+    /*
+        by default new resource UUID mappings are written straight to the database, a channel processor
+        passes them to the content writer instead
+    */
+    public Mapper setResourceUuidSaver(ResourceUuidSaver resourceUuidSaver) {
+        this.resourceUuidSaver = resourceUuidSaver;
+        return this;
+    }
+
+    /*
+        saves the resource UUIDs derived since the last call, on failure they are kept and retried on the next call
+    */
+    public void saveNewResourceUuids() throws Exception {
+        Iterator<Map.Entry<String, List<DbResourceUuidMapping>>> iterator = this.newResourceUuids.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, List<DbResourceUuidMapping>> entry = iterator.next();
+
+            this.resourceUuidSaver.save(entry.getKey(), entry.getValue());
+            iterator.remove();
+        }
+    }
+
     @Override
     public List<MappedResourceUuid> getScopedResourceUuidMappings(String uniqueIdentifierPrefix) throws MapperException {
+        long msStart = System.currentTimeMillis();
+        long start = System.nanoTime();
+
         try {
-            long msStart = System.currentTimeMillis();
             List<DbResourceUuidMapping> resourceUuidMappings = this.dataLayer.getSimilarResourceUuidMappings(this.sendingFacility, uniqueIdentifierPrefix);
             long msEnd = System.currentTimeMillis();
             long msTaken = msEnd - msStart;
-            LOG.trace("Took " + msTaken + "ms to get similar mappings to " + uniqueIdentifierPrefix);
+            LOG.trace("Took " + msTaken + "ms to get " + resourceUuidMappings.size() + " similar mappings to " + uniqueIdentifierPrefix);
 
             return resourceUuidMappings
                     .stream()
@@ -106,11 +250,15 @@ public class Mapper extends org.endeavourhealth.hl7transform.mapper.Mapper {
 
         } catch (Exception e) {
             throw new MapperException("Exception while getting similar resource UUID mappings, see cause", e);
+        } finally {
+            similarResourceUuidsTimer.recordSince(start);
         }
     }
 
     @Override
     public MappedOrganisation mapOrganisation(String odsCode) throws MapperException {
+        long start = System.nanoTime();
+
         try {
             MappedOrganisation mappedOrganisation = organisationCache.getMappedOrganisation(odsCode);
 
@@ -118,16 +266,7 @@ public class Mapper extends org.endeavourhealth.hl7transform.mapper.Mapper {
                 DbOrganisation dbOrganisation = this.dataLayer.getOrganisation(odsCode);
 
                 if (dbOrganisation != null) {
-                    mappedOrganisation = new MappedOrganisation()
-                            .setOdsCode(dbOrganisation.getOdsCode())
-                            .setOrganisationName(dbOrganisation.getOrganisationName())
-                            .setOrganisationClass(dbOrganisation.getOrganisationClass())
-                            .setOrganisationType(dbOrganisation.getOrganisationType())
-                            .setAddressLine1(dbOrganisation.getAddressLine1())
-                            .setAddressLine2(dbOrganisation.getAddressLine2())
-                            .setTown(dbOrganisation.getTown())
-                            .setCounty(dbOrganisation.getCounty())
-                            .setPostcode(dbOrganisation.getPostcode());
+                    mappedOrganisation = toMappedOrganisation(dbOrganisation);
                 } else {
 
                     //the Open ODS code has now moved to the FHIR rep/*mappedOrganisation = OdsRestClient.lookupOrganisationViaRest(odsCode);
@@ -181,6 +320,36 @@ public class Mapper extends org.endeavourhealth.hl7transform.mapper.Mapper {
 
         } catch (Exception e) {
             throw new MapperException("Exception while mapping organisation, see cause", e);
+        } finally {
+            organisationTimer.recordSince(start);
         }
     }
+
+    @Override
+    public void recordTransformStageTime(String stageName, long elapsedNanos) {
+        transformStageTimers
+                .computeIfAbsent(stageName, t -> Metrics.getRegistry().getTimer(metricsChannelName, StageName.transform(t)))
+                .record(elapsedNanos);
+    }
+
+    static MappedCode toMappedCode(DbCode dbCode) throws MapperException {
+        return new MappedCode()
+                .setTargetAction(MappedCodeAction.fromIdentifier(dbCode.getTargetAction()))
+                .setCode(dbCode.getCode())
+                .setSystem(dbCode.getSystem())
+                .setTerm(dbCode.getTerm());
+    }
+
+    static MappedOrganisation toMappedOrganisation(DbOrganisation dbOrganisation) {
+        return new MappedOrganisation()
+                .setOdsCode(dbOrganisation.getOdsCode())
+                .setOrganisationName(dbOrganisation.getOrganisationName())
+                .setOrganisationClass(dbOrganisation.getOrganisationClass())
+                .setOrganisationType(dbOrganisation.getOrganisationType())
+                .setAddressLine1(dbOrganisation.getAddressLine1())
+                .setAddressLine2(dbOrganisation.getAddressLine2())
+                .setTown(dbOrganisation.getTown())
+                .setCounty(dbOrganisation.getCounty())
+                .setPostcode(dbOrganisation.getPostcode());
+    }
 }
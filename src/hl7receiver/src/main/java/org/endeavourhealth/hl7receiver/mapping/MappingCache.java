@@ -0,0 +1,228 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/*
+    size bounded map with per entry timeouts, shared by all mapping cache tiers so that they evict
+    and report statistics the same way
+
+    gets do not lock, as the cache is shared by every channel. a get only stamps the entry with its access time,
+    and a put that finds the cache full removes the expired entries and then the least recently used, freeing
+    EVICTION_BATCH_PERCENT of maxEntries (at least one) so the scan is paid for once per batch of puts rather than on every one.
+    only one thread scans at a time, so the size can briefly run over maxEntries while it does
+
+    the ticker is System.nanoTime, other than in tests
+*/
+public class MappingCache<K, V> {
+    public static final long NO_TIMEOUT = Long.MAX_VALUE;
+
+    private static final int EVICTION_BATCH_PERCENT = 5;
+
+    private final ConcurrentHashMap<K, Entry<V>> hashMap = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final String name;
+    private final int maxEntries;
+    private final LongSupplier ticker;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder expiries = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public MappingCache(String name, int maxEntries) {
+        this(name, maxEntries, System::nanoTime);
+    }
+
+    MappingCache(String name, int maxEntries, LongSupplier ticker) {
+        Validate.notEmpty(name);
+        Validate.isTrue(maxEntries > 0, "maxEntries must be greater than zero");
+        Validate.notNull(ticker);
+
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.ticker = ticker;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    long nanoTime() {
+        return ticker.getAsLong();
+    }
+
+    public V get(K key) {
+        Entry<V> entry = getEntry(key);
+        return (entry == null) ? null : entry.getValue();
+    }
+
+    Entry<V> getEntry(K key) {
+        Entry<V> entry = hashMap.get(key);
+        long nanoNow = ticker.getAsLong();
+
+        if (entry != null && entry.isExpired(nanoNow)) {
+            if (hashMap.remove(key, entry))
+                expiries.increment();
+
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        entry.hit(nanoNow);
+        return entry;
+    }
+
+    public void put(K key, V value, long timeoutNanos) {
+        Validate.notNull(value);
+
+        hashMap.put(key, new Entry<>(value, timeoutNanos, ticker.getAsLong()));
+        puts.increment();
+
+        evictIfFull();
+    }
+
+    public V putIfAbsent(K key, V value, long timeoutNanos) {
+        Validate.notNull(value);
+
+        Entry<V> entry = new Entry<>(value, timeoutNanos, ticker.getAsLong());
+
+        while (true) {
+            Entry<V> previous = hashMap.putIfAbsent(key, entry);
+
+            if (previous == null)
+                break;
+
+            if (!previous.isExpired(ticker.getAsLong()))
+                return previous.getValue();
+
+            if (hashMap.replace(key, previous, entry))
+                break;
+        }
+
+        puts.increment();
+        evictIfFull();
+        return null;
+    }
+
+    public void remove(K key) {
+        hashMap.remove(key);
+    }
+
+    public int size() {
+        return hashMap.size();
+    }
+
+    public void removeExpired() {
+        long nanoNow = ticker.getAsLong();
+
+        for (Map.Entry<K, Entry<V>> entry : hashMap.entrySet())
+            if (entry.getValue().isExpired(nanoNow) && hashMap.remove(entry.getKey(), entry.getValue()))
+                expiries.increment();
+    }
+
+    private void evictIfFull() {
+        if (hashMap.size() <= maxEntries || !evictionLock.tryLock())
+            return;
+
+        try {
+            removeExpired();
+
+            if (hashMap.size() <= maxEntries)
+                return;
+
+            int excess = hashMap.size() - maxEntries + (int) ((long) maxEntries * EVICTION_BATCH_PERCENT / 100);
+
+            List<Map.Entry<K, Entry<V>>> entries = new ArrayList<>(hashMap.entrySet());
+            entries.sort(Comparator.comparingLong(t -> t.getValue().getAccessedNanos()));
+
+            Iterator<Map.Entry<K, Entry<V>>> iterator = entries.iterator();
+
+            while (excess > 0 && iterator.hasNext()) {
+                Map.Entry<K, Entry<V>> entry = iterator.next();
+
+                if (hashMap.remove(entry.getKey(), entry.getValue())) {
+                    evictions.increment();
+                    excess--;
+                }
+            }
+
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public MappingCacheStatistics getStatistics() {
+        return new MappingCacheStatistics()
+                .setName(name)
+                .setSize(size())
+                .setMaxEntries(maxEntries)
+                .setHits(hits.sum())
+                .setMisses(misses.sum())
+                .setPuts(puts.sum())
+                .setExpiries(expiries.sum())
+                .setEvictions(evictions.sum());
+    }
+
+    static class Entry<V> {
+        private final V value;
+        private final long loadedNanos;
+        private final long timeoutNanos;
+        private volatile long accessedNanos;
+        private final AtomicInteger hits = new AtomicInteger();
+        private final AtomicBoolean refreshClaimed = new AtomicBoolean();
+
+        Entry(V value, long timeoutNanos, long loadedNanos) {
+            this.value = value;
+            this.timeoutNanos = timeoutNanos;
+            this.loadedNanos = loadedNanos;
+            this.accessedNanos = loadedNanos;
+        }
+
+        V getValue() {
+            return value;
+        }
+
+        int getHits() {
+            return hits.get();
+        }
+
+        long getAccessedNanos() {
+            return accessedNanos;
+        }
+
+        void hit(long nanoNow) {
+            accessedNanos = nanoNow;
+            hits.incrementAndGet();
+        }
+
+        boolean isExpired(long nanoNow) {
+            return (timeoutNanos != NO_TIMEOUT) && ((nanoNow - loadedNanos) > timeoutNanos);
+        }
+
+        boolean isDueForRefresh(long nanoNow, long refreshAheadNanos) {
+            return (timeoutNanos != NO_TIMEOUT) && ((nanoNow - loadedNanos) > (timeoutNanos - Math.min(refreshAheadNanos, timeoutNanos / 2)));
+        }
+
+        boolean claimRefresh() {
+            return refreshClaimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import org.apache.commons.lang3.Validate;
+import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.hl7.fhir.instance.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    two tier mapping cache shared by all channel processors in the instance
+
+    global tier  - resource UUIDs in the GLOBAL scope and organisations, shared by every channel
+    scoped tier  - codes and scoped resource UUIDs, one set per sending facility (code mappings fall
+                   back to global mappings inside the database so the result depends on the scope)
+*/
+public final class MappingCacheRegistry {
+    // class members //
+    private static final Logger LOG = LoggerFactory.getLogger(MappingCacheRegistry.class);
+
+    private static final int MAINTENANCE_INTERVAL_SECONDS = 60 * 5;
+
+    private static MappingCacheRegistry instance = null;
+
+    public static synchronized MappingCacheRegistry getInstance() {
+        if (instance == null)
+            instance = new MappingCacheRegistry();
+
+        return instance;
+    }
+
+    /*
+        stops the registry's threads, a later getInstance() starts again with empty caches
+    */
+    public static synchronized void shutdown() {
+        if (instance == null)
+            return;
+
+        instance.maintenanceExecutor.shutdownNow();
+        instance.refreshExecutor.shutdownNow();
+        instance = null;
+    }
+
+    // instance members //
+    private final ResourceUuidCache globalResourceUuidCache;
+    private final OrganisationCache organisationCache;
+    private final ConcurrentHashMap<String, ScopedCaches> scopedCaches = new ConcurrentHashMap<>();
+    private final AtomicBoolean globalTierWarmed = new AtomicBoolean(false);
+    private final ScheduledExecutorService maintenanceExecutor;
+    private final ExecutorService refreshExecutor;
+    private final PostgresDataLayer dataLayer = new PostgresDataLayer();
+    private final Map<String, LegacyResourceUuidFilter> legacyResourceUuidFilters = new HashMap<>();
+
+    private MappingCacheRegistry() {
+        this.globalResourceUuidCache = new ResourceUuidCache("global-resource-uuid", ResourceType.Organization, ResourceType.Location);
+        this.organisationCache = new OrganisationCache("global-organisation");
+
+        this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MappingCacheMaintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.maintenanceExecutor.scheduleWithFixedDelay(this::runMaintenance, MAINTENANCE_INTERVAL_SECONDS, MAINTENANCE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        // one refresh ahead thread for every code cache in the instance
+        this.refreshExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "MappingCacheRefresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ResourceUuidCache getGlobalResourceUuidCache() {
+        return globalResourceUuidCache;
+    }
+
+    public OrganisationCache getOrganisationCache() {
+        return organisationCache;
+    }
+
+    public CodeCache getCodeCache(String sendingFacility) {
+        return getScopedCaches(sendingFacility).codeCache;
+    }
+
+    public ResourceUuidCache getScopedResourceUuidCache(String sendingFacility) {
+        return getScopedCaches(sendingFacility).resourceUuidCache;
+    }
+
+    /*
+        in deterministic resource UUID mode a cached UUID never needs the database again, so every resource type is cached
+    */
+    public ResourceUuidCache getDeterministicResourceUuidCache(String sendingFacility) {
+        return getScopedCaches(sendingFacility).deterministicResourceUuidCache;
+    }
+
+    /*
+        loaded on first use and shared by every channel in the scope, only valid once the scope's legacy migration is complete
+    */
+    public synchronized LegacyResourceUuidFilter getLegacyResourceUuidFilter(String scopeName) throws Exception {
+        LegacyResourceUuidFilter filter = legacyResourceUuidFilters.get(scopeName);
+
+        if (filter == null) {
+            filter = LegacyResourceUuidFilter.load(scopeName, dataLayer);
+            legacyResourceUuidFilters.put(scopeName, filter);
+        }
+
+        return filter;
+    }
+
+    /*
+        returns true only for the first caller, the global tier only needs loading once per instance
+    */
+    boolean claimGlobalTierWarming() {
+        return globalTierWarmed.compareAndSet(false, true);
+    }
+
+    void releaseGlobalTierWarming() {
+        globalTierWarmed.set(false);
+    }
+
+    public List<MappingCacheStatistics> getStatistics() {
+        List<MappingCacheStatistics> statistics = new ArrayList<>();
+
+        for (MappingCache<?, ?> cache : getAllCaches())
+            statistics.add(cache.getStatistics());
+
+        return statistics;
+    }
+
+    private ScopedCaches getScopedCaches(String sendingFacility) {
+        Validate.notEmpty(sendingFacility);
+
+        return scopedCaches.computeIfAbsent(sendingFacility, t -> new ScopedCaches(t, createCodeLoader(t), refreshExecutor));
+    }
+
+    /*
+        refreshes load through the registry's own data layer, so a cache shared by several channels
+        doesn't hold on to whichever channel's mapper created it
+    */
+    private CodeLoader createCodeLoader(String sendingFacility) {
+        return (context, code, codeSystem, term) -> Mapper.toMappedCode(dataLayer.getCode(sendingFacility, context, code, codeSystem, term));
+    }
+
+    private List<MappingCache<?, ?>> getAllCaches() {
+        List<MappingCache<?, ?>> caches = new ArrayList<>();
+        caches.add(globalResourceUuidCache.getCache());
+        caches.add(organisationCache.getCache());
+
+        for (ScopedCaches scoped : scopedCaches.values()) {
+            caches.add(scoped.codeCache.getCache());
+            caches.add(scoped.resourceUuidCache.getCache());
+            caches.add(scoped.deterministicResourceUuidCache.getCache());
+        }
+
+        return caches;
+    }
+
+    private void runMaintenance() {
+        try {
+            for (MappingCache<?, ?> cache : getAllCaches())
+                cache.removeExpired();
+
+            // statistics are also served by the admin endpoint
+            if (LOG.isDebugEnabled())
+                for (MappingCacheStatistics statistics : getStatistics())
+                    LOG.debug("Mapping cache " + statistics.toString());
+
+        } catch (Exception e) {
+            LOG.error("Exception during mapping cache maintenance", e);
+        }
+    }
+
+    private static class ScopedCaches {
+        private final CodeCache codeCache;
+        private final ResourceUuidCache resourceUuidCache;
+        private final ResourceUuidCache deterministicResourceUuidCache;
+
+        ScopedCaches(String sendingFacility, CodeLoader refreshLoader, ExecutorService refreshExecutor) {
+            this.codeCache = new CodeCache(sendingFacility + "-code", refreshLoader, refreshExecutor);
+            this.resourceUuidCache = new ResourceUuidCache(sendingFacility + "-resource-uuid", ResourceType.Organization, ResourceType.Location, ResourceType.Practitioner);
+            this.deterministicResourceUuidCache = new ResourceUuidCache(sendingFacility + "-deterministic-resource-uuid", ResourceType.values());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+public class MappingCacheStatistics {
+    private String name;
+    private int size;
+    private int maxEntries;
+    private long hits;
+    private long misses;
+    private long puts;
+    private long expiries;
+    private long evictions;
+
+    public String getName() {
+        return name;
+    }
+
+    public MappingCacheStatistics setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public MappingCacheStatistics setSize(int size) {
+        this.size = size;
+        return this;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public MappingCacheStatistics setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public MappingCacheStatistics setHits(long hits) {
+        this.hits = hits;
+        return this;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public MappingCacheStatistics setMisses(long misses) {
+        this.misses = misses;
+        return this;
+    }
+
+    public long getPuts() {
+        return puts;
+    }
+
+    public MappingCacheStatistics setPuts(long puts) {
+        this.puts = puts;
+        return this;
+    }
+
+    public long getExpiries() {
+        return expiries;
+    }
+
+    public MappingCacheStatistics setExpiries(long expiries) {
+        this.expiries = expiries;
+        return this;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public MappingCacheStatistics setEvictions(long evictions) {
+        this.evictions = evictions;
+        return this;
+    }
+
+    public double getHitRatio() {
+        long requests = hits + misses;
+        return (requests == 0) ? 0 : ((double) hits / (double) requests);
+    }
+
+    @Override
+    public String toString() {
+        return name + " size=" + size + "/" + maxEntries
+                + " hits=" + hits
+                + " misses=" + misses
+                + " hitRatio=" + String.format("%.3f", getHitRatio())
+                + " puts=" + puts
+                + " expiries=" + expiries
+                + " evictions=" + evictions;
+    }
+}
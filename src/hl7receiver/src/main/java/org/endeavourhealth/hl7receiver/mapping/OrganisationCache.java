@@ -4,12 +4,14 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.endeavourhealth.hl7transform.mapper.organisation.MappedOrganisation;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 public class OrganisationCache {
-    private ConcurrentHashMap<String, MappedOrganisation> hashMap = new ConcurrentHashMap<>();
 
-    public OrganisationCache() {
+    static int CACHE_MAX_ENTRIES = 20000;
+
+    private MappingCache<String, MappedOrganisation> cache;
+
+    public OrganisationCache(String name) {
+        this.cache = new MappingCache<>(name, CACHE_MAX_ENTRIES);
     }
 
     public MappedOrganisation getMappedOrganisation(String odsCode) {
@@ -20,7 +22,7 @@ public class OrganisationCache {
         if (odsCode.length() == 0)
             return null;
 
-        return hashMap.getOrDefault(odsCode, null);
+        return cache.get(odsCode);
     }
 
     public void putMappedOrganisation(String odsCode, MappedOrganisation mappedOrganisation) {
@@ -32,7 +34,15 @@ public class OrganisationCache {
         if (odsCode.length() == 0)
             return;
 
-        hashMap.put(odsCode, mappedOrganisation);
+        cache.put(odsCode, mappedOrganisation, MappingCache.NO_TIMEOUT);
+    }
+
+    public MappingCache<String, MappedOrganisation> getCache() {
+        return cache;
+    }
+
+    public int size() {
+        return cache.size();
     }
 
     private static String normaliseOdsCode(String odsCode) {
@@ -8,33 +8,41 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class ResourceUuidCache {
 
+    static int CACHE_MAX_ENTRIES = 50000;
+
     private List<ResourceType> resourceTypesToCache;
 
-    private ConcurrentHashMap<ResourceUuidKey, UUID> hashMap = new ConcurrentHashMap<>();
+    private MappingCache<ResourceUuidKey, UUID> cache;
+
+    public ResourceUuidCache(String name, ResourceType... resourceTypesToCache) {
+        this(name, CACHE_MAX_ENTRIES, resourceTypesToCache);
+    }
 
-    public ResourceUuidCache(ResourceType... resourceTypesToCache) {
+    public ResourceUuidCache(String name, int maxEntries, ResourceType... resourceTypesToCache) {
         Validate.notNull(resourceTypesToCache);
 
         this.resourceTypesToCache = new ArrayList<>(Arrays.asList(resourceTypesToCache));
+        this.cache = new MappingCache<>(name, maxEntries);
     }
 
-    public UUID getResourceUuid(ResourceType resourceType, String identifier) {
+    public UUID getResourceUuid(String scopeName, ResourceType resourceType, String identifier) {
+        Validate.notEmpty(scopeName);
         Validate.notNull(resourceType);
         Validate.notEmpty(identifier);
 
         if (!resourceTypesToCache.contains(resourceType))
             return null;
 
-        ResourceUuidKey resourceUuidKey = new ResourceUuidKey(resourceType.toString(), identifier);
+        ResourceUuidKey resourceUuidKey = new ResourceUuidKey(scopeName, resourceType.toString(), identifier);
 
-        return hashMap.getOrDefault(resourceUuidKey, null);
+        return cache.get(resourceUuidKey);
     }
 
-    public void putResourceUuid(ResourceType resourceType, String identifier, UUID resourceUuid) throws MapperException {
+    public void putResourceUuid(String scopeName, ResourceType resourceType, String identifier, UUID resourceUuid) throws MapperException {
+        Validate.notEmpty(scopeName);
         Validate.notNull(resourceType);
         Validate.notEmpty(identifier);
         Validate.notNull(resourceUuid);
@@ -42,16 +50,21 @@ public class ResourceUuidCache {
         if (!resourceTypesToCache.contains(resourceType))
             return;
 
-        ResourceUuidKey combinedKey = new ResourceUuidKey(resourceType.toString(), identifier);
+        ResourceUuidKey combinedKey = new ResourceUuidKey(scopeName, resourceType.toString(), identifier);
 
-        UUID previousValue = hashMap.putIfAbsent(combinedKey, resourceUuid);
+        // resource UUID mappings never change once created, so entries only leave the cache through eviction
+        UUID previousValue = cache.putIfAbsent(combinedKey, resourceUuid, MappingCache.NO_TIMEOUT);
 
         if (previousValue != null)
             if (!previousValue.equals(resourceUuid))
                 throw new MapperException("Tried to put key " + combinedKey.toString() + " with resource UUID " + resourceUuid.toString() + " but different resource UUID already exists " + previousValue.toString());
     }
 
-    private static String getCombinedKey(ResourceType resourceType, String identifier) {
-        return resourceType.toString() + "~" + identifier;
+    public MappingCache<ResourceUuidKey, UUID> getCache() {
+        return cache;
+    }
+
+    public int size() {
+        return cache.size();
     }
 }
@@ -0,0 +1,58 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/*
+    name based (RFC 4122 version 5) resource UUIDs
+
+    namespace and name format must match mapping.get_deterministic_resource_uuid(..) so that UUIDs minted by the
+    database and in process are identical
+*/
+public final class ResourceUuidGenerator {
+
+    static final UUID RESOURCE_UUID_NAMESPACE = UUID.fromString("8c4b6f0e-3a5d-4e2b-9f61-7d0c2a9e5b13");
+
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    });
+
+    private static final byte[] NAMESPACE_BYTES = ByteBuffer.allocate(16)
+            .putLong(RESOURCE_UUID_NAMESPACE.getMostSignificantBits())
+            .putLong(RESOURCE_UUID_NAMESPACE.getLeastSignificantBits())
+            .array();
+
+    private ResourceUuidGenerator() {
+    }
+
+    public static UUID createResourceUuid(String scopeName, String resourceType, String uniqueIdentifier) {
+        Validate.notEmpty(resourceType);
+        Validate.notEmpty(uniqueIdentifier);
+
+        String name = StringUtils.trimToEmpty(scopeName) + "|" + resourceType + "|" + uniqueIdentifier;
+
+        MessageDigest digest = SHA1.get();
+        digest.reset();
+        digest.update(NAMESPACE_BYTES);
+        byte[] hash = Arrays.copyOf(digest.digest(name.getBytes(StandardCharsets.UTF_8)), 16);
+
+        hash[6] &= 0x0f;
+        hash[6] |= 0x50;    // version 5
+        hash[8] &= 0x3f;
+        hash[8] |= 0x80;    // IETF variant
+
+        ByteBuffer buffer = ByteBuffer.wrap(hash);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
@@ -5,14 +5,20 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 public class ResourceUuidKey {
+    private String scopeName;
     private String resourceType;
     private String uniqueIdentifier;
 
-    public ResourceUuidKey(String resourceType, String uniqueIdentifier) {
+    public ResourceUuidKey(String scopeName, String resourceType, String uniqueIdentifier) {
+        this.scopeName = scopeName;
         this.resourceType = resourceType;
         this.uniqueIdentifier = uniqueIdentifier;
     }
 
+    public String getScopeName() {
+        return scopeName;
+    }
+
     public String getResourceType() {
         return resourceType;
     }
@@ -30,6 +36,7 @@ public class ResourceUuidKey {
         ResourceUuidKey that = (ResourceUuidKey) o;
 
         return new EqualsBuilder()
+                .append(scopeName, that.scopeName)
                 .append(resourceType, that.resourceType)
                 .append(uniqueIdentifier, that.uniqueIdentifier)
                 .isEquals();
@@ -38,6 +45,7 @@ public class ResourceUuidKey {
     @Override
     public int hashCode() {
         return new HashCodeBuilder(17, 37)
+                .append(scopeName)
                 .append(resourceType)
                 .append(uniqueIdentifier)
                 .toHashCode();
@@ -46,6 +54,7 @@ public class ResourceUuidKey {
     @Override
     public String toString() {
         return new ToStringBuilder(this)
+                .append("scopeName", scopeName)
                 .append("resourceType", resourceType)
                 .append("uniqueIdentifier", uniqueIdentifier)
                 .toString();
@@ -0,0 +1,10 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import org.endeavourhealth.hl7receiver.model.db.DbResourceUuidMapping;
+
+import java.util.List;
+
+@FunctionalInterface
+public interface ResourceUuidSaver {
+    void save(String scopeName, List<DbResourceUuidMapping> resourceUuidMappings) throws Exception;
+}
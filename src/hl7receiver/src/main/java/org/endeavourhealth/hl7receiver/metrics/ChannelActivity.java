@@ -0,0 +1,192 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+import org.endeavourhealth.hl7receiver.model.db.DbChannelQueueStatus;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    live counts for one channel, incremented by the receiver and channel processor
+
+    queue depth is not queried per message, ChannelActivityRegistry reads log.message_queue every so often and
+    the depth in between is that count plus messages received since less messages processed since. messages
+    received or processed by other instances are only picked up at the next read.
+*/
+public class ChannelActivity {
+    private final int channelId;
+    private final String channelName;
+    private final LongAdder received = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder backpressureDelayed = new LongAdder();
+    private final LongAdder backpressureRejected = new LongAdder();
+    private volatile boolean lockHeld = false;
+    private volatile boolean backpressureApplied = false;
+    private volatile QueueBaseline queueBaseline = null;
+    private volatile Rates rates = new Rates(0, 0);
+
+    // only used by the registry's sampling thread
+    private long lastSampleNanos = System.nanoTime();
+    private long lastSampleReceived = 0;
+    private long lastSampleProcessed = 0;
+
+    ChannelActivity(int channelId, String channelName) {
+        this.channelId = channelId;
+        this.channelName = channelName;
+    }
+
+    public int getChannelId() {
+        return channelId;
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public void messageReceived() {
+        received.increment();
+    }
+
+    public void messageRejected() {
+        rejected.increment();
+    }
+
+    public void messageProcessed() {
+        processed.increment();
+    }
+
+    public void messageFailed() {
+        failed.increment();
+    }
+
+    public void messageDelayedByBackpressure() {
+        backpressureDelayed.increment();
+    }
+
+    public void messageRejectedByBackpressure() {
+        backpressureRejected.increment();
+    }
+
+    public void setLockHeld(boolean lockHeld) {
+        this.lockHeld = lockHeld;
+    }
+
+    public void setBackpressureApplied(boolean backpressureApplied) {
+        this.backpressureApplied = backpressureApplied;
+    }
+
+    /*
+        -1 until log.message_queue has been read once
+    */
+    public long getEstimatedQueueDepth() {
+        QueueBaseline baseline = queueBaseline;
+
+        if (baseline == null)
+            return -1;
+
+        long depth = baseline.status.getQueueDepth()
+                + (received.sum() - baseline.received)
+                - (processed.sum() - baseline.processed);
+
+        return Math.max(0, depth);
+    }
+
+    /*
+        the counts are taken before the query so a message counted by both is corrected at the next read
+    */
+    void setQueueStatus(DbChannelQueueStatus status, long receivedBeforeQuery, long processedBeforeQuery) {
+        queueBaseline = new QueueBaseline(status, receivedBeforeQuery, processedBeforeQuery, LocalDateTime.now());
+    }
+
+    long getReceivedCount() {
+        return received.sum();
+    }
+
+    long getProcessedCount() {
+        return processed.sum();
+    }
+
+    void sampleRates(long nowNanos) {
+        long receivedNow = received.sum();
+        long processedNow = processed.sum();
+
+        double seconds = (double) (nowNanos - lastSampleNanos) / TimeUnit.SECONDS.toNanos(1);
+
+        if (seconds > 0)
+            rates = new Rates((receivedNow - lastSampleReceived) / seconds, (processedNow - lastSampleProcessed) / seconds);
+
+        lastSampleNanos = nowNanos;
+        lastSampleReceived = receivedNow;
+        lastSampleProcessed = processedNow;
+    }
+
+    public ChannelActivityStatistics getStatistics() {
+        QueueBaseline baseline = queueBaseline;
+        Rates currentRates = rates;
+        LocalDateTime now = LocalDateTime.now();
+
+        ChannelActivityStatistics statistics = new ChannelActivityStatistics()
+                .setChannelId(channelId)
+                .setChannelName(channelName)
+                .setMessagesReceived(received.sum())
+                .setMessagesRejected(rejected.sum())
+                .setMessagesProcessed(processed.sum())
+                .setMessagesFailed(failed.sum())
+                .setReceivedPerSecond(currentRates.receivedPerSecond)
+                .setProcessedPerSecond(currentRates.processedPerSecond)
+                .setLockHeldByThisInstance(lockHeld)
+                .setBackpressureApplied(backpressureApplied)
+                .setBackpressureDelayedAcks(backpressureDelayed.sum())
+                .setBackpressureRejectedAcks(backpressureRejected.sum());
+
+        if (baseline == null)
+            return statistics;
+
+        long queueDepth = getEstimatedQueueDepth();
+
+        statistics
+                .setQueueDepth(queueDepth)
+                .setQueueStatusAgeSeconds(secondsBetween(baseline.readDate, now))
+                .setLockHolder(baseline.status.getLockHostname())
+                .setLockHeartbeatAgeSeconds(secondsBetween(baseline.status.getLockHeartbeatDate(), now));
+
+        if (queueDepth > 0)
+            statistics.setOldestMessageAgeSeconds(secondsBetween(baseline.status.getOldestLogDate(), now));
+
+        return statistics;
+    }
+
+    private static Long secondsBetween(LocalDateTime from, LocalDateTime to) {
+        if (from == null)
+            return null;
+
+        return Math.max(0, Duration.between(from, to).getSeconds());
+    }
+
+    private static class QueueBaseline {
+        private final DbChannelQueueStatus status;
+        private final long received;
+        private final long processed;
+        private final LocalDateTime readDate;
+
+        QueueBaseline(DbChannelQueueStatus status, long received, long processed, LocalDateTime readDate) {
+            this.status = status;
+            this.received = received;
+            this.processed = processed;
+            this.readDate = readDate;
+        }
+    }
+
+    private static class Rates {
+        private final double receivedPerSecond;
+        private final double processedPerSecond;
+
+        Rates(double receivedPerSecond, double processedPerSecond) {
+            this.receivedPerSecond = receivedPerSecond;
+            this.processedPerSecond = processedPerSecond;
+        }
+    }
+}
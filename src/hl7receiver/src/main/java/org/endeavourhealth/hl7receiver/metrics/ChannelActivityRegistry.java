@@ -0,0 +1,101 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+import org.apache.commons.lang3.Validate;
+import org.endeavourhealth.hl7receiver.PostgresDataLayer;
+import org.endeavourhealth.hl7receiver.model.db.DbChannelQueueStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+    channel activity for the instance, with a background thread that samples message rates and corrects each
+    channel's queue depth from log.message_queue (one aggregate query per channel per interval)
+*/
+public final class ChannelActivityRegistry {
+    // class members //
+    private static final Logger LOG = LoggerFactory.getLogger(ChannelActivityRegistry.class);
+
+    private static final int RATE_SAMPLE_INTERVAL_SECONDS = 5;
+    private static final int QUEUE_STATUS_INTERVAL_SECONDS = 60;
+
+    private static ChannelActivityRegistry instance = null;
+
+    public static synchronized ChannelActivityRegistry getInstance() {
+        if (instance == null)
+            instance = new ChannelActivityRegistry();
+
+        return instance;
+    }
+
+    // instance members //
+    private final ConcurrentHashMap<Integer, ChannelActivity> channels = new ConcurrentHashMap<>();
+    private final PostgresDataLayer dataLayer = new PostgresDataLayer();
+    private final ScheduledExecutorService samplingExecutor;
+
+    private ChannelActivityRegistry() {
+        this.samplingExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ChannelActivitySampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.samplingExecutor.scheduleWithFixedDelay(this::sampleRates, RATE_SAMPLE_INTERVAL_SECONDS, RATE_SAMPLE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        this.samplingExecutor.scheduleWithFixedDelay(this::refreshQueueStatus, QUEUE_STATUS_INTERVAL_SECONDS, QUEUE_STATUS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /*
+        a new channel's queue is read straight away rather than at the next interval
+    */
+    public ChannelActivity getChannelActivity(int channelId, String channelName) {
+        Validate.notEmpty(channelName);
+
+        return channels.computeIfAbsent(channelId, t -> {
+            ChannelActivity channelActivity = new ChannelActivity(t, channelName);
+            samplingExecutor.execute(() -> refreshQueueStatus(channelActivity));
+            return channelActivity;
+        });
+    }
+
+    public List<ChannelActivityStatistics> getStatistics() {
+        List<ChannelActivityStatistics> statistics = new ArrayList<>();
+
+        for (ChannelActivity channelActivity : channels.values())
+            statistics.add(channelActivity.getStatistics());
+
+        statistics.sort(Comparator.comparing(ChannelActivityStatistics::getChannelName));
+        return statistics;
+    }
+
+    private void sampleRates() {
+        long now = System.nanoTime();
+
+        for (ChannelActivity channelActivity : channels.values())
+            channelActivity.sampleRates(now);
+    }
+
+    private void refreshQueueStatus() {
+        for (ChannelActivity channelActivity : channels.values())
+            refreshQueueStatus(channelActivity);
+    }
+
+    private void refreshQueueStatus(ChannelActivity channelActivity) {
+        try {
+            long receivedBeforeQuery = channelActivity.getReceivedCount();
+            long processedBeforeQuery = channelActivity.getProcessedCount();
+
+            DbChannelQueueStatus status = dataLayer.getChannelQueueStatus(channelActivity.getChannelId());
+
+            channelActivity.setQueueStatus(status, receivedBeforeQuery, processedBeforeQuery);
+
+        } catch (Exception e) {
+            LOG.warn("Could not read queue status for channel " + channelActivity.getChannelName(), e);
+        }
+    }
+}
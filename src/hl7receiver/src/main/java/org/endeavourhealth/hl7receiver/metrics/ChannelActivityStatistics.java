@@ -0,0 +1,191 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+/*
+    queue values are null until log.message_queue has been read for the channel
+*/
+public class ChannelActivityStatistics {
+    private int channelId;
+    private String channelName;
+    private long messagesReceived;
+    private long messagesRejected;
+    private long messagesProcessed;
+    private long messagesFailed;
+    private double receivedPerSecond;
+    private double processedPerSecond;
+    private Long queueDepth;
+    private Long oldestMessageAgeSeconds;
+    private Long queueStatusAgeSeconds;
+    private boolean lockHeldByThisInstance;
+    private String lockHolder;
+    private Long lockHeartbeatAgeSeconds;
+    private boolean backpressureApplied;
+    private long backpressureDelayedAcks;
+    private long backpressureRejectedAcks;
+
+    public int getChannelId() {
+        return channelId;
+    }
+
+    public ChannelActivityStatistics setChannelId(int channelId) {
+        this.channelId = channelId;
+        return this;
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public ChannelActivityStatistics setChannelName(String channelName) {
+        this.channelName = channelName;
+        return this;
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    public ChannelActivityStatistics setMessagesReceived(long messagesReceived) {
+        this.messagesReceived = messagesReceived;
+        return this;
+    }
+
+    public long getMessagesRejected() {
+        return messagesRejected;
+    }
+
+    public ChannelActivityStatistics setMessagesRejected(long messagesRejected) {
+        this.messagesRejected = messagesRejected;
+        return this;
+    }
+
+    public long getMessagesProcessed() {
+        return messagesProcessed;
+    }
+
+    public ChannelActivityStatistics setMessagesProcessed(long messagesProcessed) {
+        this.messagesProcessed = messagesProcessed;
+        return this;
+    }
+
+    public long getMessagesFailed() {
+        return messagesFailed;
+    }
+
+    public ChannelActivityStatistics setMessagesFailed(long messagesFailed) {
+        this.messagesFailed = messagesFailed;
+        return this;
+    }
+
+    public double getReceivedPerSecond() {
+        return receivedPerSecond;
+    }
+
+    public ChannelActivityStatistics setReceivedPerSecond(double receivedPerSecond) {
+        this.receivedPerSecond = receivedPerSecond;
+        return this;
+    }
+
+    public double getProcessedPerSecond() {
+        return processedPerSecond;
+    }
+
+    public ChannelActivityStatistics setProcessedPerSecond(double processedPerSecond) {
+        this.processedPerSecond = processedPerSecond;
+        return this;
+    }
+
+    public Long getQueueDepth() {
+        return queueDepth;
+    }
+
+    public ChannelActivityStatistics setQueueDepth(Long queueDepth) {
+        this.queueDepth = queueDepth;
+        return this;
+    }
+
+    public Long getOldestMessageAgeSeconds() {
+        return oldestMessageAgeSeconds;
+    }
+
+    public ChannelActivityStatistics setOldestMessageAgeSeconds(Long oldestMessageAgeSeconds) {
+        this.oldestMessageAgeSeconds = oldestMessageAgeSeconds;
+        return this;
+    }
+
+    public Long getQueueStatusAgeSeconds() {
+        return queueStatusAgeSeconds;
+    }
+
+    public ChannelActivityStatistics setQueueStatusAgeSeconds(Long queueStatusAgeSeconds) {
+        this.queueStatusAgeSeconds = queueStatusAgeSeconds;
+        return this;
+    }
+
+    public boolean isLockHeldByThisInstance() {
+        return lockHeldByThisInstance;
+    }
+
+    public ChannelActivityStatistics setLockHeldByThisInstance(boolean lockHeldByThisInstance) {
+        this.lockHeldByThisInstance = lockHeldByThisInstance;
+        return this;
+    }
+
+    public String getLockHolder() {
+        return lockHolder;
+    }
+
+    public ChannelActivityStatistics setLockHolder(String lockHolder) {
+        this.lockHolder = lockHolder;
+        return this;
+    }
+
+    public Long getLockHeartbeatAgeSeconds() {
+        return lockHeartbeatAgeSeconds;
+    }
+
+    public ChannelActivityStatistics setLockHeartbeatAgeSeconds(Long lockHeartbeatAgeSeconds) {
+        this.lockHeartbeatAgeSeconds = lockHeartbeatAgeSeconds;
+        return this;
+    }
+
+    public boolean isBackpressureApplied() {
+        return backpressureApplied;
+    }
+
+    public ChannelActivityStatistics setBackpressureApplied(boolean backpressureApplied) {
+        this.backpressureApplied = backpressureApplied;
+        return this;
+    }
+
+    public long getBackpressureDelayedAcks() {
+        return backpressureDelayedAcks;
+    }
+
+    public ChannelActivityStatistics setBackpressureDelayedAcks(long backpressureDelayedAcks) {
+        this.backpressureDelayedAcks = backpressureDelayedAcks;
+        return this;
+    }
+
+    public long getBackpressureRejectedAcks() {
+        return backpressureRejectedAcks;
+    }
+
+    public ChannelActivityStatistics setBackpressureRejectedAcks(long backpressureRejectedAcks) {
+        this.backpressureRejectedAcks = backpressureRejectedAcks;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return channelName + " received=" + messagesReceived
+                + " rejected=" + messagesRejected
+                + " processed=" + messagesProcessed
+                + " failed=" + messagesFailed
+                + " in/s=" + String.format("%.2f", receivedPerSecond)
+                + " out/s=" + String.format("%.2f", processedPerSecond)
+                + " queueDepth=" + queueDepth
+                + " oldestMessageAge=" + oldestMessageAgeSeconds + "s"
+                + " lockHolder=" + lockHolder
+                + " backpressure=" + backpressureApplied;
+    }
+}
@@ -0,0 +1,9 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+import java.util.List;
+
+public interface ChannelLatencyMXBean {
+    String getChannelName();
+    List<StageLatencyStatistics> getStageLatencies();
+    void reset();
+}
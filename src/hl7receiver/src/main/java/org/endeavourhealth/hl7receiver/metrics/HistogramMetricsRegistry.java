@@ -0,0 +1,101 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+    HdrHistogram timers, with each channel's stages published over JMX as
+    org.endeavourhealth.hl7receiver:type=StageLatency,channel=<channel name>
+*/
+public class HistogramMetricsRegistry implements MetricsRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(HistogramMetricsRegistry.class);
+
+    private static final String JMX_DOMAIN = "org.endeavourhealth.hl7receiver";
+
+    private final ConcurrentHashMap<String, ChannelTimers> channels = new ConcurrentHashMap<>();
+
+    @Override
+    public StageTimer getTimer(String channelName, String stageName) {
+        Validate.notEmpty(channelName);
+        Validate.notEmpty(stageName);
+
+        return channels
+                .computeIfAbsent(channelName, this::createChannelTimers)
+                .timers
+                .computeIfAbsent(stageName, HistogramStageTimer::new);
+    }
+
+    @Override
+    public List<String> getChannelNames() {
+        List<String> channelNames = new ArrayList<>(channels.keySet());
+        channelNames.sort(String::compareTo);
+        return channelNames;
+    }
+
+    @Override
+    public List<StageLatencyStatistics> getStatistics(String channelName) {
+        ChannelTimers channelTimers = channels.get(channelName);
+
+        if (channelTimers == null)
+            return new ArrayList<>();
+
+        return channelTimers.getStageLatencies();
+    }
+
+    private ChannelTimers createChannelTimers(String channelName) {
+        ChannelTimers channelTimers = new ChannelTimers(channelName);
+
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=StageLatency,channel=" + ObjectName.quote(channelName));
+
+            if (!mBeanServer.isRegistered(objectName))
+                mBeanServer.registerMBean(channelTimers, objectName);
+
+        } catch (Exception e) {
+            LOG.warn("Could not register stage latency MBean for channel " + channelName, e);
+        }
+
+        return channelTimers;
+    }
+
+    private static class ChannelTimers implements ChannelLatencyMXBean {
+        private final String channelName;
+        private final Map<String, HistogramStageTimer> timers = new ConcurrentSkipListMap<>();
+
+        ChannelTimers(String channelName) {
+            this.channelName = channelName;
+        }
+
+        @Override
+        public String getChannelName() {
+            return channelName;
+        }
+
+        @Override
+        public List<StageLatencyStatistics> getStageLatencies() {
+            List<StageLatencyStatistics> statistics = new ArrayList<>();
+
+            for (StageTimer timer : timers.values())
+                statistics.add(timer.getStatistics());
+
+            return statistics;
+        }
+
+        @Override
+        public void reset() {
+            for (StageTimer timer : timers.values())
+                timer.reset();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    records microseconds into an HdrHistogram Recorder, which is wait free for the recording threads; readers move
+    what has been recorded since the last read into a running total under the timer's lock
+*/
+class HistogramStageTimer implements StageTimer {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final String stageName;
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private final Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private Histogram interval = null;
+
+    HistogramStageTimer(String stageName) {
+        this.stageName = stageName;
+    }
+
+    @Override
+    public void record(long elapsedNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        recorder.recordValue(Math.max(0, Math.min(micros, HIGHEST_TRACKABLE_MICROS)));
+    }
+
+    @Override
+    public synchronized StageLatencyStatistics getStatistics() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+
+        return new StageLatencyStatistics()
+                .setStageName(stageName)
+                .setCount(total.getTotalCount())
+                .setMean(total.getMean() / 1000.0)
+                .setP50(total.getValueAtPercentile(50) / 1000.0)
+                .setP90(total.getValueAtPercentile(90) / 1000.0)
+                .setP99(total.getValueAtPercentile(99) / 1000.0)
+                .setP999(total.getValueAtPercentile(99.9) / 1000.0)
+                .setMax(total.getMaxValue() / 1000.0);
+    }
+
+    @Override
+    public synchronized void reset() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.reset();
+    }
+}
@@ -0,0 +1,51 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+    holds the instance's metrics registry - HistogramMetricsRegistry unless -Dhl7receiver.metrics.registry names
+    another MetricsRegistry class with a public no argument constructor
+*/
+public final class Metrics {
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    public static final String REGISTRY_CLASS_PROPERTY = "hl7receiver.metrics.registry";
+
+    private static MetricsRegistry registry = null;
+
+    private Metrics() {
+    }
+
+    public static synchronized MetricsRegistry getRegistry() {
+        if (registry == null)
+            registry = createRegistry();
+
+        return registry;
+    }
+
+    /*
+        must be called before the first call to getRegistry() to take effect everywhere
+    */
+    public static synchronized void setRegistry(MetricsRegistry metricsRegistry) {
+        registry = metricsRegistry;
+    }
+
+    private static MetricsRegistry createRegistry() {
+        String registryClassName = System.getProperty(REGISTRY_CLASS_PROPERTY);
+
+        if (StringUtils.isNotBlank(registryClassName)) {
+            try {
+                MetricsRegistry metricsRegistry = (MetricsRegistry) Class.forName(registryClassName.trim()).getConstructor().newInstance();
+                LOG.info("Using metrics registry " + registryClassName);
+                return metricsRegistry;
+
+            } catch (Exception e) {
+                LOG.error("Could not create metrics registry " + registryClassName + ", using " + HistogramMetricsRegistry.class.getSimpleName(), e);
+            }
+        }
+
+        return new HistogramMetricsRegistry();
+    }
+}
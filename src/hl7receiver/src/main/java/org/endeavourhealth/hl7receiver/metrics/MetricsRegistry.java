@@ -0,0 +1,15 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+import java.util.List;
+
+/*
+    per channel stage timers
+
+    the registry in use is chosen once per instance by Metrics.getRegistry(), so another implementation (e.g. one
+    forwarding to an external metrics system) can be plugged in without changing the instrumented code
+*/
+public interface MetricsRegistry {
+    StageTimer getTimer(String channelName, String stageName);
+    List<String> getChannelNames();
+    List<StageLatencyStatistics> getStatistics(String channelName);
+}
@@ -0,0 +1,98 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+/*
+    times are in milliseconds
+*/
+public class StageLatencyStatistics {
+    private String stageName;
+    private long count;
+    private double mean;
+    private double p50;
+    private double p90;
+    private double p99;
+    private double p999;
+    private double max;
+
+    public String getStageName() {
+        return stageName;
+    }
+
+    public StageLatencyStatistics setStageName(String stageName) {
+        this.stageName = stageName;
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public StageLatencyStatistics setCount(long count) {
+        this.count = count;
+        return this;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public StageLatencyStatistics setMean(double mean) {
+        this.mean = mean;
+        return this;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public StageLatencyStatistics setP50(double p50) {
+        this.p50 = p50;
+        return this;
+    }
+
+    public double getP90() {
+        return p90;
+    }
+
+    public StageLatencyStatistics setP90(double p90) {
+        this.p90 = p90;
+        return this;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+
+    public StageLatencyStatistics setP99(double p99) {
+        this.p99 = p99;
+        return this;
+    }
+
+    public double getP999() {
+        return p999;
+    }
+
+    public StageLatencyStatistics setP999(double p999) {
+        this.p999 = p999;
+        return this;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public StageLatencyStatistics setMax(double max) {
+        this.max = max;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return stageName + " count=" + count
+                + " mean=" + String.format("%.3f", mean)
+                + " p50=" + String.format("%.3f", p50)
+                + " p90=" + String.format("%.3f", p90)
+                + " p99=" + String.format("%.3f", p99)
+                + " p99.9=" + String.format("%.3f", p999)
+                + " max=" + String.format("%.3f", max);
+    }
+}
@@ -0,0 +1,49 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+import org.endeavourhealth.hl7receiver.model.db.DbProcessingContentType;
+
+/*
+    names of the timed stages, grouped by prefix
+
+    receive.*    HL7MessageReceiver - encode of the parsed message, key field parse and checks, ACK build, message log write
+    process.*    HL7ChannelProcessor - dequeue of the next message and total processing time
+    transform.*  Hl7v2Transform stages (parse, pre-transform, transform, serialise) and each resource transform
+    mapper.*     each kind of Mapper call, including cache hits
+    content.*    processing content saves by content type
+    envelope.*, eds.*  onward message build and post
+*/
+public final class StageName {
+    public static final String RECEIVE_ENCODE = "receive.encode";
+    public static final String RECEIVE_KEY_FIELDS = "receive.key-fields";
+    public static final String RECEIVE_ACK = "receive.ack";
+    public static final String RECEIVE_DB_LOG = "receive.db-log";
+    public static final String RECEIVE_TOTAL = "receive.total";
+    public static final String RECEIVE_REJECTED = "receive.rejected";
+
+    public static final String PROCESS_DEQUEUE = "process.dequeue";
+    public static final String PROCESS_TOTAL = "process.total";
+
+    public static final String TRANSFORM_PREFIX = "transform.";
+    public static final String TRANSFORM_TOTAL = "transform.total";
+
+    public static final String MAPPER_CODE = "mapper.code";
+    public static final String MAPPER_SCOPED_RESOURCE_UUID = "mapper.scoped-resource-uuid";
+    public static final String MAPPER_GLOBAL_RESOURCE_UUID = "mapper.global-resource-uuid";
+    public static final String MAPPER_SIMILAR_RESOURCE_UUIDS = "mapper.similar-resource-uuids";
+    public static final String MAPPER_ORGANISATION = "mapper.organisation";
+    public static final String MAPPER_SAVE_RESOURCE_UUIDS = "mapper.save-resource-uuids";
+
+    public static final String ENVELOPE_BUILD = "envelope.build";
+    public static final String EDS_POST = "eds.post";
+
+    private StageName() {
+    }
+
+    public static String transform(String transformStageName) {
+        return TRANSFORM_PREFIX + transformStageName;
+    }
+
+    public static String contentSave(DbProcessingContentType contentType) {
+        return "content.save." + contentType.name();
+    }
+}
@@ -0,0 +1,16 @@
+package org.endeavourhealth.hl7receiver.metrics;
+
+public interface StageTimer {
+    void record(long elapsedNanos);
+    StageLatencyStatistics getStatistics();
+    void reset();
+
+    /*
+        records the time since start and returns the time now, so consecutive stages can be timed from one start value
+    */
+    default long recordSince(long startNanos) {
+        long now = System.nanoTime();
+        record(now - startNanos);
+        return now;
+    }
+}
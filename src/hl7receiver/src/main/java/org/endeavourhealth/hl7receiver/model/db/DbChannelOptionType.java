@@ -8,7 +8,14 @@ public enum DbChannelOptionType {
     MAX_SKIPPABLE_PROCESSING_ERROR_MESSAGES("MaxSkippableProcessingErroredMessages"),
     SKIP_ONWARD_MESSAGE_SENDING_IN_PROCESSOR("SkipOnwardMessageSendingInProcessor"),
     PAUSE_PROCESSOR("PauseProcessor"),
-    SLACK_URL("SlackUrl");
+    SLACK_URL("SlackUrl"),
+    DETERMINISTIC_RESOURCE_UUIDS("DeterministicResourceUuids"),
+    COMPRESS_PROCESSING_CONTENT("CompressProcessingContent"),
+    DEDUPLICATE_PROCESSING_CONTENT_RESOURCES("DeduplicateProcessingContentResources"),
+    BACKPRESSURE_HIGH_WATERMARK("BackpressureHighWatermark"),
+    BACKPRESSURE_LOW_WATERMARK("BackpressureLowWatermark"),
+    BACKPRESSURE_ACTION("BackpressureAction"),
+    BACKPRESSURE_ACK_DELAY_MILLIS("BackpressureAckDelayMillis");
 
     private String channelOptionType;
 
@@ -0,0 +1,66 @@
+package org.endeavourhealth.hl7receiver.model.db;
+
+import java.time.LocalDateTime;
+
+public class DbChannelQueueStatus {
+    private long queueDepth;
+    private LocalDateTime oldestMessageDate;
+    private LocalDateTime oldestLogDate;
+    private Integer lockInstanceId;
+    private String lockHostname;
+    private LocalDateTime lockHeartbeatDate;
+
+    public long getQueueDepth() {
+        return queueDepth;
+    }
+
+    public DbChannelQueueStatus setQueueDepth(long queueDepth) {
+        this.queueDepth = queueDepth;
+        return this;
+    }
+
+    public LocalDateTime getOldestMessageDate() {
+        return oldestMessageDate;
+    }
+
+    public DbChannelQueueStatus setOldestMessageDate(LocalDateTime oldestMessageDate) {
+        this.oldestMessageDate = oldestMessageDate;
+        return this;
+    }
+
+    public LocalDateTime getOldestLogDate() {
+        return oldestLogDate;
+    }
+
+    public DbChannelQueueStatus setOldestLogDate(LocalDateTime oldestLogDate) {
+        this.oldestLogDate = oldestLogDate;
+        return this;
+    }
+
+    public Integer getLockInstanceId() {
+        return lockInstanceId;
+    }
+
+    public DbChannelQueueStatus setLockInstanceId(Integer lockInstanceId) {
+        this.lockInstanceId = lockInstanceId;
+        return this;
+    }
+
+    public String getLockHostname() {
+        return lockHostname;
+    }
+
+    public DbChannelQueueStatus setLockHostname(String lockHostname) {
+        this.lockHostname = lockHostname;
+        return this;
+    }
+
+    public LocalDateTime getLockHeartbeatDate() {
+        return lockHeartbeatDate;
+    }
+
+    public DbChannelQueueStatus setLockHeartbeatDate(LocalDateTime lockHeartbeatDate) {
+        this.lockHeartbeatDate = lockHeartbeatDate;
+        return this;
+    }
+}
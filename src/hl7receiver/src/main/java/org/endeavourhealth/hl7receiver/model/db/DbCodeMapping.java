@@ -0,0 +1,54 @@
+package org.endeavourhealth.hl7receiver.model.db;
+
+public class DbCodeMapping {
+    private String sourceContext;
+    private String sourceCode;
+    private String sourceSystem;
+    private String sourceTerm;
+    private DbCode targetCode;
+
+    public String getSourceContext() {
+        return sourceContext;
+    }
+
+    public DbCodeMapping setSourceContext(String sourceContext) {
+        this.sourceContext = sourceContext;
+        return this;
+    }
+
+    public String getSourceCode() {
+        return sourceCode;
+    }
+
+    public DbCodeMapping setSourceCode(String sourceCode) {
+        this.sourceCode = sourceCode;
+        return this;
+    }
+
+    public String getSourceSystem() {
+        return sourceSystem;
+    }
+
+    public DbCodeMapping setSourceSystem(String sourceSystem) {
+        this.sourceSystem = sourceSystem;
+        return this;
+    }
+
+    public String getSourceTerm() {
+        return sourceTerm;
+    }
+
+    public DbCodeMapping setSourceTerm(String sourceTerm) {
+        this.sourceTerm = sourceTerm;
+        return this;
+    }
+
+    public DbCode getTargetCode() {
+        return targetCode;
+    }
+
+    public DbCodeMapping setTargetCode(DbCode targetCode) {
+        this.targetCode = targetCode;
+        return this;
+    }
+}
@@ -0,0 +1,24 @@
+package org.endeavourhealth.hl7receiver.model.db;
+
+public class DbCompressionDictionary {
+    private int compressionDictionaryId;
+    private byte[] dictionary;
+
+    public int getCompressionDictionaryId() {
+        return compressionDictionaryId;
+    }
+
+    public DbCompressionDictionary setCompressionDictionaryId(int compressionDictionaryId) {
+        this.compressionDictionaryId = compressionDictionaryId;
+        return this;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    public DbCompressionDictionary setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+        return this;
+    }
+}
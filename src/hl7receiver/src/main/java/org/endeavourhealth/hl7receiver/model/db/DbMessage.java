@@ -11,6 +11,7 @@ public class DbMessage {
     private String inboundMessageType;
     private String inboundPayload;
     private UUID messageUuid;
+    private LocalDateTime logDate;
 
     public int getMessageId() {
         return messageId;
@@ -74,4 +75,13 @@ public class DbMessage {
         this.messageUuid = requestMessageUuid;
         return this;
     }
+
+    public LocalDateTime getLogDate() {
+        return logDate;
+    }
+
+    public DbMessage setLogDate(LocalDateTime logDate) {
+        this.logDate = logDate;
+        return this;
+    }
 }
@@ -0,0 +1,66 @@
+package org.endeavourhealth.hl7receiver.model.db;
+
+import java.time.LocalDateTime;
+
+public class DbMessageCompletion {
+    private int messageId;
+    private int processingAttemptId;
+    private DbMessageStatus messageStatus;
+    private String errorMessage;
+    private int instanceId;
+    private LocalDateTime logDate;
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public DbMessageCompletion setMessageId(int messageId) {
+        this.messageId = messageId;
+        return this;
+    }
+
+    public int getProcessingAttemptId() {
+        return processingAttemptId;
+    }
+
+    public DbMessageCompletion setProcessingAttemptId(int processingAttemptId) {
+        this.processingAttemptId = processingAttemptId;
+        return this;
+    }
+
+    public DbMessageStatus getMessageStatus() {
+        return messageStatus;
+    }
+
+    public DbMessageCompletion setMessageStatus(DbMessageStatus messageStatus) {
+        this.messageStatus = messageStatus;
+        return this;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public DbMessageCompletion setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+        return this;
+    }
+
+    public int getInstanceId() {
+        return instanceId;
+    }
+
+    public DbMessageCompletion setInstanceId(int instanceId) {
+        this.instanceId = instanceId;
+        return this;
+    }
+
+    public LocalDateTime getLogDate() {
+        return logDate;
+    }
+
+    public DbMessageCompletion setLogDate(LocalDateTime logDate) {
+        this.logDate = logDate;
+        return this;
+    }
+}
@@ -0,0 +1,66 @@
+package org.endeavourhealth.hl7receiver.model.db;
+
+import java.time.LocalDateTime;
+
+public class DbMessageProcessingContent {
+    private int messageProcessingContentId;
+    private int messageId;
+    private int processingAttemptId;
+    private LocalDateTime contentSavedDate;
+    private int processingContentTypeId;
+    private String content;
+
+    public int getMessageProcessingContentId() {
+        return messageProcessingContentId;
+    }
+
+    public DbMessageProcessingContent setMessageProcessingContentId(int messageProcessingContentId) {
+        this.messageProcessingContentId = messageProcessingContentId;
+        return this;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public DbMessageProcessingContent setMessageId(int messageId) {
+        this.messageId = messageId;
+        return this;
+    }
+
+    public int getProcessingAttemptId() {
+        return processingAttemptId;
+    }
+
+    public DbMessageProcessingContent setProcessingAttemptId(int processingAttemptId) {
+        this.processingAttemptId = processingAttemptId;
+        return this;
+    }
+
+    public LocalDateTime getContentSavedDate() {
+        return contentSavedDate;
+    }
+
+    public DbMessageProcessingContent setContentSavedDate(LocalDateTime contentSavedDate) {
+        this.contentSavedDate = contentSavedDate;
+        return this;
+    }
+
+    public int getProcessingContentTypeId() {
+        return processingContentTypeId;
+    }
+
+    public DbMessageProcessingContent setProcessingContentTypeId(int processingContentTypeId) {
+        this.processingContentTypeId = processingContentTypeId;
+        return this;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public DbMessageProcessingContent setContent(String content) {
+        this.content = content;
+        return this;
+    }
+}
@@ -1,5 +1,7 @@
 package org.endeavourhealth.hl7receiver.model.db;
 
+import org.apache.commons.lang3.NotImplementedException;
+
 public enum DbMessageStatus {
     MESSAGE_RECEIVED(0, "Message received"),
     MESSAGE_PROCESSING_STARTED(1, "Message processing started"),
@@ -21,4 +23,12 @@ public enum DbMessageStatus {
         return dbMessageStatusType;
     }
     public String getDescription() { return dbMessageDescription; }
+
+    public static DbMessageStatus fromValue(int value) {
+        for (DbMessageStatus messageStatus : DbMessageStatus.values())
+            if (messageStatus.getValue() == value)
+                return messageStatus;
+
+        throw new NotImplementedException("Message status " + value + " not found");
+    }
 }
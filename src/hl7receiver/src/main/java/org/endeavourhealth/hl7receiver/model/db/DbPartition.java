@@ -0,0 +1,46 @@
+package org.endeavourhealth.hl7receiver.model.db;
+
+import java.time.LocalDateTime;
+
+public class DbPartition {
+    private String partitionName;
+    private String parentTableName;
+    private LocalDateTime rangeStart;
+    private LocalDateTime rangeEnd;
+
+    public String getPartitionName() {
+        return partitionName;
+    }
+
+    public DbPartition setPartitionName(String partitionName) {
+        this.partitionName = partitionName;
+        return this;
+    }
+
+    public String getParentTableName() {
+        return parentTableName;
+    }
+
+    public DbPartition setParentTableName(String parentTableName) {
+        this.parentTableName = parentTableName;
+        return this;
+    }
+
+    public LocalDateTime getRangeStart() {
+        return rangeStart;
+    }
+
+    public DbPartition setRangeStart(LocalDateTime rangeStart) {
+        this.rangeStart = rangeStart;
+        return this;
+    }
+
+    public LocalDateTime getRangeEnd() {
+        return rangeEnd;
+    }
+
+    public DbPartition setRangeEnd(LocalDateTime rangeEnd) {
+        this.rangeEnd = rangeEnd;
+        return this;
+    }
+}
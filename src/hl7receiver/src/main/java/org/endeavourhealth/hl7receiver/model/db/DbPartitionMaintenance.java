@@ -0,0 +1,44 @@
+package org.endeavourhealth.hl7receiver.model.db;
+
+public class DbPartitionMaintenance {
+    private boolean isEnabled;
+    private int monthsAhead;
+    private int retentionMonths;
+    private String archiveDirectory;
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public DbPartitionMaintenance setEnabled(boolean enabled) {
+        isEnabled = enabled;
+        return this;
+    }
+
+    public int getMonthsAhead() {
+        return monthsAhead;
+    }
+
+    public DbPartitionMaintenance setMonthsAhead(int monthsAhead) {
+        this.monthsAhead = monthsAhead;
+        return this;
+    }
+
+    public int getRetentionMonths() {
+        return retentionMonths;
+    }
+
+    public DbPartitionMaintenance setRetentionMonths(int retentionMonths) {
+        this.retentionMonths = retentionMonths;
+        return this;
+    }
+
+    public String getArchiveDirectory() {
+        return archiveDirectory;
+    }
+
+    public DbPartitionMaintenance setArchiveDirectory(String archiveDirectory) {
+        this.archiveDirectory = archiveDirectory;
+        return this;
+    }
+}
@@ -0,0 +1,64 @@
+package org.endeavourhealth.hl7receiver.model.db;
+
+public class DbProcessingContent {
+    private int messageId;
+    private int processingAttemptId;
+    private DbProcessingContentType processingContentType;
+    private String content;
+    private byte[] contentCompressed;
+    private Integer compressionDictionaryId;
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public DbProcessingContent setMessageId(int messageId) {
+        this.messageId = messageId;
+        return this;
+    }
+
+    public int getProcessingAttemptId() {
+        return processingAttemptId;
+    }
+
+    public DbProcessingContent setProcessingAttemptId(int processingAttemptId) {
+        this.processingAttemptId = processingAttemptId;
+        return this;
+    }
+
+    public DbProcessingContentType getProcessingContentType() {
+        return processingContentType;
+    }
+
+    public DbProcessingContent setProcessingContentType(DbProcessingContentType processingContentType) {
+        this.processingContentType = processingContentType;
+        return this;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public DbProcessingContent setContent(String content) {
+        this.content = content;
+        return this;
+    }
+
+    public byte[] getContentCompressed() {
+        return contentCompressed;
+    }
+
+    public DbProcessingContent setContentCompressed(byte[] contentCompressed) {
+        this.contentCompressed = contentCompressed;
+        return this;
+    }
+
+    public Integer getCompressionDictionaryId() {
+        return compressionDictionaryId;
+    }
+
+    public DbProcessingContent setCompressionDictionaryId(Integer compressionDictionaryId) {
+        this.compressionDictionaryId = compressionDictionaryId;
+        return this;
+    }
+}
@@ -1,5 +1,7 @@
 package org.endeavourhealth.hl7receiver.model.db;
 
+import org.apache.commons.lang3.NotImplementedException;
+
 public enum DbProcessingContentType {
     FHIR(1),
     ONWARD_REQUEST_MESSAGE(2),
@@ -14,4 +16,12 @@ public enum DbProcessingContentType {
     public int getValue() {
         return this.dbProcessingContentType;
     }
+
+    public static DbProcessingContentType fromValue(int value) {
+        for (DbProcessingContentType processingContentType : DbProcessingContentType.values())
+            if (processingContentType.getValue() == value)
+                return processingContentType;
+
+        throw new NotImplementedException("Processing content type " + value + " not found");
+    }
 }
@@ -0,0 +1,34 @@
+package org.endeavourhealth.hl7receiver.model.db;
+
+public class DbSharedResource {
+    private String resourceHash;
+    private String resourceType;
+    private String content;
+
+    public String getResourceHash() {
+        return resourceHash;
+    }
+
+    public DbSharedResource setResourceHash(String resourceHash) {
+        this.resourceHash = resourceHash;
+        return this;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public DbSharedResource setResourceType(String resourceType) {
+        this.resourceType = resourceType;
+        return this;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public DbSharedResource setContent(String content) {
+        this.content = content;
+        return this;
+    }
+}
@@ -0,0 +1,93 @@
+package org.endeavourhealth.hl7receiver.compression;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+public class ContentCodecTest extends TestCase {
+
+    private static final String BUNDLE = "{\"resourceType\":\"Bundle\",\"entry\":[{\"resource\":{\"resourceType\":\"Organization\","
+            + "\"name\":\"Homerton University Hospital NHS Foundation Trust\",\"identifier\":[{\"system\":\"http://fhir.nhs.net/Id/ods-organization-code\",\"value\":\"RQX\"}]}},"
+            + "{\"resource\":{\"resourceType\":\"Patient\",\"name\":[{\"family\":[\"Smith\"],\"given\":[\"Zoë\"]}]}}]}";
+
+    public void testRoundTripWithoutDictionary() throws Exception {
+        byte[] compressed = ContentCodec.compress(BUNDLE, null);
+
+        assertEquals(BUNDLE, ContentCodec.decompress(compressed, null));
+    }
+
+    public void testRoundTripWithDictionary() throws Exception {
+        byte[] dictionary = BUNDLE.substring(0, 200).getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressed = ContentCodec.compress(BUNDLE, dictionary);
+
+        assertTrue(compressed.length < ContentCodec.compress(BUNDLE, null).length);
+        assertEquals(BUNDLE, ContentCodec.decompress(compressed, dictionary));
+    }
+
+    public void testRoundTripLargerThanBuffer() throws Exception {
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < 2000; i++)
+            content.append("OBX|").append(i).append("|NM|").append(i * 31 % 977).append("\r");
+
+        assertEquals(content.toString(), ContentCodec.decompress(ContentCodec.compress(content.toString(), null), null));
+    }
+
+    public void testRoundTripEmptyContent() throws Exception {
+        assertEquals("", ContentCodec.decompress(ContentCodec.compress("", null), null));
+    }
+
+    public void testMissingDictionaryFails() {
+        byte[] compressed = ContentCodec.compress(BUNDLE, "{\"resourceType\":\"Bundle\"".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            ContentCodec.decompress(compressed, null);
+            fail("Expected DataFormatException");
+        } catch (DataFormatException e) {
+            // expected
+        }
+    }
+
+    public void testWrongDictionaryFails() {
+        byte[] compressed = ContentCodec.compress(BUNDLE, "{\"resourceType\":\"Bundle\"".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            ContentCodec.decompress(compressed, "{\"resourceType\":\"Patient\"".getBytes(StandardCharsets.UTF_8));
+            fail("Expected DataFormatException");
+        } catch (DataFormatException e) {
+            // expected
+        }
+    }
+
+    public void testTruncatedContentFails() {
+        byte[] compressed = ContentCodec.compress(BUNDLE, null);
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+
+        try {
+            ContentCodec.decompress(truncated, null);
+            fail("Expected DataFormatException");
+        } catch (DataFormatException e) {
+            // expected
+        }
+    }
+
+    public void testTrainedDictionaryRoundTrip() throws Exception {
+        List<String> samples = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++)
+            samples.add(BUNDLE.replace("Smith", "Smith" + i));
+
+        byte[] dictionary = DictionaryTrainer.train(samples);
+
+        assertTrue(dictionary.length > 0);
+        assertTrue(dictionary.length <= ContentCodec.MAX_DICTIONARY_SIZE);
+
+        String content = BUNDLE.replace("Smith", "Jones");
+        assertEquals(content, ContentCodec.decompress(ContentCodec.compress(content, dictionary), dictionary));
+    }
+}
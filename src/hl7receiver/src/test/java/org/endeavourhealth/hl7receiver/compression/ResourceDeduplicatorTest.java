@@ -0,0 +1,92 @@
+package org.endeavourhealth.hl7receiver.compression;
+
+import junit.framework.TestCase;
+import org.endeavourhealth.hl7receiver.model.db.DbSharedResource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ResourceDeduplicatorTest extends TestCase {
+
+    private static final String ORGANIZATION = "{\"resourceType\":\"Organization\",\"id\":\"1\",\"name\":\"Homerton University Hospital\"}";
+    private static final String LOCATION = "{\n    \"resourceType\": \"Location\",\n    \"id\": \"2\",\n    \"name\": \"Ward 1\"\n}";
+    private static final String PATIENT = "{\"resourceType\":\"Patient\",\"id\":\"3\",\"name\":[{\"given\":[\"Zoë\"]}]}";
+
+    private static final String BUNDLE = "{\"resourceType\":\"Bundle\",\"meta\":{\"tag\":[{\"code\":\"x\"}]},\"entry\":["
+            + "{\"fullUrl\":\"urn:1\",\"resource\":" + PATIENT + "},"
+            + "{\"resource\":" + ORGANIZATION + "},"
+            + "{\"resource\":" + LOCATION + ",\"request\":{\"method\":\"PUT\"}},"
+            + "{\"resource\":" + ORGANIZATION + "}]}";
+
+    public void testSharedResourcesAreReplacedAndReconstructedExactly() throws Exception {
+        ResourceDeduplicator deduplicator = new ResourceDeduplicator("test");
+
+        DeduplicatedContent deduplicated = deduplicator.deduplicate(BUNDLE);
+
+        assertEquals(2, deduplicated.getNewResources().size());
+        assertFalse(deduplicated.getContent().contains("Homerton"));
+        assertFalse(deduplicated.getContent().contains("Ward 1"));
+        assertTrue(deduplicated.getContent().contains(PATIENT));
+        assertEquals(2, ResourceDeduplicator.getSharedResourceHashes(deduplicated.getContent()).size());
+
+        Map<String, String> sharedResources = new HashMap<>();
+
+        for (DbSharedResource resource : deduplicated.getNewResources())
+            sharedResources.put(resource.getResourceHash(), resource.getContent());
+
+        assertEquals(ORGANIZATION, sharedResources.get(findHash(deduplicated, "Organization")));
+        assertEquals(LOCATION, sharedResources.get(findHash(deduplicated, "Location")));
+        assertEquals(BUNDLE, ResourceDeduplicator.reconstruct(deduplicated.getContent(), sharedResources));
+    }
+
+    public void testKnownResourcesAreNotReturnedAgain() throws Exception {
+        ResourceDeduplicator deduplicator = new ResourceDeduplicator("test");
+
+        DeduplicatedContent first = deduplicator.deduplicate(BUNDLE);
+        deduplicator.addKnownResources(first.getNewResources());
+
+        DeduplicatedContent second = deduplicator.deduplicate(BUNDLE);
+
+        assertTrue(second.getNewResources().isEmpty());
+        assertEquals(first.getContent(), second.getContent());
+    }
+
+    public void testResourcesAreReturnedAgainUntilSaved() throws Exception {
+        ResourceDeduplicator deduplicator = new ResourceDeduplicator("test");
+
+        deduplicator.deduplicate(BUNDLE);
+
+        assertEquals(2, deduplicator.deduplicate(BUNDLE).getNewResources().size());
+    }
+
+    public void testContentWithoutSharedResourcesIsUnchanged() throws Exception {
+        ResourceDeduplicator deduplicator = new ResourceDeduplicator("test");
+        String bundle = "{\"resourceType\":\"Bundle\",\"entry\":[{\"resource\":" + PATIENT + "}]}";
+
+        for (String content : new String[] { bundle, "MSH|^~\\&|HOMERTON", "{\"entry\":[{\"resource\":" }) {
+            DeduplicatedContent deduplicated = deduplicator.deduplicate(content);
+
+            assertEquals(content, deduplicated.getContent());
+            assertTrue(deduplicated.getNewResources().isEmpty());
+        }
+    }
+
+    public void testReconstructFailsWhenSharedResourceIsMissing() throws Exception {
+        DeduplicatedContent deduplicated = new ResourceDeduplicator("test").deduplicate(BUNDLE);
+
+        try {
+            ResourceDeduplicator.reconstruct(deduplicated.getContent(), new HashMap<>());
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static String findHash(DeduplicatedContent deduplicated, String resourceType) {
+        for (DbSharedResource resource : deduplicated.getNewResources())
+            if (resourceType.equals(resource.getResourceType()))
+                return resource.getResourceHash();
+
+        return null;
+    }
+}
@@ -0,0 +1,248 @@
+package org.endeavourhealth.hl7receiver.engine;
+
+import junit.framework.TestCase;
+import org.endeavourhealth.hl7receiver.model.db.DbMessageCompletion;
+import org.endeavourhealth.hl7receiver.model.db.DbMessageStatus;
+import org.endeavourhealth.hl7receiver.model.db.DbProcessingContent;
+import org.endeavourhealth.hl7receiver.model.db.DbProcessingContentType;
+import org.endeavourhealth.hl7receiver.model.db.DbResourceUuidMapping;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class HL7ContentSpillFileTest extends TestCase {
+
+    private static final LocalDateTime LOG_DATE = LocalDateTime.of(2026, 10, 19, 14, 30, 5, 123000000);
+    private static final UUID RESOURCE_UUID = UUID.fromString("b6a28083-3a36-5bf2-a93d-9f9bf9842016");
+
+    private File file;
+    private File quarantineFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("HL7ContentSpillFileTest", ".spill");
+        quarantineFile = new File(file.getPath() + ".quarantine");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+        quarantineFile.delete();
+    }
+
+    public void testRecordsAreReadBackInOrder() throws Exception {
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            appendAll(spillFile);
+
+            List<HL7ContentWriter.PendingWrite> pendingWrites = spillFile.read(10);
+
+            assertEquals(4, pendingWrites.size());
+            assertTrue(spillFile.isExhausted());
+
+            assertResourceUuids(pendingWrites.get(0));
+            assertRawContent(pendingWrites.get(1));
+            assertCompressedContent(pendingWrites.get(2));
+            assertCompletion(pendingWrites.get(3));
+        }
+    }
+
+    public void testReadIsLimitedToMaxRecords() throws Exception {
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            appendAll(spillFile);
+
+            assertEquals(3, spillFile.read(3).size());
+            assertFalse(spillFile.isExhausted());
+
+            List<HL7ContentWriter.PendingWrite> remaining = spillFile.read(3);
+            assertEquals(1, remaining.size());
+            assertCompletion(remaining.get(0));
+            assertTrue(spillFile.read(3).isEmpty());
+        }
+    }
+
+    public void testFileLeftByPreviousRunIsReplayed() throws Exception {
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            appendAll(spillFile);
+        }
+
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            assertFalse(spillFile.isExhausted());
+            assertEquals(4, spillFile.read(10).size());
+        }
+    }
+
+    public void testTornRecordIsTruncatedOnOpen() throws Exception {
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            spillFile.append(HL7ContentWriter.PendingWrite.forContent(createRawContent()));
+        }
+
+        long validLength = file.length();
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(randomAccessFile.length());
+            randomAccessFile.writeInt(1000);
+            randomAccessFile.writeInt(0);
+            randomAccessFile.write(new byte[10]);
+        }
+
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            assertEquals(validLength, file.length());
+            assertEquals(18, quarantineFile.length());
+
+            // appended after the last whole record rather than after the torn one
+            spillFile.append(HL7ContentWriter.PendingWrite.forContent(createRawContent()));
+            List<HL7ContentWriter.PendingWrite> pendingWrites = spillFile.read(10);
+
+            assertEquals(2, pendingWrites.size());
+            assertRawContent(pendingWrites.get(0));
+            assertRawContent(pendingWrites.get(1));
+            assertTrue(spillFile.isExhausted());
+        }
+    }
+
+    public void testTornLastRecordWithBadChecksumIsTruncatedOnOpen() throws Exception {
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            spillFile.append(HL7ContentWriter.PendingWrite.forContent(createRawContent()));
+            spillFile.append(HL7ContentWriter.PendingWrite.forContent(createRawContent()));
+        }
+
+        long firstRecordLength = getFirstRecordLength();
+        corruptByte(file.length() - 1);
+
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            assertEquals(firstRecordLength, file.length());
+            assertEquals(1, spillFile.read(10).size());
+        }
+    }
+
+    public void testCorruptRecordIsQuarantinedAndSkipped() throws Exception {
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            appendAll(spillFile);
+        }
+
+        long fileLength = file.length();
+        corruptByte(getFirstRecordLength() + 10);
+
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            assertEquals(fileLength, file.length());
+
+            List<HL7ContentWriter.PendingWrite> pendingWrites = spillFile.read(10);
+
+            assertEquals(3, pendingWrites.size());
+            assertResourceUuids(pendingWrites.get(0));
+            assertCompressedContent(pendingWrites.get(1));
+            assertCompletion(pendingWrites.get(2));
+            assertTrue(spillFile.isExhausted());
+            assertTrue(quarantineFile.length() > 0);
+        }
+    }
+
+    public void testResetEmptiesFile() throws Exception {
+        try (HL7ContentSpillFile spillFile = new HL7ContentSpillFile(file)) {
+            appendAll(spillFile);
+            spillFile.read(1);
+
+            spillFile.reset();
+
+            assertTrue(spillFile.isExhausted());
+            assertEquals(0, file.length());
+
+            spillFile.append(HL7ContentWriter.PendingWrite.forContent(createRawContent()));
+            assertRawContent(spillFile.read(10).get(0));
+        }
+    }
+
+    private long getFirstRecordLength() throws Exception {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            return 8 + randomAccessFile.readInt();
+        }
+    }
+
+    private void corruptByte(long position) throws Exception {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(position);
+            int b = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(b ^ 0xff);
+        }
+    }
+
+    private static void appendAll(HL7ContentSpillFile spillFile) throws Exception {
+        spillFile.append(HL7ContentWriter.PendingWrite.forResourceUuids("HOMERTON", Arrays.asList(
+                new DbResourceUuidMapping()
+                        .setResourceType("Patient")
+                        .setUniqueIdentifier("PIMSPatientId=1234")
+                        .setResourceUuid(RESOURCE_UUID))));
+
+        spillFile.append(HL7ContentWriter.PendingWrite.forContent(createRawContent()));
+
+        spillFile.append(HL7ContentWriter.PendingWrite.forContent(new DbProcessingContent()
+                .setMessageId(12)
+                .setProcessingAttemptId(2)
+                .setProcessingContentType(DbProcessingContentType.ONWARD_REQUEST_MESSAGE)
+                .setContentCompressed(new byte[] { 1, 2, 3, (byte) 0xff })
+                .setCompressionDictionaryId(7)));
+
+        spillFile.append(HL7ContentWriter.PendingWrite.forCompletion(99, new DbMessageCompletion()
+                .setMessageId(12)
+                .setLogDate(LOG_DATE)
+                .setProcessingAttemptId(2)
+                .setMessageStatus(DbMessageStatus.TRANSFORM_FAILURE)
+                .setErrorMessage("Could not map Zoë")
+                .setInstanceId(3)));
+    }
+
+    private static DbProcessingContent createRawContent() {
+        return new DbProcessingContent()
+                .setMessageId(11)
+                .setProcessingAttemptId(1)
+                .setProcessingContentType(DbProcessingContentType.FHIR)
+                .setContent("{\"resourceType\":\"Bundle\",\"id\":\"Zoë\"}");
+    }
+
+    private static void assertResourceUuids(HL7ContentWriter.PendingWrite pendingWrite) {
+        assertEquals("HOMERTON", pendingWrite.getResourceUuidScopeName());
+        assertEquals(1, pendingWrite.getResourceUuidMappings().size());
+
+        DbResourceUuidMapping mapping = pendingWrite.getResourceUuidMappings().get(0);
+        assertEquals("Patient", mapping.getResourceType());
+        assertEquals("PIMSPatientId=1234", mapping.getUniqueIdentifier());
+        assertEquals(RESOURCE_UUID, mapping.getResourceUuid());
+    }
+
+    private static void assertRawContent(HL7ContentWriter.PendingWrite pendingWrite) {
+        DbProcessingContent content = pendingWrite.getProcessingContent();
+
+        assertEquals(11, content.getMessageId());
+        assertEquals(1, content.getProcessingAttemptId());
+        assertEquals(DbProcessingContentType.FHIR, content.getProcessingContentType());
+        assertEquals("{\"resourceType\":\"Bundle\",\"id\":\"Zoë\"}", content.getContent());
+        assertNull(content.getContentCompressed());
+        assertNull(content.getCompressionDictionaryId());
+    }
+
+    private static void assertCompressedContent(HL7ContentWriter.PendingWrite pendingWrite) {
+        DbProcessingContent content = pendingWrite.getProcessingContent();
+
+        assertEquals(DbProcessingContentType.ONWARD_REQUEST_MESSAGE, content.getProcessingContentType());
+        assertNull(content.getContent());
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3, (byte) 0xff }, content.getContentCompressed()));
+        assertEquals(Integer.valueOf(7), content.getCompressionDictionaryId());
+    }
+
+    private static void assertCompletion(HL7ContentWriter.PendingWrite pendingWrite) {
+        DbMessageCompletion completion = pendingWrite.getCompletion();
+
+        assertEquals(99, pendingWrite.getCompletionId());
+        assertEquals(12, completion.getMessageId());
+        assertEquals(LOG_DATE, completion.getLogDate());
+        assertEquals(2, completion.getProcessingAttemptId());
+        assertEquals(DbMessageStatus.TRANSFORM_FAILURE, completion.getMessageStatus());
+        assertEquals("Could not map Zoë", completion.getErrorMessage());
+        assertEquals(3, completion.getInstanceId());
+    }
+}
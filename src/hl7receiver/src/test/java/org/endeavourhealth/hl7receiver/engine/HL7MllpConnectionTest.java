@@ -0,0 +1,219 @@
+package org.endeavourhealth.hl7receiver.engine;
+
+import ca.uhn.hl7v2.protocol.ApplicationRouter;
+import ca.uhn.hl7v2.protocol.Transportable;
+import ca.uhn.hl7v2.protocol.impl.TransportableImpl;
+import junit.framework.TestCase;
+import org.endeavourhealth.hl7receiver.model.db.DbChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    runs HL7MllpServer on a local port with a router that answers each message with ACK|<message>
+*/
+public class HL7MllpConnectionTest extends TestCase {
+
+    private static final String WORKER_THREADS_PROPERTY = "hl7receiver.mllp.workerThreads";
+    private static final int SOCKET_TIMEOUT_MILLIS = 10000;
+    private static final int ACK_DELAY_MILLIS = 1000;
+
+    private final List<String> routedMessages = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger routing = new AtomicInteger();
+    private final AtomicInteger maxRouting = new AtomicInteger();
+    private volatile CountDownLatch routerRelease = null;
+    private final CountDownLatch routerBlocked = new CountDownLatch(1);
+
+    private final AtomicInteger messagesToDelay = new AtomicInteger();
+    private final CountDownLatch messageDelayed = new CountDownLatch(1);
+
+    private HL7MllpServer server;
+    private int port;
+
+    @Override
+    protected void setUp() throws Exception {
+        // one worker, so a delayed acknowledgement holding it would hold up every connection
+        System.setProperty(WORKER_THREADS_PROPERTY, "1");
+
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+
+        server = new HL7MllpServer();
+        server.start();
+        server.bind(port, "test", createRouter(), new TestConnectionManager(), new TestBackpressure());
+    }
+
+    @Override
+    protected void tearDown() {
+        server.unbind(port);
+        server.stop();
+        System.clearProperty(WORKER_THREADS_PROPERTY);
+    }
+
+    public void testFramesAreUnframedAndAnsweredInOrder() throws Exception {
+        try (Socket socket = connect()) {
+            write(socket, "noise before the first frame" + frame("MSH|1\rPID|1") + frame("MSH|2"));
+            write(socket, "\u000bMSH|3\rNTE|contains \u001c");
+            Thread.sleep(50);
+            write(socket, " in the text\u001c\r");
+
+            assertEquals("ACK|MSH|1\rPID|1", readFrame(socket));
+            assertEquals("ACK|MSH|2", readFrame(socket));
+            assertEquals("ACK|MSH|3\rNTE|contains \u001c in the text", readFrame(socket));
+        }
+    }
+
+    public void testReadingResumesAfterPausingForQueuedMessages() throws Exception {
+        routerRelease = new CountDownLatch(1);
+        StringBuilder frames = new StringBuilder();
+
+        for (int i = 0; i < 100; i++)
+            frames.append(frame("MSH|" + i));
+
+        try (Socket socket = connect()) {
+            write(socket, frames.toString());
+
+            // the backlog builds up behind the first message, pausing reading
+            assertTrue(routerBlocked.await(SOCKET_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            Thread.sleep(200);
+            routerRelease.countDown();
+
+            for (int i = 0; i < 100; i++)
+                assertEquals("ACK|MSH|" + i, readFrame(socket));
+
+            // only answered if reading was resumed once the backlog cleared
+            write(socket, frame("MSH|after"));
+            assertEquals("ACK|MSH|after", readFrame(socket));
+        }
+
+        assertEquals(1, maxRouting.get());
+    }
+
+    public void testDelayedAcknowledgementDoesNotHoldWorker() throws Exception {
+        messagesToDelay.set(1);
+
+        try (Socket delayed = connect(); Socket other = connect()) {
+            long start = System.currentTimeMillis();
+            write(delayed, frame("MSH|A1") + frame("MSH|A2"));
+            assertTrue(messageDelayed.await(SOCKET_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+            write(other, frame("MSH|B1"));
+            assertEquals("ACK|MSH|B1", readFrame(other));
+            assertTrue(System.currentTimeMillis() - start < ACK_DELAY_MILLIS);
+
+            assertEquals("ACK|MSH|A1", readFrame(delayed));
+            assertTrue(System.currentTimeMillis() - start >= ACK_DELAY_MILLIS);
+            assertEquals("ACK|MSH|A2", readFrame(delayed));
+        }
+
+        assertEquals("MSH|B1", routedMessages.get(0));
+        assertEquals("MSH|A1", routedMessages.get(1));
+        assertEquals("MSH|A2", routedMessages.get(2));
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    private static String frame(String message) {
+        return "\u000b" + message + "\u001c\r";
+    }
+
+    private static void write(Socket socket, String text) throws IOException {
+        socket.getOutputStream().write(text.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+    }
+
+    private static String readFrame(Socket socket) throws IOException {
+        InputStream input = socket.getInputStream();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int b;
+
+        while ((b = input.read()) != 0x0b)
+            if (b == -1)
+                throw new IOException("Connection closed");
+
+        // the frame ends at an end of block followed by a carriage return
+        boolean sawEndOfBlock = false;
+
+        while ((b = input.read()) != -1) {
+            if (sawEndOfBlock && b == 0x0d)
+                return new String(frame.toByteArray(), StandardCharsets.US_ASCII);
+
+            if (sawEndOfBlock)
+                frame.write(0x1c);
+
+            sawEndOfBlock = (b == 0x1c);
+
+            if (!sawEndOfBlock)
+                frame.write(b);
+        }
+
+        throw new IOException("Connection closed");
+    }
+
+    private ApplicationRouter createRouter() {
+        return (ApplicationRouter) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ApplicationRouter.class }, (proxy, method, args) -> {
+            if (!method.getName().equals("processMessage"))
+                return null;
+
+            String message = ((Transportable) args[0]).getMessage();
+            maxRouting.accumulateAndGet(routing.incrementAndGet(), Math::max);
+
+            try {
+                routedMessages.add(message);
+
+                CountDownLatch release = routerRelease;
+                if (release != null) {
+                    routerBlocked.countDown();
+                    release.await();
+                }
+
+                return new TransportableImpl("ACK|" + message);
+
+            } finally {
+                routing.decrementAndGet();
+            }
+        });
+    }
+
+    private static class TestConnectionManager extends HL7ConnectionManager {
+        @Override
+        public Integer connectionOpened(HL7Connection connection) {
+            return 1;
+        }
+
+        @Override
+        public void connectionClosed(HL7Connection connection) {
+        }
+    }
+
+    private class TestBackpressure extends HL7Backpressure {
+        TestBackpressure() {
+            super(new DbChannel().setChannelName("test"), "test", null, 0, 0, Action.DELAY_ACK, ACK_DELAY_MILLIS);
+        }
+
+        @Override
+        public int checkAckDelayMillis() {
+            if (messagesToDelay.getAndUpdate(t -> Math.max(t - 1, 0)) == 0)
+                return 0;
+
+            messageDelayed.countDown();
+            return getAckDelayMillis();
+        }
+    }
+}
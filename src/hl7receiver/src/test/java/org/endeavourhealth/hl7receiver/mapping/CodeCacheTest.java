@@ -0,0 +1,89 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import junit.framework.TestCase;
+import org.endeavourhealth.hl7transform.mapper.code.MappedCode;
+import org.endeavourhealth.hl7transform.mapper.code.MappedCodeAction;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CodeCacheTest extends TestCase {
+
+    private int refreshAheadMinHits;
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    protected void setUp() {
+        refreshAheadMinHits = CodeCache.REFRESH_AHEAD_MIN_HITS;
+    }
+
+    @Override
+    protected void tearDown() {
+        CodeCache.REFRESH_AHEAD_MIN_HITS = refreshAheadMinHits;
+    }
+
+    public void testGetReturnsPutCodeWithTrimmedKey() {
+        CodeCache codeCache = new CodeCache("test");
+        MappedCode mappedCode = createMappedCode(MappedCodeAction.MAPPED_INCLUDE, "1234");
+
+        codeCache.putMappedCode("context", "A01", "system", "term", mappedCode);
+
+        assertSame(mappedCode, codeCache.getMappedCode(" context", "A01 ", "system", " term "));
+        assertNull(codeCache.getMappedCode("context", "A02", "system", "term"));
+    }
+
+    public void testNotMappedCodeExpires() {
+        CodeCache codeCache = new CodeCache("test", null, null, 10, nanos::get);
+
+        codeCache.putMappedCode("context", "A01", "system", "term", createMappedCode(MappedCodeAction.NOT_MAPPED_INCLUDE_ONLY_SOURCE_TERM, null));
+        codeCache.putMappedCode("context", "A02", "system", "term", createMappedCode(MappedCodeAction.MAPPED_INCLUDE, "1234"));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(CodeCache.NOT_MAPPED_TIMEOUT_SECONDS) + 1);
+
+        assertNull(codeCache.getMappedCode("context", "A01", "system", "term"));
+        assertNotNull(codeCache.getMappedCode("context", "A02", "system", "term"));
+        assertEquals(1, codeCache.getCache().getStatistics().getExpiries());
+    }
+
+    public void testLeastRecentlyUsedCodeIsEvicted() {
+        CodeCache codeCache = new CodeCache("test", null, null, 2, nanos::incrementAndGet);
+
+        codeCache.putMappedCode("context", "A01", "system", "term", createMappedCode(MappedCodeAction.MAPPED_INCLUDE, "1"));
+        codeCache.putMappedCode("context", "A02", "system", "term", createMappedCode(MappedCodeAction.MAPPED_INCLUDE, "2"));
+        codeCache.getMappedCode("context", "A01", "system", "term");
+        codeCache.putMappedCode("context", "A03", "system", "term", createMappedCode(MappedCodeAction.MAPPED_INCLUDE, "3"));
+
+        assertEquals(2, codeCache.size());
+        assertNotNull(codeCache.getMappedCode("context", "A01", "system", "term"));
+        assertNull(codeCache.getMappedCode("context", "A02", "system", "term"));
+        assertEquals(1, codeCache.getCache().getStatistics().getEvictions());
+    }
+
+    public void testHotCodeIsRefreshedOnceBeforeExpiry() {
+        CodeCache.REFRESH_AHEAD_MIN_HITS = 1;
+
+        AtomicInteger loads = new AtomicInteger();
+        MappedCode refreshed = createMappedCode(MappedCodeAction.MAPPED_INCLUDE, "5678");
+
+        CodeCache codeCache = new CodeCache("test", (context, code, codeSystem, term) -> {
+            loads.incrementAndGet();
+            return refreshed;
+        }, Runnable::run, 10, nanos::get);
+
+        codeCache.putMappedCode("context", "A01", "system", "term", createMappedCode(MappedCodeAction.MAPPED_INCLUDE, "1234"));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(CodeCache.MAPPED_TIMEOUT_SECONDS - CodeCache.REFRESH_AHEAD_SECONDS) + 1);
+
+        assertEquals("1234", codeCache.getMappedCode("context", "A01", "system", "term").getCode());
+        assertEquals("5678", codeCache.getMappedCode("context", "A01", "system", "term").getCode());
+        assertEquals(1, loads.get());
+    }
+
+    private static MappedCode createMappedCode(MappedCodeAction action, String code) {
+        return new MappedCode()
+                .setTargetAction(action)
+                .setCode(code)
+                .setSystem("http://example.org/system")
+                .setTerm("term");
+    }
+}
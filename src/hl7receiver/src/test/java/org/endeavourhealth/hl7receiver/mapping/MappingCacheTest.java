@@ -0,0 +1,124 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MappingCacheTest extends TestCase {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    public void testFullCacheEvictsLeastRecentlyUsed() {
+        MappingCache<String, String> cache = new MappingCache<>("test", 3, nanos::incrementAndGet);
+
+        cache.put("a", "1", MappingCache.NO_TIMEOUT);
+        cache.put("b", "2", MappingCache.NO_TIMEOUT);
+        cache.put("c", "3", MappingCache.NO_TIMEOUT);
+        cache.get("a");
+        cache.put("d", "4", MappingCache.NO_TIMEOUT);
+        cache.get("c");
+        cache.put("e", "5", MappingCache.NO_TIMEOUT);
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertNull(cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals("4", cache.get("d"));
+        assertEquals("5", cache.get("e"));
+        assertEquals(2, cache.getStatistics().getEvictions());
+    }
+
+    public void testLargeCacheEvictsBatchOfLeastRecentlyUsed() {
+        MappingCache<Integer, String> cache = new MappingCache<>("test", 100, nanos::incrementAndGet);
+
+        for (int i = 0; i < 100; i++)
+            cache.put(i, Integer.toString(i), MappingCache.NO_TIMEOUT);
+
+        cache.get(0);
+        cache.put(100, "100", MappingCache.NO_TIMEOUT);
+
+        // the one over plus 5% of maxEntries
+        assertEquals(95, cache.size());
+        assertEquals(6, cache.getStatistics().getEvictions());
+        assertEquals("0", cache.get(0));
+        assertEquals("100", cache.get(100));
+
+        for (int i = 1; i <= 6; i++)
+            assertNull(cache.get(i));
+
+        assertEquals("7", cache.get(7));
+    }
+
+    public void testExpiredEntriesAreRemovedBeforeEvicting() {
+        MappingCache<String, String> cache = new MappingCache<>("test", 2, nanos::get);
+
+        cache.put("kept", "1", MappingCache.NO_TIMEOUT);
+        cache.put("expires", "2", 10);
+        nanos.addAndGet(11);
+        cache.put("new", "3", MappingCache.NO_TIMEOUT);
+
+        assertEquals("1", cache.get("kept"));
+        assertEquals("3", cache.get("new"));
+        assertEquals(1, cache.getStatistics().getExpiries());
+        assertEquals(0, cache.getStatistics().getEvictions());
+    }
+
+    public void testExpiredEntryIsMissed() {
+        MappingCache<String, String> cache = new MappingCache<>("test", 10, nanos::get);
+
+        cache.put("expires", "1", 10);
+        cache.put("kept", "2", MappingCache.NO_TIMEOUT);
+        nanos.addAndGet(10);
+        assertEquals("1", cache.get("expires"));
+        nanos.addAndGet(1);
+
+        assertNull(cache.get("expires"));
+        assertEquals("2", cache.get("kept"));
+
+        MappingCacheStatistics statistics = cache.getStatistics();
+        assertEquals(2, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getExpiries());
+        assertEquals(1, statistics.getSize());
+    }
+
+    public void testRemoveExpired() {
+        MappingCache<String, String> cache = new MappingCache<>("test", 10, nanos::get);
+
+        cache.put("a", "1", 0);
+        cache.put("b", "2", 0);
+        cache.put("c", "3", MappingCache.NO_TIMEOUT);
+        nanos.incrementAndGet();
+
+        cache.removeExpired();
+
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getStatistics().getExpiries());
+    }
+
+    public void testPutIfAbsentKeepsLiveEntryAndReplacesExpiredEntry() {
+        MappingCache<String, String> cache = new MappingCache<>("test", 10, nanos::get);
+
+        assertNull(cache.putIfAbsent("live", "1", MappingCache.NO_TIMEOUT));
+        assertEquals("1", cache.putIfAbsent("live", "2", MappingCache.NO_TIMEOUT));
+        assertEquals("1", cache.get("live"));
+
+        cache.put("expired", "1", 0);
+        nanos.incrementAndGet();
+
+        assertNull(cache.putIfAbsent("expired", "2", MappingCache.NO_TIMEOUT));
+        assertEquals("2", cache.get("expired"));
+    }
+
+    public void testEntryIsDueForRefreshBeforeItExpires() {
+        MappingCache.Entry<String> entry = new MappingCache.Entry<>("1", 100, 0);
+
+        assertFalse(entry.isDueForRefresh(40, 80));
+        assertTrue(entry.isDueForRefresh(60, 80));
+        assertFalse(entry.isExpired(100));
+        assertTrue(entry.isExpired(101));
+
+        assertTrue(entry.claimRefresh());
+        assertFalse(entry.claimRefresh());
+    }
+}
@@ -0,0 +1,42 @@
+package org.endeavourhealth.hl7receiver.mapping;
+
+import junit.framework.TestCase;
+
+import java.util.UUID;
+
+public class ResourceUuidGeneratorTest extends TestCase {
+
+    public void testMatchesRfc4122Version5() {
+        // uuid5 of the namespace and "HOMERTON|Patient|PIMSPatientId=1234", computed independently
+        UUID expected = UUID.fromString("b6a28083-3a36-5bf2-a93d-9f9bf9842016");
+
+        assertEquals(expected, ResourceUuidGenerator.createResourceUuid("HOMERTON", "Patient", "PIMSPatientId=1234"));
+    }
+
+    public void testIsDeterministic() {
+        UUID first = ResourceUuidGenerator.createResourceUuid("HOMERTON", "Encounter", "EncounterId=5678");
+        UUID second = ResourceUuidGenerator.createResourceUuid("HOMERTON", "Encounter", "EncounterId=5678");
+
+        assertEquals(first, second);
+        assertEquals(5, first.version());
+        assertEquals(2, first.variant());
+    }
+
+    public void testScopeTypeAndIdentifierAllDistinguish() {
+        UUID uuid = ResourceUuidGenerator.createResourceUuid("HOMERTON", "Patient", "PIMSPatientId=1234");
+
+        assertFalse(uuid.equals(ResourceUuidGenerator.createResourceUuid("BARTS", "Patient", "PIMSPatientId=1234")));
+        assertFalse(uuid.equals(ResourceUuidGenerator.createResourceUuid("HOMERTON", "Encounter", "PIMSPatientId=1234")));
+        assertFalse(uuid.equals(ResourceUuidGenerator.createResourceUuid("HOMERTON", "Patient", "PIMSPatientId=1235")));
+    }
+
+    public void testScopeNameIsTrimmedAndMayBeEmpty() {
+        assertEquals(
+                ResourceUuidGenerator.createResourceUuid("HOMERTON", "Patient", "PIMSPatientId=1234"),
+                ResourceUuidGenerator.createResourceUuid(" HOMERTON ", "Patient", "PIMSPatientId=1234"));
+
+        assertEquals(
+                UUID.fromString("6bb28e2b-c922-53ca-9065-505217264786"),
+                ResourceUuidGenerator.createResourceUuid(null, "Patient", "PIMSPatientId=1234"));
+    }
+}
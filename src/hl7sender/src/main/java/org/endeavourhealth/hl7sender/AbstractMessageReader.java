@@ -1,28 +1,101 @@
 package org.endeavourhealth.hl7sender;
 
+import ca.uhn.hl7v2.DefaultHapiContext;
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.PipeParser;
+import ca.uhn.hl7v2.validation.impl.NoValidation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 
+/*
+    readers return the raw text of each message, segments separated by CR, and only parse it when asked to
+*/
 public abstract class AbstractMessageReader {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractMessageReader.class);
     private File inputMessages = null;
     private File archiveDir = null;
     protected File auditFile = null;
+    protected RestartCheckpoint checkpoint = null;
     protected String lastSuccessSendMsgId = null;
     protected boolean skipMessages = false;
+    private PipeParser parser = null;
 
-    public abstract void prepare() throws FileNotFoundException, IOException, HL7Exception;
+    public abstract void prepare() throws IOException;
     public abstract void prepareRestart() throws IOException;
-    public abstract Message next() throws IOException, HL7Exception, FileNotFoundException;
-    public abstract void postSend() throws IOException;
+    public abstract String nextRaw() throws IOException;
     public abstract void close() throws IOException;
 
+    /*
+        the checkpoint position to restart from once the message last returned by nextRaw() has been sent
+    */
+    protected abstract String getPosition();
+
+    public Message parse(String message) throws HL7Exception {
+        if (parser == null) {
+            parser = new DefaultHapiContext().getPipeParser();
+            parser.setValidationContext(new NoValidation());
+        }
+
+        return parser.parse(message);
+    }
+
+    /*
+        called straight after nextRaw() and run once that message has been acknowledged
+    */
+    public PostSendAction preparePostSend() {
+        String position = getPosition();
+        PostSendAction readerAction = prepareReaderPostSend();
+
+        return () -> {
+            readerAction.run();
+
+            if (checkpoint != null)
+                checkpoint.acknowledged(position);
+        };
+    }
+
+    protected PostSendAction prepareReaderPostSend() {
+        return () -> { };
+    }
+
+    /*
+        skips messages up to and including the last success line in the audit file, only used when there is no checkpoint
+    */
+    protected void findLastSuccessInAudit() throws IOException {
+        LOG.info("Looking for last successful send in audit log.....");
+        try (MappedMessageFile audit = new MappedMessageFile(auditFile.toPath())) {
+            String strLine;
+            while ((strLine = audit.readLine()) != null) {
+                if (strLine.startsWith(Main.SUCCESS_LINE)) {
+                    lastSuccessSendMsgId = strLine.split(":")[1];
+                    skipMessages = true;
+                }
+            }
+        }
+        LOG.info("..... Found:" + lastSuccessSendMsgId);
+    }
+
+    /*
+        returns true if the message should be skipped as it was sent before the restart
+    */
+    protected boolean skip(String messageId) {
+        if (!skipMessages)
+            return false;
+
+        if (lastSuccessSendMsgId.compareTo(messageId) == 0) {
+            LOG.info("Skip message (for the last time):" + messageId);
+            skipMessages = false;
+        } else {
+            LOG.info("Skip message:" + messageId);
+        }
+
+        return true;
+    }
+
     public File getInputMessages() {
         return inputMessages;
     }
@@ -43,4 +116,26 @@ public abstract class AbstractMessageReader {
     public void setAuditFile(File auditFile) {
         this.auditFile = auditFile;
     }
+
+    public void setCheckpoint(RestartCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /*
+        called on the sending thread, never from a post send action, as it may write the checkpoint file
+    */
+    public void writeCheckpointIfDue() throws IOException {
+        if (checkpoint != null)
+            checkpoint.writeIfDue();
+    }
+
+    public void flushCheckpoint() throws IOException {
+        if (checkpoint != null)
+            checkpoint.flush();
+    }
+
+    @FunctionalInterface
+    public interface PostSendAction {
+        void run() throws IOException;
+    }
 }
@@ -1,110 +1,109 @@
 package org.endeavourhealth.hl7sender;
 
-import ca.uhn.hl7v2.model.Message;
-import ca.uhn.hl7v2.util.Hl7InputStreamMessageIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.List;
 
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 public class DirectoryReader extends AbstractMessageReader {
     private static final Logger LOG = LoggerFactory.getLogger(DirectoryReader.class);
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S");
+    private Path dir = null;
     private Path currentFile = null;
-    List<Path> fileList = null;
+    private String[] fileNames = null;
     private int fileListPos = 0;
 
     /*
-     *
+     * only the file names are listed and sorted, each file is read when it is reached
      */
     public void prepare() throws IOException {
-        Path dir = Paths.get(getInputMessages().getAbsolutePath());
-        DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
-        fileList = new ArrayList<>();
-        //stream.forEach(fileList::add);
-        stream.forEach((p) -> {
-            if (Files.isDirectory(p) == false) {
-                fileList.add(p);
-            }
-        });
-        if (fileList != null) {
-            fileList.sort(Comparator.comparing(Path::toString));
+        dir = Paths.get(getInputMessages().getAbsolutePath());
+        fileNames = getInputMessages().list((d, name) -> !new File(d, name).isDirectory());
+
+        if (fileNames == null)
+            throw new IOException("Could not list " + dir);
+
+        Arrays.sort(fileNames);
+
+        if (skipMessages) {
+            // files are sent in name order, so everything up to the last one sent can be skipped in one step
+            int lastSent = Arrays.binarySearch(fileNames, lastSuccessSendMsgId);
+            fileListPos = (lastSent >= 0 ? lastSent + 1 : -lastSent - 1);
+            skipMessages = false;
+            LOG.info("Skipped " + fileListPos + " files up to " + lastSuccessSendMsgId);
         }
     }
 
-    public void prepareRestart() {
-        File[] archiveFileList = getArchiveDir().listFiles();
+    public void prepareRestart() throws IOException {
+        String position = (checkpoint == null ? null : checkpoint.read());
+
+        if (position != null) {
+            skipMessages = true;
+            lastSuccessSendMsgId = position;
+            LOG.info("Skip message (checkpoint):" + lastSuccessSendMsgId);
+            return;
+        }
+
+        String[] archiveFileList = getArchiveDir().list();
         if (archiveFileList != null && archiveFileList.length > 0) {
             Arrays.sort(archiveFileList);
             skipMessages = true;
-            lastSuccessSendMsgId = archiveFileList[archiveFileList.length - 1].getName();
+            lastSuccessSendMsgId = archiveFileList[archiveFileList.length - 1];
             LOG.info("Skip message (last file):" + lastSuccessSendMsgId );
         }
-        archiveFileList = null;
     }
 
     public boolean hasNext() {
-        if ((fileList != null) && (fileList.size() > 0) && (fileListPos < fileList.size())) {
-            return true;
-        } else {
-            return false;
-        }
+        return (fileNames != null) && (fileListPos < fileNames.length);
     }
 
     @Override
-    public Message next() throws IOException {
-        Message ret = null;
+    public String nextRaw() throws IOException {
+        String ret = null;
 
         while (hasNext() && ret == null) {
-            currentFile = fileList.get(fileListPos);
+            currentFile = dir.resolve(fileNames[fileListPos]);
             fileListPos++;
             LOG.info("Next file in list(" + currentFile.getFileName().toString() + "):" + currentFile.toString());
 
-            if (skipMessages) {
-                if (lastSuccessSendMsgId.compareTo(currentFile.getFileName().toString()) == 0) {
-                    LOG.info("Skip message (for the last time):" + currentFile.getFileName().toString());
-                    skipMessages = false;
-                } else {
-                    LOG.info("Skip message:" + currentFile.getFileName().toString());
-                }
-            } else {
-                FileReader reader = new FileReader(currentFile.toFile());
-                Hl7InputStreamMessageIterator hapiIter = new Hl7InputStreamMessageIterator(reader);
-                ret = hapiIter.next();
-                reader.close();
+            try (MappedMessageFile messageFile = new MappedMessageFile(currentFile)) {
+                ret = messageFile.readMessage();
             }
+
+            if (ret == null)
+                LOG.warn("No message found in " + currentFile);
         }
 
         return ret;
     }
 
-    public void postSend() throws IOException {
-        //String fileAddOn = UUID.randomUUID().toString();
-        //String fileAddOn = dateFormat.format(new Date()).replaceAll(":", "-");
+    @Override
+    protected String getPosition() {
+        return currentFile.getFileName().toString();
+    }
+
+    @Override
+    protected PostSendAction prepareReaderPostSend() {
+        Path file = currentFile;
+        return () -> archive(file);
+    }
+
+    private void archive(Path file) throws IOException {
         LOG.info("ArchiveDir:" + getArchiveDir().getAbsolutePath());
-        LOG.info("CurrFile:" + currentFile.getFileName().toString());
-        File newFile = new File(getArchiveDir().getAbsolutePath() + File.separator + currentFile.getFileName().toString());
+        LOG.info("CurrFile:" + file.getFileName().toString());
+        File newFile = new File(getArchiveDir().getAbsolutePath() + File.separator + file.getFileName().toString());
         if (newFile.exists()) {
             LOG.info("File " + newFile.getAbsolutePath() + " already in archive");
         } else {
             Path n = Paths.get(newFile.getAbsolutePath());
-            LOG.info("Copying file:" + currentFile.toString() + " To:" + n.toString());
-            Files.copy(currentFile, n, REPLACE_EXISTING);
+            LOG.info("Copying file:" + file.toString() + " To:" + n.toString());
+            Files.copy(file, n, REPLACE_EXISTING);
         }
         LOG.info("File archived successfully");
     }
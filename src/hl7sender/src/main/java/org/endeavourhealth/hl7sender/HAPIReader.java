@@ -1,75 +1,52 @@
 package org.endeavourhealth.hl7sender;
 
-import ca.uhn.hl7v2.HL7Exception;
-import ca.uhn.hl7v2.model.Message;
-import ca.uhn.hl7v2.util.Hl7InputStreamMessageIterator;
-import ca.uhn.hl7v2.util.Terser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 
 public class HAPIReader extends AbstractMessageReader {
     private static final Logger LOG = LoggerFactory.getLogger(HAPIReader.class);
-    private Hl7InputStreamMessageIterator hapiIter;
+    private MappedMessageFile messageFile;
+    private long restartPosition = 0;
 
-    public void prepare() throws FileNotFoundException {
-        FileReader reader = new FileReader(getInputMessages());
-        hapiIter = new Hl7InputStreamMessageIterator(reader);
+    public void prepare() throws IOException {
+        messageFile = new MappedMessageFile(getInputMessages().toPath());
+        messageFile.setPosition(restartPosition);
     }
 
     @Override
     public void prepareRestart() throws IOException {
-        LOG.info("Looking for last successful send in audit log.....");
-        FileInputStream fstream = new FileInputStream(auditFile);
-        BufferedReader br = new BufferedReader(new InputStreamReader(fstream));
-        String strLine;
-        while ((strLine = br.readLine()) != null)   {
-            if (strLine.startsWith(Main.SUCCESS_LINE)) {
-                lastSuccessSendMsgId = strLine.split(":")[1];
-                skipMessages = true;
-            }
+        String position = (checkpoint == null ? null : checkpoint.read());
+
+        if (position != null) {
+            restartPosition = Long.parseLong(position);
+            LOG.info("Restarting from checkpoint at byte " + restartPosition);
+        } else {
+            findLastSuccessInAudit();
         }
-        br.close();
-        fstream.close();
-        LOG.info("..... Found:" + lastSuccessSendMsgId);
     }
 
     @Override
-    public Message next() throws HL7Exception {
-        Message ret = null;
+    public String nextRaw() throws IOException {
+        String message;
 
-        while (hapiIter.hasNext() && ret == null) {
-            Message nextMsg = hapiIter.next();
-            if (skipMessages) {
-                Terser nextMsgTerser = new Terser(nextMsg);
-                String currMSH10 = nextMsgTerser.get("/MSH-10");
-                if (lastSuccessSendMsgId.compareTo(currMSH10) == 0) {
-                    LOG.info("Skip message (for the last time):" + currMSH10);
-                    skipMessages = false;
-                } else {
-                    LOG.info("Skip message:" + currMSH10);
-                }
-            } else {
-                ret = nextMsg;
-            }
+        while ((message = messageFile.readMessage()) != null) {
+            if (!skip(Hl7Text.getField(message, "MSH", 10)))
+                return message;
         }
 
-        return ret;
+        return null;
     }
 
-    public void postSend() {
-
+    @Override
+    protected String getPosition() {
+        return String.valueOf(messageFile.getPosition());
     }
 
     @Override
     public void close() throws IOException {
-        hapiIter = null;
+        messageFile.close();
     }
 
 }
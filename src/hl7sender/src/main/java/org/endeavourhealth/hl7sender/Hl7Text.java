@@ -0,0 +1,120 @@
+package org.endeavourhealth.hl7sender;
+
+/*
+    field access on the encoded text of a message, for the few fields the sender needs (MSH-10, MSA-1, MSA-2)
+    without parsing the whole message
+*/
+public class Hl7Text {
+
+    private Hl7Text() {
+    }
+
+    /*
+        returns the first component of the field, or null if the segment or field is not present
+    */
+    public static String getField(String message, String segmentName, int fieldNumber) {
+        if (message == null || message.length() < 4)
+            return null;
+
+        char fieldSeparator = message.charAt(3);
+        String segment = getSegment(message, segmentName);
+
+        if (segment == null)
+            return null;
+
+        // MSH-1 is the field separator itself, so MSH fields are one position earlier than other segments
+        int fieldIndex = (segmentName.equals("MSH") ? fieldNumber - 1 : fieldNumber);
+
+        int start = 0;
+        for (int i = 0; i < fieldIndex; i++) {
+            start = segment.indexOf(fieldSeparator, start);
+
+            if (start == -1)
+                return null;
+
+            start++;
+        }
+
+        int end = segment.indexOf(fieldSeparator, start);
+        if (end == -1)
+            end = segment.length();
+
+        String field = segment.substring(start, end);
+
+        if (message.length() > 4) {
+            int componentEnd = field.indexOf(message.charAt(4));
+            if (componentEnd != -1)
+                field = field.substring(0, componentEnd);
+        }
+
+        return field;
+    }
+
+    /*
+        replaces the whole field in the first occurrence of the segment, the message is returned unchanged if the field is not present
+    */
+    public static String replaceField(String message, String segmentName, int fieldNumber, String value) {
+        if (message == null || message.length() < 4)
+            return message;
+
+        char fieldSeparator = message.charAt(3);
+        int segmentStart = getSegmentStart(message, segmentName);
+
+        if (segmentStart == -1)
+            return message;
+
+        int segmentEnd = nextSegmentEnd(message, segmentStart);
+        int fieldIndex = (segmentName.equals("MSH") ? fieldNumber - 1 : fieldNumber);
+
+        int start = segmentStart;
+        for (int i = 0; i < fieldIndex; i++) {
+            start = message.indexOf(fieldSeparator, start);
+
+            if (start == -1 || start >= segmentEnd)
+                return message;
+
+            start++;
+        }
+
+        int end = message.indexOf(fieldSeparator, start);
+        if (end == -1 || end > segmentEnd)
+            end = segmentEnd;
+
+        return message.substring(0, start) + value + message.substring(end);
+    }
+
+    private static String getSegment(String message, String segmentName) {
+        int start = getSegmentStart(message, segmentName);
+
+        if (start == -1)
+            return null;
+
+        return message.substring(start, nextSegmentEnd(message, start));
+    }
+
+    private static int getSegmentStart(String message, String segmentName) {
+        int start = 0;
+
+        while (start < message.length()) {
+            int end = nextSegmentEnd(message, start);
+
+            if (message.startsWith(segmentName, start) && (start + segmentName.length() < end))
+                return start;
+
+            start = end + 1;
+
+            while (start < message.length() && (message.charAt(start) == '\r' || message.charAt(start) == '\n'))
+                start++;
+        }
+
+        return -1;
+    }
+
+    private static int nextSegmentEnd(String message, int start) {
+        for (int i = start; i < message.length(); i++)
+            if (message.charAt(i) == '\r' || message.charAt(i) == '\n')
+                return i;
+
+        return message.length();
+    }
+}
@@ -0,0 +1,327 @@
+package org.endeavourhealth.hl7sender;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+    sends messages over concurrent MLLP connections at a target rate and reports acknowledgement latency,
+    negative acknowledgements and throughput
+
+    each connection has its own sending thread and up to window messages outstanding. With a target rate the
+    latency of a message is measured from when it was due to be sent rather than when it was sent, so time spent
+    waiting for the window when the receiver falls behind is counted (otherwise a stalled receiver would only
+    delay the next few sends and barely show in the percentiles). Every message is given a new MSH-10
+
+    latencies are recorded in microseconds to two significant digits in an auto resizing ConcurrentHistogram, as
+    every connection's reader thread records into it
+*/
+public class LoadGenerator implements MllpConnection.FrameListener {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final long REPORT_INTERVAL_MS = 10000;
+    private static final int LATENCY_SIGNIFICANT_DIGITS = 2;
+
+    private String host;
+    private int port;
+    private int connectionCount = 1;
+    private int window = 1;
+    private double rate = 0;
+    private long messageCount = 10000;
+    private long durationMs = 0;
+    private long ackTimeoutMs = 30000;
+    private Charset charset;
+    private List<String> corpus = null;
+    private SyntheticAdtGenerator generator = null;
+
+    private final String controlIdPrefix = "LG" + Long.toString(System.currentTimeMillis() / 1000 % 1679616, 36) + ".";
+    private final List<ConnectionState> connections = new CopyOnWriteArrayList<>();
+    private final ConcurrentHistogram latency = new ConcurrentHistogram(LATENCY_SIGNIFICANT_DIGITS);
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejects = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private volatile boolean stopping = false;
+    private long deadline = Long.MAX_VALUE;
+
+    public LoadGenerator setHost(String host) {
+        this.host = host;
+        return this;
+    }
+
+    public LoadGenerator setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public LoadGenerator setConnectionCount(int connectionCount) {
+        this.connectionCount = connectionCount;
+        return this;
+    }
+
+    public LoadGenerator setWindow(int window) {
+        this.window = window;
+        return this;
+    }
+
+    /*
+        messages per second across all connections, 0 sends as fast as the windows allow
+    */
+    public LoadGenerator setRate(double rate) {
+        this.rate = rate;
+        return this;
+    }
+
+    public LoadGenerator setMessageCount(long messageCount) {
+        this.messageCount = messageCount;
+        return this;
+    }
+
+    /*
+        stops sending after this long even if messageCount has not been reached, 0 for no limit
+    */
+    public LoadGenerator setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+        return this;
+    }
+
+    public LoadGenerator setAckTimeoutMs(long ackTimeoutMs) {
+        this.ackTimeoutMs = ackTimeoutMs;
+        return this;
+    }
+
+    public LoadGenerator setCharset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    /*
+        messages to replay, in order and repeated as often as needed
+    */
+    public LoadGenerator setCorpus(List<String> corpus) {
+        this.corpus = corpus;
+        return this;
+    }
+
+    public LoadGenerator setGenerator(SyntheticAdtGenerator generator) {
+        this.generator = generator;
+        return this;
+    }
+
+    public void run() throws IOException, InterruptedException {
+        if ((corpus == null || corpus.isEmpty()) && generator == null)
+            throw new IllegalStateException("No messages to send");
+
+        for (int i = 0; i < connectionCount; i++)
+            connections.add(new ConnectionState(new MllpConnection(i, host, port, charset, this), window));
+
+        LOG.info("Opened " + connectionCount + " connections to " + host + ":" + port + " with a window of " + window
+                + (rate > 0 ? ", sending " + rate + " messages per second" : ", sending as fast as acknowledged"));
+
+        long msStart = System.currentTimeMillis();
+        if (durationMs > 0)
+            deadline = msStart + durationMs;
+
+        List<Thread> senders = new ArrayList<>();
+        for (ConnectionState state : connections) {
+            Thread sender = new Thread(() -> sendMessages(state), "LoadSender-" + state.connection.getConnectionNumber());
+            sender.start();
+            senders.add(sender);
+        }
+
+        long lastReport = msStart;
+        long lastAcknowledged = 0;
+
+        while (senders.stream().anyMatch(Thread::isAlive) || getOutstanding() > 0) {
+            Thread.sleep(1000);
+            expireTimeouts();
+
+            if (stopping && getOutstanding() == 0)
+                break;
+
+            long now = System.currentTimeMillis();
+            if (now - lastReport >= REPORT_INTERVAL_MS) {
+                long acknowledged = getAcknowledged();
+                LOG.info(String.format("Sent %d, acknowledged %d (%.1f per second), outstanding %d, NAKs %d, timeouts %d, latency p50=%.2fms p99=%.2fms",
+                        sent.get(),
+                        acknowledged,
+                        (acknowledged - lastAcknowledged) * 1000.0 / (now - lastReport),
+                        getOutstanding(),
+                        errors.get() + rejects.get(),
+                        timeouts.get(),
+                        latency.getValueAtPercentile(50) / 1000.0,
+                        latency.getValueAtPercentile(99) / 1000.0));
+
+                lastReport = now;
+                lastAcknowledged = acknowledged;
+            }
+        }
+
+        stopping = true;
+        for (Thread sender : senders)
+            sender.join();
+
+        for (ConnectionState state : connections)
+            state.connection.close();
+
+        logSummary(Math.max(System.currentTimeMillis() - msStart, 1));
+    }
+
+    @Override
+    public void frameReceived(MllpConnection connection, String frame) {
+        long received = System.nanoTime();
+        String ackCode = Hl7Text.getField(frame, "MSA", 1);
+        String controlId = Hl7Text.getField(frame, "MSA", 2);
+
+        ConnectionState state = connections.get(connection.getConnectionNumber());
+        Long due = (controlId == null ? null : state.sendTimes.remove(controlId));
+
+        if (due == null) {
+            // most likely acknowledged after it had already been counted as a timeout
+            unmatched.incrementAndGet();
+            return;
+        }
+
+        state.window.release();
+        latency.recordValue(Math.max(TimeUnit.NANOSECONDS.toMicros(received - due), 0));
+
+        if ("AA".equals(ackCode) || "CA".equals(ackCode)) {
+            accepted.incrementAndGet();
+        } else if ("AR".equals(ackCode) || "CR".equals(ackCode)) {
+            rejects.incrementAndGet();
+        } else {
+            errors.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void connectionClosed(MllpConnection connection, Exception exception) {
+        if (stopping)
+            return;
+
+        LOG.error("Connection " + connection.getConnectionNumber() + " closed" + (exception == null ? "" : ": " + exception.getMessage()));
+        stopping = true;
+    }
+
+    private void sendMessages(ConnectionState state) {
+        long intervalNanos = (rate > 0 ? (long) (connectionCount * 1000000000.0 / rate) : 0);
+        long nextDue = System.nanoTime() + intervalNanos * state.connection.getConnectionNumber() / connectionCount;
+
+        try {
+            while (!stopping && System.currentTimeMillis() < deadline) {
+                long sequence = issued.getAndIncrement();
+                if (sequence >= messageCount)
+                    break;
+
+                long due;
+                if (intervalNanos > 0) {
+                    due = nextDue;
+                    nextDue += intervalNanos;
+
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(wait);
+                } else {
+                    due = System.nanoTime();
+                }
+
+                while (!state.window.tryAcquire(100, TimeUnit.MILLISECONDS))
+                    if (stopping)
+                        return;
+
+                String controlId = controlIdPrefix + Long.toString(sequence, 36);
+                String message = Hl7Text.replaceField(getMessage(sequence), "MSH", 10, controlId);
+
+                state.sendTimes.put(controlId, due);
+                state.connection.send(message);
+                sent.incrementAndGet();
+            }
+        } catch (IOException e) {
+            LOG.error("Error sending on connection " + state.connection.getConnectionNumber() + ": " + e.getMessage());
+            stopping = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String getMessage(long sequence) {
+        if (corpus != null && !corpus.isEmpty())
+            return corpus.get((int) (sequence % corpus.size()));
+
+        return generator.generate();
+    }
+
+    private void expireTimeouts() {
+        long expired = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+
+        for (ConnectionState state : connections) {
+            for (Map.Entry<String, Long> entry : state.sendTimes.entrySet()) {
+                if (entry.getValue() < expired && state.sendTimes.remove(entry.getKey(), entry.getValue())) {
+                    timeouts.incrementAndGet();
+                    state.window.release();
+                }
+            }
+        }
+    }
+
+    private long getOutstanding() {
+        long outstanding = 0;
+
+        for (ConnectionState state : connections)
+            outstanding += state.sendTimes.size();
+
+        return outstanding;
+    }
+
+    private long getAcknowledged() {
+        return accepted.get() + errors.get() + rejects.get();
+    }
+
+    private void logSummary(long msElapsed) {
+        long acknowledged = getAcknowledged();
+        long naks = errors.get() + rejects.get();
+
+        LOG.info(String.format("Sent %d messages on %d connections in %dms: %.1f acknowledged per second",
+                sent.get(), connectionCount, msElapsed, acknowledged * 1000.0 / msElapsed));
+        LOG.info(String.format("Acknowledged %d: AA %d, AE %d, AR %d (NAK rate %.3f%%), timeouts %d, unmatched %d",
+                acknowledged, accepted.get(), errors.get(), rejects.get(),
+                (acknowledged == 0 ? 0 : naks * 100.0 / acknowledged), timeouts.get(), unmatched.get()));
+        LOG.info("Acknowledgement latency: " + summariseLatency());
+    }
+
+    private String summariseLatency() {
+        return String.format("count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                latency.getTotalCount(),
+                latency.getMean() / 1000.0,
+                latency.getValueAtPercentile(50) / 1000.0,
+                latency.getValueAtPercentile(90) / 1000.0,
+                latency.getValueAtPercentile(99) / 1000.0,
+                latency.getValueAtPercentile(99.9) / 1000.0,
+                latency.getMaxValue() / 1000.0);
+    }
+
+    private static class ConnectionState {
+        private final MllpConnection connection;
+        private final Semaphore window;
+        private final Map<String, Long> sendTimes = new ConcurrentHashMap<>();
+
+        ConnectionState(MllpConnection connection, int window) {
+            this.connection = connection;
+            this.window = new Semaphore(window);
+        }
+    }
+}
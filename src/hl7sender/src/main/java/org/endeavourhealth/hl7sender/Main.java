@@ -5,12 +5,13 @@ import ca.uhn.hl7v2.HapiContext;
 import ca.uhn.hl7v2.app.ActiveInitiator;
 import ca.uhn.hl7v2.app.Connection;
 import ca.uhn.hl7v2.llp.LLPException;
-import ca.uhn.hl7v2.model.Message;
-import ca.uhn.hl7v2.util.Terser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 /*
  Parameters:
@@ -24,10 +25,33 @@ import java.io.*;
     4   -Dauditfile     audit file
     5   -Drestart       restart = YES or NO. YES means finding last successful send in log file and not send messages in the input file prior to that message
     6   -Darchive       archive directory
+    7   -Dwindow        optional, messages in flight per connection (default 1, which waits for each acknowledgement)
+    8   -Dconnections   optional, MLLP connections to open (default 1)
+    9   -Dacktimeout    optional, milliseconds to wait for an acknowledgement when pipelining (default 30000)
+
+ With a window or connections above 1 messages are pipelined, acknowledgements are matched to messages by MSA-2 and
+ may complete out of order (recorded in the audit file). Success lines are still written in send order, so restart=YES
+ resumes after the last message for which it and every earlier message was acknowledged, resending the rest of the window.
+
+ As messages are acknowledged the position to restart from is written to <auditfile>.checkpoint, and restart=YES
+ starts from there. The audit file is only scanned for the last success line when there is no checkpoint for the input.
+ Messages are read from memory mapped files and sent as they are, only the non pipelined sender parses them.
 
  Example of processing all files in directory. Always set restart=NO (even when restarting) as processed files have been archived.
  -Dhost=localhost -Dport=8901 -Dinputmsg=E:\Programming_Endeavour\Testing\HL7SenderTest\inputdir  -Dinputtype=FILE  -Darchive=E:\Programming_Endeavour\Testing\HL7SenderTest\archive -Dauditfile=E:\Programming_Endeavour\Testing\HL7SenderTest\audit.log -Drestart=NO
 
+ Load generation (-Dmode=LOAD) sends to host/port over -Dconnections connections with -Dwindow messages in flight on
+ each and reports acknowledgement latency percentiles, NAKs and throughput. No audit file is written and nothing is archived.
+    -Drate              optional, messages per second across all connections (default 0, as fast as acknowledged)
+    -Dcount             optional, messages to send (default 10000)
+    -Dduration          optional, seconds to send for, stopping earlier than count
+    -Dinputmsg          optional, with -Dinputtype, a corpus to replay in a loop instead of synthetic messages
+    -Dsendingapp        optional, MSH-3 of synthetic messages (default LOADGEN)
+    -Dsendingfacility   optional, MSH-4 of synthetic messages (default LOADGEN)
+    -Dpatients          optional, distinct patients in synthetic messages (default 100000)
+    -Devents            optional, comma separated ADT events to pick from (default A01,A08,A08,A03)
+ e.g. against a local receiver: -Dmode=LOAD -Dhost=localhost -Dport=8901 -Dconnections=8 -Dwindow=4 -Drate=500 -Dduration=300
+
  Export from PSQL: select inbound_payload from log.message where message_id >= 2 order by message_id asc \g postgresout.txt
 
  */
@@ -39,9 +63,11 @@ public class Main
     static String NEWLINE = "\r\n";
 
     public static void main( String[] args ) throws Exception {
-        Terser nextMsgTerser = null;
-        Terser responseTerser = null;
-        String lastSuccessSendMsgId = "";
+        if ("LOAD".equals(System.getProperty("mode"))) {
+            generateLoad();
+            return;
+        }
+
         String destServer = System.getProperty("host");
         String destPort = System.getProperty("port");
         String messageFileName = System.getProperty("inputmsg");
@@ -49,6 +75,9 @@ public class Main
         String auditFileName = System.getProperty("auditfile");
         String restart = System.getProperty("restart");
         String archiveDirName = System.getProperty("archive");
+        int window = Integer.parseInt(System.getProperty("window", "1"));
+        int connections = Integer.parseInt(System.getProperty("connections", "1"));
+        long ackTimeout = Long.parseLong(System.getProperty("acktimeout", "30000"));
 
         LOG.info("Starting.....");
 
@@ -71,7 +100,7 @@ public class Main
             LOG.info("Message file/directory " + messageFileName + " does not exist");
             return;
         } else {
-            if (!inputMessages.isDirectory() && inputMessages.listFiles().length == 0) {
+            if (inputMessages.isDirectory() && inputMessages.listFiles().length == 0) {
                 LOG.info("No message files found in " + messageFileName);
                 return;
             }
@@ -96,27 +125,25 @@ public class Main
         LOG.info("Audit File: " + auditFileName );
         LOG.info("Restart (YES/NO): " + restart);
         LOG.info("Archive location: " + archiveDirName);
+        LOG.info("Window: " + window);
+        LOG.info("Connections: " + connections);
 
         File auditFile = new File(auditFileName);
 
         // Set up message feed
-        AbstractMessageReader fileReader = null;
-        if (inputType.compareTo("PSQL") == 0) {
-            fileReader = new PSQLReader();
-            fileReader.setInputMessages(inputMessages);
-        } else {
-            if (inputType.compareTo("HAPI") == 0) {
-                fileReader = new HAPIReader();
-                fileReader.setInputMessages(inputMessages);
-            } else {
-                if (inputType.compareTo("DIR") == 0) {
-                    fileReader = new DirectoryReader();
-                    fileReader.setInputMessages(inputMessages);
-                    fileReader.setArchiveDir(archiveDir);
-                }
-            }
-        }
+        AbstractMessageReader fileReader = createReader(inputType, inputMessages, archiveDir);
         fileReader.setAuditFile(auditFile);
+        RestartCheckpoint checkpoint = new RestartCheckpoint(auditFile, inputMessages);
+        fileReader.setCheckpoint(checkpoint);
+
+        // the checkpoint is only written every so often, so write the last acknowledged position if interrupted
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                checkpoint.flush();
+            } catch (Exception e) {
+                LOG.error("Could not write checkpoint at shutdown", e);
+            }
+        }));
 
         // Audit file
         if (auditFile.exists()) {
@@ -139,6 +166,11 @@ public class Main
         LOG.info("Running prepare step");
         fileReader.prepare();
 
+        if (window > 1 || connections > 1) {
+            sendPipelined(fileReader, auditWriter, destServer, Integer.parseInt(destPort), connections, window, ackTimeout);
+            return;
+        }
+
         // Create a HapiContext
         HapiContext context = new DefaultHapiContext();
 
@@ -149,22 +181,23 @@ public class Main
 
         LOG.info("Starting to send......");
         String currMSH10 = null;
-        Message nextMsg;
+        String nextMsg;
         try {
-            while ((nextMsg = fileReader.next()) != null) {
-                nextMsgTerser = new Terser(nextMsg);
-                currMSH10 = nextMsgTerser.get("/MSH-10");
+            while ((nextMsg = fileReader.nextRaw()) != null) {
+                currMSH10 = Hl7Text.getField(nextMsg, "MSH", 10);
+                AbstractMessageReader.PostSendAction postSendAction = fileReader.preparePostSend();
                 LOG.info("Sending message:" + currMSH10);
-                Message response = ai.sendAndReceive(nextMsg);
-                LOG.info("Sending successful (checking response):" + response.printStructure());
-                responseTerser = new Terser(response);
-                if ((responseTerser.get("/MSA-1").compareTo("AA") == 0) || (responseTerser.get("/MSA-1").compareTo("CA") == 0)) {
+                String response = ai.sendAndReceive(fileReader.parse(nextMsg)).encode();
+                LOG.info("Sending successful (checking response):" + response);
+                String ackCode = Hl7Text.getField(response, "MSA", 1);
+                if ("AA".equals(ackCode) || "CA".equals(ackCode)) {
                     auditWriter.write(SUCCESS_LINE + currMSH10 + NEWLINE);
-                    auditWriter.write("Acknowledgement:" + response.encode() + NEWLINE);
-                    fileReader.postSend();
+                    auditWriter.write("Acknowledgement:" + response + NEWLINE);
+                    postSendAction.run();
+                    fileReader.writeCheckpointIfDue();
                 } else {
                     auditWriter.write(FAILURE_LINE + currMSH10 + NEWLINE);
-                    auditWriter.write("Acknowledgement:" + response.encode() + NEWLINE);
+                    auditWriter.write("Acknowledgement:" + response + NEWLINE);
                     return;
                 }
             }
@@ -183,6 +216,7 @@ public class Main
             throw new Exception(e);
         }
         finally {
+            fileReader.flushCheckpoint();
             fileReader.close();
             conn.close();
             auditWriter.flush();
@@ -190,4 +224,89 @@ public class Main
         }
     }
 
+    private static AbstractMessageReader createReader(String inputType, File inputMessages, File archiveDir) {
+        AbstractMessageReader fileReader = null;
+        if (inputType.compareTo("PSQL") == 0) {
+            fileReader = new PSQLReader();
+            fileReader.setInputMessages(inputMessages);
+        } else {
+            if (inputType.compareTo("HAPI") == 0) {
+                fileReader = new HAPIReader();
+                fileReader.setInputMessages(inputMessages);
+            } else {
+                if (inputType.compareTo("DIR") == 0) {
+                    fileReader = new DirectoryReader();
+                    fileReader.setInputMessages(inputMessages);
+                    fileReader.setArchiveDir(archiveDir);
+                }
+            }
+        }
+        return fileReader;
+    }
+
+    private static void generateLoad() throws Exception {
+        String messageFileName = System.getProperty("inputmsg");
+        LoadGenerator loadGenerator = new LoadGenerator()
+                .setHost(System.getProperty("host"))
+                .setPort(Integer.parseInt(System.getProperty("port")))
+                .setConnectionCount(Integer.parseInt(System.getProperty("connections", "1")))
+                .setWindow(Integer.parseInt(System.getProperty("window", "1")))
+                .setRate(Double.parseDouble(System.getProperty("rate", "0")))
+                .setMessageCount(Long.parseLong(System.getProperty("count", "10000")))
+                .setDurationMs(Long.parseLong(System.getProperty("duration", "0")) * 1000)
+                .setAckTimeoutMs(Long.parseLong(System.getProperty("acktimeout", "30000")))
+                .setCharset(Charset.forName(System.getProperty("ca.uhn.hl7v2.llp.charset", "ISO-8859-1")));
+
+        if (messageFileName != null && messageFileName.length() > 0) {
+            AbstractMessageReader fileReader = createReader(System.getProperty("inputtype", "HAPI"), new File(messageFileName), null);
+            List<String> corpus = new ArrayList<>();
+            String nextMsg;
+
+            fileReader.prepare();
+            while ((nextMsg = fileReader.nextRaw()) != null)
+                corpus.add(nextMsg);
+            fileReader.close();
+
+            LOG.info("Replaying " + corpus.size() + " messages from " + messageFileName);
+            loadGenerator.setCorpus(corpus);
+
+        } else {
+            loadGenerator.setGenerator(new SyntheticAdtGenerator(
+                    System.getProperty("sendingapp", "LOADGEN"),
+                    System.getProperty("sendingfacility", "LOADGEN"),
+                    Integer.parseInt(System.getProperty("patients", "100000")),
+                    System.getProperty("events", "A01,A08,A08,A03").split(",")));
+        }
+
+        loadGenerator.run();
+    }
+
+    private static void sendPipelined(AbstractMessageReader fileReader, FileWriter auditWriter, String destServer, int destPort, int connections, int window, long ackTimeout) throws Exception {
+        Charset charset = Charset.forName(System.getProperty("ca.uhn.hl7v2.llp.charset", "ISO-8859-1"));
+        PipelinedSender sender = new PipelinedSender(destServer, destPort, connections, window, ackTimeout, charset, auditWriter);
+
+        LOG.info("Starting to send (pipelined)......");
+        String nextMsg;
+        try {
+            sender.open();
+
+            boolean sending = true;
+            while (sending && (nextMsg = fileReader.nextRaw()) != null) {
+                sending = sender.send(nextMsg, fileReader.preparePostSend());
+                fileReader.writeCheckpointIfDue();
+            }
+
+            if (sender.drain() && sending) {
+                LOG.info("......done");
+            }
+        }
+        finally {
+            sender.close();
+            fileReader.flushCheckpoint();
+            fileReader.close();
+            auditWriter.flush();
+            auditWriter.close();
+        }
+    }
+
 }
@@ -0,0 +1,148 @@
+package org.endeavourhealth.hl7sender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+    reads lines and messages from a memory mapped file, mapping it a region at a time so files of any size can be read
+
+    text is decoded as ISO-8859-1 so every byte is passed through unchanged when the message is sent with the same charset
+*/
+public class MappedMessageFile implements Closeable {
+    private static final long REGION_SIZE = 1L << 28;
+    private static final int START_BLOCK = 0x0b;
+    private static final int END_BLOCK = 0x1c;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer region = null;
+    private long regionStart = 0;
+    private long position = 0;
+
+    public MappedMessageFile(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public void setPosition(long position) {
+        this.position = Math.min(position, size);
+    }
+
+    /*
+        next line without its terminator (CR, LF or CRLF), or null at the end of the file
+    */
+    public String readLine() throws IOException {
+        if (position >= size)
+            return null;
+
+        long start = position;
+        long end = start;
+
+        while (end < size) {
+            int b = byteAt(end);
+
+            if (b == '\r' || b == '\n')
+                break;
+
+            end++;
+        }
+
+        String line = decode(start, end);
+
+        position = end;
+        if (position < size && byteAt(position) == '\r')
+            position++;
+        if (position < size && byteAt(position) == '\n')
+            position++;
+
+        return line;
+    }
+
+    /*
+        next message, from a line starting MSH up to the next line starting MSH, with segments separated by CR
+
+        lines before the first MSH are ignored and MLLP framing characters are removed. The position is left at the
+        start of the following message, so it can be used to restart after this message
+    */
+    public String readMessage() throws IOException {
+        StringBuilder message = null;
+        long lineStart = position;
+        String line;
+
+        while ((line = readLine()) != null) {
+            line = stripFraming(line);
+
+            if (line.startsWith("MSH")) {
+                if (message != null) {
+                    position = lineStart;
+                    break;
+                }
+
+                message = new StringBuilder(1024);
+            }
+
+            if (message != null && !line.isEmpty())
+                message.append(line).append('\r');
+
+            lineStart = position;
+        }
+
+        return (message == null ? null : message.toString());
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+
+    private int byteAt(long offset) throws IOException {
+        if (region == null || offset < regionStart || offset >= regionStart + region.limit())
+            map(offset);
+
+        return region.get((int) (offset - regionStart)) & 0xff;
+    }
+
+    private String decode(long start, long end) throws IOException {
+        int length = (int) (end - start);
+
+        if (length == 0)
+            return "";
+
+        if (region == null || start < regionStart || end > regionStart + region.limit())
+            map(start);
+
+        byte[] bytes = new byte[length];
+        region.position((int) (start - regionStart));
+        region.get(bytes);
+
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private void map(long offset) throws IOException {
+        regionStart = offset;
+        region = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(REGION_SIZE, size - offset));
+    }
+
+    private static String stripFraming(String line) {
+        int start = 0;
+        int end = line.length();
+
+        while (start < end && (line.charAt(start) == START_BLOCK || line.charAt(start) == END_BLOCK))
+            start++;
+
+        while (end > start && (line.charAt(end - 1) == START_BLOCK || line.charAt(end - 1) == END_BLOCK))
+            end--;
+
+        return line.substring(start, end);
+    }
+}
@@ -0,0 +1,105 @@
+package org.endeavourhealth.hl7sender;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/*
+    one MLLP connection, messages are written by the caller and acknowledgements are read on a separate thread
+    so any number of messages can be outstanding at once
+*/
+public class MllpConnection {
+    private static final Logger LOG = LoggerFactory.getLogger(MllpConnection.class);
+
+    private static final int START_BLOCK = 0x0b;
+    private static final int END_BLOCK = 0x1c;
+    private static final int CARRIAGE_RETURN = 0x0d;
+
+    private final int connectionNumber;
+    private final Charset charset;
+    private final FrameListener listener;
+    private final Socket socket;
+    private final OutputStream output;
+    private final Thread readerThread;
+    private volatile boolean closed = false;
+
+    public MllpConnection(int connectionNumber, String host, int port, Charset charset, FrameListener listener) throws IOException {
+        this.connectionNumber = connectionNumber;
+        this.charset = charset;
+        this.listener = listener;
+
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.output = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+
+        this.readerThread = new Thread(this::readFrames, "MllpReader-" + connectionNumber);
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+    public int getConnectionNumber() {
+        return connectionNumber;
+    }
+
+    public void send(String message) throws IOException {
+        output.write(START_BLOCK);
+        output.write(message.getBytes(charset));
+        output.write(END_BLOCK);
+        output.write(CARRIAGE_RETURN);
+        output.flush();
+    }
+
+    public void close() {
+        closed = true;
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing connection " + connectionNumber, e);
+        }
+    }
+
+    private void readFrames() {
+        try {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            ByteArrayOutputStream frame = null;
+            int previous = -1;
+            int b;
+
+            while ((b = input.read()) != -1) {
+                if (b == START_BLOCK) {
+                    frame = new ByteArrayOutputStream(256);
+
+                } else if (b == CARRIAGE_RETURN && previous == END_BLOCK && frame != null) {
+                    listener.frameReceived(this, new String(frame.toByteArray(), charset));
+                    frame = null;
+
+                } else if (b != END_BLOCK && frame != null) {
+                    frame.write(b);
+                }
+
+                previous = b;
+            }
+
+            if (!closed)
+                listener.connectionClosed(this, null);
+
+        } catch (IOException e) {
+            if (!closed)
+                listener.connectionClosed(this, e);
+        }
+    }
+
+    public interface FrameListener {
+        void frameReceived(MllpConnection connection, String frame);
+        void connectionClosed(MllpConnection connection, Exception exception);
+    }
+}
@@ -0,0 +1,272 @@
+package org.endeavourhealth.hl7sender;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+    sends messages over one or more MLLP connections with up to window messages outstanding on each,
+    matching acknowledgements to messages by MSA-2
+
+    acknowledgements can arrive out of order (across connections, or from a receiver that acknowledges
+    asynchronously), but success lines are only written to the audit file, and post send actions only run,
+    in the order the messages were sent. The last success line in the audit file is therefore always a point
+    before which every message was acknowledged, and a restart from it resends whatever was in flight.
+*/
+public class PipelinedSender implements MllpConnection.FrameListener {
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedSender.class);
+    private static final String OUT_OF_ORDER_LINE = "Out of order acknowledgement:";
+    private static final String UNMATCHED_LINE = "Unmatched acknowledgement:";
+
+    private final String host;
+    private final int port;
+    private final int connectionCount;
+    private final int window;
+    private final long ackTimeoutMs;
+    private final Charset charset;
+    private final Writer auditWriter;
+
+    private final List<ConnectionState> connections = new ArrayList<>();
+    private final Map<MllpConnection, ConnectionState> connectionStates = new HashMap<>();
+    private final TreeMap<Long, InFlightMessage> outstanding = new TreeMap<>();
+    private long nextSequence = 0;
+    private int nextConnection = 0;
+    private volatile String failure = null;
+    private volatile boolean closing = false;
+
+    private long msStart;
+    private long sentCount = 0;
+    private long acknowledgedCount = 0;
+    private long outOfOrderCount = 0;
+
+    public PipelinedSender(String host, int port, int connectionCount, int window, long ackTimeoutMs, Charset charset, Writer auditWriter) {
+        this.host = host;
+        this.port = port;
+        this.connectionCount = connectionCount;
+        this.window = window;
+        this.ackTimeoutMs = ackTimeoutMs;
+        this.charset = charset;
+        this.auditWriter = auditWriter;
+    }
+
+    public void open() throws IOException {
+        for (int i = 0; i < connectionCount; i++) {
+            MllpConnection connection = new MllpConnection(i, host, port, charset, this);
+            ConnectionState state = new ConnectionState(connection, window);
+
+            synchronized (this) {
+                connections.add(state);
+                connectionStates.put(connection, state);
+            }
+        }
+
+        msStart = System.currentTimeMillis();
+        LOG.info("Opened " + connectionCount + " connections to " + host + ":" + port + " with a window of " + window);
+    }
+
+    /*
+        returns false if sending has stopped because of a negative acknowledgement, timeout or connection failure
+    */
+    public boolean send(String message, AbstractMessageReader.PostSendAction postSendAction) throws InterruptedException {
+        String controlId = Hl7Text.getField(message, "MSH", 10);
+        ConnectionState state = connections.get(nextConnection++ % connections.size());
+
+        while (!state.window.tryAcquire(1, TimeUnit.SECONDS)) {
+            checkTimeouts();
+
+            if (failure != null)
+                return false;
+        }
+
+        if (failure != null) {
+            state.window.release();
+            return false;
+        }
+
+        synchronized (this) {
+            InFlightMessage inFlightMessage = new InFlightMessage(nextSequence++, controlId, postSendAction);
+            outstanding.put(inFlightMessage.sequence, inFlightMessage);
+            state.byControlId.computeIfAbsent(controlId, t -> new ArrayDeque<>()).add(inFlightMessage);
+            sentCount++;
+        }
+
+        LOG.debug("Sending message:" + controlId + " on connection " + state.connection.getConnectionNumber());
+
+        try {
+            state.connection.send(message);
+        } catch (IOException e) {
+            fail("Error sending message " + controlId + " on connection " + state.connection.getConnectionNumber() + ": " + e.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+        waits for every outstanding message to be acknowledged, returns false if sending failed
+    */
+    public boolean drain() throws InterruptedException {
+        synchronized (this) {
+            while (!outstanding.isEmpty() && failure == null) {
+                wait(1000);
+                checkTimeouts();
+            }
+        }
+
+        return (failure == null);
+    }
+
+    public void close() {
+        closing = true;
+
+        for (ConnectionState state : connections)
+            state.connection.close();
+
+        long msElapsed = Math.max(System.currentTimeMillis() - msStart, 1);
+
+        synchronized (this) {
+            Object[] logArgs = new Object[] {
+                    sentCount,
+                    acknowledgedCount,
+                    outOfOrderCount,
+                    outstanding.size(),
+                    msElapsed,
+                    String.format("%.1f", acknowledgedCount * 1000.0 / msElapsed) };
+
+            LOG.info("Sent {} messages, {} acknowledged ({} out of order), {} unacknowledged, in {}ms ({} per second)", logArgs);
+        }
+
+        if (failure != null)
+            LOG.error("Sending stopped: " + failure);
+    }
+
+    @Override
+    public synchronized void frameReceived(MllpConnection connection, String frame) {
+        String ackCode = Hl7Text.getField(frame, "MSA", 1);
+        String controlId = Hl7Text.getField(frame, "MSA", 2);
+
+        ConnectionState state = connectionStates.get(connection);
+        Deque<InFlightMessage> candidates = state.byControlId.get(controlId);
+        InFlightMessage inFlightMessage = (candidates == null ? null : candidates.poll());
+
+        if (candidates != null && candidates.isEmpty())
+            state.byControlId.remove(controlId);
+
+        if (inFlightMessage == null) {
+            LOG.warn("Acknowledgement for " + controlId + " on connection " + connection.getConnectionNumber() + " does not match a message in flight");
+            writeAudit(UNMATCHED_LINE + controlId + Main.NEWLINE + "Acknowledgement:" + frame + Main.NEWLINE);
+            return;
+        }
+
+        state.window.release();
+        inFlightMessage.acknowledgement = frame;
+
+        if (!("AA".equals(ackCode) || "CA".equals(ackCode))) {
+            writeAudit(Main.FAILURE_LINE + controlId + Main.NEWLINE + "Acknowledgement:" + frame + Main.NEWLINE);
+            fail("Message " + controlId + " acknowledged with " + ackCode);
+            notifyAll();
+            return;
+        }
+
+        inFlightMessage.acknowledged = true;
+        acknowledgedCount++;
+
+        long firstSequence = outstanding.firstKey();
+        if (inFlightMessage.sequence != firstSequence) {
+            outOfOrderCount++;
+            writeAudit(OUT_OF_ORDER_LINE + controlId + " (waiting for " + outstanding.get(firstSequence).controlId + ")" + Main.NEWLINE);
+        }
+
+        commitAcknowledged();
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void connectionClosed(MllpConnection connection, Exception exception) {
+        if (closing)
+            return;
+
+        fail("Connection " + connection.getConnectionNumber() + " closed" + (exception == null ? "" : ": " + exception.getMessage()));
+        notifyAll();
+    }
+
+    /*
+        writes success lines for the acknowledged messages at the head of the send order
+    */
+    private void commitAcknowledged() {
+        while (!outstanding.isEmpty() && outstanding.firstEntry().getValue().acknowledged) {
+            InFlightMessage inFlightMessage = outstanding.pollFirstEntry().getValue();
+
+            writeAudit(Main.SUCCESS_LINE + inFlightMessage.controlId + Main.NEWLINE + "Acknowledgement:" + inFlightMessage.acknowledgement + Main.NEWLINE);
+
+            try {
+                inFlightMessage.postSendAction.run();
+            } catch (IOException e) {
+                fail("Post send action failed for message " + inFlightMessage.controlId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void checkTimeouts() {
+        if (outstanding.isEmpty())
+            return;
+
+        InFlightMessage oldest = outstanding.firstEntry().getValue();
+
+        if (!oldest.acknowledged && (System.currentTimeMillis() - oldest.sentTime > ackTimeoutMs))
+            fail("No acknowledgement for message " + oldest.controlId + " after " + ackTimeoutMs + "ms");
+    }
+
+    private void fail(String reason) {
+        if (failure == null) {
+            failure = reason;
+            LOG.error(reason);
+        }
+    }
+
+    private void writeAudit(String text) {
+        try {
+            auditWriter.write(text);
+        } catch (IOException e) {
+            fail("Could not write to audit file: " + e.getMessage());
+        }
+    }
+
+    private static class ConnectionState {
+        private final MllpConnection connection;
+        private final Semaphore window;
+        private final Map<String, Deque<InFlightMessage>> byControlId = new HashMap<>();
+
+        ConnectionState(MllpConnection connection, int window) {
+            this.connection = connection;
+            this.window = new Semaphore(window);
+        }
+    }
+
+    private static class InFlightMessage {
+        private final long sequence;
+        private final String controlId;
+        private final AbstractMessageReader.PostSendAction postSendAction;
+        private final long sentTime = System.currentTimeMillis();
+        private String acknowledgement = null;
+        private boolean acknowledged = false;
+
+        InFlightMessage(long sequence, String controlId, AbstractMessageReader.PostSendAction postSendAction) {
+            this.sequence = sequence;
+            this.controlId = controlId;
+            this.postSendAction = postSendAction;
+        }
+    }
+}
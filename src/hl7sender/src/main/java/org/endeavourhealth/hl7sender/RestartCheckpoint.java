@@ -0,0 +1,112 @@
+package org.endeavourhealth.hl7sender;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    the position in the input to restart from, written next to the audit file
+
+    the position is a byte offset for message files and a file name for directories, so a restart goes straight
+    to it instead of scanning the audit file and then skipping messages up to the last success line. The input
+    path is kept with it so a checkpoint is not used against a different input
+
+    the file is written to a temporary file and moved into place so a crash never leaves it half written.
+    acknowledgements only record the position in memory, often under the sender's lock on the thread reading
+    acknowledgements, and the sending thread writes it every WRITE_EVERY_MESSAGES messages or WRITE_INTERVAL_MILLIS
+    and when sending ends. a crash in between restarts a little earlier and resends what was acknowledged since
+*/
+public class RestartCheckpoint {
+    private static final Logger LOG = LoggerFactory.getLogger(RestartCheckpoint.class);
+    private static final String SEPARATOR = "\t";
+    private static final int WRITE_EVERY_MESSAGES = 1000;
+    private static final long WRITE_INTERVAL_MILLIS = 5000;
+
+    private final File file;
+    private final String inputPath;
+    private final int writeEveryMessages;
+    private final long writeIntervalMillis;
+
+    private volatile String acknowledgedPosition = null;
+    private final AtomicLong acknowledgedCount = new AtomicLong();
+
+    private String writtenPosition = null;
+    private long writtenCount = 0;
+    private long lastWriteMillis = System.currentTimeMillis();
+
+    public RestartCheckpoint(File auditFile, File inputMessages) {
+        this(auditFile, inputMessages, WRITE_EVERY_MESSAGES, WRITE_INTERVAL_MILLIS);
+    }
+
+    RestartCheckpoint(File auditFile, File inputMessages, int writeEveryMessages, long writeIntervalMillis) {
+        this.file = new File(auditFile.getAbsolutePath() + ".checkpoint");
+        this.inputPath = inputMessages.getAbsolutePath();
+        this.writeEveryMessages = writeEveryMessages;
+        this.writeIntervalMillis = writeIntervalMillis;
+    }
+
+    /*
+        returns null if there is no checkpoint for this input
+    */
+    public String read() throws IOException {
+        if (!file.exists())
+            return null;
+
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        int separator = content.lastIndexOf(SEPARATOR);
+
+        if (separator == -1)
+            return null;
+
+        if (!content.substring(0, separator).equals(inputPath)) {
+            LOG.warn("Checkpoint " + file.getAbsolutePath() + " is for " + content.substring(0, separator) + ", not " + inputPath);
+            return null;
+        }
+
+        return content.substring(separator + 1);
+    }
+
+    /*
+        records the position once a message has been acknowledged, without touching the file
+    */
+    public void acknowledged(String position) {
+        acknowledgedPosition = position;
+        acknowledgedCount.incrementAndGet();
+    }
+
+    public synchronized void writeIfDue() throws IOException {
+        if (acknowledgedCount.get() - writtenCount < writeEveryMessages
+                && System.currentTimeMillis() - lastWriteMillis < writeIntervalMillis)
+            return;
+
+        flush();
+    }
+
+    /*
+        writes the last acknowledged position, when sending ends or the process is shutting down
+    */
+    public synchronized void flush() throws IOException {
+        long count = acknowledgedCount.get();
+        String position = acknowledgedPosition;
+
+        if (position != null && !position.equals(writtenPosition))
+            write(position);
+
+        writtenPosition = position;
+        writtenCount = count;
+        lastWriteMillis = System.currentTimeMillis();
+    }
+
+    public void write(String position) throws IOException {
+        Path tempPath = file.toPath().resolveSibling(file.getName() + ".tmp");
+        Files.write(tempPath, (inputPath + SEPARATOR + position + Main.NEWLINE).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
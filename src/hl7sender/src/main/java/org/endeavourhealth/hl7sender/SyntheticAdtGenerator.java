@@ -0,0 +1,47 @@
+package org.endeavourhealth.hl7sender;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+    minimal ADT messages with random patient and visit identifiers, for load testing without a copy of real messages
+
+    patients are drawn from a fixed pool so the receiver sees repeat patients as well as new ones, the event type is
+    picked at random from the list (repeat an event in the list to weight it)
+*/
+public class SyntheticAdtGenerator {
+    private static final String[] SURNAMES = { "SMITH", "JONES", "TAYLOR", "BROWN", "WILLIAMS", "WILSON", "JOHNSON", "DAVIES", "PATEL", "KHAN" };
+    private static final String[] FORENAMES = { "JAMES", "MARY", "JOHN", "SARAH", "DAVID", "FATIMA", "MOHAMMED", "EMMA", "OLIVER", "AMELIA" };
+
+    private final String sendingApplication;
+    private final String sendingFacility;
+    private final int patientCount;
+    private final String[] events;
+
+    public SyntheticAdtGenerator(String sendingApplication, String sendingFacility, int patientCount, String[] events) {
+        this.sendingApplication = sendingApplication;
+        this.sendingFacility = sendingFacility;
+        this.patientCount = patientCount;
+        this.events = events;
+    }
+
+    /*
+        MSH-10 is left for the caller to set
+    */
+    public String generate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String event = events[random.nextInt(events.length)];
+        int patient = random.nextInt(patientCount);
+        String mrn = String.format("LG%08d", patient);
+        String visit = String.format("V%010d", random.nextLong(10000000000L));
+        String now = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+
+        return "MSH|^~\\&|" + sendingApplication + "|" + sendingFacility + "|HL7RECEIVER|HL7RECEIVER|" + now + "||ADT^" + event + "||P|2.3\r"
+                + "EVN|" + event + "|" + now + "\r"
+                + "PID|1||" + mrn + "^^^" + sendingFacility + "^MRN||"
+                    + SURNAMES[patient % SURNAMES.length] + "^" + FORENAMES[(patient / SURNAMES.length) % FORENAMES.length]
+                    + "||" + (1930 + patient % 90) + "0101|" + (patient % 2 == 0 ? "M" : "F") + "|||" + (patient % 200 + 1) + " TEST STREET^^LONDON^^E1 1AA\r"
+                + "PV1|1|I|WARD1^BED1^^" + sendingFacility + "||||||||||||||||" + visit + "\r";
+    }
+}
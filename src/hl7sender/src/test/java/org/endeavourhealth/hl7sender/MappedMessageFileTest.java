@@ -0,0 +1,93 @@
+package org.endeavourhealth.hl7sender;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class MappedMessageFileTest extends TestCase {
+
+    private static final String FIRST_MESSAGE = "MSH|^~\\&|HOMERTON|RQX|||20261019||ADT^A01|1|P|2.3\rPID|1||1234||SMITH^ZOË\r";
+    private static final String SECOND_MESSAGE = "MSH|^~\\&|HOMERTON|RQX|||20261019||ADT^A08|2|P|2.3\rPID|1||5678\r";
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("MappedMessageFileTest", ".txt");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testReadLineHandlesEachLineTerminator() throws Exception {
+        write("one\rtwo\nthree\r\n\r\nfour".getBytes(StandardCharsets.ISO_8859_1));
+
+        try (MappedMessageFile messageFile = new MappedMessageFile(file.toPath())) {
+            assertEquals("one", messageFile.readLine());
+            assertEquals("two", messageFile.readLine());
+            assertEquals("three", messageFile.readLine());
+            assertEquals("", messageFile.readLine());
+            assertEquals("four", messageFile.readLine());
+            assertNull(messageFile.readLine());
+        }
+    }
+
+    public void testReadMessageSkipsPreambleAndFraming() throws Exception {
+        String content = "exported 2026-10-19\r\n"
+                + "\u000b" + FIRST_MESSAGE.replace("\r", "\r\n")
+                + "\u001c\r\n"
+                + SECOND_MESSAGE.replace("\r", "\n");
+
+        write(content.getBytes(StandardCharsets.ISO_8859_1));
+
+        try (MappedMessageFile messageFile = new MappedMessageFile(file.toPath())) {
+            assertEquals(FIRST_MESSAGE, messageFile.readMessage());
+            assertEquals(SECOND_MESSAGE, messageFile.readMessage());
+            assertNull(messageFile.readMessage());
+        }
+    }
+
+    public void testPositionRestartsAtFollowingMessage() throws Exception {
+        write((FIRST_MESSAGE + SECOND_MESSAGE).getBytes(StandardCharsets.ISO_8859_1));
+        long position;
+
+        try (MappedMessageFile messageFile = new MappedMessageFile(file.toPath())) {
+            messageFile.readMessage();
+            position = messageFile.getPosition();
+        }
+
+        assertEquals(FIRST_MESSAGE.length(), position);
+
+        try (MappedMessageFile messageFile = new MappedMessageFile(file.toPath())) {
+            messageFile.setPosition(position);
+            assertEquals(SECOND_MESSAGE, messageFile.readMessage());
+
+            messageFile.setPosition(Long.MAX_VALUE);
+            assertNull(messageFile.readMessage());
+        }
+    }
+
+    public void testBytesArePassedThroughUnchanged() throws Exception {
+        byte[] bytes = FIRST_MESSAGE.getBytes(StandardCharsets.UTF_8);
+        write(bytes);
+
+        try (MappedMessageFile messageFile = new MappedMessageFile(file.toPath())) {
+            assertEquals(FIRST_MESSAGE, new String(messageFile.readMessage().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8));
+        }
+    }
+
+    public void testEmptyFile() throws Exception {
+        try (MappedMessageFile messageFile = new MappedMessageFile(file.toPath())) {
+            assertNull(messageFile.readLine());
+            assertNull(messageFile.readMessage());
+        }
+    }
+
+    private void write(byte[] bytes) throws Exception {
+        Files.write(file.toPath(), bytes);
+    }
+}
@@ -0,0 +1,68 @@
+package org.endeavourhealth.hl7sender;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class RestartCheckpointTest extends TestCase {
+
+    private File auditFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        auditFile = File.createTempFile("RestartCheckpointTest", ".audit");
+    }
+
+    @Override
+    protected void tearDown() {
+        new File(auditFile.getAbsolutePath() + ".checkpoint").delete();
+        auditFile.delete();
+    }
+
+    public void testNoCheckpoint() throws Exception {
+        assertNull(new RestartCheckpoint(auditFile, new File("/data/messages.txt")).read());
+    }
+
+    public void testLatestPositionIsRead() throws Exception {
+        RestartCheckpoint checkpoint = new RestartCheckpoint(auditFile, new File("/data/messages.txt"));
+
+        checkpoint.write("1024");
+        checkpoint.write("2048");
+
+        assertEquals("2048", new RestartCheckpoint(auditFile, new File("/data/messages.txt")).read());
+        assertFalse(new File(auditFile.getAbsolutePath() + ".checkpoint.tmp").exists());
+    }
+
+    public void testAcknowledgedPositionIsWrittenEveryNMessages() throws Exception {
+        RestartCheckpoint checkpoint = new RestartCheckpoint(auditFile, new File("/data/messages.txt"), 3, Long.MAX_VALUE);
+
+        checkpoint.acknowledged("1024");
+        checkpoint.acknowledged("2048");
+        checkpoint.writeIfDue();
+
+        assertNull(checkpoint.read());
+
+        checkpoint.acknowledged("4096");
+        checkpoint.writeIfDue();
+
+        assertEquals("4096", checkpoint.read());
+    }
+
+    public void testFlushWritesLastAcknowledgedPosition() throws Exception {
+        RestartCheckpoint checkpoint = new RestartCheckpoint(auditFile, new File("/data/messages.txt"), 3, Long.MAX_VALUE);
+
+        checkpoint.flush();
+        assertNull(checkpoint.read());
+
+        checkpoint.acknowledged("1024");
+        checkpoint.flush();
+
+        assertEquals("1024", checkpoint.read());
+    }
+
+    public void testCheckpointForDifferentInputIsIgnored() throws Exception {
+        new RestartCheckpoint(auditFile, new File("/data/messages.txt")).write("1024");
+
+        assertNull(new RestartCheckpoint(auditFile, new File("/data/other.txt")).read());
+    }
+}
@@ -189,7 +189,7 @@ public class BulkTransformTester {
         return list;
     }
 
-    private static Connection getConnection(){
+    static Connection getConnection(){
         try {
             Class.forName("org.postgresql.Driver");
         } catch (ClassNotFoundException e1) {
@@ -210,7 +210,7 @@ public class BulkTransformTester {
         return db;
     }
 
-    private static String constructExceptionMessage(Throwable exception) {
+    static String constructExceptionMessage(Throwable exception) {
         if (exception == null)
             return "";
 
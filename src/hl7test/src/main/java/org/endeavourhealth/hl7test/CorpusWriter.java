@@ -0,0 +1,47 @@
+package org.endeavourhealth.hl7test;
+
+import org.endeavourhealth.hl7test.corpus.AdtCorpusGenerator;
+import org.endeavourhealth.hl7test.corpus.AdtProfile;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+/*
+    generate <HOMERTON|BARTS> <message count> <output file>
+
+    -Dpatients    distinct patients (default 10000)
+    -Dseed        random seed, the same seed gives the same messages (default 1)
+    -Devents      event mix as event:weight pairs (default AdtCorpusGenerator.DEFAULT_EVENT_MIX)
+    -Dstartdate   yyyyMMdd of the first message (default 20170101)
+
+    the output can be sent with hl7sender -Dinputtype=HAPI, or replayed by its load generator
+*/
+public class CorpusWriter {
+
+    public static void generate(String profileName, long messageCount, String outputFileName) throws Exception {
+        AdtCorpusGenerator generator = new AdtCorpusGenerator()
+                .setProfile(AdtProfile.create(profileName))
+                .setPatientCount(Integer.parseInt(System.getProperty("patients", "10000")))
+                .setSeed(Long.parseLong(System.getProperty("seed", "1")))
+                .setEventMix(System.getProperty("events", AdtCorpusGenerator.DEFAULT_EVENT_MIX))
+                .setStartDateTime(LocalDate.parse(System.getProperty("startdate", "20170101"), DateTimeFormatter.BASIC_ISO_DATE).atStartOfDay());
+
+        System.out.println("Generating " + messageCount + " " + profileName + " messages to " + outputFileName);
+        long msStart = System.currentTimeMillis();
+
+        Map<String, Long> eventCounts;
+        try (Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFileName), StandardCharsets.ISO_8859_1), 1 << 16)) {
+            eventCounts = generator.generate(messageCount, output);
+        }
+
+        System.out.println("Generated " + messageCount + " messages in " + (System.currentTimeMillis() - msStart) + "ms");
+        for (Map.Entry<String, Long> eventCount : eventCounts.entrySet())
+            System.out.println(eventCount.getKey() + " : " + eventCount.getValue());
+    }
+}
@@ -22,5 +22,29 @@ public class Main {
                 System.out.println("Error : " + e.getMessage() );
             }
         }
+        else if (args[0].equals("paralleltransform")){
+            try {
+                ParallelTransformTester.processStoredMessages(Integer.parseInt(args[1]), args[2]);
+            }
+            catch (Exception e) {
+                System.out.println("Error : " + e.getMessage() );
+            }
+        }
+        else if (args[0].equals("transformdiff")){
+            try {
+                TransformDiffTester.compare(args[1], args[2], args[3]);
+            }
+            catch (Exception e) {
+                System.out.println("Error : " + e.getMessage() );
+            }
+        }
+        else if (args[0].equals("generate")){
+            try {
+                CorpusWriter.generate(args[1], Long.parseLong(args[2]), args[3]);
+            }
+            catch (Exception e) {
+                System.out.println("Error : " + e.getMessage() );
+            }
+        }
     }
 }
@@ -0,0 +1,313 @@
+package org.endeavourhealth.hl7test;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.endeavourhealth.hl7transform.Hl7v2Transform;
+import org.endeavourhealth.hl7transform.mapper.EmptyMapper;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/*
+    paralleltransform <limit> <mode>
+
+    -Dthreads     transform threads (default one per processor)
+    -Dbatchsize   results written per COPY (default 1000)
+    -Dfetchsize   rows fetched at a time from the cursor over log.message (default 1000)
+
+    same selection and results as BulkTransformTester, but payloads are streamed from one query through a cursor,
+    transformed on a thread pool and written to log.test_transform in batches. Each batch is COPYed into a temporary
+    table and then applied to log.test_transform with one update and one insert, the same upsert as BulkTransformTester
+    does per message. Transform times are kept per sending facility and message type
+*/
+public class ParallelTransformTester {
+    private static final String STAGING_TABLE = "test_transform_batch";
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final int threads;
+    private final int batchSize;
+    private final int fetchSize;
+
+    private final Histogram allTimings = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 2);
+    private final Map<String, Histogram> timings = new ConcurrentSkipListMap<>();
+    private final AtomicLong success = new AtomicLong();
+    private final AtomicLong fail = new AtomicLong();
+    private long written = 0;
+    private long msStart;
+
+    public ParallelTransformTester(int threads, int batchSize, int fetchSize) {
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.fetchSize = fetchSize;
+    }
+
+    public static void processStoredMessages(Integer limit, String mode) throws Exception {
+        new ParallelTransformTester(
+                Integer.parseInt(System.getProperty("threads", Integer.toString(Runtime.getRuntime().availableProcessors()))),
+                Integer.parseInt(System.getProperty("batchsize", "1000")),
+                Integer.parseInt(System.getProperty("fetchsize", "1000")))
+                .run(limit, mode);
+    }
+
+    public void run(Integer limit, String mode) throws Exception {
+        System.out.println("Starting parallel transform process with " + threads + " threads");
+        if (limit > 0)
+            System.out.println("Limited to " + limit.toString() + " messages");
+        System.out.println("Mode = " + mode);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (Connection readConnection = BulkTransformTester.getConnection();
+             Connection writeConnection = BulkTransformTester.getConnection()) {
+
+            writeConnection.setAutoCommit(false);
+
+            if (mode.equals("reset")) {
+                System.out.println("Resetting all progress");
+                execute(writeConnection, "truncate table log.test_transform;");
+                writeConnection.commit();
+            }
+
+            execute(writeConnection, "create temporary table if not exists " + STAGING_TABLE + " (message_id integer, hl7_payload text, fhir_payload text, error_message text);");
+            writeConnection.commit();
+
+            // the cursor is only used outside auto commit
+            readConnection.setAutoCommit(false);
+
+            CompletionService<TransformResult> completionService = new ExecutorCompletionService<>(executor);
+            List<TransformResult> batch = new ArrayList<>(batchSize);
+            int maxInFlight = threads * 4;
+            int inFlight = 0;
+
+            msStart = System.currentTimeMillis();
+
+            try (PreparedStatement ps = readConnection.prepareStatement(getMessagesSql(limit, mode))) {
+                ps.setFetchSize(fetchSize);
+
+                if (limit > 0)
+                    ps.setInt(1, limit);
+
+                try (ResultSet result = ps.executeQuery()) {
+                    while (result.next()) {
+                        int messageId = result.getInt("message_id");
+                        String messageText = result.getString("inbound_payload");
+
+                        completionService.submit(() -> transformMessage(messageId, messageText));
+                        inFlight++;
+
+                        // block once enough are queued, so the cursor does not run ahead of the transforms
+                        if (inFlight >= maxInFlight) {
+                            batch.add(completionService.take().get());
+                            inFlight--;
+                        }
+
+                        Future<TransformResult> completed;
+                        while ((completed = completionService.poll()) != null) {
+                            batch.add(completed.get());
+                            inFlight--;
+                        }
+
+                        if (batch.size() >= batchSize)
+                            writeBatch(writeConnection, batch);
+                    }
+                }
+            }
+
+            while (inFlight > 0) {
+                batch.add(completionService.take().get());
+                inFlight--;
+            }
+
+            writeBatch(writeConnection, batch);
+            readConnection.commit();
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        printSummary();
+    }
+
+    private TransformResult transformMessage(int messageId, String messageText) {
+        TransformResult result = new TransformResult(messageId, messageText);
+        long start = System.nanoTime();
+
+        try {
+            result.fhirMessage = Hl7v2Transform.transform(messageText, new EmptyMapper());
+            success.incrementAndGet();
+        }
+        catch (Exception e) {
+            result.error = BulkTransformTester.constructExceptionMessage(e);
+            fail.incrementAndGet();
+        }
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        allTimings.recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+        timings.computeIfAbsent(getTransformKey(messageText), k -> new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 2))
+                .recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+
+        return result;
+    }
+
+    private void writeBatch(Connection connection, List<TransformResult> batch) throws Exception {
+        if (batch.isEmpty())
+            return;
+
+        execute(connection, "truncate table " + STAGING_TABLE + ";");
+
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI()
+                .copyIn("COPY " + STAGING_TABLE + " (message_id, hl7_payload, fhir_payload, error_message) FROM STDIN");
+
+        try {
+            for (TransformResult result : batch) {
+                byte[] row = (result.messageId
+                        + "\t" + escapeCopyValue(result.hl7Message)
+                        + "\t" + escapeCopyValue(result.fhirMessage)
+                        + "\t" + escapeCopyValue(result.error)
+                        + "\n").getBytes(StandardCharsets.UTF_8);
+
+                copyIn.writeToCopy(row, 0, row.length);
+            }
+
+            copyIn.endCopy();
+        }
+        finally {
+            if (copyIn.isActive())
+                copyIn.cancelCopy();
+        }
+
+        execute(connection, "UPDATE log.test_transform tt SET hl7_payload = b.hl7_payload, fhir_payload = b.fhir_payload, error_message = b.error_message"
+                + " FROM " + STAGING_TABLE + " b WHERE tt.message_id = b.message_id;");
+        execute(connection, "INSERT INTO log.test_transform (message_id, hl7_payload, fhir_payload, error_message)"
+                + " SELECT b.message_id, b.hl7_payload, b.fhir_payload, b.error_message FROM " + STAGING_TABLE + " b"
+                + " WHERE NOT EXISTS (SELECT message_id FROM log.test_transform tt WHERE tt.message_id = b.message_id);");
+        connection.commit();
+
+        written += batch.size();
+        batch.clear();
+
+        long msElapsed = Math.max(System.currentTimeMillis() - msStart, 1);
+        System.out.println(String.format("%d messages written (%.1f per second), %d successful, %d failed, transform p50 %.2fms p99 %.2fms",
+                written,
+                written * 1000.0 / msElapsed,
+                success.get(),
+                fail.get(),
+                allTimings.getValueAtPercentile(50) / 1000.0,
+                allTimings.getValueAtPercentile(99) / 1000.0));
+    }
+
+    private void printSummary() {
+        long msElapsed = Math.max(System.currentTimeMillis() - msStart, 1);
+
+        System.out.println(String.format("Complete: %d messages in %dms (%.1f per second), %d successful, %d failed",
+                written, msElapsed, written * 1000.0 / msElapsed, success.get(), fail.get()));
+        System.out.println("Transform times (ms):");
+        System.out.println(formatTimings("all", allTimings));
+
+        for (Map.Entry<String, Histogram> timing : timings.entrySet())
+            System.out.println(formatTimings(timing.getKey(), timing.getValue()));
+    }
+
+    private static String formatTimings(String name, Histogram histogram) {
+        return String.format("  %-50s count=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f",
+                name,
+                histogram.getTotalCount(),
+                histogram.getMean() / 1000.0,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+
+    private static String getMessagesSql(Integer limit, String mode) {
+        String statement = "select m.message_id, m.inbound_payload from log.message m";
+        statement += " left outer join log.test_transform tt on tt.message_id = m.message_id";
+
+        if (mode.equals("errors"))
+            statement += " where tt.error_message is not null";
+        else
+            statement += " where tt.message_id is null";
+        statement += " order by m.message_id";
+
+        if (limit > 0)
+            statement += " limit ?;";
+        else
+            statement += ";";
+
+        return statement;
+    }
+
+    /*
+        sending facility and message type from MSH.4 and MSH.9, without parsing the message
+    */
+    private static String getTransformKey(String messageText) {
+        if (messageText == null || messageText.length() < 4 || !messageText.startsWith("MSH"))
+            return "unknown";
+
+        char fieldSeparator = messageText.charAt(3);
+        int segmentEnd = messageText.indexOf('\r');
+        String[] fields = (segmentEnd == -1 ? messageText : messageText.substring(0, segmentEnd)).split(Pattern.quote(Character.toString(fieldSeparator)));
+
+        String sendingFacility = (fields.length > 3 ? fields[3] : "");
+        String messageType = (fields.length > 8 ? fields[8] : "");
+
+        return sendingFacility + " " + messageType;
+    }
+
+    private static String escapeCopyValue(String value) {
+        if (value == null)
+            return "\\N";
+
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '\\': escaped.append("\\\\"); break;
+                case '\t': escaped.append("\\t"); break;
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                default: escaped.append(c);
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    private static void execute(Connection connection, String sql) throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static class TransformResult {
+        private final int messageId;
+        private final String hl7Message;
+        private String fhirMessage = null;
+        private String error = null;
+
+        TransformResult(int messageId, String hl7Message) {
+            this.messageId = messageId;
+            this.hl7Message = hl7Message;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.endeavourhealth.hl7test;
+
+import org.endeavourhealth.hl7test.diff.BundleCanonicaliser;
+import org.endeavourhealth.hl7test.diff.CanonicalHashCache;
+import org.endeavourhealth.hl7test.diff.DiffSummary;
+import org.endeavourhealth.hl7test.diff.IsolatedTransform;
+import org.endeavourhealth.hl7test.diff.TransformDiffer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+    transformdiff <baseline classpath> <candidate classpath> <corpus file>
+
+    -Dthreads     comparison threads (default one per processor)
+    -Dcache       canonical hash cache file (default <corpus file>.diffcache)
+    -Dignore      comma separated paths left out of the comparison, e.g. Bundle.meta.lastUpdated
+    -Dexamples    message ids listed for each differing path (default 3)
+
+    each classpath is a full classpath for one build of hl7transforms, e.g. its jar and target/dependency/*
+*/
+public class TransformDiffTester {
+
+    public static void compare(String baselineClasspath, String candidateClasspath, String corpusFileName) throws Exception {
+        Set<String> ignoredPaths = Arrays.stream(System.getProperty("ignore", "").split(","))
+                .map(String::trim)
+                .filter(t -> !t.isEmpty())
+                .collect(Collectors.toCollection(HashSet::new));
+
+        File corpus = new File(corpusFileName);
+        File cacheFile = new File(System.getProperty("cache", corpusFileName + ".diffcache"));
+
+        try (IsolatedTransform baseline = new IsolatedTransform("baseline", baselineClasspath);
+             IsolatedTransform candidate = new IsolatedTransform("candidate", candidateClasspath);
+             CanonicalHashCache cache = new CanonicalHashCache(cacheFile)) {
+
+            System.out.println("Baseline build " + baseline.getFingerprint());
+            System.out.println("Candidate build " + candidate.getFingerprint());
+            System.out.println(cache.size() + " cached results in " + cacheFile);
+
+            if (baseline.getFingerprint().equals(candidate.getFingerprint()))
+                System.out.println("Baseline and candidate builds are the same");
+
+            TransformDiffer differ = new TransformDiffer()
+                    .setBaseline(baseline)
+                    .setCandidate(candidate)
+                    .setCanonicaliser(new BundleCanonicaliser(ignoredPaths))
+                    .setCache(cache)
+                    .setSummary(new DiffSummary(Integer.parseInt(System.getProperty("examples", "3"))))
+                    .setThreads(Integer.parseInt(System.getProperty("threads", Integer.toString(Runtime.getRuntime().availableProcessors()))));
+
+            long msStart = System.currentTimeMillis();
+            DiffSummary summary = differ.compare(corpus);
+
+            System.out.println("Compared in " + (System.currentTimeMillis() - msStart) + "ms, "
+                    + differ.getBaselineRuns() + " baseline and " + differ.getCandidateRuns() + " candidate transforms run");
+            summary.print(System.out);
+        }
+    }
+}
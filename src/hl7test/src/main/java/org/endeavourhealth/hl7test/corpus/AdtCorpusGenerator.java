@@ -0,0 +1,359 @@
+package org.endeavourhealth.hl7test.corpus;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/*
+    generates a stream of ADT messages for a fixed pool of synthetic patients, containing no patient data
+
+    patients are created on first use and keep their identifiers, so the stream has repeat patients and visits that
+    are admitted, transferred and discharged in order. Merges retire the minor patient and replace it with a new one,
+    so the number of live patients stays the same. The same seed, profile and event mix always produce the same
+    messages. Events that need an open visit (A02, A03, A17, A35, A44) fall back to an A01 when there is none
+*/
+public class AdtCorpusGenerator {
+    public static final String DEFAULT_EVENT_MIX = "A01:10,A02:6,A03:10,A04:14,A05:2,A08:45,A17:1,A34:6,A35:3,A44:3";
+    private static final DateTimeFormatter HL7_DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final DateTimeFormatter HL7_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private AdtProfile profile;
+    private int patientCount = 10000;
+    private long seed = 1;
+    private LocalDateTime startDateTime = LocalDateTime.of(2017, 1, 1, 0, 0);
+    private List<String> events = new ArrayList<>();
+    private List<Integer> cumulativeWeights = new ArrayList<>();
+    private int totalWeight = 0;
+
+    private Random random;
+    private SyntheticPatient[] patients;
+    private List<SyntheticPatient> patientsWithVisits;
+    private long patientSerial;
+    private long visitSerial;
+    private LocalDateTime clock;
+    private Map<String, Long> eventCounts;
+
+    public AdtCorpusGenerator() {
+        setEventMix(DEFAULT_EVENT_MIX);
+    }
+
+    public AdtCorpusGenerator setProfile(AdtProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    public AdtCorpusGenerator setPatientCount(int patientCount) {
+        this.patientCount = patientCount;
+        return this;
+    }
+
+    public AdtCorpusGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public AdtCorpusGenerator setStartDateTime(LocalDateTime startDateTime) {
+        this.startDateTime = startDateTime;
+        return this;
+    }
+
+    /*
+        comma separated event:weight pairs, e.g. A01:10,A08:40,A34:5
+    */
+    public AdtCorpusGenerator setEventMix(String eventMix) {
+        events.clear();
+        cumulativeWeights.clear();
+        totalWeight = 0;
+
+        for (String entry : eventMix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            String event = parts[0].trim().toUpperCase();
+            int weight = (parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1);
+
+            if (!isSupportedEvent(event))
+                throw new IllegalArgumentException("Event " + event + " not supported");
+
+            if (weight <= 0)
+                continue;
+
+            totalWeight += weight;
+            events.add(event);
+            cumulativeWeights.add(totalWeight);
+        }
+
+        if (totalWeight == 0)
+            throw new IllegalArgumentException("Event mix " + eventMix + " has no events");
+
+        return this;
+    }
+
+    /*
+        writes messageCount messages, segments separated by CR and messages by LF, and returns the count of each event written
+    */
+    public Map<String, Long> generate(long messageCount, Writer output) throws IOException {
+        random = new Random(seed);
+        patients = new SyntheticPatient[patientCount];
+        patientsWithVisits = new ArrayList<>();
+        patientSerial = 0;
+        visitSerial = 0;
+        clock = startDateTime;
+        eventCounts = new TreeMap<>();
+
+        for (long i = 0; i < messageCount; i++) {
+            clock = clock.plusSeconds(1 + random.nextInt(60));
+            output.write(createMessage(i, pickEvent()));
+            output.write('\n');
+        }
+
+        return eventCounts;
+    }
+
+    private String createMessage(long sequence, String event) {
+        switch (event) {
+            case "A02": return createTransfer(sequence);
+            case "A03": return createDischarge(sequence);
+            case "A08": return createUpdate(sequence);
+            case "A17": return createSwap(sequence);
+            case "A34": return createPatientMerge(sequence);
+            case "A35": return createVisitMerge(sequence);
+            case "A44": return createVisitMove(sequence);
+            default: return createVisit(sequence, event, getPatient(random.nextInt(patientCount)));
+        }
+    }
+
+    private String createVisit(long sequence, String event, SyntheticPatient patient) {
+        String patientClass;
+        switch (event) {
+            case "A01": patientClass = "I"; break;
+            case "A05": patientClass = "P"; break;
+            default: patientClass = (random.nextInt(3) == 0 ? "E" : "O"); break;
+        }
+
+        setVisit(patient, new SyntheticVisit(visitSerial++, patientClass, clock, random));
+
+        return createHeader(sequence, event)
+                + createPatientSegments(patient)
+                + createVisitSegments(patient.currentVisit, null);
+    }
+
+    private String createTransfer(long sequence) {
+        SyntheticPatient patient = getPatientWithVisit();
+
+        if (patient == null)
+            return createVisit(sequence, "A01", getPatient(random.nextInt(patientCount)));
+
+        patient.currentVisit.transfer(random);
+
+        return createHeader(sequence, "A02")
+                + createPatientSegments(patient)
+                + createVisitSegments(patient.currentVisit, null);
+    }
+
+    private String createDischarge(long sequence) {
+        SyntheticPatient patient = getPatientWithVisit();
+
+        if (patient == null)
+            return createVisit(sequence, "A01", getPatient(random.nextInt(patientCount)));
+
+        String message = createHeader(sequence, "A03")
+                + createPatientSegments(patient)
+                + createVisitSegments(patient.currentVisit, clock);
+
+        setVisit(patient, null);
+        return message;
+    }
+
+    private String createUpdate(long sequence) {
+        SyntheticPatient patient = getPatient(random.nextInt(patientCount));
+
+        if (random.nextInt(10) == 0)
+            patient.moveHouse(random);
+
+        return createHeader(sequence, "A08")
+                + createPatientSegments(patient)
+                + (patient.currentVisit == null ? "" : createVisitSegments(patient.currentVisit, null));
+    }
+
+    private String createSwap(long sequence) {
+        SyntheticPatient first = getPatientWithVisit();
+        SyntheticPatient second = getPatientWithVisit();
+
+        if (first == null || second == null || first == second)
+            return createVisit(sequence, "A01", getPatient(random.nextInt(patientCount)));
+
+        first.currentVisit.swapLocation(second.currentVisit);
+
+        return createHeader(sequence, "A17")
+                + createPid(first) + createPv1(first.currentVisit, null)
+                + createPid(second) + createPv1(second.currentVisit, null);
+    }
+
+    private String createPatientMerge(long sequence) {
+        SyntheticPatient major = getPatient(random.nextInt(patientCount));
+        SyntheticPatient minor = getPatient(random.nextInt(patientCount));
+
+        if (major == minor)
+            return createUpdate(sequence);
+
+        // the minor patient's open visit now belongs to the major patient
+        if (minor.currentVisit != null && major.currentVisit == null)
+            setVisit(major, minor.currentVisit);
+
+        String message = createHeader(sequence, "A34")
+                + createPatientSegments(major)
+                + createMrg(minor, minor.currentVisit);
+
+        setVisit(minor, null);
+        patients[minor.slot] = new SyntheticPatient(minor.slot, patientSerial++, random);
+        return message;
+    }
+
+    private String createVisitMerge(long sequence) {
+        SyntheticPatient patient = getPatientWithVisit();
+
+        if (patient == null)
+            return createVisit(sequence, "A01", getPatient(random.nextInt(patientCount)));
+
+        // a duplicate registration of the same visit, merged into the open one
+        SyntheticVisit duplicate = new SyntheticVisit(visitSerial++, patient.currentVisit.patientClass, patient.currentVisit.admitDateTime, random);
+
+        return createHeader(sequence, "A35")
+                + createPatientSegments(patient)
+                + createVisitSegments(patient.currentVisit, null)
+                + createMrg(patient, duplicate);
+    }
+
+    private String createVisitMove(long sequence) {
+        SyntheticPatient from = getPatientWithVisit();
+        SyntheticPatient to = getPatient(random.nextInt(patientCount));
+
+        if (from == null || from == to)
+            return createVisit(sequence, "A01", to);
+
+        SyntheticVisit visit = from.currentVisit;
+        setVisit(from, null);
+        setVisit(to, visit);
+
+        return createHeader(sequence, "A44")
+                + createPatientSegments(to)
+                + createMrg(from, visit);
+    }
+
+    private String createHeader(long sequence, String event) {
+        String now = clock.format(HL7_DATE_TIME);
+        eventCounts.merge(event, 1L, Long::sum);
+
+        return "MSH|^~\\&|" + profile.getSendingApplication() + "|" + profile.getSendingFacility() + "|HL7RECEIVER|HL7RECEIVER|"
+                + now + "||ADT^" + event + "|SYN" + seed + "." + sequence + "|P|2.3\r"
+                + new SegmentBuilder("EVN").set(1, event).set(2, now).build();
+    }
+
+    private String createPatientSegments(SyntheticPatient patient) {
+        return createPid(patient)
+                + profile.getPrimaryCareSegment(patient)
+                + profile.getPatientZSegments(patient, random);
+    }
+
+    private String createVisitSegments(SyntheticVisit visit, LocalDateTime dischargeDateTime) {
+        return createPv1(visit, dischargeDateTime)
+                + profile.getVisitZSegments(visit, random);
+    }
+
+    private String createPid(SyntheticPatient patient) {
+        return new SegmentBuilder("PID")
+                .set(1, "1")
+                .set(3, profile.getPatientIdentifiers(patient))
+                .set(5, patient.getName())
+                .set(7, patient.dateOfBirth.format(HL7_DATE))
+                .set(8, patient.sex)
+                .set(11, patient.address)
+                .set(13, patient.phone + "^PRN^PH")
+                .set(16, patient.maritalStatus)
+                .set(18, (patient.currentVisit == null ? "" : profile.getAccountNumber(patient.currentVisit)))
+                .set(19, profile.getSsnNumber(patient))
+                .build();
+    }
+
+    private String createPv1(SyntheticVisit visit, LocalDateTime dischargeDateTime) {
+        return new SegmentBuilder("PV1")
+                .set(1, "1")
+                .set(2, visit.patientClass)
+                .set(3, profile.getLocation(visit))
+                .set(4, (visit.patientClass.equals("E") ? "EM" : "EL"))
+                .set(7, profile.getConsultant(visit))
+                .set(10, visit.specialty)
+                .set(17, profile.getConsultant(visit))
+                .set(19, profile.getVisitNumber(visit))
+                .set(39, profile.getServicingFacility())
+                .set(44, visit.admitDateTime.format(HL7_DATE_TIME))
+                .set(45, (dischargeDateTime == null ? "" : dischargeDateTime.format(HL7_DATE_TIME)))
+                .build();
+    }
+
+    private String createMrg(SyntheticPatient priorPatient, SyntheticVisit priorVisit) {
+        return new SegmentBuilder("MRG")
+                .set(1, profile.getPatientIdentifiers(priorPatient))
+                .set(3, (priorVisit == null ? "" : profile.getAccountNumber(priorVisit)))
+                .set(5, (priorVisit == null ? "" : profile.getVisitNumber(priorVisit)))
+                .set(7, priorPatient.getName())
+                .build();
+    }
+
+    private String pickEvent() {
+        int target = random.nextInt(totalWeight);
+
+        for (int i = 0; i < events.size(); i++)
+            if (target < cumulativeWeights.get(i))
+                return events.get(i);
+
+        return events.get(events.size() - 1);
+    }
+
+    private SyntheticPatient getPatient(int slot) {
+        if (patients[slot] == null)
+            patients[slot] = new SyntheticPatient(slot, patientSerial++, random);
+
+        return patients[slot];
+    }
+
+    private SyntheticPatient getPatientWithVisit() {
+        if (patientsWithVisits.isEmpty())
+            return null;
+
+        return patientsWithVisits.get(random.nextInt(patientsWithVisits.size()));
+    }
+
+    // keeps patientsWithVisits in step, removing by swapping the last entry into the gap
+    private void setVisit(SyntheticPatient patient, SyntheticVisit visit) {
+        if (patient.currentVisit == null && visit != null) {
+            patient.visitListIndex = patientsWithVisits.size();
+            patientsWithVisits.add(patient);
+
+        } else if (patient.currentVisit != null && visit == null) {
+            SyntheticPatient last = patientsWithVisits.remove(patientsWithVisits.size() - 1);
+
+            if (last != patient) {
+                patientsWithVisits.set(patient.visitListIndex, last);
+                last.visitListIndex = patient.visitListIndex;
+            }
+        }
+
+        patient.currentVisit = visit;
+    }
+
+    private static boolean isSupportedEvent(String event) {
+        switch (event) {
+            case "A01": case "A02": case "A03": case "A04": case "A05": case "A08":
+            case "A17": case "A34": case "A35": case "A44":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.endeavourhealth.hl7test.corpus;
+
+import java.util.Random;
+
+/*
+    the parts of a message that differ between sending facilities - identifiers, locations and Z segments
+*/
+public abstract class AdtProfile {
+
+    public static AdtProfile create(String name) {
+        switch (name.toUpperCase()) {
+            case "HOMERTON": return new HomertonAdtProfile();
+            case "BARTS": return new BartsAdtProfile();
+            default: throw new IllegalArgumentException("Profile " + name + " not recognised, use HOMERTON or BARTS");
+        }
+    }
+
+    public abstract String getSendingApplication();
+    public abstract String getSendingFacility();
+
+    // PID.3 and MRG.1, repeating
+    abstract String getPatientIdentifiers(SyntheticPatient patient);
+
+    // PID.18 and MRG.3
+    abstract String getAccountNumber(SyntheticVisit visit);
+
+    // PID.19
+    abstract String getSsnNumber(SyntheticPatient patient);
+
+    // PV1.19 and MRG.5
+    abstract String getVisitNumber(SyntheticVisit visit);
+
+    // PV1.3
+    abstract String getLocation(SyntheticVisit visit);
+
+    // PV1.39
+    abstract String getServicingFacility();
+
+    // PD1
+    abstract String getPrimaryCareSegment(SyntheticPatient patient);
+
+    // PV1.7 and PV1.17
+    String getConsultant(SyntheticVisit visit) {
+        return visit.consultantCode + "^CONSULTANT^" + visit.specialty + "^^^DR";
+    }
+
+    // after PID and PD1
+    String getPatientZSegments(SyntheticPatient patient, Random random) {
+        return "";
+    }
+
+    // after PV1
+    String getVisitZSegments(SyntheticVisit visit, Random random) {
+        return "";
+    }
+}
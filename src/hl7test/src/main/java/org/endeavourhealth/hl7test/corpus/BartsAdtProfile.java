@@ -0,0 +1,52 @@
+package org.endeavourhealth.hl7test.corpus;
+
+import org.endeavourhealth.hl7transform.transforms.barts.constants.BartsConstants;
+
+/*
+    Cerner Millennium at Barts - MRN and NHS number in PID.3 with OID assigning authorities, visit id in PV1.19
+*/
+class BartsAdtProfile extends AdtProfile {
+    private static final String FIN_ASSIGNING_AUTHORITY = "2.16.840.1.113883.3.2540.13";
+    private static final String NHS_ASSIGNING_AUTHORITY = "2.16.840.1.113883.2.1.4.1";
+
+    public String getSendingApplication() {
+        return "BARTS_TIE";
+    }
+
+    public String getSendingFacility() {
+        return BartsConstants.sendingFacility;
+    }
+
+    String getPatientIdentifiers(SyntheticPatient patient) {
+        return patient.localId + "^^^" + BartsConstants.primaryPatientIdentifierAssigningAuthority + "^MRN"
+                + "~" + patient.nhsNumber + "^^^" + NHS_ASSIGNING_AUTHORITY + "^NHS"
+                + "~" + patient.secondaryId + "^^^2.16.840.1.113883.3.2540.3^CMRN";
+    }
+
+    String getAccountNumber(SyntheticVisit visit) {
+        return visit.accountNumber + "^^^" + FIN_ASSIGNING_AUTHORITY + "^FINNBR";
+    }
+
+    String getSsnNumber(SyntheticPatient patient) {
+        return "";
+    }
+
+    String getVisitNumber(SyntheticVisit visit) {
+        return visit.visitNumber + "^^^2.16.840.1.113883.3.2540.14^" + BartsConstants.primaryEpisodeIdentifierTypeCode;
+    }
+
+    String getLocation(SyntheticVisit visit) {
+        return visit.ward + "^" + visit.room + "^" + visit.bed + "^RLH^^^Royal London Hospital";
+    }
+
+    String getServicingFacility() {
+        return "RLH";
+    }
+
+    String getPrimaryCareSegment(SyntheticPatient patient) {
+        return new SegmentBuilder("PD1")
+                .set(3, "SURGERY^^" + patient.gpPracticeCode)
+                .set(4, patient.gpCode + "^GP^" + patient.gpPracticeCode + "^^^DR^^^" + BartsConstants.practitionerOrgDoctorNumberAssigningAuth)
+                .build();
+    }
+}
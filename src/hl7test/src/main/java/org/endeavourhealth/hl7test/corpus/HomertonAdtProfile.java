@@ -0,0 +1,99 @@
+package org.endeavourhealth.hl7test.corpus;
+
+import org.endeavourhealth.hl7transform.transforms.homerton.transforms.constants.HomertonConstants;
+
+import java.util.Random;
+
+/*
+    Cerner Millennium via the Homerton TIE - CNN and MRN in PID.3, NHS number in PID.19, FIN in PID.18,
+    and the ZPI, ZAL, ZQA and ZVI segments
+*/
+class HomertonAdtProfile extends AdtProfile {
+    private static final String[] ALLERGIES = { "91936005^Penicillin^SNOMED", "294505008^Amoxicillin^SNOMED", "91935009^Peanut^SNOMED", "300916003^Latex^SNOMED" };
+    private static final String[] QUESTIONS = { "Smoking status^Current smoker", "Alcohol units per week^4", "Interpreter required^No", "Carer^Yes" };
+
+    public String getSendingApplication() {
+        return "HOMERTON_TIE";
+    }
+
+    public String getSendingFacility() {
+        return HomertonConstants.sendingFacility;
+    }
+
+    String getPatientIdentifiers(SyntheticPatient patient) {
+        return patient.localId + "^^^Homerton Case Note Number^" + HomertonConstants.primaryPatientIdentifierTypeCode
+                + "~" + patient.secondaryId + "^^^Newham MRN^MRN"
+                + "~" + patient.localId + "^^^Homerton PAS^PERSON ID";
+    }
+
+    String getAccountNumber(SyntheticVisit visit) {
+        return visit.accountNumber + "^^^" + HomertonConstants.primaryEpisodeIdentifierAssigningAuthority + "^FIN NBR";
+    }
+
+    String getSsnNumber(SyntheticPatient patient) {
+        return patient.nhsNumber;
+    }
+
+    String getVisitNumber(SyntheticVisit visit) {
+        return visit.visitNumber + "^^^Homerton Visit ID^Visit Id";
+    }
+
+    String getLocation(SyntheticVisit visit) {
+        return visit.ward + "^" + visit.room + "^" + visit.bed + "^" + HomertonConstants.locationFacility + "^^^" + HomertonConstants.locationBuildingHomerton;
+    }
+
+    String getServicingFacility() {
+        return HomertonConstants.servicingFacility;
+    }
+
+    String getPrimaryCareSegment(SyntheticPatient patient) {
+        return new SegmentBuilder("PD1")
+                .set(HomertonConstants.homertonXpdPrimaryCarePd1FieldNumber,
+                        patient.gpCode + "^GP^" + patient.gpPracticeCode + "^^^DR^^^^^^^" + HomertonConstants.primaryPractitionerIdentifierTypeCode)
+                .build();
+    }
+
+    @Override
+    String getPatientZSegments(SyntheticPatient patient, Random random) {
+        StringBuilder segments = new StringBuilder(new SegmentBuilder("ZPI")
+                .set(1, "1")
+                .set(4, "LONDON")
+                .set(22, (random.nextInt(200) == 0 ? "Y" : "N"))
+                .build());
+
+        if (random.nextInt(4) == 0) {
+            segments.append(new SegmentBuilder("ZAL")
+                    .set(1, "A")
+                    .set(2, "20160101000000")
+                    .set(3, patient.localId + "1")
+                    .set(4, patient.localId + "2")
+                    .set(5, "Allergy")
+                    .set(6, "Active")
+                    .set(7, ALLERGIES[random.nextInt(ALLERGIES.length)])
+                    .set(8, "Patient")
+                    .set(13, "Y")
+                    .build());
+        }
+
+        int questionnaires = random.nextInt(3);
+        for (int i = 1; i <= questionnaires; i++) {
+            String question = QUESTIONS[random.nextInt(QUESTIONS.length)];
+            segments.append(new SegmentBuilder("ZQA")
+                    .set(1, Integer.toString(i))
+                    .set(2, "Q" + (100 + i))
+                    .set(3, "ST^" + question.substring(0, question.indexOf('^')).toUpperCase().replace(' ', '_') + "^" + question)
+                    .build());
+        }
+
+        return segments.toString();
+    }
+
+    @Override
+    String getVisitZSegments(SyntheticVisit visit, Random random) {
+        return new SegmentBuilder("ZVI")
+                .set(6, visit.specialty)
+                .set(9, (visit.patientClass.equals("E") ? "Ambulance" : "Walk In"))
+                .set(12, (visit.patientClass.equals("E") ? Integer.toString(random.nextInt(5) + 1) : ""))
+                .build();
+    }
+}
@@ -0,0 +1,30 @@
+package org.endeavourhealth.hl7test.corpus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class SegmentBuilder {
+    private final String segmentName;
+    private final List<String> fields = new ArrayList<>();
+
+    SegmentBuilder(String segmentName) {
+        this.segmentName = segmentName;
+    }
+
+    SegmentBuilder set(int fieldNumber, String value) {
+        while (fields.size() < fieldNumber)
+            fields.add("");
+
+        fields.set(fieldNumber - 1, (value == null ? "" : value));
+        return this;
+    }
+
+    String build() {
+        StringBuilder segment = new StringBuilder(segmentName);
+
+        for (String field : fields)
+            segment.append('|').append(field);
+
+        return segment.append('\r').toString();
+    }
+}
@@ -0,0 +1,81 @@
+package org.endeavourhealth.hl7test.corpus;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+class SyntheticPatient {
+    private static final String[] SURNAMES = { "SMITH", "JONES", "TAYLOR", "BROWN", "WILLIAMS", "WILSON", "JOHNSON", "DAVIES", "PATEL", "KHAN",
+            "AHMED", "BEGUM", "HUSSAIN", "ALI", "OKAFOR", "MENSAH", "NOWAK", "KOWALSKI", "COHEN", "MURPHY", "O'BRIEN", "DA SILVA" };
+    private static final String[] MALE_FORENAMES = { "JAMES", "JOHN", "DAVID", "MOHAMMED", "OLIVER", "KWAME", "PIOTR", "DANIEL", "ABDUL", "SEAN" };
+    private static final String[] FEMALE_FORENAMES = { "MARY", "SARAH", "FATIMA", "EMMA", "AMELIA", "AMINA", "ANNA", "GRACE", "NUSRAT", "SIOBHAN" };
+    private static final String[] STREETS = { "MARE STREET", "HOMERTON HIGH STREET", "WHITECHAPEL ROAD", "ROMFORD ROAD", "KINGSLAND ROAD", "BOW ROAD" };
+    private static final String[] POSTCODES = { "E8 1HJ", "E9 6SR", "E1 1BB", "E7 9HZ", "E2 8AA", "E3 4AA", "E5 0LL", "E15 1DA" };
+    private static final String[] MARITAL_STATUSES = { "S", "M", "D", "W", "" };
+
+    final int slot;
+    final String localId;
+    final String secondaryId;
+    final String nhsNumber;
+    final String surname;
+    final String forename;
+    final String title;
+    final String sex;
+    final LocalDate dateOfBirth;
+    final String maritalStatus;
+    final String gpCode;
+    final String gpPracticeCode;
+    String address;
+    String phone;
+    SyntheticVisit currentVisit = null;
+    int visitListIndex = -1;
+
+    SyntheticPatient(int slot, long serial, Random random) {
+        this.slot = slot;
+        this.localId = String.format("%07d", 1000000 + serial);
+        this.secondaryId = String.format("%08d", 20000000 + serial);
+        this.nhsNumber = createNhsNumber(random);
+        this.sex = (random.nextBoolean() ? "M" : "F");
+        this.surname = SURNAMES[random.nextInt(SURNAMES.length)];
+        String[] forenames = (sex.equals("M") ? MALE_FORENAMES : FEMALE_FORENAMES);
+        this.forename = forenames[random.nextInt(forenames.length)];
+        this.title = (sex.equals("M") ? "MR" : (random.nextBoolean() ? "MRS" : "MS"));
+        this.dateOfBirth = LocalDate.of(1920, 1, 1).plusDays(random.nextInt(365 * 98));
+        this.maritalStatus = MARITAL_STATUSES[random.nextInt(MARITAL_STATUSES.length)];
+        this.gpCode = String.format("G%07d", random.nextInt(10000000));
+        this.gpPracticeCode = String.format("F84%03d", random.nextInt(1000));
+        moveHouse(random);
+    }
+
+    void moveHouse(Random random) {
+        this.address = (random.nextInt(300) + 1) + " " + STREETS[random.nextInt(STREETS.length)] + "^^LONDON^^" + POSTCODES[random.nextInt(POSTCODES.length)] + "^GBR^HOME";
+        this.phone = String.format("020%08d", random.nextInt(100000000));
+    }
+
+    String getName() {
+        return surname + "^" + forename + "^^^" + title;
+    }
+
+    /*
+        ten digits with a valid modulus 11 check digit
+    */
+    private static String createNhsNumber(Random random) {
+        while (true) {
+            StringBuilder digits = new StringBuilder(10);
+            int sum = 0;
+
+            for (int i = 0; i < 9; i++) {
+                int digit = (i == 0 ? 4 + random.nextInt(3) : random.nextInt(10));
+                digits.append(digit);
+                sum += digit * (10 - i);
+            }
+
+            int checkDigit = 11 - (sum % 11);
+
+            if (checkDigit == 11)
+                checkDigit = 0;
+
+            if (checkDigit != 10)
+                return digits.append(checkDigit).toString();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.endeavourhealth.hl7test.corpus;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+
+class SyntheticVisit {
+    private static final String[] WARDS = { "AMU", "ACU", "MAYBIRD", "PRIESTLEY", "SPRINGFIELD", "LARCH", "GRAHAM", "EDWARD BARNES", "ITU", "ED" };
+    private static final String[] SPECIALTIES = { "100", "101", "110", "120", "180", "300", "301", "320", "430", "501" };
+
+    final String accountNumber;
+    final String visitNumber;
+    final String patientClass;
+    final String specialty;
+    final String consultantCode;
+    final LocalDateTime admitDateTime;
+    String ward;
+    String room;
+    String bed;
+
+    SyntheticVisit(long serial, String patientClass, LocalDateTime admitDateTime, Random random) {
+        this.accountNumber = String.format("%09d", 100000000 + serial);
+        this.visitNumber = String.format("%09d", 500000000 + serial);
+        this.patientClass = patientClass;
+        this.specialty = SPECIALTIES[random.nextInt(SPECIALTIES.length)];
+        this.consultantCode = String.format("C%07d", random.nextInt(10000000));
+        this.admitDateTime = admitDateTime;
+        transfer(random);
+    }
+
+    void transfer(Random random) {
+        this.ward = (patientClass.equals("E") ? "ED" : WARDS[random.nextInt(WARDS.length)]);
+        this.room = "BAY " + (random.nextInt(8) + 1);
+        this.bed = "BED " + (random.nextInt(6) + 1);
+    }
+
+    void swapLocation(SyntheticVisit other) {
+        String otherWard = other.ward;
+        String otherRoom = other.room;
+        String otherBed = other.bed;
+
+        other.ward = this.ward;
+        other.room = this.room;
+        other.bed = this.bed;
+
+        this.ward = otherWard;
+        this.room = otherRoom;
+        this.bed = otherBed;
+    }
+}
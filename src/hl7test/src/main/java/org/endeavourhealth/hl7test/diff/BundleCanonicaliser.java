@@ -0,0 +1,159 @@
+package org.endeavourhealth.hl7test.diff;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    rewrites a transform's bundle json so two runs of the same message compare equal unless the content differs
+
+    - every resource id is replaced by <resource type>#<n>, numbered in bundle order, and the same replacement is
+      made wherever the uuid appears (references, fullUrl), since EmptyMapper gives a new random uuid on each run
+    - any other uuid becomes #uuid
+    - entries are ordered by resource type then number, other arrays by their json text and object fields by name,
+      as the order of repeats is not compared
+    - ignored paths are removed, e.g. Bundle.meta.lastUpdated or Encounter.period.start
+
+    paths are the ones used in the diff summary - the resource type, then field names, with [] for each array
+*/
+public class BundleCanonicaliser {
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    private static final String BUNDLE_PATH = "Bundle";
+    private static final String ENTRY_PATH = "Bundle.entry[]";
+    private static final String UNKNOWN_UUID = "#uuid";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+
+    private final Set<String> ignoredPaths;
+
+    public BundleCanonicaliser(Set<String> ignoredPaths) {
+        this.ignoredPaths = new HashSet<>(ignoredPaths);
+    }
+
+    public CanonicalBundle canonicalise(String bundleJson) throws Exception {
+        JsonNode bundle = OBJECT_MAPPER.readTree(bundleJson);
+
+        Map<String, String> labels = labelResources(bundle);
+        JsonNode canonical = canonicaliseNode(bundle, BUNDLE_PATH, labels);
+
+        return CanonicalBundle.fromBundle(canonical, OBJECT_MAPPER.writeValueAsString(canonical));
+    }
+
+    /*
+        resource uuid to label, numbering each resource type from 1 in the order the entries appear
+    */
+    private static Map<String, String> labelResources(JsonNode bundle) {
+        Map<String, String> labels = new HashMap<>();
+        Map<String, Integer> typeCounts = new HashMap<>();
+
+        for (JsonNode entry : bundle.path("entry")) {
+            JsonNode resource = entry.path("resource");
+            String resourceType = resource.path("resourceType").asText("Unknown");
+            String id = resource.path("id").asText(null);
+
+            int number = typeCounts.merge(resourceType, 1, Integer::sum);
+
+            if (id != null)
+                labels.put(id.toLowerCase(), resourceType + "#" + number);
+        }
+
+        return labels;
+    }
+
+    private JsonNode canonicaliseNode(JsonNode node, String path, Map<String, String> labels) {
+        if (node.isObject()) {
+            TreeMap<String, JsonNode> fields = new TreeMap<>();
+
+            Iterator<Map.Entry<String, JsonNode>> iterator = node.fields();
+            while (iterator.hasNext()) {
+                Map.Entry<String, JsonNode> field = iterator.next();
+                String fieldPath = getFieldPath(path, field.getKey(), field.getValue());
+
+                if (!ignoredPaths.contains(fieldPath))
+                    fields.put(field.getKey(), canonicaliseNode(field.getValue(), fieldPath, labels));
+            }
+
+            ObjectNode canonical = NODE_FACTORY.objectNode();
+            for (Map.Entry<String, JsonNode> field : fields.entrySet())
+                canonical.set(field.getKey(), field.getValue());
+
+            return canonical;
+        }
+
+        if (node.isArray()) {
+            String elementPath = path + "[]";
+
+            List<JsonNode> elements = new ArrayList<>();
+            for (JsonNode element : node)
+                elements.add(canonicaliseNode(element, elementPath, labels));
+
+            if (elementPath.equals(ENTRY_PATH))
+                elements.sort(Comparator.comparing(BundleCanonicaliser::getEntrySortKey));
+            else
+                elements.sort(Comparator.comparing(JsonNode::toString));
+
+            ArrayNode canonical = NODE_FACTORY.arrayNode();
+            canonical.addAll(elements);
+            return canonical;
+        }
+
+        if (node.isTextual())
+            return new TextNode(replaceUuids(node.asText(), labels));
+
+        return node;
+    }
+
+    /*
+        the resource in a bundle entry starts a new path named after its type
+    */
+    static String getFieldPath(String path, String fieldName, JsonNode value) {
+        if (path.equals(ENTRY_PATH) && fieldName.equals("resource"))
+            return value.path("resourceType").asText("Unknown");
+
+        return path + "." + fieldName;
+    }
+
+    private static String getEntrySortKey(JsonNode entry) {
+        String label = entry.path("resource").path("id").asText("");
+        int separator = label.indexOf('#');
+
+        if (separator == -1 || !label.substring(separator + 1).matches("[0-9]+"))
+            return label;
+
+        // zero padded so Patient#10 sorts after Patient#9
+        return label.substring(0, separator) + String.format("#%08d", Integer.parseInt(label.substring(separator + 1)));
+    }
+
+    private static String replaceUuids(String text, Map<String, String> labels) {
+        Matcher matcher = UUID_PATTERN.matcher(text);
+
+        if (!matcher.find())
+            return text;
+
+        StringBuffer replaced = new StringBuffer(text.length());
+
+        do {
+            String label = labels.get(matcher.group().toLowerCase());
+            matcher.appendReplacement(replaced, Matcher.quoteReplacement(label != null ? label : UNKNOWN_UUID));
+        } while (matcher.find());
+
+        matcher.appendTail(replaced);
+        return replaced.toString();
+    }
+}
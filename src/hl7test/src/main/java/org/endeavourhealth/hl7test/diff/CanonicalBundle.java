@@ -0,0 +1,68 @@
+package org.endeavourhealth.hl7test.diff;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+    the canonical form of one transform result - either a bundle or the error the transform threw
+*/
+public class CanonicalBundle {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final JsonNode bundle;
+    private final String error;
+    private final String hash;
+
+    private CanonicalBundle(JsonNode bundle, String error, String hash) {
+        this.bundle = bundle;
+        this.error = error;
+        this.hash = hash;
+    }
+
+    static CanonicalBundle fromBundle(JsonNode bundle, String canonicalText) {
+        return new CanonicalBundle(bundle, null, sha256(canonicalText));
+    }
+
+    public static CanonicalBundle fromError(Exception e) {
+        String error = e.getClass().getName() + ": " + e.getMessage();
+        return new CanonicalBundle(null, error, sha256("error:" + error));
+    }
+
+    public JsonNode getBundle() {
+        return bundle;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isError() {
+        return (error != null);
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public static String sha256(String text) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+}
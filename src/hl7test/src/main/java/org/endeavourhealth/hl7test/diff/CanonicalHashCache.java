@@ -0,0 +1,116 @@
+package org.endeavourhealth.hl7test.diff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    canonical hash of each message's transform result, per transform build
+
+    kept in a tab separated file of <build fingerprint> <message hash> <canonical hash>, read at start and appended
+    to as results are found, so a re-run with an unchanged build does not need to transform the message again
+
+    a line only counts once its newline is written and both hashes are whole SHA-256 hex digests. a last line left
+    without its newline by an interrupted run is cut off the file, so the next result is appended on a line of its own
+*/
+public class CanonicalHashCache implements Closeable {
+    private static final int HASH_LENGTH = 64;
+
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+    private final Writer writer;
+
+    public CanonicalHashCache(File file) throws IOException {
+        if (file.exists()) {
+            long completeLength = load(file);
+
+            if (completeLength < file.length()) {
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                    randomAccessFile.setLength(completeLength);
+                }
+            }
+        }
+
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    /*
+        returns the length of the file up to the end of its last complete line
+    */
+    private long load(File file) throws IOException {
+        long completeLength = 0;
+        long length = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            int b;
+            while ((b = input.read()) != -1) {
+                length++;
+
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+
+                completeLength = length;
+                String[] fields = new String(line.toByteArray(), StandardCharsets.UTF_8).split("\t", -1);
+                line.reset();
+
+                if (fields.length == 3 && isHash(fields[1]) && isHash(fields[2]))
+                    hashes.put(getKey(fields[0], fields[1]), fields[2]);
+            }
+        }
+
+        return completeLength;
+    }
+
+    public String get(String fingerprint, String messageHash) {
+        return hashes.get(getKey(fingerprint, messageHash));
+    }
+
+    public void put(String fingerprint, String messageHash, String canonicalHash) throws IOException {
+        if (canonicalHash.equals(hashes.put(getKey(fingerprint, messageHash), canonicalHash)))
+            return;
+
+        synchronized (writer) {
+            writer.write(fingerprint + "\t" + messageHash + "\t" + canonicalHash + "\n");
+        }
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+
+    private static boolean isHash(String value) {
+        if (value.length() != HASH_LENGTH)
+            return false;
+
+        for (int i = 0; i < value.length(); i++)
+            if (Character.digit(value.charAt(i), 16) == -1)
+                return false;
+
+        return true;
+    }
+
+    private static String getKey(String fingerprint, String messageHash) {
+        return fingerprint + ":" + messageHash;
+    }
+}
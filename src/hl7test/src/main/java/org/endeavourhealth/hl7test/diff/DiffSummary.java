@@ -0,0 +1,100 @@
+package org.endeavourhealth.hl7test.diff;
+
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    counts of differing messages by resource type, path and kind of difference, with the first few message ids for each
+*/
+public class DiffSummary {
+    private final int examplesPerPath;
+
+    private final LongAdder identical = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder different = new LongAdder();
+    private final LongAdder baselineErrors = new LongAdder();
+    private final LongAdder candidateErrors = new LongAdder();
+
+    private final Map<String, PathSummary> paths = new ConcurrentSkipListMap<>();
+
+    public DiffSummary(int examplesPerPath) {
+        this.examplesPerPath = examplesPerPath;
+    }
+
+    public void addSkipped() {
+        skipped.increment();
+        identical.increment();
+    }
+
+    public void addResult(String messageId, CanonicalBundle baseline, CanonicalBundle candidate, List<StructuralDiff.Difference> differences) {
+        if (baseline != null && baseline.isError())
+            baselineErrors.increment();
+
+        if (candidate != null && candidate.isError())
+            candidateErrors.increment();
+
+        if (differences.isEmpty()) {
+            identical.increment();
+            return;
+        }
+
+        different.increment();
+
+        // a message counts once per path, however many resources of the type differ there
+        Set<String> seen = new HashSet<>();
+
+        for (StructuralDiff.Difference difference : differences) {
+            String key = difference.getResourceType() + "\t" + difference.getPath() + "\t" + difference.getKind();
+
+            if (seen.add(key))
+                paths.computeIfAbsent(key, k -> new PathSummary()).add(messageId, examplesPerPath);
+        }
+    }
+
+    public long getMessageCount() {
+        return identical.sum() + different.sum();
+    }
+
+    public long getDifferentCount() {
+        return different.sum();
+    }
+
+    public void print(PrintStream output) {
+        output.println(String.format("%d messages, %d identical (%d from cache), %d different, %d baseline errors, %d candidate errors",
+                getMessageCount(), identical.sum(), skipped.sum(), different.sum(), baselineErrors.sum(), candidateErrors.sum()));
+
+        if (paths.isEmpty())
+            return;
+
+        String lastResourceType = null;
+
+        for (Map.Entry<String, PathSummary> path : paths.entrySet()) {
+            String[] key = path.getKey().split("\t");
+
+            if (!key[0].equals(lastResourceType)) {
+                output.println();
+                output.println(key[0]);
+                lastResourceType = key[0];
+            }
+
+            output.println(String.format("  %-8s %-70s %8d messages  e.g. %s",
+                    key[2], key[1], path.getValue().count.get(), String.join(", ", path.getValue().examples.keySet())));
+        }
+    }
+
+    private static class PathSummary {
+        private final AtomicLong count = new AtomicLong();
+        private final Map<String, Boolean> examples = new ConcurrentSkipListMap<>();
+
+        void add(String messageId, int maxExamples) {
+            if (count.incrementAndGet() <= maxExamples)
+                examples.put(messageId, Boolean.TRUE);
+        }
+    }
+}
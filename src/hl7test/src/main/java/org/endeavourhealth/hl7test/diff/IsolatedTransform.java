@@ -0,0 +1,158 @@
+package org.endeavourhealth.hl7test.diff;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+    one build of hl7transforms loaded in its own class loader, so two builds can run side by side in one process
+
+    the classpath is a list of jars and class directories separated by the platform path separator; an entry
+    ending in * is every jar in that directory, as with java -cp. Nothing is shared with the application class
+    loader, so the build must be given with all of its dependencies
+*/
+public class IsolatedTransform implements Closeable {
+    private static final String TRANSFORM_CLASS_NAME = "org.endeavourhealth.hl7transform.Hl7v2Transform";
+    private static final String MAPPER_CLASS_NAME = "org.endeavourhealth.hl7transform.mapper.Mapper";
+    private static final String EMPTY_MAPPER_CLASS_NAME = "org.endeavourhealth.hl7transform.mapper.EmptyMapper";
+
+    private final String name;
+    private final URLClassLoader classLoader;
+    private final Method transformMethod;
+    private final Constructor<?> emptyMapperConstructor;
+    private final String fingerprint;
+
+    public IsolatedTransform(String name, String classpath) throws Exception {
+        this.name = name;
+
+        List<File> entries = getClasspathEntries(classpath);
+
+        if (entries.isEmpty())
+            throw new IllegalArgumentException("Classpath for " + name + " is empty");
+
+        URL[] urls = new URL[entries.size()];
+        for (int i = 0; i < entries.size(); i++)
+            urls[i] = entries.get(i).toURI().toURL();
+
+        // the parent is the extension class loader, so none of hl7test's own copy of the transforms is visible
+        this.classLoader = new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+
+        Class<?> transformClass = Class.forName(TRANSFORM_CLASS_NAME, true, classLoader);
+        Class<?> mapperClass = Class.forName(MAPPER_CLASS_NAME, true, classLoader);
+
+        this.transformMethod = transformClass.getMethod("transform", String.class, mapperClass);
+        this.emptyMapperConstructor = Class.forName(EMPTY_MAPPER_CLASS_NAME, true, classLoader).getConstructor();
+        this.fingerprint = calculateFingerprint(entries);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /*
+        sha-256 of the content of every classpath entry, so a rebuild with no changes keeps its cached results
+    */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public String transform(String message) throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader previousClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+
+        try {
+            return (String) transformMethod.invoke(null, message, emptyMapperConstructor.newInstance());
+        }
+        catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+
+            throw e;
+        }
+        finally {
+            thread.setContextClassLoader(previousClassLoader);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        classLoader.close();
+    }
+
+    private static List<File> getClasspathEntries(String classpath) throws IOException {
+        List<File> entries = new ArrayList<>();
+
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (entry.trim().isEmpty())
+                continue;
+
+            if (entry.endsWith("*")) {
+                File directory = new File(entry.substring(0, entry.length() - 1));
+                File[] jars = directory.listFiles((dir, fileName) -> fileName.toLowerCase().endsWith(".jar"));
+
+                if (jars == null)
+                    throw new IOException("Could not list " + directory);
+
+                Arrays.sort(jars);
+                for (File jar : jars)
+                    entries.add(jar);
+            }
+            else {
+                File file = new File(entry);
+
+                if (!file.exists())
+                    throw new IOException("Classpath entry " + entry + " not found");
+
+                entries.add(file);
+            }
+        }
+
+        return entries;
+    }
+
+    private static String calculateFingerprint(List<File> entries) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[1 << 16];
+
+        for (File entry : entries) {
+            List<Path> files;
+
+            if (entry.isDirectory()) {
+                try (Stream<Path> walk = Files.walk(entry.toPath())) {
+                    files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+            }
+            else {
+                files = new ArrayList<>();
+                files.add(entry.toPath());
+            }
+
+            for (Path file : files) {
+                digest.update(entry.toPath().relativize(file).toString().getBytes("UTF-8"));
+
+                try (InputStream input = Files.newInputStream(file)) {
+                    int read;
+                    while ((read = input.read(buffer)) != -1)
+                        digest.update(buffer, 0, read);
+                }
+            }
+        }
+
+        return CanonicalBundle.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,172 @@
+package org.endeavourhealth.hl7test.diff;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+    compares two canonical bundles resource by resource, matching resources on their canonical label
+
+    each resource is flattened to path -> values, with array positions dropped, so a path is reported once however
+    many repeats it has. A path is ADDED or REMOVED when it only has values on one side, and CHANGED when the values differ
+*/
+public class StructuralDiff {
+
+    public enum Kind {
+        ADDED,
+        REMOVED,
+        CHANGED
+    }
+
+    public static class Difference {
+        private final String resourceType;
+        private final String path;
+        private final Kind kind;
+
+        Difference(String resourceType, String path, Kind kind) {
+            this.resourceType = resourceType;
+            this.path = path;
+            this.kind = kind;
+        }
+
+        public String getResourceType() {
+            return resourceType;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+    }
+
+    public static final String RESOURCE_PATH = "(resource)";
+    public static final String ERROR_RESOURCE_TYPE = "(transform)";
+    public static final String ERROR_PATH = "(error)";
+
+    public static List<Difference> compare(CanonicalBundle baseline, CanonicalBundle candidate) {
+        List<Difference> differences = new ArrayList<>();
+
+        if (baseline.getHash().equals(candidate.getHash()))
+            return differences;
+
+        if (baseline.isError() || candidate.isError()) {
+            if (!baseline.isError())
+                differences.add(new Difference(ERROR_RESOURCE_TYPE, ERROR_PATH, Kind.ADDED));
+            else if (!candidate.isError())
+                differences.add(new Difference(ERROR_RESOURCE_TYPE, ERROR_PATH, Kind.REMOVED));
+            else
+                differences.add(new Difference(ERROR_RESOURCE_TYPE, ERROR_PATH, Kind.CHANGED));
+
+            return differences;
+        }
+
+        Map<String, JsonNode> baselineResources = getResources(baseline.getBundle());
+        Map<String, JsonNode> candidateResources = getResources(candidate.getBundle());
+
+        TreeSet<String> labels = new TreeSet<>(baselineResources.keySet());
+        labels.addAll(candidateResources.keySet());
+
+        for (String label : labels) {
+            JsonNode baselineResource = baselineResources.get(label);
+            JsonNode candidateResource = candidateResources.get(label);
+            String resourceType = getResourceType(label, baselineResource != null ? baselineResource : candidateResource);
+
+            if (baselineResource == null)
+                differences.add(new Difference(resourceType, RESOURCE_PATH, Kind.ADDED));
+            else if (candidateResource == null)
+                differences.add(new Difference(resourceType, RESOURCE_PATH, Kind.REMOVED));
+            else
+                comparePaths(resourceType, flatten(baselineResource, resourceType), flatten(candidateResource, resourceType), differences);
+        }
+
+        return differences;
+    }
+
+    /*
+        the bundle's own fields are compared as a resource labelled Bundle
+    */
+    private static Map<String, JsonNode> getResources(JsonNode bundle) {
+        Map<String, JsonNode> resources = new LinkedHashMap<>();
+
+        if (bundle.isObject()) {
+            ObjectNode bundleFields = ((ObjectNode) bundle).deepCopy();
+            bundleFields.remove("entry");
+            resources.put("Bundle", bundleFields);
+        }
+
+        int unlabelled = 0;
+        for (JsonNode entry : bundle.path("entry")) {
+            JsonNode resource = entry.path("resource");
+            String label = resource.path("id").asText("");
+
+            if (label.isEmpty() || resources.containsKey(label))
+                label = resource.path("resourceType").asText("Unknown") + "#unlabelled" + (++unlabelled);
+
+            resources.put(label, resource);
+        }
+
+        return resources;
+    }
+
+    private static String getResourceType(String label, JsonNode resource) {
+        if (label.equals("Bundle"))
+            return "Bundle";
+
+        return resource.path("resourceType").asText("Unknown");
+    }
+
+    private static Map<String, List<String>> flatten(JsonNode resource, String resourceType) {
+        Map<String, List<String>> values = new TreeMap<>();
+        flatten(resource, resourceType, values);
+
+        for (List<String> pathValues : values.values())
+            Collections.sort(pathValues);
+
+        return values;
+    }
+
+    private static void flatten(JsonNode node, String path, Map<String, List<String>> values) {
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> iterator = node.fields();
+            while (iterator.hasNext()) {
+                Map.Entry<String, JsonNode> field = iterator.next();
+                flatten(field.getValue(), path + "." + field.getKey(), values);
+            }
+        }
+        else if (node.isArray()) {
+            for (JsonNode element : node)
+                flatten(element, path + "[]", values);
+        }
+        else {
+            values.computeIfAbsent(path, k -> new ArrayList<>()).add(node.asText());
+        }
+    }
+
+    private static void comparePaths(String resourceType, Map<String, List<String>> baseline, Map<String, List<String>> candidate, List<Difference> differences) {
+        TreeSet<String> paths = new TreeSet<>(baseline.keySet());
+        paths.addAll(candidate.keySet());
+
+        for (String path : paths) {
+            List<String> baselineValues = baseline.get(path);
+            List<String> candidateValues = candidate.get(path);
+
+            if (baselineValues == null)
+                differences.add(new Difference(resourceType, path, Kind.ADDED));
+            else if (candidateValues == null)
+                differences.add(new Difference(resourceType, path, Kind.REMOVED));
+            else if (!baselineValues.equals(candidateValues))
+                differences.add(new Difference(resourceType, path, Kind.CHANGED));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.endeavourhealth.hl7test.diff;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/*
+    runs every message in a corpus through a baseline and a candidate transform build and summarises where the
+    canonical bundles differ
+
+    per message, the canonical hash of each build's result is taken from the cache where the build is unchanged;
+    when both are cached and equal neither build is run. Otherwise only the builds needed to get both hashes, and
+    then both bundles if the hashes differ, are run
+
+    the corpus is a file of messages with segments separated by CR, LF or CRLF, each message starting at an MSH
+    segment - as written by CorpusWriter or exported from log.message
+*/
+public class TransformDiffer {
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    private IsolatedTransform baseline;
+    private IsolatedTransform candidate;
+    private BundleCanonicaliser canonicaliser;
+    private CanonicalHashCache cache;
+    private DiffSummary summary;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong baselineRuns = new AtomicLong();
+    private final AtomicLong candidateRuns = new AtomicLong();
+
+    public TransformDiffer setBaseline(IsolatedTransform baseline) {
+        this.baseline = baseline;
+        return this;
+    }
+
+    public TransformDiffer setCandidate(IsolatedTransform candidate) {
+        this.candidate = candidate;
+        return this;
+    }
+
+    public TransformDiffer setCanonicaliser(BundleCanonicaliser canonicaliser) {
+        this.canonicaliser = canonicaliser;
+        return this;
+    }
+
+    public TransformDiffer setCache(CanonicalHashCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public TransformDiffer setSummary(DiffSummary summary) {
+        this.summary = summary;
+        return this;
+    }
+
+    public TransformDiffer setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public long getBaselineRuns() {
+        return baselineRuns.get();
+    }
+
+    public long getCandidateRuns() {
+        return candidateRuns.get();
+    }
+
+    public DiffSummary compare(File corpus) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(threads * 4);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        long msStart = System.currentTimeMillis();
+
+        try (CorpusReader reader = new CorpusReader(corpus)) {
+            String message;
+            long ordinal = 0;
+
+            while ((message = reader.readMessage()) != null && failure.get() == null) {
+                String messageText = message;
+                String messageId = getMessageId(messageText, ++ordinal);
+
+                inFlight.acquire();
+                executor.submit(() -> {
+                    try {
+                        compareMessage(messageId, messageText);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+
+                    long count = processed.incrementAndGet();
+                    if (count % PROGRESS_INTERVAL == 0)
+                        System.out.println(String.format("%d messages compared (%.1f per second), %d different",
+                                count, count * 1000.0 / Math.max(System.currentTimeMillis() - msStart, 1), summary.getDifferentCount()));
+                });
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        // transform errors are results, this is only for failures of the cache or canonicaliser
+        if (failure.get() != null)
+            throw failure.get();
+
+        return summary;
+    }
+
+    private void compareMessage(String messageId, String message) throws Exception {
+        String messageHash = CanonicalBundle.sha256(message);
+
+        String baselineHash = cache.get(baseline.getFingerprint(), messageHash);
+        String candidateHash = cache.get(candidate.getFingerprint(), messageHash);
+
+        if (baselineHash != null && baselineHash.equals(candidateHash)) {
+            summary.addSkipped();
+            return;
+        }
+
+        CanonicalBundle candidateResult = null;
+
+        if (candidateHash == null) {
+            candidateResult = run(candidate, candidateRuns, message, messageHash);
+
+            if (candidateResult.getHash().equals(baselineHash)) {
+                summary.addResult(messageId, candidateResult, candidateResult, new ArrayList<>());
+                return;
+            }
+        }
+
+        CanonicalBundle baselineResult = run(baseline, baselineRuns, message, messageHash);
+
+        if (candidateResult == null)
+            candidateResult = run(candidate, candidateRuns, message, messageHash);
+
+        summary.addResult(messageId, baselineResult, candidateResult, StructuralDiff.compare(baselineResult, candidateResult));
+    }
+
+    private CanonicalBundle run(IsolatedTransform transform, AtomicLong runs, String message, String messageHash) throws IOException {
+        runs.incrementAndGet();
+
+        CanonicalBundle result;
+
+        try {
+            result = canonicaliser.canonicalise(transform.transform(message));
+        } catch (Exception e) {
+            result = CanonicalBundle.fromError(e);
+        }
+
+        cache.put(transform.getFingerprint(), messageHash, result.getHash());
+        return result;
+    }
+
+    private static String getMessageId(String message, long ordinal) {
+        int segmentEnd = message.indexOf('\r');
+        String msh = (segmentEnd == -1 ? message : message.substring(0, segmentEnd));
+
+        if (msh.length() > 3) {
+            String[] fields = msh.split(Pattern.quote(Character.toString(msh.charAt(3))), -1);
+
+            if (fields.length > 9 && !fields[9].isEmpty())
+                return fields[9];
+        }
+
+        return "#" + ordinal;
+    }
+
+    /*
+        messages from the corpus file, a message running from one MSH segment to the next
+    */
+    private static class CorpusReader implements Closeable {
+        private final BufferedReader reader;
+        private String nextLine;
+
+        CorpusReader(File file) throws IOException {
+            this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.ISO_8859_1), 1 << 16);
+            this.nextLine = reader.readLine();
+        }
+
+        String readMessage() throws IOException {
+            StringBuilder message = new StringBuilder();
+
+            for (; nextLine != null; nextLine = reader.readLine()) {
+                String line = nextLine.replace("\u000b", "").replace("\u001c", "");
+
+                if (line.startsWith("MSH") && message.length() > 0)
+                    break;
+
+                if (!line.trim().isEmpty() && (message.length() > 0 || line.startsWith("MSH")))
+                    message.append(line).append('\r');
+            }
+
+            return (message.length() > 0 ? message.toString() : null);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
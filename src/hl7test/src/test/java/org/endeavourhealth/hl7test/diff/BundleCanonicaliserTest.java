@@ -0,0 +1,86 @@
+package org.endeavourhealth.hl7test.diff;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class BundleCanonicaliserTest extends TestCase {
+
+    private static final String FIRST_RUN = "{\"resourceType\":\"Bundle\",\"meta\":{\"lastUpdated\":\"2026-10-19T14:30:05Z\"},\"entry\":["
+            + "{\"fullUrl\":\"urn:uuid:11111111-1111-4111-8111-111111111111\",\"resource\":{\"resourceType\":\"Patient\",\"id\":\"11111111-1111-4111-8111-111111111111\","
+            + "\"name\":[{\"family\":[\"SMITH\"]},{\"family\":[\"JONES\"]}],\"managingOrganization\":{\"reference\":\"Organization/22222222-2222-4222-8222-222222222222\"}}},"
+            + "{\"resource\":{\"resourceType\":\"Organization\",\"id\":\"22222222-2222-4222-8222-222222222222\",\"name\":\"Homerton\"}}]}";
+
+    private static final String SECOND_RUN = "{\"resourceType\":\"Bundle\",\"meta\":{\"lastUpdated\":\"2026-10-19T14:31:00Z\"},\"entry\":["
+            + "{\"resource\":{\"name\":\"Homerton\",\"resourceType\":\"Organization\",\"id\":\"BBBBBBBB-2222-4222-8222-222222222222\"}},"
+            + "{\"fullUrl\":\"urn:uuid:aaaaaaaa-1111-4111-8111-111111111111\",\"resource\":{\"resourceType\":\"Patient\",\"id\":\"aaaaaaaa-1111-4111-8111-111111111111\","
+            + "\"managingOrganization\":{\"reference\":\"Organization/bbbbbbbb-2222-4222-8222-222222222222\"},\"name\":[{\"family\":[\"JONES\"]},{\"family\":[\"SMITH\"]}]}}]}";
+
+    public void testRunsDifferingOnlyInUuidsAndOrderAreEqual() throws Exception {
+        BundleCanonicaliser canonicaliser = new BundleCanonicaliser(Collections.singleton("Bundle.meta.lastUpdated"));
+
+        CanonicalBundle first = canonicaliser.canonicalise(FIRST_RUN);
+        CanonicalBundle second = canonicaliser.canonicalise(SECOND_RUN);
+
+        assertFalse(first.isError());
+        assertEquals(first.getHash(), second.getHash());
+    }
+
+    public void testUuidsAreReplacedByLabels() throws Exception {
+        JsonNode bundle = new BundleCanonicaliser(Collections.emptySet()).canonicalise(FIRST_RUN).getBundle();
+        JsonNode patientEntry = bundle.path("entry").path(1);
+
+        assertEquals("Organization#1", bundle.path("entry").path(0).path("resource").path("id").asText());
+        assertEquals("Patient#1", patientEntry.path("resource").path("id").asText());
+        assertEquals("urn:uuid:Patient#1", patientEntry.path("fullUrl").asText());
+        assertEquals("Organization/Organization#1", patientEntry.path("resource").path("managingOrganization").path("reference").asText());
+    }
+
+    public void testEntriesAreOrderedByTypeThenNumber() throws Exception {
+        StringBuilder bundleJson = new StringBuilder("{\"resourceType\":\"Bundle\",\"entry\":[");
+
+        for (int i = 1; i <= 10; i++)
+            bundleJson.append("{\"resource\":{\"resourceType\":\"Patient\",\"id\":\"00000000-0000-4000-8000-0000000000").append(String.format("%02d", i)).append("\"}},");
+
+        bundleJson.append("{\"resource\":{\"resourceType\":\"Encounter\",\"id\":\"00000000-0000-4000-8000-000000000099\"}}]}");
+
+        JsonNode entries = new BundleCanonicaliser(Collections.emptySet()).canonicalise(bundleJson.toString()).getBundle().path("entry");
+
+        assertEquals("Encounter#1", entries.path(0).path("resource").path("id").asText());
+        assertEquals("Patient#9", entries.path(9).path("resource").path("id").asText());
+        assertEquals("Patient#10", entries.path(10).path("resource").path("id").asText());
+    }
+
+    public void testUnknownUuidIsReplaced() throws Exception {
+        String bundleJson = "{\"resourceType\":\"Bundle\",\"entry\":[{\"resource\":{\"resourceType\":\"Encounter\","
+                + "\"subject\":{\"reference\":\"Patient/33333333-3333-4333-8333-333333333333\"}}}]}";
+
+        JsonNode bundle = new BundleCanonicaliser(Collections.emptySet()).canonicalise(bundleJson).getBundle();
+
+        assertEquals("Patient/#uuid", bundle.path("entry").path(0).path("resource").path("subject").path("reference").asText());
+    }
+
+    public void testIgnoredPathsAreRemovedAndOtherDifferencesKept() throws Exception {
+        BundleCanonicaliser canonicaliser = new BundleCanonicaliser(new HashSet<>(Arrays.asList("Bundle.meta.lastUpdated", "Organization.name")));
+
+        CanonicalBundle first = canonicaliser.canonicalise(FIRST_RUN);
+        CanonicalBundle renamed = canonicaliser.canonicalise(FIRST_RUN.replace("Homerton", "Barts"));
+        CanonicalBundle changed = canonicaliser.canonicalise(FIRST_RUN.replace("SMITH", "SMYTH"));
+
+        assertTrue(first.getBundle().path("meta").path("lastUpdated").isMissingNode());
+        assertEquals(first.getHash(), renamed.getHash());
+        assertFalse(first.getHash().equals(changed.getHash()));
+    }
+
+    public void testResourceInEntryStartsNewPath() throws Exception {
+        JsonNode resource = new ObjectMapper().readTree("{\"resourceType\":\"Patient\"}");
+
+        assertEquals("Patient", BundleCanonicaliser.getFieldPath("Bundle.entry[]", "resource", resource));
+        assertEquals("Bundle.entry[].fullUrl", BundleCanonicaliser.getFieldPath("Bundle.entry[]", "fullUrl", resource));
+        assertEquals("Patient.name[].family", BundleCanonicaliser.getFieldPath("Patient.name[]", "family", resource));
+    }
+}
@@ -0,0 +1,73 @@
+package org.endeavourhealth.hl7test.diff;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class CanonicalHashCacheTest extends TestCase {
+
+    private static final String MESSAGE_HASH = CanonicalBundle.sha256("MSH|1");
+    private static final String OTHER_MESSAGE_HASH = CanonicalBundle.sha256("MSH|2");
+    private static final String CANONICAL_HASH = CanonicalBundle.sha256("Bundle");
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("CanonicalHashCacheTest", ".tsv");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testHashesAreReadBack() throws Exception {
+        try (CanonicalHashCache cache = new CanonicalHashCache(file)) {
+            cache.put("build1", MESSAGE_HASH, CANONICAL_HASH);
+        }
+
+        try (CanonicalHashCache cache = new CanonicalHashCache(file)) {
+            assertEquals(1, cache.size());
+            assertEquals(CANONICAL_HASH, cache.get("build1", MESSAGE_HASH));
+            assertNull(cache.get("build2", MESSAGE_HASH));
+        }
+    }
+
+    public void testLineWithoutNewlineIsIgnoredAndCutOff() throws Exception {
+        append("build1\t" + MESSAGE_HASH + "\t" + CANONICAL_HASH + "\n");
+        long completeLength = file.length();
+        append("build1\t" + OTHER_MESSAGE_HASH + "\t" + CANONICAL_HASH.substring(0, 20));
+
+        try (CanonicalHashCache cache = new CanonicalHashCache(file)) {
+            assertEquals(completeLength, file.length());
+            assertEquals(1, cache.size());
+            assertNull(cache.get("build1", OTHER_MESSAGE_HASH));
+
+            cache.put("build1", OTHER_MESSAGE_HASH, CANONICAL_HASH);
+        }
+
+        try (CanonicalHashCache cache = new CanonicalHashCache(file)) {
+            assertEquals(2, cache.size());
+            assertEquals(CANONICAL_HASH, cache.get("build1", OTHER_MESSAGE_HASH));
+        }
+    }
+
+    public void testLineWithShortHashIsIgnored() throws Exception {
+        append("build1\t" + MESSAGE_HASH + "\t" + CANONICAL_HASH.substring(0, 20) + "\n");
+        append("build1\t" + OTHER_MESSAGE_HASH.substring(0, 63) + "\t" + CANONICAL_HASH + "\n");
+
+        try (CanonicalHashCache cache = new CanonicalHashCache(file)) {
+            assertEquals(0, cache.size());
+        }
+    }
+
+    private void append(String text) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            output.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
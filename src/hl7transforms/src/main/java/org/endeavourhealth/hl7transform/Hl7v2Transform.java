@@ -26,6 +26,7 @@ public class Hl7v2Transform {
     });
 
     public static String transform(String message, Mapper mapper) throws Exception {
+        long start = System.nanoTime();
 
         /////
         ///// get the sending facility and get the transform profile
@@ -37,16 +38,36 @@ public class Hl7v2Transform {
         /////
         AdtMessage adtMessage = new AdtMessage(message, transform.getZSegments());
 
+        start = recordStageTime(mapper, "parse", start);
+
         /////
         ///// perform any pre transform activities
         /////
         adtMessage = transform.preTransform(adtMessage);
 
+        start = recordStageTime(mapper, "pre-transform", start);
+
         /////
         ///// perform the actual transform and output as JSON
         /////
         Bundle bundle = transform.transform(adtMessage, mapper);
-        return JsonHelper.getPrettyJson(bundle);
+
+        start = recordStageTime(mapper, "transform", start);
+
+        String json = JsonHelper.getPrettyJson(bundle);
+
+        recordStageTime(mapper, "serialise", start);
+
+        return json;
+    }
+
+    /*
+        returns the time now, as the start of the next stage
+    */
+    private static long recordStageTime(Mapper mapper, String stageName, long start) {
+        long end = System.nanoTime();
+        mapper.recordTransformStageTime(stageName, end - start);
+        return end;
     }
 
     public static String preTransformOnly(String message) throws Exception {
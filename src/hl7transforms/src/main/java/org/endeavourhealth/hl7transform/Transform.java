@@ -18,6 +18,24 @@ public abstract class Transform {
     public abstract AdtMessage preTransform(AdtMessage sourceMessage) throws Exception;
     public abstract Bundle transform(AdtMessage sourceMessage, Mapper mapper) throws Exception;
 
+    @FunctionalInterface
+    protected interface TransformStage<T> {
+        T transform() throws Exception;
+    }
+
+    /*
+        runs one stage of the transform, passing its elapsed time to the mapper
+    */
+    protected static <T> T timeStage(Mapper mapper, String stageName, TransformStage<T> stage) throws Exception {
+        long start = System.nanoTime();
+
+        try {
+            return stage.transform();
+        } finally {
+            mapper.recordTransformStageTime(stageName, System.nanoTime() - start);
+        }
+    }
+
     public boolean supportsSendingFacility(String sendingFacility) throws TransformException {
         Validate.notEmpty(sendingFacility);
 
@@ -41,4 +41,10 @@ public abstract class Mapper {
     }
 
     public OrganisationMapper getOrganisationMapper() { return this.organisationMapper; }
+
+    /*
+        called with the time taken by each stage of a transform, e.g. parse, Patient, Encounter - the default ignores it
+    */
+    public void recordTransformStageTime(String stageName, long elapsedNanos) {
+    }
 }
\ No newline at end of file
@@ -131,11 +131,10 @@ public class ResourceMapper {
     public UUID mapPatientUuid(String patientIdentifierTypeCode, String patientIdentifierAssigningAuthority, String patientIdentifierValue) throws MapperException {
 
         String identifier =
-                    getPatientMap(
-                            patientIdentifierTypeCode,
-                            patientIdentifierAssigningAuthority,
-                            patientIdentifierValue)
-                            .createIdentifyingString();
+                createPatientIdentifier(
+                        patientIdentifierTypeCode,
+                        patientIdentifierAssigningAuthority,
+                        patientIdentifierValue);
 
         return this.mapper.mapScopedResourceUuid(ResourceType.Patient, identifier);
     }
@@ -148,14 +147,13 @@ public class ResourceMapper {
                                String episodeIdentifierValue) throws MapperException {
 
         String identifier =
-                getEpisodeMap(
+                createEpisodeIdentifier(
                         patientIdentifierTypeCode,
                         patientIdentifierAssigningAuthority,
                         patientIdentifierValue,
                         episodeIdentifierTypeCode,
                         episodeIdentifierAssigningAuthority,
-                        episodeIdentifierValue)
-                        .createIdentifyingString();
+                        episodeIdentifierValue);
 
         return this.mapper.mapScopedResourceUuid(ResourceType.EpisodeOfCare, identifier);
     }
@@ -167,15 +165,14 @@ public class ResourceMapper {
                                  String episodeIdentifierAssigningAuthority,
                                  String episodeIdentifierValue) throws MapperException {
 
-        String identifier = ResourceMapParameters.create()
-                .putExisting(getEpisodeMap(
+        String identifier =
+                createEncounterIdentifier(
                         patientIdentifierTypeCode,
                         patientIdentifierAssigningAuthority,
                         patientIdentifierValue,
                         episodeIdentifierTypeCode,
                         episodeIdentifierAssigningAuthority,
-                        episodeIdentifierValue))
-                .createIdentifyingString();
+                        episodeIdentifierValue);
 
         return this.mapper.mapScopedResourceUuid(ResourceType.Encounter, identifier);
     }
@@ -320,6 +317,81 @@ public class ResourceMapper {
         return this.mapper.mapScopedResourceUuid(ResourceType.Practitioner, identifier);
     }
 
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Identifiers - used by the mappings above and by tools that look up resource UUIDs directly
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    public static String createPatientIdentifier(String patientIdentifierTypeCode,
+                                                 String patientIdentifierAssigningAuthority,
+                                                 String patientIdentifierValue) {
+
+        return getPatientMap(
+                patientIdentifierTypeCode,
+                patientIdentifierAssigningAuthority,
+                patientIdentifierValue)
+                .createIdentifyingString();
+    }
+
+    public static String createEpisodeIdentifier(String patientIdentifierTypeCode,
+                                                 String patientIdentifierAssigningAuthority,
+                                                 String patientIdentifierValue,
+                                                 String episodeIdentifierTypeCode,
+                                                 String episodeIdentifierAssigningAuthority,
+                                                 String episodeIdentifierValue) {
+
+        return getEpisodeMap(
+                patientIdentifierTypeCode,
+                patientIdentifierAssigningAuthority,
+                patientIdentifierValue,
+                episodeIdentifierTypeCode,
+                episodeIdentifierAssigningAuthority,
+                episodeIdentifierValue)
+                .createIdentifyingString();
+    }
+
+    public static String createEncounterIdentifier(String patientIdentifierTypeCode,
+                                                   String patientIdentifierAssigningAuthority,
+                                                   String patientIdentifierValue,
+                                                   String episodeIdentifierTypeCode,
+                                                   String episodeIdentifierAssigningAuthority,
+                                                   String episodeIdentifierValue) {
+
+        return ResourceMapParameters.create()
+                .putExisting(getEpisodeMap(
+                        patientIdentifierTypeCode,
+                        patientIdentifierAssigningAuthority,
+                        patientIdentifierValue,
+                        episodeIdentifierTypeCode,
+                        episodeIdentifierAssigningAuthority,
+                        episodeIdentifierValue))
+                .createIdentifyingString();
+    }
+
+    /*
+        encounters were originally mapped with the event date time as part of the identifier, these are still
+        present in the resource UUID mappings
+    */
+    public static String createEncounterIdentifierWithDateTime(String patientIdentifierTypeCode,
+                                                               String patientIdentifierAssigningAuthority,
+                                                               String patientIdentifierValue,
+                                                               String episodeIdentifierTypeCode,
+                                                               String episodeIdentifierAssigningAuthority,
+                                                               String episodeIdentifierValue,
+                                                               LocalDateTime encounterDateTime) {
+
+        Validate.notNull(encounterDateTime, "encounterDateTime");
+
+        return ResourceMapParameters.create()
+                .putExisting(getEpisodeMap(
+                        patientIdentifierTypeCode,
+                        patientIdentifierAssigningAuthority,
+                        patientIdentifierValue,
+                        episodeIdentifierTypeCode,
+                        episodeIdentifierAssigningAuthority,
+                        episodeIdentifierValue))
+                .put(EncounterDateTimeKey, encounterDateTime.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                .createIdentifyingString();
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Helpers
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////
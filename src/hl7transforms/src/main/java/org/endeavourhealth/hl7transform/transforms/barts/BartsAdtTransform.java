@@ -53,13 +53,13 @@ public class BartsAdtTransform extends Transform {
         // create main hospital organisation
         //
         BartsOrganizationTransform bartsOrganizationTransform = new BartsOrganizationTransform(mapper, targetResources);
-        Organization mainHospitalOrganisation = bartsOrganizationTransform.createBartsManagingOrganisation(sourceMessage);
+        Organization mainHospitalOrganisation = timeStage(mapper, "MainHospitalOrganisation", () -> bartsOrganizationTransform.createBartsManagingOrganisation(sourceMessage));
         targetResources.addResource(mainHospitalOrganisation, ResourceTag.MainHospitalOrganisation);
 
         ///////////////////////////////////////////////////////////////////////////
         // create usual gp organisation
         //
-        Organization mainGPOrganisation = bartsOrganizationTransform.createMainPrimaryCareProviderOrganisation(sourceMessage);
+        Organization mainGPOrganisation = timeStage(mapper, "PrimaryCareOrganisation", () -> bartsOrganizationTransform.createMainPrimaryCareProviderOrganisation(sourceMessage));
 
         if (mainGPOrganisation != null)
             targetResources.addResource(mainGPOrganisation, ResourceTag.MainPrimaryCareProviderOrganisation);
@@ -68,7 +68,7 @@ public class BartsAdtTransform extends Transform {
         // create usual gp practitioner
         //
         BartsPractitionerTransform bartsPractitionerTransform = new BartsPractitionerTransform(mapper, targetResources);
-        Practitioner mainGPPractitioner = bartsPractitionerTransform.createMainPrimaryCareProviderPractitioner(sourceMessage);
+        Practitioner mainGPPractitioner = timeStage(mapper, "PrimaryCarePractitioner", () -> bartsPractitionerTransform.createMainPrimaryCareProviderPractitioner(sourceMessage));
 
         if (mainGPPractitioner != null)
             targetResources.addResource(mainGPPractitioner, ResourceTag.MainPrimaryCareProviderPractitioner);
@@ -77,7 +77,7 @@ public class BartsAdtTransform extends Transform {
         // create patient
         //
         BartsPatientTransform bartsPatientTransform = new BartsPatientTransform(mapper, targetResources);
-        Patient patient = bartsPatientTransform.transform(sourceMessage);
+        Patient patient = timeStage(mapper, "Patient", () -> bartsPatientTransform.transform(sourceMessage));
         targetResources.addResource(patient, ResourceTag.PatientSubject);
 
         ///////////////////////////////////////////////////////////////////////////
@@ -86,7 +86,7 @@ public class BartsAdtTransform extends Transform {
         // and any associated organisations (/services), practitioners, locations
         //
         BartsEpisodeOfCareTransform bartsEpisodeOfCareTransform = new BartsEpisodeOfCareTransform(mapper, targetResources);
-        EpisodeOfCare episodeOfCare = bartsEpisodeOfCareTransform.transform(sourceMessage);
+        EpisodeOfCare episodeOfCare = timeStage(mapper, "EpisodeOfCare", () -> bartsEpisodeOfCareTransform.transform(sourceMessage));
 
         if (episodeOfCare != null)
             targetResources.addResource(episodeOfCare);
@@ -95,7 +95,7 @@ public class BartsAdtTransform extends Transform {
         // create encounter
         //
         BartsEncounterTransform bartsEncounterTransform = new BartsEncounterTransform(mapper, targetResources);
-        Encounter encounter = bartsEncounterTransform.transform(sourceMessage);
+        Encounter encounter = timeStage(mapper, "Encounter", () -> bartsEncounterTransform.transform(sourceMessage));
 
         if (encounter != null)
             targetResources.addResource(encounter);
@@ -104,7 +104,7 @@ public class BartsAdtTransform extends Transform {
         // create merge information
         //
         BartsMergeTransform bartsMergeTransform = new BartsMergeTransform(mapper, targetResources);
-        Parameters parameters = bartsMergeTransform.transform(sourceMessage);
+        Parameters parameters = timeStage(mapper, "Merge", () -> bartsMergeTransform.transform(sourceMessage));
 
         if (parameters != null)
             targetResources.addResource(parameters);
@@ -113,15 +113,15 @@ public class BartsAdtTransform extends Transform {
         // create message header
         //
         BartsMessageHeaderTransform bartsMessageHeaderTransform = new BartsMessageHeaderTransform(mapper, targetResources);
-        MessageHeader messageHeader = bartsMessageHeaderTransform.transform(sourceMessage);
+        MessageHeader messageHeader = timeStage(mapper, "MessageHeader", () -> bartsMessageHeaderTransform.transform(sourceMessage));
         targetResources.addResource(messageHeader);
 
         ///////////////////////////////////////////////////////////////////////////
         // create bundle
         //
-        return targetResources
+        return timeStage(mapper, "Bundle", () -> targetResources
                 .orderByResourceType()
-                .createBundle();
+                .createBundle());
     }
 
     private void validateSendingFacility(AdtMessage sourceMessage) throws TransformException {
@@ -60,20 +60,20 @@ public class HomertonAdtTransform extends Transform {
         // create main hospital organisation
         //
         HomertonOrganizationTransform homertonOrganizationTransform = new HomertonOrganizationTransform(mapper, targetResources);
-        Organization mainHospitalOrganisation = homertonOrganizationTransform.createHomertonManagingOrganisation(sourceMessage);
+        Organization mainHospitalOrganisation = timeStage(mapper, "MainHospitalOrganisation", () -> homertonOrganizationTransform.createHomertonManagingOrganisation(sourceMessage));
         targetResources.addResource(mainHospitalOrganisation, ResourceTag.MainHospitalOrganisation);
 
         ///////////////////////////////////////////////////////////////////////////
         // create main hospital location
         //
         HomertonLocationTransform homertonLocationTransform = new HomertonLocationTransform(mapper, targetResources);
-        Location location = homertonLocationTransform.createHomertonHospitalLocation();
+        Location location = timeStage(mapper, "MainHospitalLocation", () -> homertonLocationTransform.createHomertonHospitalLocation());
         targetResources.addResource(location, ResourceTag.MainHospitalLocation);
 
         ///////////////////////////////////////////////////////////////////////////
         // create usual gp organisation
         //
-        Organization mainGPOrganisation = homertonOrganizationTransform.createMainPrimaryCareProviderOrganisation(sourceMessage);
+        Organization mainGPOrganisation = timeStage(mapper, "PrimaryCareOrganisation", () -> homertonOrganizationTransform.createMainPrimaryCareProviderOrganisation(sourceMessage));
 
         if (mainGPOrganisation != null)
             targetResources.addResource(mainGPOrganisation, ResourceTag.MainPrimaryCareProviderOrganisation);
@@ -82,7 +82,7 @@ public class HomertonAdtTransform extends Transform {
         // create usual gp practitioner
         //
         HomertonPractitionerTransform homertonPractitionerTransform = new HomertonPractitionerTransform(mapper, targetResources);
-        Practitioner mainGPPractitioner = homertonPractitionerTransform.createMainPrimaryCareProviderPractitioner(sourceMessage);
+        Practitioner mainGPPractitioner = timeStage(mapper, "PrimaryCarePractitioner", () -> homertonPractitionerTransform.createMainPrimaryCareProviderPractitioner(sourceMessage));
 
         if (mainGPPractitioner != null)
             targetResources.addResource(mainGPPractitioner, ResourceTag.MainPrimaryCareProviderPractitioner);
@@ -91,7 +91,7 @@ public class HomertonAdtTransform extends Transform {
         // create patient
         //
         HomertonPatientTransform homertonPatientTransform = new HomertonPatientTransform(mapper, targetResources);
-        Patient patient = homertonPatientTransform.transform(sourceMessage);
+        Patient patient = timeStage(mapper, "Patient", () -> homertonPatientTransform.transform(sourceMessage));
         targetResources.addResource(patient, ResourceTag.PatientSubject);
 
         ///////////////////////////////////////////////////////////////////////////
@@ -100,7 +100,7 @@ public class HomertonAdtTransform extends Transform {
         // and any associated organisations (/services), practitioners, locations
         //
         HomertonEpisodeOfCareTransform homertonEpisodeOfCareTransform = new HomertonEpisodeOfCareTransform(mapper, targetResources);
-        EpisodeOfCare episodeOfCare = homertonEpisodeOfCareTransform.transform(sourceMessage);
+        EpisodeOfCare episodeOfCare = timeStage(mapper, "EpisodeOfCare", () -> homertonEpisodeOfCareTransform.transform(sourceMessage));
 
         if (episodeOfCare != null)
             targetResources.addResource(episodeOfCare);
@@ -109,7 +109,7 @@ public class HomertonAdtTransform extends Transform {
         // create encounter
         //
         HomertonEncounterTransform homertonEncounterTransform = new HomertonEncounterTransform(mapper, targetResources);
-        Encounter encounter = homertonEncounterTransform.transform(sourceMessage);
+        Encounter encounter = timeStage(mapper, "Encounter", () -> homertonEncounterTransform.transform(sourceMessage));
 
         if (encounter != null)
             targetResources.addResource(encounter);
@@ -118,7 +118,7 @@ public class HomertonAdtTransform extends Transform {
         // create merge information
         //
         HomertonMergeTransform homertonMergeTransform = new HomertonMergeTransform(mapper, targetResources);
-        Parameters parameters = homertonMergeTransform.transform(sourceMessage);
+        Parameters parameters = timeStage(mapper, "Merge", () -> homertonMergeTransform.transform(sourceMessage));
 
         if (parameters != null)
             targetResources.addResource(parameters);
@@ -127,15 +127,15 @@ public class HomertonAdtTransform extends Transform {
         // create message header
         //
         HomertonMessageHeaderTransform homertonMessageHeaderTransform = new HomertonMessageHeaderTransform(mapper, targetResources);
-        MessageHeader messageHeader = homertonMessageHeaderTransform.transform(sourceMessage);
+        MessageHeader messageHeader = timeStage(mapper, "MessageHeader", () -> homertonMessageHeaderTransform.transform(sourceMessage));
         targetResources.addResource(messageHeader);
 
         ///////////////////////////////////////////////////////////////////////////
         // create bundle
         //
-        return targetResources
+        return timeStage(mapper, "Bundle", () -> targetResources
                 .orderByResourceType()
-                .createBundle();
+                .createBundle());
     }
 
     private void validateSendingFacility(AdtMessage sourceMessage) throws TransformException {
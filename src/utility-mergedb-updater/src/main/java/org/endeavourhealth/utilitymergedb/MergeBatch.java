@@ -0,0 +1,153 @@
+package org.endeavourhealth.utilitymergedb;
+
+import org.endeavourhealth.core.database.dal.hl7receiver.models.ResourceId;
+import org.endeavourhealth.core.database.dal.publisherTransform.ResourceMergeDalI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+    resource ids and merge records created since the last checkpoint
+
+    resource ids are inserted into mapping.resource_uuid as one JDBC batch and committed before the merge records
+    are written, so if the run stops between the two the restarted run finds the committed resource ids and
+    upserts the same merge records again
+
+    shared by the merge workers, flush and clear are only called while no worker is processing a message
+*/
+public class MergeBatch {
+    private static final Logger LOG = LoggerFactory.getLogger(MergeBatch.class);
+
+    private static final String RESOURCE_ID_INSERT_SQL = "insert into mapping.resource_uuid (scope_id, resource_type, unique_identifier, resource_uuid) values (?, ?, ?, ?)";
+
+    private final Map<String, ResourceId> resourceIds = new LinkedHashMap<>();
+    private final Map<String, MergeRecord> mergeRecords = new LinkedHashMap<>();
+    private int messageCount = 0;
+    private Integer lastMessageId = null;
+
+    public synchronized String getResourceId(String scope, String resourceType, String uniqueId) {
+        ResourceId resourceId = resourceIds.get(getResourceKey(scope, resourceType, uniqueId));
+
+        if (resourceId == null)
+            return null;
+
+        return resourceId.getResourceId().toString();
+    }
+
+    /*
+        returns the resource id already pending for the same key, if there is one
+    */
+    public synchronized ResourceId addResourceId(ResourceId resourceId) {
+        ResourceId existing = resourceIds.putIfAbsent(getResourceKey(resourceId.getScopeId(), resourceId.getResourceType(), resourceId.getUniqueId()), resourceId);
+
+        if (existing != null)
+            return existing;
+
+        return resourceId;
+    }
+
+    // an A44 that is part of a patient merge repeats the A34 patient merge, so identical records are only written once
+    public synchronized void addMergeRecord(UUID serviceId, String resourceType, UUID sourceResourceId, UUID targetResourceId) {
+        MergeRecord mergeRecord = new MergeRecord(serviceId, resourceType, sourceResourceId, targetResourceId);
+        mergeRecords.put(mergeRecord.getKey(), mergeRecord);
+    }
+
+    public void addMessage(int messageId) {
+        messageCount++;
+        lastMessageId = messageId;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public Integer getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public synchronized void flush(Connection connection, ResourceMergeDalI dalResourceMerge) throws Exception {
+        long msStart = System.currentTimeMillis();
+
+        if (!resourceIds.isEmpty()) {
+            try (PreparedStatement statement = connection.prepareStatement(RESOURCE_ID_INSERT_SQL)) {
+                for (ResourceId resourceId : resourceIds.values()) {
+                    statement.setString(1, resourceId.getScopeId());
+                    statement.setString(2, resourceId.getResourceType());
+                    statement.setString(3, resourceId.getUniqueId());
+                    statement.setObject(4, resourceId.getResourceId());
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+                connection.commit();
+
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new SQLException("Could not create " + resourceIds.size() + " resource ids up to message_id " + lastMessageId, e);
+            }
+        }
+
+        for (MergeRecord mergeRecord : mergeRecords.values())
+            writeMergeRecord(dalResourceMerge, mergeRecord);
+
+        Object[] logArgs = new Object[] {
+                messageCount,
+                lastMessageId,
+                resourceIds.size(),
+                mergeRecords.size(),
+                System.currentTimeMillis() - msStart };
+
+        LOG.info("Flushed {} messages up to message_id {}: {} resource ids and {} merge records in {}ms", logArgs);
+
+        clear();
+    }
+
+    public synchronized void clear() {
+        resourceIds.clear();
+        mergeRecords.clear();
+        messageCount = 0;
+    }
+
+    private static void writeMergeRecord(ResourceMergeDalI dalResourceMerge, MergeRecord mergeRecord) throws Exception {
+        try {
+            dalResourceMerge.upsertMergeRecord(mergeRecord.serviceId, mergeRecord.resourceType, mergeRecord.sourceResourceId, mergeRecord.targetResourceId);
+        }
+        catch (Exception sq) {
+            LOG.info("SQL DAL error:" + sq.getMessage());
+            if (sq.getMessage().indexOf("duplicate key") >= 0) {
+                LOG.info("Duplicate key");
+                throw new SQLException("Could not create " + mergeRecord.resourceType + " in service " + mergeRecord.serviceId + " from " + mergeRecord.sourceResourceId + " to " + mergeRecord.targetResourceId, sq);
+            } else {
+                throw sq;
+            }
+        }
+    }
+
+    private static String getResourceKey(String scope, String resourceType, String uniqueId) {
+        return scope + "|" + resourceType + "|" + uniqueId;
+    }
+
+    private static class MergeRecord {
+        private final UUID serviceId;
+        private final String resourceType;
+        private final UUID sourceResourceId;
+        private final UUID targetResourceId;
+
+        MergeRecord(UUID serviceId, String resourceType, UUID sourceResourceId, UUID targetResourceId) {
+            this.serviceId = serviceId;
+            this.resourceType = resourceType;
+            this.sourceResourceId = sourceResourceId;
+            this.targetResourceId = targetResourceId;
+        }
+
+        String getKey() {
+            return serviceId + "|" + resourceType + "|" + sourceResourceId + "|" + targetResourceId;
+        }
+    }
+}
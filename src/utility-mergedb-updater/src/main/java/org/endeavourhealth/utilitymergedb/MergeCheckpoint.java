@@ -0,0 +1,51 @@
+package org.endeavourhealth.utilitymergedb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/*
+    last message_id whose resource ids and merge records have been written, so an interrupted backfill
+    restarts after it rather than from the start message id on the command line
+
+    the file is written to a temporary file and moved into place so a crash never leaves it half written
+*/
+public class MergeCheckpoint {
+    private static final Logger LOG = LoggerFactory.getLogger(MergeCheckpoint.class);
+
+    private final Path path;
+
+    public MergeCheckpoint(String channelId) {
+        this.path = Paths.get(System.getProperty("checkpointFile", "mergedb-updater-channel" + channelId + ".checkpoint"));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Integer read() throws IOException {
+        if (!Files.exists(path))
+            return null;
+
+        String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+
+        if (content.isEmpty())
+            return null;
+
+        return Integer.parseInt(content);
+    }
+
+    public void write(int lastMessageId) throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tempPath, Integer.toString(lastMessageId).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        LOG.info("Checkpoint at message_id " + lastMessageId);
+    }
+}
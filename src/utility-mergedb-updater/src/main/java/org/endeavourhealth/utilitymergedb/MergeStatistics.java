@@ -0,0 +1,70 @@
+package org.endeavourhealth.utilitymergedb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MergeStatistics {
+    private static final Logger LOG = LoggerFactory.getLogger(MergeStatistics.class);
+
+    private final long msStart = System.currentTimeMillis();
+    private final AtomicInteger msgCount = new AtomicInteger();
+    private final AtomicInteger msgCountA34 = new AtomicInteger();
+    private final AtomicInteger msgCountA35 = new AtomicInteger();
+    private final AtomicInteger msgCountA44 = new AtomicInteger();
+    private final AtomicInteger msgCountA34Saved = new AtomicInteger();
+    private final AtomicInteger msgCountA35Saved = new AtomicInteger();
+    private final AtomicInteger msgCountA44Saved = new AtomicInteger();
+
+    public void countMessage(String messageType, boolean saved) {
+        msgCount.incrementAndGet();
+
+        if (messageType.compareTo("ADT^A34") == 0) {
+            msgCountA34.incrementAndGet();
+            if (saved)
+                msgCountA34Saved.incrementAndGet();
+        } else if (messageType.compareTo("ADT^A35") == 0) {
+            msgCountA35.incrementAndGet();
+            if (saved)
+                msgCountA35Saved.incrementAndGet();
+        } else if (messageType.compareTo("ADT^A44") == 0) {
+            msgCountA44.incrementAndGet();
+            if (saved)
+                msgCountA44Saved.incrementAndGet();
+        }
+    }
+
+    /*
+        progress is estimated from the position of the last message_id between the start and the highest message_id
+    */
+    public void logProgress(int lastMessageId, int startMessageId, Integer maxMessageId, ResourceIdCache resourceIdCache) {
+        long msElapsed = Math.max(System.currentTimeMillis() - msStart, 1);
+        double messagesPerSecond = msgCount.get() * 1000.0 / msElapsed;
+
+        String percentComplete = "?";
+        if (maxMessageId != null && maxMessageId > startMessageId)
+            percentComplete = String.format("%.1f", (lastMessageId - startMessageId) * 100.0 / (maxMessageId - startMessageId));
+
+        Object[] logArgs = new Object[] {
+                msgCount.get(),
+                String.format("%.1f", messagesPerSecond),
+                lastMessageId,
+                maxMessageId,
+                percentComplete,
+                resourceIdCache };
+
+        LOG.info("Processed {} messages ({} per second), at message_id {} of {} ({}%), resource id cache {}", logArgs);
+    }
+
+    public void logSummary() {
+        LOG.info("MsgCount=" + msgCount.get());
+        LOG.info("MsgCountA34=" + msgCountA34.get());
+        LOG.info("MsgCountA35=" + msgCountA35.get());
+        LOG.info("MsgCountA44=" + msgCountA44.get());
+        LOG.info("MsgCountA34Saved=" + msgCountA34Saved.get());
+        LOG.info("MsgCountA35Saved=" + msgCountA35Saved.get());
+        LOG.info("MsgCountA44Saved=" + msgCountA44Saved.get());
+        LOG.info("Elapsed=" + (System.currentTimeMillis() - msStart) + "ms");
+    }
+}
@@ -0,0 +1,347 @@
+package org.endeavourhealth.utilitymergedb;
+
+import org.apache.commons.lang3.StringUtils;
+import org.endeavourhealth.core.database.dal.hl7receiver.models.ResourceId;
+import org.endeavourhealth.hl7parser.Hl7DateTime;
+import org.endeavourhealth.hl7parser.messages.AdtMessage;
+import org.endeavourhealth.hl7parser.segments.EvnSegment;
+import org.endeavourhealth.hl7parser.segments.MrgSegment;
+import org.endeavourhealth.hl7transform.mapper.resource.ResourceMapper;
+import org.endeavourhealth.hl7transform.transforms.barts.constants.BartsConstants;
+import org.endeavourhealth.hl7transform.transforms.homerton.transforms.constants.HomertonConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    processes the merge messages of one partition of patients, in the order they were submitted
+
+    each worker has its own thread and connection, and shares the batch of pending writes and the
+    resource id cache with the other workers
+*/
+public class MergeWorker {
+    private static final Logger LOG = LoggerFactory.getLogger(MergeWorker.class);
+
+    private static final String RESOURCETYPE_ENCOUNTER = "Encounter";
+    private static final String RESOURCETYPE_EPISODE_OF_CARE = "EpisodeOfCare";
+    private static final String RESOURCETYPE_PATIENT = "Patient";
+    private static final String RESOURCE_ID_SELECT_SQL = "SELECT resource_uuid FROM mapping.resource_uuid where scope_id=? and resource_type=? and unique_identifier=?";
+
+    private final boolean isHomerton;
+    private final String scopeId;
+    private final UUID globalserviceId;
+    private final boolean readOnly;
+    private final boolean verbose;
+    private final MergeBatch mergeBatch;
+    private final ResourceIdCache resourceIdCache;
+    private final MergeStatistics statistics;
+    private final Connection connection;
+    private final PreparedStatement resourceIdSelectStatement;
+    private final ExecutorService executor;
+
+    public MergeWorker(int workerNumber,
+                       Connection connection,
+                       String channelId,
+                       UUID globalserviceId,
+                       boolean readOnly,
+                       boolean verbose,
+                       MergeBatch mergeBatch,
+                       ResourceIdCache resourceIdCache,
+                       MergeStatistics statistics) throws SQLException {
+
+        // channel 1 is Homerton, any other channel is Barts
+        this.isHomerton = (channelId.compareTo("1") == 0);
+        this.scopeId = (isHomerton ? "H" : "B");
+        this.globalserviceId = globalserviceId;
+        this.readOnly = readOnly;
+        this.verbose = verbose;
+        this.mergeBatch = mergeBatch;
+        this.resourceIdCache = resourceIdCache;
+        this.statistics = statistics;
+        this.connection = connection;
+        this.resourceIdSelectStatement = connection.prepareStatement(RESOURCE_ID_SELECT_SQL);
+
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "MergeWorker-" + workerNumber);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Future<?> submit(int messageId, String messageType, String inboundPayload, String localPatientId) {
+        return executor.submit(() -> {
+            process(messageId, messageType, inboundPayload, localPatientId);
+            return null;
+        });
+    }
+
+    public void close() {
+        executor.shutdownNow();
+
+        try {
+            resourceIdSelectStatement.close();
+            connection.close();
+        } catch (SQLException e) {
+            LOG.warn("Error closing merge worker connection", e);
+        }
+    }
+
+    private void process(int messageId, String messageType, String inboundPayload, String localPatientId) throws Exception {
+        AdtMessage message = new AdtMessage(inboundPayload);
+
+        // EVN-2
+        EvnSegment evnSegment = message.getEvnSegment();
+        String encounterDateTime = evnSegment.getComponentAsString(2, 1);
+        LocalDateTime encounterLocalDateTime = new Hl7DateTime(encounterDateTime).getLocalDateTime();
+
+        LOG.info("********************************************************************************************************************************************************************");
+        LOG.info("Found message " + messageType + " for patient " + localPatientId + " performed on " + encounterDateTime + " - Message_id=" + messageId);
+
+        // MRG-1-1 and MRG-5-1, an A44 can repeat the PID/MRG group but only the first is used
+        MrgSegment mrgSegment = message.getMrgSegment();
+        String fromPatient = (mrgSegment == null ? null : mrgSegment.getComponentAsString(1, 1));
+        String fromVisitId = (mrgSegment == null ? null : mrgSegment.getComponentAsString(5, 1));
+
+        //Find resource_uuid for from patient
+        String fromPatientUniquePatientKey = null;
+        String fromPatientResourceId = null;
+        if (StringUtils.isNotEmpty(fromPatient)) {
+            fromPatientUniquePatientKey = createPatientIdentifier(fromPatient);
+            fromPatientResourceId = getResourceId(RESOURCETYPE_PATIENT, fromPatientUniquePatientKey);
+        }
+
+        //Find resource_uuid for to patient
+        String toPatientUniquePatientKey = createPatientIdentifier(localPatientId);
+        String toPatientResourceId = getResourceId(RESOURCETYPE_PATIENT, toPatientUniquePatientKey);
+
+        //Find resource_uuid for from visit - held under the to patient for an A35 and the from patient for an A44
+        String fromVisitPatient = (messageType.compareTo("ADT^A35") == 0 ? localPatientId : fromPatient);
+        String fromEpisodeIdUniqueKey = null;
+        String fromEpisodeIdResourceId = null;
+        String fromEncounterIdUniqueKey = null;
+        String fromEncounterIdResourceId = null;
+        if (StringUtils.isNotEmpty(fromVisitId)) {
+            fromEpisodeIdUniqueKey = createEpisodeIdentifier(fromVisitPatient, fromVisitId);
+            fromEpisodeIdResourceId = getResourceId(RESOURCETYPE_EPISODE_OF_CARE, fromEpisodeIdUniqueKey);
+            fromEncounterIdUniqueKey = createEncounterIdentifier(fromVisitPatient, fromVisitId);
+            fromEncounterIdResourceId = getResourceId(RESOURCETYPE_ENCOUNTER, fromEncounterIdUniqueKey);
+            if (fromEncounterIdResourceId == null) {
+                LOG.info("From-Encounter ResourceId not found for key " + fromEncounterIdUniqueKey);
+                fromEncounterIdUniqueKey = createEncounterIdentifierWithDateTime(fromVisitPatient, fromVisitId, encounterLocalDateTime);
+                fromEncounterIdResourceId = getResourceId(RESOURCETYPE_ENCOUNTER, fromEncounterIdUniqueKey);
+            }
+        }
+
+        //Find resource_uuid for to visit - PV1-19 for an A35, the same visit under the to patient for an A44
+        String toVisitId = null;
+        if (messageType.compareTo("ADT^A35") == 0) {
+            toVisitId = (message.hasPv1Segment() ? message.getPv1Segment().getComponentAsString(19, 1) : null);
+        } else if (messageType.compareTo("ADT^A44") == 0) {
+            toVisitId = fromVisitId;
+        }
+        String toEpisodeIdUniqueKey = null;
+        String toEpisodeIdResourceId = null;
+        String toEncounterIdUniqueKey = null;
+        String toEncounterIdResourceId = null;
+        if (StringUtils.isNotEmpty(toVisitId)) {
+            toEpisodeIdUniqueKey = createEpisodeIdentifier(localPatientId, toVisitId);
+            toEpisodeIdResourceId = getResourceId(RESOURCETYPE_EPISODE_OF_CARE, toEpisodeIdUniqueKey);
+            toEncounterIdUniqueKey = createEncounterIdentifier(localPatientId, toVisitId);
+            toEncounterIdResourceId = getResourceId(RESOURCETYPE_ENCOUNTER, toEncounterIdUniqueKey);
+            if (toEncounterIdResourceId == null) {
+                LOG.info("To-Encounter ResourceId not found for key " + toEncounterIdUniqueKey);
+                toEncounterIdUniqueKey = createEncounterIdentifierWithDateTime(localPatientId, toVisitId, encounterLocalDateTime);
+                toEncounterIdResourceId = getResourceId(RESOURCETYPE_ENCOUNTER, toEncounterIdUniqueKey);
+            }
+        }
+
+        if (verbose) {
+            LOG.info("fromPatient =" + fromPatient);
+            LOG.info("fromPatientUniquePatientKey =" + fromPatientUniquePatientKey );
+            LOG.info("fromPatientResourceId =" + fromPatientResourceId);
+
+            LOG.info("toPatientUniquePatientKey =" + toPatientUniquePatientKey);
+            LOG.info("toPatientResourceId =" + toPatientResourceId);
+
+            LOG.info("fromVisitId =" + fromVisitId);
+            LOG.info("fromEpisodeIdUniquekey =" + fromEpisodeIdUniqueKey);
+            LOG.info("fromEpisodeIdResourceId = " + fromEpisodeIdResourceId);
+            LOG.info("fromEncounterIdUniquekey =" + fromEncounterIdUniqueKey);
+            LOG.info("fromEncounterIdResourceId =" + fromEncounterIdResourceId);
+
+            LOG.info("toVisitId =" + toVisitId);
+            LOG.info("toEpisodeIdUniquekey =" + toEpisodeIdUniqueKey);
+            LOG.info("toEpisodeIdResourceId =" + toEpisodeIdResourceId);
+            LOG.info("toEncounterIdUniqueKey =" + toEncounterIdUniqueKey);
+            LOG.info("toEncounterIdResourceId =" + toEncounterIdResourceId);
+        }
+
+        // *********************
+        //Save merge/move record
+        // *********************
+        boolean saved = false;
+        if (messageType.compareTo("ADT^A34") == 0) {
+            if (fromPatientResourceId == null) {
+                LOG.info("From-Patient ResourceId not found for key " + fromPatientUniquePatientKey + " in message_id " + messageId);
+            } else if (toPatientResourceId == null) {
+                LOG.info("To-Patient ResourceId not found for key " + toPatientUniquePatientKey + " in message_id " + messageId);
+            } else {
+                saved = true;
+                LOG.info("Patient merge from " + fromPatient + " (" + fromPatientResourceId + ") to " + localPatientId + "(" + toPatientResourceId + ") on date " + encounterDateTime + " for service " + globalserviceId);
+                if (!readOnly) {
+                    // Save merge db entry
+                    mergeBatch.addMergeRecord(globalserviceId, RESOURCETYPE_PATIENT, UUID.fromString(fromPatientResourceId), UUID.fromString(toPatientResourceId));
+                }
+            }
+        }
+        else if (messageType.compareTo("ADT^A35") == 0) {
+            if (toPatientResourceId == null) {
+                LOG.info("Patient ResourceId not found for key " + toPatientUniquePatientKey + " in message_id " + messageId);
+            } else {
+                saved = true;
+
+                // the from-visit-id under the to-patient-id may not exist, so to ensure it gets the right resource id it is created here
+                if (fromEpisodeIdResourceId == null)
+                    fromEpisodeIdResourceId = createResourceId(RESOURCETYPE_EPISODE_OF_CARE, createEpisodeIdentifier(localPatientId, fromVisitId));
+
+                if (fromEncounterIdResourceId == null)
+                    fromEncounterIdResourceId = createResourceId(RESOURCETYPE_ENCOUNTER, createEncounterIdentifier(localPatientId, fromVisitId));
+
+                if (toEpisodeIdResourceId == null)
+                    toEpisodeIdResourceId = createResourceId(RESOURCETYPE_EPISODE_OF_CARE, createEpisodeIdentifier(localPatientId, toVisitId));
+
+                if (toEncounterIdResourceId == null)
+                    toEncounterIdResourceId = createResourceId(RESOURCETYPE_ENCOUNTER, createEncounterIdentifier(localPatientId, toVisitId));
+
+                LOG.info("Encounter merge for patient " + localPatientId + "(" + fromPatientResourceId + ") From visit " + fromVisitId + "(" + fromEncounterIdResourceId + ") to visit " + toVisitId + "(" + toEncounterIdResourceId + ") on date " + encounterDateTime);
+                if (!readOnly) {
+                    // Save merge db entry
+                    mergeBatch.addMergeRecord(globalserviceId, RESOURCETYPE_ENCOUNTER, UUID.fromString(fromEncounterIdResourceId), UUID.fromString(toEncounterIdResourceId));
+                }
+            }
+        }
+        else if (messageType.compareTo("ADT^A44") == 0) {
+            if (fromPatientResourceId == null) {
+                LOG.info("From-Patient ResourceId not found for key " + fromPatientUniquePatientKey + " in message_id " + messageId);
+            } else if (toPatientResourceId == null) {
+                LOG.info("To-Patient ResourceId not found for key " + toPatientUniquePatientKey + " in message_id " + messageId);
+            } else {
+                saved = true;
+
+                if (fromEpisodeIdResourceId == null)
+                    fromEpisodeIdResourceId = createResourceId(RESOURCETYPE_EPISODE_OF_CARE, createEpisodeIdentifier(fromPatient, fromVisitId));
+
+                if (fromEncounterIdResourceId == null)
+                    fromEncounterIdResourceId = createResourceId(RESOURCETYPE_ENCOUNTER, createEncounterIdentifier(fromPatient, fromVisitId));
+
+                if (toEpisodeIdResourceId == null)
+                    toEpisodeIdResourceId = createResourceId(RESOURCETYPE_EPISODE_OF_CARE, createEpisodeIdentifier(localPatientId, toVisitId));
+
+                if (toEncounterIdResourceId == null)
+                    toEncounterIdResourceId = createResourceId(RESOURCETYPE_ENCOUNTER, createEncounterIdentifier(localPatientId, toVisitId));
+
+                LOG.info("Patient move from " + fromPatient + " (" + fromPatientResourceId + ") to " + localPatientId + "(" + toPatientResourceId + ") on date " + encounterDateTime);
+                LOG.info("Encounter move. From visitId " + fromVisitId + "(" + fromEncounterIdResourceId + ") To visitId " + toVisitId + "(" + toEncounterIdResourceId + ") on date " + encounterDateTime);
+
+                if (!readOnly) {
+                    // Save merge db entry
+                    // recordMerge for patient resources may cause a duplicate if the A44 is part of a patient merge (A34) so duplicate errors should be ignored
+                    mergeBatch.addMergeRecord(globalserviceId, RESOURCETYPE_PATIENT, UUID.fromString(fromPatientResourceId), UUID.fromString(toPatientResourceId));
+                    mergeBatch.addMergeRecord(globalserviceId, RESOURCETYPE_ENCOUNTER, UUID.fromString(fromEncounterIdResourceId), UUID.fromString(toEncounterIdResourceId));
+                }
+            }
+        }
+
+        if (verbose && saved == false) {
+            LOG.info(message.compose());
+        }
+
+        statistics.countMessage(messageType, saved);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Identifiers - built by the transforms' ResourceMapper so they always match the receiver's resource UUID mappings
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    private String createPatientIdentifier(String patientId) {
+        if (isHomerton)
+            return ResourceMapper.createPatientIdentifier(HomertonConstants.primaryPatientIdentifierTypeCode, null, patientId);
+
+        return ResourceMapper.createPatientIdentifier(null, BartsConstants.primaryPatientIdentifierAssigningAuthority, patientId);
+    }
+
+    private String createEpisodeIdentifier(String patientId, String visitId) {
+        if (isHomerton)
+            return ResourceMapper.createEpisodeIdentifier(HomertonConstants.primaryPatientIdentifierTypeCode, null, patientId, null, HomertonConstants.primaryEpisodeIdentifierAssigningAuthority, visitId);
+
+        return ResourceMapper.createEpisodeIdentifier(null, BartsConstants.primaryPatientIdentifierAssigningAuthority, patientId, BartsConstants.primaryEpisodeIdentifierTypeCode, null, visitId);
+    }
+
+    private String createEncounterIdentifier(String patientId, String visitId) {
+        if (isHomerton)
+            return ResourceMapper.createEncounterIdentifier(HomertonConstants.primaryPatientIdentifierTypeCode, null, patientId, null, HomertonConstants.primaryEpisodeIdentifierAssigningAuthority, visitId);
+
+        return ResourceMapper.createEncounterIdentifier(null, BartsConstants.primaryPatientIdentifierAssigningAuthority, patientId, BartsConstants.primaryEpisodeIdentifierTypeCode, null, visitId);
+    }
+
+    private String createEncounterIdentifierWithDateTime(String patientId, String visitId, LocalDateTime encounterDateTime) {
+        if (isHomerton)
+            return ResourceMapper.createEncounterIdentifierWithDateTime(HomertonConstants.primaryPatientIdentifierTypeCode, null, patientId, null, HomertonConstants.primaryEpisodeIdentifierAssigningAuthority, visitId, encounterDateTime);
+
+        return ResourceMapper.createEncounterIdentifierWithDateTime(null, BartsConstants.primaryPatientIdentifierAssigningAuthority, patientId, BartsConstants.primaryEpisodeIdentifierTypeCode, null, visitId, encounterDateTime);
+    }
+
+    /*
+        another worker may have created the same resource id first, in which case that one is returned
+    */
+    private String createResourceId(String resourceType, String uniqueId) {
+        ResourceId resourceId = new ResourceId();
+        resourceId.setScopeId(scopeId);
+        resourceId.setResourceType(resourceType);
+        resourceId.setUniqueId(uniqueId);
+        resourceId.setResourceId(UUID.randomUUID());
+
+        if (!readOnly) {
+            resourceId = mergeBatch.addResourceId(resourceId);
+        }
+
+        LOG.info("Create " + resourceId.getResourceType() + " resourceId " + resourceId.getResourceId() + " in scope " + resourceId.getScopeId() + " for key:" + resourceId.getUniqueId());
+        return resourceId.getResourceId().toString();
+    }
+
+    /*
+        resource ids created since the last flush come from the batch, committed ones from the cache or the database
+    */
+    private String getResourceId(String resourceType, String uniqueId) throws SQLException {
+        String ret = mergeBatch.getResourceId(scopeId, resourceType, uniqueId);
+        if (ret != null) {
+            return ret;
+        }
+
+        ret = resourceIdCache.get(scopeId, resourceType, uniqueId);
+        if (ret != null) {
+            return ret;
+        }
+
+        resourceIdSelectStatement.setString(1, scopeId);
+        resourceIdSelectStatement.setString(2, resourceType);
+        resourceIdSelectStatement.setString(3, uniqueId);
+
+        ResultSet rs = resourceIdSelectStatement.executeQuery();
+        if (rs.next()) {
+            ret = ((UUID) rs.getObject(1)).toString();
+            resourceIdCache.put(scopeId, resourceType, uniqueId, ret);
+        }
+        rs.close();
+
+        return ret;
+    }
+}
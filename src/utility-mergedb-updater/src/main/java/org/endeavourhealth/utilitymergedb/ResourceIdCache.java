@@ -0,0 +1,49 @@
+package org.endeavourhealth.utilitymergedb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+    least recently used cache of resource ids read from mapping.resource_uuid, shared by the merge workers
+
+    only ids that exist in the database are cached, ids created since the last flush are held by the MergeBatch
+*/
+public class ResourceIdCache {
+
+    private final Map<String, String> resourceIds;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public ResourceIdCache(int maximumSize) {
+        this.resourceIds = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    public synchronized String get(String scope, String resourceType, String uniqueId) {
+        String resourceId = resourceIds.get(getKey(scope, resourceType, uniqueId));
+
+        if (resourceId == null)
+            missCount++;
+        else
+            hitCount++;
+
+        return resourceId;
+    }
+
+    public synchronized void put(String scope, String resourceType, String uniqueId, String resourceId) {
+        resourceIds.put(getKey(scope, resourceType, uniqueId), resourceId);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size=" + resourceIds.size() + ", hits=" + hitCount + ", misses=" + missCount;
+    }
+
+    private static String getKey(String scope, String resourceType, String uniqueId) {
+        return scope + "|" + resourceType + "|" + uniqueId;
+    }
+}
@@ -0,0 +1,128 @@
+package org.endeavourhealth.utilitymergedb;
+
+import junit.framework.TestCase;
+import org.endeavourhealth.core.database.dal.hl7receiver.models.ResourceId;
+import org.endeavourhealth.core.database.dal.publisherTransform.ResourceMergeDalI;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class MergeBatchTest extends TestCase {
+
+    private static final UUID SERVICE_ID = UUID.fromString("b5a08769-cbbe-4093-93d4-5a6da5b6fd1d");
+
+    private final List<String> calls = new ArrayList<>();
+    private final List<Object> batchedValues = new ArrayList<>();
+    private final List<String> mergeRecords = new ArrayList<>();
+    private boolean failBatch = false;
+
+    public void testPendingResourceIdIsReturnedForSameKey() {
+        MergeBatch mergeBatch = new MergeBatch();
+        ResourceId first = createResourceId("Patient", "PIMSPatientId=1");
+
+        assertSame(first, mergeBatch.addResourceId(first));
+        assertSame(first, mergeBatch.addResourceId(createResourceId("Patient", "PIMSPatientId=1")));
+
+        assertEquals(first.getResourceId().toString(), mergeBatch.getResourceId("HOMERTON", "Patient", "PIMSPatientId=1"));
+        assertNull(mergeBatch.getResourceId("HOMERTON", "Encounter", "PIMSPatientId=1"));
+    }
+
+    public void testFlushCommitsResourceIdsBeforeWritingMergeRecordsOnce() throws Exception {
+        MergeBatch mergeBatch = new MergeBatch();
+        ResourceId source = mergeBatch.addResourceId(createResourceId("Patient", "PIMSPatientId=1"));
+        ResourceId target = mergeBatch.addResourceId(createResourceId("Patient", "PIMSPatientId=2"));
+
+        // the A44 repeats the A34's patient merge
+        mergeBatch.addMergeRecord(SERVICE_ID, "Patient", source.getResourceId(), target.getResourceId());
+        mergeBatch.addMergeRecord(SERVICE_ID, "Patient", source.getResourceId(), target.getResourceId());
+        mergeBatch.addMessage(10);
+        mergeBatch.addMessage(11);
+
+        assertEquals(2, mergeBatch.getMessageCount());
+
+        mergeBatch.flush(createConnection(), createResourceMergeDal());
+
+        assertEquals(2, countCalls("addBatch"));
+        assertTrue(batchedValues.contains(source.getResourceId()));
+        assertTrue(batchedValues.contains(target.getResourceId()));
+        assertEquals(1, mergeRecords.size());
+        assertTrue(calls.indexOf("commit") < calls.indexOf("upsertMergeRecord"));
+
+        assertEquals(0, mergeBatch.getMessageCount());
+        assertEquals(Integer.valueOf(11), mergeBatch.getLastMessageId());
+        assertNull(mergeBatch.getResourceId("HOMERTON", "Patient", "PIMSPatientId=1"));
+    }
+
+    public void testFailedResourceIdInsertIsRolledBackAndKept() throws Exception {
+        MergeBatch mergeBatch = new MergeBatch();
+        ResourceId resourceId = mergeBatch.addResourceId(createResourceId("Patient", "PIMSPatientId=1"));
+        mergeBatch.addMergeRecord(SERVICE_ID, "Patient", resourceId.getResourceId(), UUID.randomUUID());
+        failBatch = true;
+
+        try {
+            mergeBatch.flush(createConnection(), createResourceMergeDal());
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        assertEquals(1, countCalls("rollback"));
+        assertEquals(0, countCalls("commit"));
+        assertTrue(mergeRecords.isEmpty());
+        assertNotNull(mergeBatch.getResourceId("HOMERTON", "Patient", "PIMSPatientId=1"));
+    }
+
+    private ResourceMergeDalI createResourceMergeDal() {
+        return (ResourceMergeDalI) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResourceMergeDalI.class }, (proxy, method, args) -> {
+            calls.add(method.getName());
+
+            if (method.getName().equals("upsertMergeRecord"))
+                mergeRecords.add(args[0] + "|" + args[1] + "|" + args[2] + "|" + args[3]);
+
+            return null;
+        });
+    }
+
+    private Connection createConnection() {
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+            calls.add(method.getName());
+
+            if (method.getName().equals("setObject"))
+                batchedValues.add(args[1]);
+
+            if (method.getName().equals("executeBatch") && failBatch)
+                throw new SQLException("duplicate key value violates unique constraint");
+
+            return method.getName().equals("executeBatch") ? new int[0] : null;
+        });
+
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+            calls.add(method.getName());
+            return method.getName().equals("prepareStatement") ? statement : null;
+        });
+    }
+
+    private int countCalls(String name) {
+        int count = 0;
+
+        for (String call : calls)
+            if (call.equals(name))
+                count++;
+
+        return count;
+    }
+
+    private static ResourceId createResourceId(String resourceType, String uniqueId) {
+        ResourceId resourceId = new ResourceId();
+        resourceId.setScopeId("HOMERTON");
+        resourceId.setResourceType(resourceType);
+        resourceId.setUniqueId(uniqueId);
+        resourceId.setResourceId(UUID.randomUUID());
+        return resourceId;
+    }
+}